@@ -17,8 +17,14 @@ package org.midonet.brain.southbound.vtep;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
@@ -153,18 +159,105 @@ public class VtepBroker implements VxLanPeer {
             log.warn("Ignoring null MAC-port update");
             return;
         }
+        apply(ml, new RemoteMacs());
+    }
+
+    /**
+     * Applies a batch of MAC location updates, in order. The updates that
+     * are overtaken by a later update for the same MAC and logical switch in
+     * the batch are dropped (see coalesce), and the remote MAC tables of the
+     * VTEP are read at most once for the whole batch, rather than once per
+     * addition. An update that fails is logged and does not prevent applying
+     * the rest of the batch.
+     */
+    public void applyAll(Collection<MacLocation> mls) {
+        List<MacLocation> updates = coalesce(mls);
+        log.debug("Receive {} MAC location updates, {} after coalescing",
+                  mls.size(), updates.size());
+        RemoteMacs remoteMacs = new RemoteMacs();
+        for (MacLocation ml : updates) {
+            try {
+                apply(ml, remoteMacs);
+            } catch (VxLanPeerSyncException e) {
+                log.warn("Could not apply {}: {}", ml, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reduces a batch of MAC location updates to the ones that are not
+     * overtaken by a later update for the same MAC and logical switch. The
+     * relative order of the remaining updates for a MAC is preserved. An
+     * update is overtaken by:
+     *
+     * - A later removal of all the entries of the MAC: a unicast removal
+     *   without IP, or any multicast removal.
+     * - A later unicast update with the same IP, unless the update is a
+     *   removal and the later one an addition, since the addition would be
+     *   ignored if the entry it replaces was not removed first.
+     * - A later identical multicast addition.
+     */
+    static List<MacLocation> coalesce(Collection<MacLocation> mls) {
+        Map<Pair<String, VtepMAC>, List<MacLocation>> pending =
+            new LinkedHashMap<>();
+        int size = 0;
+        for (MacLocation ml : mls) {
+            if (ml == null) {
+                continue;
+            }
+            Pair<String, VtepMAC> key = Pair.of(ml.logicalSwitchName(),
+                                                ml.mac());
+            List<MacLocation> updates = pending.get(key);
+            if (updates == null) {
+                updates = new ArrayList<>(2);
+                pending.put(key, updates);
+            }
+            Iterator<MacLocation> it = updates.iterator();
+            while (it.hasNext()) {
+                if (overtakes(ml, it.next())) {
+                    it.remove();
+                    size--;
+                }
+            }
+            updates.add(ml);
+            size++;
+        }
+        List<MacLocation> result = new ArrayList<>(size);
+        for (List<MacLocation> updates : pending.values()) {
+            result.addAll(updates);
+        }
+        return result;
+    }
 
+    /**
+     * Tells whether the update ml overtakes the earlier update prev, of the
+     * same MAC and logical switch.
+     */
+    private static boolean overtakes(MacLocation ml, MacLocation prev) {
+        boolean isRemoval = ml.vxlanTunnelEndpoint() == null;
+        if (!ml.mac().isUcast()) {
+            return isRemoval || Objects.equals(ml.vxlanTunnelEndpoint(),
+                                               prev.vxlanTunnelEndpoint());
+        }
+        if (isRemoval && ml.ipAddr() == null) {
+            return true;
+        }
+        return Objects.equals(ml.ipAddr(), prev.ipAddr()) &&
+               (isRemoval || prev.vxlanTunnelEndpoint() != null);
+    }
+
+    private void apply(MacLocation ml, RemoteMacs remoteMacs) {
         if (ml.mac().isUcast()) {
             if (ml.vxlanTunnelEndpoint() != null) {
-                this.applyUcastAddition(ml);
+                this.applyUcastAddition(ml, remoteMacs);
             } else {
-                this.applyUcastDelete(ml);
+                this.applyUcastDelete(ml, remoteMacs);
             }
         } else {
             if (ml.vxlanTunnelEndpoint() != null) {
-                this.applyMcastAddition(ml);
+                this.applyMcastAddition(ml, remoteMacs);
             } else {
-                this.applyMcastDelete(ml);
+                this.applyMcastDelete(ml, remoteMacs);
             }
         }
     }
@@ -205,28 +298,20 @@ public class VtepBroker implements VxLanPeer {
     /**
      * Applies the addition of a unicast MAC.
      * @param ml The location of the MAC.
+     * @param remoteMacs The remote MACs in the VTEP.
      */
-    private void applyUcastAddition(MacLocation ml) {
+    private void applyUcastAddition(MacLocation ml, RemoteMacs remoteMacs) {
         log.debug("Adding UCAST remote MAC to the VTEP: " + ml);
-        List<UcastMac> ucasts = null;
         try {
-            ucasts = vtepDataClient.listUcastMacsRemote();
+            if (remoteMacs.containsUcast(ml)) {
+                log.debug("UCAST remote MAC already in vtep");
+                return;
+            }
         } catch (VtepNotConnectedException e) {
             log.error("VTEP is not connected", e);
             return;
         }
 
-        for (UcastMac uc : ucasts) {
-            if (ml.mac().toString().equalsIgnoreCase(uc.mac)) { // NPE safe
-                String mlIp = ml.ipAddr() == null ? "" : ml.ipAddr().toString();
-                String ucIp = Strings.nullToEmpty(uc.ipAddr);
-                if (ucIp.equals(mlIp)) { // horrid, thanks ovsdb
-                    log.debug("UCAST remote MAC already in vtep");
-                    return;
-                }
-            }
-        }
-
         Status st = vtepDataClient.addUcastMacRemote(ml.logicalSwitchName(),
                                                      ml.mac().IEEE802(),
                                                      ml.ipAddr(),
@@ -238,13 +323,15 @@ public class VtepBroker implements VxLanPeer {
             throw new VxLanPeerSyncException("OVSDB error: " + st, ml,
                                              st.getCode());
         }
+        remoteMacs.ucastAdded(ml);
     }
 
     /**
      * Applies a deletion of a unicast MAC.
      * @param ml The location of the MAC.
+     * @param remoteMacs The remote MACs in the VTEP.
      */
-    private void applyUcastDelete(MacLocation ml) {
+    private void applyUcastDelete(MacLocation ml, RemoteMacs remoteMacs) {
         log.debug("Removing UCAST remote MAC from the VTEP: " + ml);
         Status st;
         if (ml.ipAddr() == null) {
@@ -264,25 +351,22 @@ public class VtepBroker implements VxLanPeer {
             throw new VxLanPeerSyncException("OVSDB error: " + st, ml,
                                              st.getCode());
         }
+        remoteMacs.ucastDeleted(ml);
     }
 
     /**
      * Applies the addition of a multicast MAC location.
      */
-    private void applyMcastAddition(MacLocation ml) {
+    private void applyMcastAddition(MacLocation ml, RemoteMacs remoteMacs) {
         log.debug("Adding MCAST remote MAC to the VTEP: " + ml);
-        List<McastMac> mcasts = null;
         try {
-            mcasts = vtepDataClient.listMcastMacsRemote();
-        } catch (VtepNotConnectedException e) {
-            log.error("VTEP is not connected", e);
-            return;
-        }
-        for (McastMac mc : mcasts) {
-            if (mc.mac.equals(ml.mac().toString())) {
+            if (remoteMacs.containsMcast(ml)) {
                 log.debug("MCAST remote MAC already in vtep");
                 return;
             }
+        } catch (VtepNotConnectedException e) {
+            log.error("VTEP is not connected", e);
+            return;
         }
         Status st = vtepDataClient.addMcastMacRemote(ml.logicalSwitchName(),
                                                      ml.mac(),
@@ -296,12 +380,13 @@ public class VtepBroker implements VxLanPeer {
                                                  ml, st.getCode());
             }
         }
+        remoteMacs.mcastAdded(ml);
     }
 
     /**
      * Applies the deletion of a multicast MAC location.
      */
-    private void applyMcastDelete(MacLocation ml) {
+    private void applyMcastDelete(MacLocation ml, RemoteMacs remoteMacs) {
         log.debug("Removing MCAST remote MAC from the VTEP: " + ml);
         Status st = vtepDataClient.deleteAllMcastMacRemote(
             ml.logicalSwitchName(), ml.mac());
@@ -310,6 +395,96 @@ public class VtepBroker implements VxLanPeer {
                                              ", " + st.getDescription(), ml,
                                              st.getCode());
         }
+        remoteMacs.mcastDeleted(ml);
+    }
+
+    /**
+     * The remote MACs in the VTEP, as seen by a batch of MAC location
+     * updates. Each table is read from the VTEP on the first addition that
+     * needs it, and then kept up to date with the updates applied in the
+     * batch, so that a batch reads each table at most once.
+     */
+    private class RemoteMacs {
+        // Unicast MACs, lower case, to the IPs of their entries ("" if none)
+        private Map<String, Set<String>> ucasts = null;
+        private Set<String> mcasts = null;
+
+        boolean containsUcast(MacLocation ml)
+            throws VtepNotConnectedException {
+            if (ucasts == null) {
+                List<UcastMac> entries = vtepDataClient.listUcastMacsRemote();
+                ucasts = new HashMap<>(entries.size());
+                for (UcastMac uc : entries) {
+                    if (uc.mac != null) {
+                        ucastIps(uc.mac.toLowerCase(), true)
+                            .add(Strings.nullToEmpty(uc.ipAddr));
+                    }
+                }
+            }
+            Set<String> ips = ucastIps(ml.mac().toString().toLowerCase(),
+                                       false);
+            return ips != null && ips.contains(ipOf(ml));
+        }
+
+        void ucastAdded(MacLocation ml) {
+            if (ucasts != null) {
+                ucastIps(ml.mac().toString().toLowerCase(), true)
+                    .add(ipOf(ml));
+            }
+        }
+
+        void ucastDeleted(MacLocation ml) {
+            if (ucasts == null) {
+                return;
+            }
+            String mac = ml.mac().toString().toLowerCase();
+            if (ml.ipAddr() == null) {
+                ucasts.remove(mac);
+            } else {
+                Set<String> ips = ucastIps(mac, false);
+                if (ips != null) {
+                    ips.remove(ipOf(ml));
+                }
+            }
+        }
+
+        boolean containsMcast(MacLocation ml)
+            throws VtepNotConnectedException {
+            if (mcasts == null) {
+                List<McastMac> entries = vtepDataClient.listMcastMacsRemote();
+                mcasts = new HashSet<>(entries.size());
+                for (McastMac mc : entries) {
+                    mcasts.add(mc.mac);
+                }
+            }
+            return mcasts.contains(ml.mac().toString());
+        }
+
+        void mcastAdded(MacLocation ml) {
+            if (mcasts != null) {
+                mcasts.add(ml.mac().toString());
+            }
+        }
+
+        void mcastDeleted(MacLocation ml) {
+            if (mcasts != null) {
+                mcasts.remove(ml.mac().toString());
+            }
+        }
+
+        private Set<String> ucastIps(String mac, boolean create) {
+            Set<String> ips = ucasts.get(mac);
+            if (ips == null && create) {
+                ips = new HashSet<>(2);
+                ucasts.put(mac, ips);
+            }
+            return ips;
+        }
+
+        private String ipOf(MacLocation ml) {
+            // horrid, thanks ovsdb
+            return ml.ipAddr() == null ? "" : ml.ipAddr().toString();
+        }
     }
 
     @Override
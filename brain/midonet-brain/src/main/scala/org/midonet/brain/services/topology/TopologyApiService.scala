@@ -48,7 +48,8 @@ class TopologyApiService @Inject()(val nodeContext: ClusterNode.Context,
 
         // Common handlers for protobuf-based requests
         val sessionManager = new SessionInventory(backend.store,
-            cfg.getSessionGracePeriod, cfg.getSessionBufferSize)
+            cfg.getSessionGracePeriod, cfg.getSessionBufferSize,
+            cfg.getSessionConflateUpdates)
         val protocol = new ServerProtocolFactory(sessionManager)
         val connMgr = new ConnectionManager(protocol)
         val reqHandler = new RequestHandler(connMgr)
@@ -130,6 +131,10 @@ trait TopologyApiServiceConfig extends MinionConfig[TopologyApiService] {
     @ConfigInt(key = "session_buffer_size",
                defaultValue = DEFAULT_SESSION_BUFFER_SIZE)
     def getSessionBufferSize: Int
+
+    /** Keep only the latest update of each object in the session buffers */
+    @ConfigBool(key = "session_conflate_updates", defaultValue = false)
+    def getSessionConflateUpdates: Boolean
 }
 
 object TopologyApiServiceConfig {
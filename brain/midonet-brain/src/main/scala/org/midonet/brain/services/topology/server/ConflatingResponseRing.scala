@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.brain.services.topology.server
+
+import java.lang.{Long => JLong}
+import java.util.{HashMap => JHashMap, TreeMap => JTreeMap}
+import java.util.concurrent.locks.ReentrantLock
+
+import org.midonet.cluster.models.Commons
+import org.midonet.cluster.rpc.Commands.{Response, ResponseType, Type}
+import org.midonet.util.concurrent.Locks
+import org.midonet.util.concurrent.SpscRwdRingBuffer.{NotInBufferException, SequencedItem}
+
+object ConflatingResponseRing {
+    /** Identifies the responses superseding each other: the updates and
+      * the deletion of an object, for the same request */
+    case class ConflationKey(objType: Type, objId: Commons.UUID,
+                             reqId: Commons.UUID)
+
+    /** The conflation key of a response, or null if the response is not
+      * about the state of an object (e.g. acks or snapshots) */
+    def conflationKey(rsp: Response.Builder): ConflationKey =
+        rsp.getType match {
+            case ResponseType.UPDATE | ResponseType.DELETION
+                if rsp.hasObjId =>
+                ConflationKey(rsp.getObjType, rsp.getObjId,
+                              if (rsp.hasReqId) rsp.getReqId else null)
+            case _ => null
+        }
+}
+
+/**
+ * A response ring for sessions that are only interested in the latest state
+ * of the objects they watch: a response with the update or the deletion of
+ * an object replaces any previous response about the same object, for the
+ * same request, that was not read yet, so a slow or reconnecting subscriber
+ * does not go through the obsolete versions of an object.
+ *
+ * Responses keep their absolute sequence numbers, and the read position can
+ * be moved back to any of them, as in the BlockingSpscRwdRingBuffer: the
+ * subscriber then receives, in order, the latest version of the objects
+ * updated since that position. The superseded responses just leave gaps in
+ * the sequence.
+ *
+ * Responses already read are kept to allow rewinding to them, but only
+ * while there are more than minCapacity responses in the ring; the oldest
+ * ones are discarded first, and it is no longer possible to rewind beyond
+ * them. Unread responses are never discarded, but since they are conflated,
+ * there is at most one per object: the memory of the ring is bounded by the
+ * number of objects watched, not by their rate of updates.
+ *
+ * NOTE: as the BlockingSpscRwdRingBuffer, it assumes a single producer
+ * thread and a single consumer thread.
+ *
+ * @param minCapacity is the minimum number of responses kept in the ring
+ */
+protected class ConflatingResponseRing(minCapacity: Int)
+    extends ResponseRing {
+    import ConflatingResponseRing._
+
+    private case class Pending(key: ConflationKey, rsp: Response.Builder)
+
+    private val mutex = new ReentrantLock()
+    private val readable = mutex.newCondition()
+
+    /* The responses in the ring, by sequence number */
+    private val ring = new JTreeMap[JLong, Pending]()
+    /* The sequence number of the latest response for each object */
+    private val latest = new JHashMap[ConflationKey, JLong]()
+
+    private var wr = 0L
+    private var rd = 0L
+    /* The first position that can be rewound to */
+    private var floor = 0L
+    @volatile private var exit = false
+    @volatile private var paused = false
+
+    /**
+     * Insert a response in the ring, replacing the previous response about
+     * the same object, if any.
+     */
+    override def add(rsp: Response.Builder): Unit = Locks.withLock(mutex) {
+        val key = conflationKey(rsp)
+        if (key ne null) {
+            val previous = latest.put(key, wr)
+            if (previous ne null)
+                ring.remove(previous)
+        }
+        ring.put(wr, Pending(key, rsp))
+        wr += 1
+        discard()
+        readable.signal()
+    }
+
+    /* Discard the oldest responses already read, above the capacity */
+    private def discard(): Unit = {
+        while (ring.size > minCapacity && ring.firstKey < rd) {
+            val oldest = ring.pollFirstEntry()
+            val key = oldest.getValue.key
+            if ((key ne null) && latest.get(key) == oldest.getKey)
+                latest.remove(key)
+            floor = oldest.getKey + 1
+        }
+    }
+
+    /**
+     * Wait until the exit or pause flags are set, or a response is
+     * available. If the pause flag is not set, it extracts the response
+     * from the ring, if any.
+     */
+    override def awaitPoll(): Option[SequencedItem[Response.Builder]] =
+        Locks.withLock(mutex) {
+            var next = ring.ceilingEntry(rd)
+            while ((next eq null) && !exit && !paused) {
+                readable.await()
+                next = ring.ceilingEntry(rd)
+            }
+            if (paused || (next eq null)) {
+                None
+            } else {
+                rd = next.getKey + 1
+                Some(SequencedItem(next.getKey, next.getValue.rsp))
+            }
+        }
+
+    /**
+     * Move the read position to the specified sequence number, as far as
+     * the responses since then were not discarded.
+     */
+    override def seek(seqno: Long): Unit = Locks.withLock(mutex) {
+        if (seqno < floor || seqno > rd)
+            throw new NotInBufferException
+        rd = seqno
+    }
+
+    override def complete(): Unit = {
+        exit = true
+        Locks.withLock(mutex) {readable.signal()}
+    }
+
+    override def isComplete: Boolean = exit
+
+    override def pauseRead(): Unit = {
+        paused = true
+        Locks.withLock(mutex) {readable.signal()}
+    }
+
+    override def resumeRead(): Unit = paused = false
+
+    /** The number of responses in the ring */
+    def size: Int = Locks.withLock(mutex) {ring.size}
+}
@@ -27,7 +27,8 @@ import scala.concurrent.duration.Duration
 import scala.concurrent.{Await, ExecutionContext, Promise, TimeoutException}
 import scala.util.{Failure, Success}
 
-import com.google.protobuf.Message
+import com.google.protobuf.UnknownFieldSet.Field
+import com.google.protobuf.{Message, UnknownFieldSet}
 import org.slf4j.LoggerFactory
 import rx.Observable.OnSubscribe
 import rx.schedulers.Schedulers
@@ -38,7 +39,7 @@ import org.midonet.cluster.data.storage.{NotFoundException, Storage}
 import org.midonet.cluster.models.Commons
 import org.midonet.cluster.models.Topology._
 import org.midonet.cluster.rpc.Commands.Response.{Info, Redirect, Snapshot, Update}
-import org.midonet.cluster.rpc.Commands.{Response, ResponseType}
+import org.midonet.cluster.rpc.Commands.{Response, ResponseType, Type}
 import org.midonet.cluster.services.topology.common.TopologyMappings.typeOf
 import org.midonet.cluster.util.UUIDUtil.{fromProto, toProto}
 import org.midonet.util.concurrent.SpscRwdRingBuffer.SequencedItem
@@ -86,6 +87,40 @@ object SessionInventory {
         response
     }
 
+    /** An update of a topology object, encoded once for all the sessions
+      * watching the object: the type and id of the object, and the update
+      * payload, serialized into the field of the response that it belongs
+      * to. The sessions set the payload as an unknown field of their own
+      * responses, which is written verbatim when the responses are sent, and
+      * parsed as the update by the clients. */
+    case class EncodedUpdate(id: ObservableId, objType: Type,
+                             objId: Commons.UUID, payload: UnknownFieldSet)
+
+    /** encode the update of a topology object for all its sessions */
+    def encodeUpdate(m: Message): EncodedUpdate = {
+        val rsp = updateBuilder(m)
+        val payload = UnknownFieldSet.newBuilder()
+            .addField(Response.UPDATE_FIELD_NUMBER,
+                      Field.newBuilder()
+                          .addLengthDelimited(rsp.getUpdate.toByteString)
+                          .build())
+            .build()
+        EncodedUpdate(extractId(m), rsp.getObjType, rsp.getObjId, payload)
+    }
+
+    /** generate an update response from an encoded update */
+    def encodedUpdateBuilder(u: EncodedUpdate, reqId: UUID = null)
+        : Response.Builder = {
+        val response = Response.newBuilder()
+                               .setType(ResponseType.UPDATE)
+                               .setObjType(u.objType)
+                               .setObjId(u.objId)
+                               .setUnknownFields(u.payload)
+        if (reqId != null)
+            response.setReqId(toProto(reqId))
+        response
+    }
+
     /** generate a deletion response */
     def deletionBuilder[T <: Message](id: UUID, k: Class[T], reqId: UUID)
         : Response.Builder =
@@ -166,17 +201,22 @@ object SessionInventory {
 }
 
 /**
- * Transformer class for the storage observables, converting completions into
- * object deletion events and adding the necessary information to updates to
- * build proper protocol responses.
+ * Transformer class for the shared update streams, converting completions
+ * into object deletion events and adding the necessary information to updates
+ * to build proper protocol responses.
  *
  * @param reqId is the request originating this stream (used for notifications
  *              to user)
+ * @param oId is the object of the stream, if known in advance; otherwise, it
+ *            is taken from the first update
  */
-protected class StorageTransformer(val reqId: UUID)
-    extends Observable.Transformer[Message, Response.Builder] {
+protected class StorageTransformer(
+        val reqId: UUID, val oId: SessionInventory.ObservableId = null)
+    extends Observable.Transformer[SessionInventory.EncodedUpdate,
+                                   Response.Builder] {
+    import org.midonet.brain.services.topology.server.SessionInventory._
 
-    override def call(s: Observable[Message])
+    override def call(s: Observable[EncodedUpdate])
     : Observable[Response.Builder] = {
         val onSubscribe = new StorageOnSubscribe(s, reqId)
         Observable.create(onSubscribe)
@@ -190,7 +230,7 @@ protected class StorageTransformer(val reqId: UUID)
      * errors and completions in the source can be passed to the subscriber
      * with additional information.
      */
-    class StorageOnSubscribe(val source: Observable[_ <: Message],
+    class StorageOnSubscribe(val source: Observable[EncodedUpdate],
                              val reqId: UUID)
         extends OnSubscribe[Response.Builder] {
         /* Remember the subscription to the source observable */
@@ -216,14 +256,13 @@ protected class StorageTransformer(val reqId: UUID)
       */
     class StorageEventConverter(val observer: Observer[Response.Builder],
                                 val reqId: UUID)
-        extends Observer[Message] {
-        import org.midonet.brain.services.topology.server.SessionInventory._
+        extends Observer[EncodedUpdate] {
 
-        private var oId: ObservableId = null
+        private var id: ObservableId = oId
 
         override def onCompleted(): Unit = {
-            if (oId != null)
-                observer.onNext(deletionBuilder(oId.id, oId.ofType, reqId))
+            if (id != null)
+                observer.onNext(deletionBuilder(id.id, id.ofType, reqId))
             observer.onCompleted()
         }
         override def onError(exc: Throwable): Unit = exc match {
@@ -234,25 +273,46 @@ protected class StorageTransformer(val reqId: UUID)
                 observer.onNext(errorBuilder(reqId, "error on watch"))
                 observer.onError(t)
         }
-        override def onNext(data: Message): Unit = {
-            if (oId == null)
-                oId = extractId(data)
-            observer.onNext(updateBuilder(data, reqId))
+        override def onNext(data: EncodedUpdate): Unit = {
+            if (id == null)
+                id = data.id
+            observer.onNext(encodedUpdateBuilder(data, reqId))
         }
     }
 }
 
+/**
+ * The storage of the responses of a session buffer, providing absolute
+ * sequence numbers for the responses, and blocking reads: this is the
+ * subset of the BlockingSpscRwdRingBuffer operations used by the buffer.
+ */
+protected trait ResponseRing {
+    def add(rsp: Response.Builder): Unit
+    def complete(): Unit
+    def isComplete: Boolean
+    def awaitPoll(): Option[SequencedItem[Response.Builder]]
+    def seek(seqno: Long): Unit
+    def pauseRead(): Unit
+    def resumeRead(): Unit
+}
+
 /**
  * A class to buffer zoom updates, associating each one of them to a sequence
  * number.
  * @param minCapacity is the minimum size of the buffer
+ * @param conflate whether to keep only the latest update (or deletion) of
+ *                 each object, instead of every response (see the
+ *                 ConflatingResponseRing)
  */
-protected class Buffer(minCapacity: Int, reader: ExecutorService)
+protected class Buffer(minCapacity: Int, reader: ExecutorService,
+                       conflate: Boolean = false)
     extends Observer[Response.Builder] {
     private val subscriber =
         new AtomicReference[Subscriber[_ >: Response]](null)
-    private val ring =
-        new BlockingSpscRwdRingBuffer[Response.Builder](minCapacity)
+    private val ring: ResponseRing =
+        if (conflate) new ConflatingResponseRing(minCapacity)
+        else new BlockingSpscRwdRingBuffer[Response.Builder](minCapacity)
+                 with ResponseRing
     @volatile
     private var error: Throwable = null
 
@@ -335,7 +395,8 @@ protected class Buffer(minCapacity: Int, reader: ExecutorService)
 /** A collection of Sessions indexed by a session id. */
 class SessionInventory(private val store: Storage,
     private val gracePeriod: Long = SessionInventory.SESSION_GRACE_PERIOD,
-    private val bufferSize: Int = SessionInventory.SESSION_BUFFER_SIZE) {
+    private val bufferSize: Int = SessionInventory.SESSION_BUFFER_SIZE,
+    private val conflate: Boolean = false) {
     private val log = LoggerFactory.getLogger(this.getClass)
 
     /** A class that encapsulates the funnel of a bunch of individual low
@@ -344,6 +405,10 @@ class SessionInventory(private val store: Storage,
       * point in time. */
     private val inventory = new ConcurrentHashMap[Any, Session]()
 
+    /** The update streams of the topology objects watched by the sessions,
+      * shared among all of them. */
+    private val updateStreams = new UpdateStreams
+
     def claim(sessionId: UUID): Session = {
         inventory.getOrElseUpdate(sessionId, {
             log.debug("New subscription Aggregator for session: {}", sessionId)
@@ -360,7 +425,7 @@ class SessionInventory(private val store: Storage,
         private val scheduler = Schedulers.from(dataExecutor)
 
         private val funnel = new Aggregator[ObservableId, Response.Builder]()
-        private val buffer = new Buffer(bufferSize, senderExecutor)
+        private val buffer = new Buffer(bufferSize, senderExecutor, conflate)
         private val bufferSubscription =
             funnel.observable().observeOn(scheduler).subscribe(buffer)
 
@@ -489,10 +554,13 @@ class SessionInventory(private val store: Storage,
                                          reqId: UUID): Unit = {
             log.debug("Watch: " + id + " ({})",  ofType)
             val obsId = ObservableId(id, ofType)
-            val src = store.observable(ofType.asInstanceOf[Class[Message]], id)
+            val src = updateStreams.observable(
+                obsId,
+                store.observable(ofType.asInstanceOf[Class[Message]], id))
             try {
                 val oldReq = funnel.add(
-                    obsId, src.compose(new StorageTransformer(reqId)), reqId)
+                    obsId, src.compose(new StorageTransformer(reqId, obsId)),
+                    reqId)
                 if (reqId == oldReq)
                     funnel.inject(ackBuilder(accept = true, reqId))
                 else
@@ -518,9 +586,13 @@ class SessionInventory(private val store: Storage,
             : Unit = {
             log.debug("WatchAll: {}", ofType)
             val obsId = ObservableId(null, ofType)
+            val encode = makeFunc1(updateStreams.encode _)
             val src: Observable[Observable[Response.Builder]] =
                 store.observable(ofType.asInstanceOf[Class[Message]]).map(
-                    makeFunc1 {_.compose(new StorageTransformer(reqId))}
+                    makeFunc1 { o: Observable[Message] =>
+                        o.map[EncodedUpdate](encode)
+                         .compose(new StorageTransformer(reqId))
+                    }
                 )
             try {
                 val oldReq = funnel.add(obsId, Observable.merge(src), reqId)
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.brain.services.topology.server
+
+import java.util.{HashMap => JHashMap}
+
+import com.google.common.cache.CacheBuilder
+import com.google.protobuf.Message
+import rx.Observable.OnSubscribe
+import rx.subjects.BehaviorSubject
+import rx.subscriptions.Subscriptions
+import rx.{Observable, Observer, Subscriber, Subscription}
+
+import org.midonet.brain.services.topology.server.SessionInventory.{EncodedUpdate, ObservableId, encodeUpdate}
+import org.midonet.util.functors.makeAction0
+
+/**
+ * A collection of shared update streams for the topology objects watched by
+ * the sessions of the topology API service.
+ *
+ * There is a single subscription to the source of the updates of an object,
+ * no matter how many sessions watch it, and each update is encoded only
+ * once, into an immutable EncodedUpdate that all the sessions use to build
+ * their responses. A session that subscribes to an object already watched
+ * by others receives the latest update of the object first.
+ *
+ * The stream of an object is disposed of, unsubscribing from its source,
+ * when the last session unsubscribes from it, or when its source completes
+ * (the object is deleted) or fails. Subsequent subscriptions to the object
+ * create a new stream.
+ *
+ * The sessions that watch all the objects of a type receive the updates of
+ * each object from the storage on their own, but encode them through the
+ * same cache, which the shared streams also use: since the storage emits
+ * the same message instance to all the subscribers of an object, an update
+ * is encoded only once anyway.
+ */
+class UpdateStreams {
+
+    private class UpdateStream(id: ObservableId)
+        extends Observer[Message] {
+        val subject = BehaviorSubject.create[EncodedUpdate]()
+        var refs = 0
+        var source: Subscription = null
+
+        override def onNext(m: Message): Unit = {
+            subject.onNext(encode(m))
+        }
+        override def onCompleted(): Unit = {
+            dispose(id, this)
+            subject.onCompleted()
+        }
+        override def onError(e: Throwable): Unit = {
+            dispose(id, this)
+            subject.onError(e)
+        }
+    }
+
+    private val streams = new JHashMap[ObservableId, UpdateStream]()
+
+    /* The encoded updates, by the identity of the message they encode: an
+     * entry lasts as long as its message is referenced elsewhere, such as
+     * the latest state of an object in the storage. */
+    private val encoded = CacheBuilder.newBuilder()
+                                      .weakKeys()
+                                      .build[Message, EncodedUpdate]()
+
+    /** Encodes the update of a topology object, unless the same message was
+      * encoded already. */
+    def encode(m: Message): EncodedUpdate = {
+        var update = encoded.getIfPresent(m)
+        if (update eq null) {
+            update = encodeUpdate(m)
+            encoded.put(m, update)
+        }
+        update
+    }
+
+    /**
+     * Returns an observable emitting the encoded updates of the given object,
+     * which subscribes to the given source of updates only if there isn't
+     * a stream for the object already.
+     */
+    def observable(id: ObservableId, source: => Observable[_ <: Message])
+    : Observable[EncodedUpdate] = {
+        Observable.create(new OnSubscribe[EncodedUpdate] {
+            override def call(s: Subscriber[_ >: EncodedUpdate]): Unit = {
+                val stream = acquire(id)
+                s.add(Subscriptions.create(makeAction0 {
+                    release(id, stream)
+                }))
+                stream.subject.unsafeSubscribe(s)
+                connect(stream, source)
+            }
+        })
+    }
+
+    /** The number of objects with a shared update stream */
+    def size: Int = streams.synchronized { streams.size() }
+
+    private def acquire(id: ObservableId): UpdateStream =
+        streams.synchronized {
+            var stream = streams.get(id)
+            if (stream eq null) {
+                stream = new UpdateStream(id)
+                streams.put(id, stream)
+            }
+            stream.refs += 1
+            stream
+        }
+
+    private def connect(stream: UpdateStream,
+                        source: => Observable[_ <: Message]): Unit = {
+        val connecting = streams.synchronized {
+            if ((stream.source eq null) && stream.refs > 0) {
+                stream.source = Subscriptions.empty()
+                true
+            } else false
+        }
+        if (connecting) {
+            val sub = source.asInstanceOf[Observable[Message]]
+                            .subscribe(stream)
+            val released = streams.synchronized {
+                if (stream.refs > 0) {
+                    stream.source = sub
+                    false
+                } else true
+            }
+            // All the subscribers left while connecting
+            if (released) {
+                sub.unsubscribe()
+            }
+        }
+    }
+
+    private def release(id: ObservableId, stream: UpdateStream): Unit = {
+        val source = streams.synchronized {
+            stream.refs -= 1
+            if (stream.refs == 0) {
+                remove(id, stream)
+                stream.source
+            } else null
+        }
+        if (source ne null) {
+            source.unsubscribe()
+        }
+    }
+
+    private def dispose(id: ObservableId, stream: UpdateStream): Unit =
+        streams.synchronized {
+            remove(id, stream)
+        }
+
+    /* Must be called with the lock on streams held */
+    private def remove(id: ObservableId, stream: UpdateStream): Unit = {
+        if (streams.get(id) eq stream) {
+            streams.remove(id)
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.midonet.brain.services.vxgw
 import java.lang.{Short => JShort}
 import java.util
 import java.util.UUID
+import java.util.concurrent.Executors.newSingleThreadScheduledExecutor
+import java.util.concurrent.{ThreadFactory, TimeUnit}
 
 import scala.collection.mutable.ListBuffer
 import scala.util.{Failure, Success, Try}
@@ -27,6 +29,8 @@ import com.google.common.base.Strings.isNullOrEmpty
 import org.apache.commons.lang3.tuple.{Pair => JPair}
 import org.opendaylight.ovsdb.lib.notation.{UUID => OdlUUID}
 import org.slf4j.LoggerFactory
+import rx.schedulers.Schedulers
+import rx.subjects.PublishSubject
 import rx.{Observable, Observer}
 
 import org.midonet.brain.southbound.vtep.model.{LogicalSwitch, McastMac, UcastMac}
@@ -59,34 +63,86 @@ class VtepFromOvsdb(ip: IPv4Addr, port: Int) extends VtepConfig(ip, port) {
     override def vxlanTunnelIp: Option[IPv4Addr] = ???
 }
 
+object VtepFromOldOvsdbClient {
+
+    /** The time during which MAC location updates to the VTEP are collected
+      * into a single batch. */
+    final val MacRemoteBatchWindowMs = 50
+
+    /** The maximum number of MAC location updates in a batch: a larger burst
+      * of updates, such as a snapshot of a bridge's MACs, is applied in
+      * batches of this size without waiting for the window to elapse. */
+    final val MacRemoteMaxBatchSize = 1024
+
+}
+
 /** An implementation of the new VtepConfig interface that uses the old OVSDB
-  * client and VtepBroker */
+  * client and VtepBroker.
+  *
+  * The MAC location updates pushed to the macRemoteUpdater are collected in
+  * batches, during a short window, and each batch is applied in the old
+  * VtepBroker at once, which drops the updates overtaken by later ones in
+  * the batch and reads the remote MAC tables only once per batch. The
+  * batches are emitted and applied on a thread of this VTEP, so that a slow
+  * VTEP doesn't hold the threads shared by other VTEPs. */
 class VtepFromOldOvsdbClient(nodeId: UUID, ip: IPv4Addr, port: Int,
                              vtepDataClientFactory: VtepDataClientFactory)
     extends VtepConfig(ip, port) {
 
+    import VtepFromOldOvsdbClient._
+
     private val log = LoggerFactory.getLogger(vxgwVtepControlLog(ip, port))
 
     private val ovsdbClient = vtepDataClientFactory.connect(ip, port, nodeId)
 
     private val oldVtepBroker = new VtepBroker(ovsdbClient)
 
-    private val applyInOldBroker = new Observer[MacLocation] {
+    private val applyInOldBroker = new Observer[util.List[MacLocation]] {
         override def onCompleted(): Unit = {
             log.info("Stream of MAC updates to VTEP is completed")
         }
         override def onError(e: Throwable): Unit = {
             log.warn("Error on stream of MAC updates to VTEP", e)
         }
-        override def onNext(ml: MacLocation): Unit = {
-            try {
-                oldVtepBroker.apply(ml)
+        override def onNext(mls: util.List[MacLocation]): Unit = {
+            if (!mls.isEmpty) try {
+                oldVtepBroker.applyAll(mls)
             } catch {
-                case e: VxLanPeerSyncException if e.statusCode != null =>
-                    log.warn(s"VTEP unreachable when applying $ml")
                 case e: Throwable =>
-                    log.warn(s"Could not apply $ml", e)
+                    log.warn(s"Could not apply ${mls.size} MAC updates", e)
+            }
+        }
+    }
+
+    private val macRemoteExecutor = newSingleThreadScheduledExecutor(
+        new ThreadFactory {
+            override def newThread(r: Runnable): Thread = {
+                val t = new Thread(r)
+                t.setName(s"vxgw-vtep-$ip:$port-mac-remote")
+                t.setDaemon(true)
+                t
             }
+        })
+
+    /* Updates from all the VxLAN gateways that the VTEP joins are merged
+     * here, and collected into batches. The subject is never completed, since
+     * the streams of single gateways come and go. */
+    private val macRemoteUpdates = PublishSubject.create[MacLocation]()
+                                                 .toSerialized
+    macRemoteUpdates.buffer(MacRemoteBatchWindowMs, TimeUnit.MILLISECONDS,
+                            MacRemoteMaxBatchSize,
+                            Schedulers.from(macRemoteExecutor))
+                    .subscribe(applyInOldBroker)
+
+    private val collectMacRemoteUpdates = new Observer[MacLocation] {
+        override def onCompleted(): Unit = {
+            log.info("Stream of MAC updates to VTEP is completed")
+        }
+        override def onError(e: Throwable): Unit = {
+            log.warn("Error on stream of MAC updates to VTEP", e)
+        }
+        override def onNext(ml: MacLocation): Unit = {
+            macRemoteUpdates.onNext(ml)
         }
     }
 
@@ -118,7 +174,8 @@ class VtepFromOldOvsdbClient(nodeId: UUID, ip: IPv4Addr, port: Int,
     override def macLocalUpdates
     : Observable[MacLocation] = oldVtepBroker.observableUpdates()
 
-    override def macRemoteUpdater: Observer[MacLocation] = applyInOldBroker
+    override def macRemoteUpdater: Observer[MacLocation] =
+        collectMacRemoteUpdates
 
     override def currentMacLocal(ls: OdlUUID): Seq[MacLocation] = {
         val macLocations = ListBuffer[MacLocation]()
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.brain.services.topology.server
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.brain.services.topology.server.SessionInventory.{encodeUpdate, encodedUpdateBuilder, updateBuilder}
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.util.UUIDUtil.toProto
+
+/**
+ * Measures the fan-out of an update of a topology object to the sessions
+ * watching it, each one with its own request id: the perSession benchmark
+ * builds and serializes the whole response for each session, while the
+ * shared benchmark encodes the update once and only sets the envelope of
+ * the response for each session.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class UpdateFanOutBenchmark {
+
+    @Param(Array("500"))
+    var sessions: Int = _
+
+    @Param(Array("0", "64"))
+    var ports: Int = _
+
+    var network: Network = _
+    var reqIds: Array[UUID] = _
+
+    @Setup
+    def setup(): Unit = {
+        val builder = Network.newBuilder()
+            .setId(toProto(UUID.randomUUID()))
+            .setName("network")
+            .setTenantId("tenant")
+            .setAdminStateUp(true)
+        for (i <- 0 until ports) {
+            builder.addPortIds(toProto(UUID.randomUUID()))
+        }
+        network = builder.build()
+        reqIds = Array.fill(sessions)(UUID.randomUUID())
+    }
+
+    @Benchmark
+    def perSession(bh: Blackhole): Unit = {
+        var i = 0
+        while (i < sessions) {
+            bh.consume(updateBuilder(network, reqIds(i)).build().toByteArray)
+            i += 1
+        }
+    }
+
+    @Benchmark
+    def shared(bh: Blackhole): Unit = {
+        val update = encodeUpdate(network)
+        var i = 0
+        while (i < sessions) {
+            bh.consume(encodedUpdateBuilder(update, reqIds(i)).build()
+                           .toByteArray)
+            i += 1
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.brain.southbound.vtep
+
+import java.util.{ArrayList, UUID}
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConverters._
+
+import com.google.common.collect.Sets
+import org.openjdk.jmh.annotations._
+
+import org.midonet.brain.services.vxgw.MacLocation
+import org.midonet.packets.{IPv4Addr, MAC}
+
+/**
+ * Measures the latency of synchronizing the MACs of a bridge to a VTEP, as
+ * done when the VTEP joins a VxLAN gateway, against the VtepDataClientMock:
+ * all the MACs are added to the remote MAC table of the VTEP, and then
+ * removed. With a batchSize of 1, each update is applied on its own, as done
+ * by VtepBroker.apply, otherwise updates are applied in batches of that size
+ * by VtepBroker.applyAll.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class VtepBrokerBenchmark {
+
+    @Param(Array("1000", "4000"))
+    var macs: Int = _
+
+    @Param(Array("1", "64", "1024"))
+    var batchSize: Int = _
+
+    val mgmtIp = "10.0.0.1"
+    val mgmtPort = 6632
+    val lsName = "mn-" + UUID.randomUUID()
+    val tunnelIp = IPv4Addr.random
+
+    var vtep: VtepDataClientMock = _
+    var broker: VtepBroker = _
+    var additions: Array[MacLocation] = _
+    var removals: Array[MacLocation] = _
+
+    @Setup
+    def setup(): Unit = {
+        vtep = new VtepDataClientMock(mgmtIp, mgmtPort, "vtep", "vtep",
+                                      Sets.newHashSet("10.0.0.2"),
+                                      new ArrayList[String]())
+        vtep.connect(IPv4Addr(mgmtIp), mgmtPort)
+        vtep.addLogicalSwitch(lsName, 10)
+        broker = new VtepBroker(vtep)
+        additions = Array.fill(macs) {
+            MacLocation(MAC.random(), IPv4Addr.random, lsName, tunnelIp)
+        }
+        removals = additions map { ml =>
+            MacLocation(ml.mac, null, lsName, null)
+        }
+    }
+
+    private def sync(mls: Array[MacLocation]): Unit = {
+        if (batchSize == 1) {
+            var i = 0
+            while (i < mls.length) {
+                broker.apply(mls(i))
+                i += 1
+            }
+        } else {
+            mls.grouped(batchSize) foreach { batch =>
+                broker.applyAll(batch.toSeq.asJava)
+            }
+        }
+    }
+
+    @Benchmark
+    def syncMacs(): Unit = {
+        sync(additions)
+        sync(removals)
+    }
+}
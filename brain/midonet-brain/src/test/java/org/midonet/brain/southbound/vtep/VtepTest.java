@@ -44,6 +44,7 @@ import org.midonet.packets.IPv4Addr;
 import mockit.Expectations;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
+import static org.junit.Assert.assertEquals;
 import static org.midonet.brain.southbound.vtep.VtepConstants.bridgeIdToLogicalSwitchName;
 
 public class VtepTest {
@@ -487,6 +488,130 @@ public class VtepTest {
         vtepBroker.apply(null); // expect no NPE
     }
 
+    @Test
+    public void testBrokerListsRemoteMacsOncePerBatch() throws Exception {
+        new Expectations() {{
+            vtepDataClient.listUcastMacsRemote();
+            times = 1; result = new ArrayList<UcastMac>();
+
+            vtepDataClient.addUcastMacRemote(lsName, mac1.IEEE802(), macIp1,
+                                             midoVxTunIp);
+            times = 1; result = new Status(StatusCode.SUCCESS);
+
+            vtepDataClient.addUcastMacRemote(lsName, mac2.IEEE802(), macIp2,
+                                             midoVxTunIp);
+            times = 1; result = new Status(StatusCode.SUCCESS);
+        }};
+
+        vtepBroker.applyAll(Arrays.asList(
+            new MacLocation(mac1, macIp1, lsName, midoVxTunIp),
+            new MacLocation(mac2, macIp2, lsName, midoVxTunIp),
+            // Overtakes the first one
+            new MacLocation(mac1, macIp1, lsName, midoVxTunIp)));
+    }
+
+    @Test
+    public void testBrokerReaddsMacDeletedInBatch() throws Exception {
+        final UUID locatorId = new UUID(java.util.UUID.randomUUID().toString());
+        final UUID lsId = new UUID(java.util.UUID.randomUUID().toString());
+        new Expectations() {{
+            vtepDataClient.deleteAllUcastMacRemote(lsName, mac1.IEEE802());
+            times = 1; result = new Status(StatusCode.SUCCESS);
+
+            vtepDataClient.listUcastMacsRemote();
+            times = 1; result = Arrays.asList(new UcastMac(mac2.IEEE802(), lsId,
+                                                           locatorId, macIp2));
+
+            vtepDataClient.addUcastMacRemote(lsName, mac1.IEEE802(), macIp1,
+                                             midoVxTunIp);
+            times = 1; result = new Status(StatusCode.SUCCESS);
+
+            vtepDataClient.deleteUcastMacRemote(lsName, mac2.IEEE802(),
+                                                macIp2);
+            times = 1; result = new Status(StatusCode.SUCCESS);
+
+            vtepDataClient.addUcastMacRemote(lsName, mac2.IEEE802(), macIp2,
+                                             vxTunEndpoint);
+            times = 1; result = new Status(StatusCode.SUCCESS);
+        }};
+
+        vtepBroker.applyAll(Arrays.asList(
+            new MacLocation(mac1, null, lsName, null),
+            new MacLocation(mac1, macIp1, lsName, midoVxTunIp),
+            new MacLocation(mac2, macIp2, lsName, null),
+            new MacLocation(mac2, macIp2, lsName, vxTunEndpoint)));
+    }
+
+    @Test
+    public void testBrokerContinuesBatchAfterFailedUpdate() throws Exception {
+        new Expectations() {{
+            vtepDataClient.listUcastMacsRemote();
+            times = 1; result = new ArrayList<UcastMac>();
+
+            vtepDataClient.addUcastMacRemote(lsName, mac1.IEEE802(), macIp1,
+                                             midoVxTunIp);
+            times = 1; result = new Status(StatusCode.BADREQUEST);
+
+            vtepDataClient.addUcastMacRemote(lsName, mac2.IEEE802(), macIp2,
+                                             midoVxTunIp);
+            times = 1; result = new Status(StatusCode.SUCCESS);
+        }};
+
+        vtepBroker.applyAll(Arrays.asList(
+            new MacLocation(mac1, macIp1, lsName, midoVxTunIp),
+            new MacLocation(mac2, macIp2, lsName, midoVxTunIp)));
+    }
+
+    @Test
+    public void testCoalesceDropsOvertakenUpdates() {
+        MacLocation add1 = new MacLocation(mac1, macIp1, lsName, midoVxTunIp);
+        MacLocation move1 = new MacLocation(mac1, macIp1, lsName,
+                                            vxTunEndpoint);
+        MacLocation del1 = new MacLocation(mac1, macIp1, lsName, null);
+        MacLocation delAll1 = new MacLocation(mac1, null, lsName, null);
+        MacLocation add2 = new MacLocation(mac2, macIp2, lsName, midoVxTunIp);
+        MacLocation add1Ls2 = new MacLocation(mac1, macIp1, "ls2",
+                                              midoVxTunIp);
+
+        // A later update with the same IP overtakes an addition
+        assertEquals(Arrays.asList(move1, add2),
+                     VtepBroker.coalesce(Arrays.asList(add1, add2, move1)));
+        assertEquals(Arrays.asList(del1),
+                     VtepBroker.coalesce(Arrays.asList(add1, del1)));
+
+        // But an addition doesn't overtake a removal
+        assertEquals(Arrays.asList(del1, add1),
+                     VtepBroker.coalesce(Arrays.asList(del1, add1)));
+
+        // The removal of the MAC overtakes all the previous updates
+        assertEquals(Arrays.asList(delAll1, add1),
+                     VtepBroker.coalesce(Arrays.asList(add1, del1, move1,
+                                                       delAll1, add1)));
+
+        // Only updates for the same logical switch are coalesced
+        assertEquals(Arrays.asList(add1, add1Ls2),
+                     VtepBroker.coalesce(Arrays.asList(add1, add1Ls2)));
+    }
+
+    @Test
+    public void testCoalesceMcastUpdates() {
+        IPv4Addr otherTunIp = IPv4Addr.fromString("10.9.9.10");
+        MacLocation add = new MacLocation(VtepMAC.UNKNOWN_DST, null, lsName,
+                                          midoVxTunIp);
+        MacLocation addOther = new MacLocation(VtepMAC.UNKNOWN_DST, null,
+                                               lsName, otherTunIp);
+        MacLocation del = new MacLocation(VtepMAC.UNKNOWN_DST, null, lsName,
+                                          null);
+
+        assertEquals(Arrays.asList(add),
+                     VtepBroker.coalesce(Arrays.asList(add, add)));
+        assertEquals(Arrays.asList(add, addOther),
+                     VtepBroker.coalesce(Arrays.asList(add, addOther)));
+        assertEquals(Arrays.asList(del, add),
+                     VtepBroker.coalesce(Arrays.asList(add, addOther, del,
+                                                       add)));
+    }
+
     @Test
     public void testPruneUnwantedLogicalSwitches() throws Exception {
 
@@ -217,6 +217,7 @@ class C3POMinionTestBase extends FlatSpec with BeforeAndAfter
             val cfg = new MidonetBackendConfig {
                 override def zookeeperRootPath: String = "/test"
                 override def isEnabled: Boolean = true
+                override def zoomBinaryFormat: Boolean = false
                 // below, not even used for this test
                 override def zookeeperMaxRetries: Int = ???
                 override def zookeeperRetryMs: Int = ???
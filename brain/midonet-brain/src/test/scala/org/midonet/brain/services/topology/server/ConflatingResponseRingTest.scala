@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.brain.services.topology.server
+
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest._
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.brain.services.topology.server.SessionInventory.{ackBuilder, deletionBuilder, updateBuilder}
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.rpc.Commands.{Response, ResponseType}
+import org.midonet.cluster.util.UUIDUtil
+import org.midonet.util.concurrent.SpscRwdRingBuffer.{NotInBufferException, SequencedItem}
+
+/** Tests the conflation of responses for slow topology API sessions. */
+@RunWith(classOf[JUnitRunner])
+class ConflatingResponseRingTest extends FeatureSpec
+                                         with Matchers
+                                         with BeforeAndAfter {
+    var ring: ConflatingResponseRing = _
+
+    val reqId = UUID.randomUUID()
+
+    def bridge(id: UUID, name: String) = Network.newBuilder()
+        .setId(UUIDUtil.toProto(id))
+        .setName(name)
+        .build()
+
+    def update(id: UUID, name: String, req: UUID = reqId) =
+        updateBuilder(bridge(id, name), req)
+
+    def drain(): Seq[SequencedItem[Response.Builder]] = {
+        ring.complete()
+        Iterator.continually(ring.awaitPoll())
+                .takeWhile(_.nonEmpty).map(_.get).toList
+    }
+
+    def names(items: Seq[SequencedItem[Response.Builder]]) =
+        items map { _.item.getUpdate.getNetwork.getName }
+
+    before
+    {
+        ring = new ConflatingResponseRing(4)
+    }
+
+    feature("conflation")
+    {
+        scenario("only the latest update of an object is delivered")
+        {
+            val b1 = UUID.randomUUID()
+            val b2 = UUID.randomUUID()
+            ring.add(update(b1, "b1"))
+            ring.add(update(b2, "b2"))
+            ring.add(update(b1, "b1-1"))
+            ring.add(update(b1, "b1-2"))
+
+            val items = drain()
+            names(items) shouldBe Seq("b2", "b1-2")
+            items.map(_.seqno) shouldBe Seq(1L, 3L)
+        }
+
+        scenario("a deletion supersedes the updates of an object")
+        {
+            val b1 = UUID.randomUUID()
+            ring.add(update(b1, "b1"))
+            ring.add(update(b1, "b1-1"))
+            ring.add(deletionBuilder(b1, classOf[Network], reqId))
+
+            val items = drain()
+            items.size shouldBe 1
+            items.head.item.getType shouldBe ResponseType.DELETION
+        }
+
+        scenario("updates for different requests are not conflated")
+        {
+            val b1 = UUID.randomUUID()
+            ring.add(update(b1, "b1", UUID.randomUUID()))
+            ring.add(update(b1, "b1-1", UUID.randomUUID()))
+
+            names(drain()) shouldBe Seq("b1", "b1-1")
+        }
+
+        scenario("other responses are not conflated")
+        {
+            ring.add(ackBuilder(accept = true, reqId))
+            ring.add(ackBuilder(accept = true, reqId))
+
+            drain().size shouldBe 2
+        }
+    }
+
+    feature("sequence numbers")
+    {
+        scenario("rewind to a previous position")
+        {
+            val b1 = UUID.randomUUID()
+            val b2 = UUID.randomUUID()
+            ring.add(update(b1, "b1"))
+            ring.add(update(b2, "b2"))
+            ring.awaitPoll().get.seqno shouldBe 0L
+            ring.awaitPoll().get.seqno shouldBe 1L
+
+            ring.add(update(b1, "b1-1"))
+            ring.seek(1)
+
+            val items = drain()
+            names(items) shouldBe Seq("b2", "b1-1")
+            items.map(_.seqno) shouldBe Seq(1L, 2L)
+        }
+
+        scenario("rewind beyond the discarded responses")
+        {
+            for (i <- 0 until 4) {
+                ring.add(update(UUID.randomUUID(), "b" + i))
+                ring.awaitPoll()
+            }
+            ring.add(update(UUID.randomUUID(), "b4"))
+            ring.size shouldBe 4
+
+            intercept[NotInBufferException] {
+                ring.seek(0)
+            }
+            ring.seek(1)
+            names(drain()) shouldBe Seq("b1", "b2", "b3", "b4")
+        }
+
+        scenario("unread responses are not discarded")
+        {
+            for (i <- 0 until 8) {
+                ring.add(update(UUID.randomUUID(), "b" + i))
+            }
+            ring.size shouldBe 8
+            drain().size shouldBe 8
+        }
+
+        scenario("rewind beyond the read position")
+        {
+            ring.add(ackBuilder(accept = true, reqId))
+            intercept[NotInBufferException] {
+                ring.seek(1)
+            }
+        }
+    }
+
+    feature("blocking reads")
+    {
+        scenario("a paused ring returns no responses")
+        {
+            ring.add(ackBuilder(accept = true, reqId))
+            ring.pauseRead()
+            ring.awaitPoll() shouldBe None
+
+            ring.resumeRead()
+            ring.awaitPoll().get.seqno shouldBe 0L
+        }
+
+        scenario("a completed ring returns the pending responses")
+        {
+            ring.add(ackBuilder(accept = true, reqId))
+            ring.complete()
+            ring.isComplete shouldBe true
+            ring.awaitPoll().get.seqno shouldBe 0L
+            ring.awaitPoll() shouldBe None
+        }
+    }
+}
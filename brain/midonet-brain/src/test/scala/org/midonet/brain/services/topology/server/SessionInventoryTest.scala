@@ -65,11 +65,15 @@ class SessionInventoryTest extends FeatureSpec
         rsp.getType == ResponseType.ERROR &&
             UUIDUtil.fromProto(rsp.getReqId) == id
 
-    def isBridge(rsp: Response, id: UUID, name: String) =
-        rsp.getType == ResponseType.UPDATE &&
-        rsp.hasUpdate && rsp.getUpdate.hasNetwork &&
-        UUIDUtil.fromProto(rsp.getUpdate.getNetwork.getId) == id &&
-        rsp.getUpdate.getNetwork.getName == name
+    def isBridge(rsp: Response, id: UUID, name: String) = {
+        // The updates of watched objects are sent pre-encoded, and they are
+        // only seen as such by the receiver of the response
+        val received = Response.parseFrom(rsp.toByteString)
+        received.getType == ResponseType.UPDATE &&
+        received.hasUpdate && received.getUpdate.hasNetwork &&
+        UUIDUtil.fromProto(received.getUpdate.getNetwork.getId) == id &&
+        received.getUpdate.getNetwork.getName == name
+    }
 
     def isDeletion(rsp: Response, id: UUID) =
         rsp.getType == ResponseType.DELETION &&
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.brain.services.topology.server
+
+import java.util.UUID
+
+import scala.collection.JavaConversions._
+
+import org.junit.runner.RunWith
+import org.scalatest._
+import org.scalatest.junit.JUnitRunner
+import rx.Observable
+import rx.observers.TestObserver
+import rx.subjects.PublishSubject
+
+import org.midonet.brain.services.topology.server.SessionInventory.{EncodedUpdate, ObservableId, encodedUpdateBuilder, updateBuilder}
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.rpc.Commands.Response
+import org.midonet.cluster.util.UUIDUtil
+
+/** Tests the shared update streams of the Topology API service. */
+@RunWith(classOf[JUnitRunner])
+class UpdateStreamsTest extends FeatureSpec
+                                with Matchers
+                                with BeforeAndAfter {
+    var streams: UpdateStreams = _
+    var source: PublishSubject[Network] = _
+    var subscriptions = 0
+
+    val oId = UUID.randomUUID()
+    val obsId = ObservableId(oId, classOf[Network])
+
+    def bridge(id: UUID, name: String) = Network.newBuilder()
+        .setId(UUIDUtil.toProto(id))
+        .setName(name)
+        .build()
+
+    def observable: Observable[EncodedUpdate] =
+        streams.observable(obsId, {
+            subscriptions += 1
+            source
+        })
+
+    before
+    {
+        streams = new UpdateStreams
+        source = PublishSubject.create[Network]()
+        subscriptions = 0
+    }
+
+    feature("shared update streams")
+    {
+        scenario("sessions share the subscription to the source")
+        {
+            val obs1 = new TestObserver[EncodedUpdate]()
+            val obs2 = new TestObserver[EncodedUpdate]()
+            observable.subscribe(obs1)
+            observable.subscribe(obs2)
+
+            source.onNext(bridge(oId, "bridge"))
+
+            subscriptions shouldBe 1
+            streams.size shouldBe 1
+            obs1.getOnNextEvents.size shouldBe 1
+            obs2.getOnNextEvents.size shouldBe 1
+            obs1.getOnNextEvents.get(0) should be theSameInstanceAs
+                obs2.getOnNextEvents.get(0)
+        }
+
+        scenario("late sessions receive the latest update first")
+        {
+            val obs1 = new TestObserver[EncodedUpdate]()
+            val obs2 = new TestObserver[EncodedUpdate]()
+            observable.subscribe(obs1)
+
+            source.onNext(bridge(oId, "bridge"))
+            source.onNext(bridge(oId, "bridge-1"))
+            observable.subscribe(obs2)
+
+            subscriptions shouldBe 1
+            obs1.getOnNextEvents.size shouldBe 2
+            obs2.getOnNextEvents.size shouldBe 1
+            obs2.getOnNextEvents.get(0) should be theSameInstanceAs
+                obs1.getOnNextEvents.get(1)
+        }
+
+        scenario("the stream is disposed of with its last session")
+        {
+            val obs1 = new TestObserver[EncodedUpdate]()
+            val obs2 = new TestObserver[EncodedUpdate]()
+            val sub1 = observable.subscribe(obs1)
+            val sub2 = observable.subscribe(obs2)
+
+            sub1.unsubscribe()
+            source.hasObservers shouldBe true
+            streams.size shouldBe 1
+
+            sub2.unsubscribe()
+            source.hasObservers shouldBe false
+            streams.size shouldBe 0
+
+            observable.subscribe(new TestObserver[EncodedUpdate]())
+            subscriptions shouldBe 2
+        }
+
+        scenario("the stream is disposed of when its source completes")
+        {
+            val obs = new TestObserver[EncodedUpdate]()
+            observable.subscribe(obs)
+
+            source.onNext(bridge(oId, "bridge"))
+            source.onCompleted()
+
+            obs.getOnCompletedEvents.size shouldBe 1
+            streams.size shouldBe 0
+
+            source = PublishSubject.create[Network]()
+            val next = new TestObserver[EncodedUpdate]()
+            observable.subscribe(next)
+            source.onNext(bridge(oId, "bridge-1"))
+
+            subscriptions shouldBe 2
+            next.getOnNextEvents.size shouldBe 1
+        }
+    }
+
+    feature("encoded updates")
+    {
+        scenario("an update is encoded once")
+        {
+            val m = bridge(oId, "bridge")
+            streams.encode(m) should be theSameInstanceAs streams.encode(m)
+            streams.encode(m).id shouldBe obsId
+        }
+
+        scenario("encoded updates are received as regular updates")
+        {
+            val m = bridge(oId, "bridge")
+            val reqId = UUID.randomUUID()
+            val sent = encodedUpdateBuilder(streams.encode(m), reqId).build()
+
+            Response.parseFrom(sent.toByteArray) shouldBe
+                updateBuilder(m, reqId).build()
+        }
+    }
+}
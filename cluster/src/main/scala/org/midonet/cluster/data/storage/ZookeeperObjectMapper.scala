@@ -31,7 +31,7 @@ import scala.util.{Failure, Success}
 
 import com.google.common.annotations.VisibleForTesting
 import com.google.common.collect.ArrayListMultimap
-import com.google.protobuf.{Message, TextFormat}
+import com.google.protobuf.{CodedOutputStream, Message, TextFormat}
 
 import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.api.transaction.CuratorTransactionFinal
@@ -112,10 +112,19 @@ import org.midonet.util.reactivex._
  * off. In addition, upon initialization a ZOOM sets a watcher to the version
  * number node and it'd be notified if another ZOOM instances bumps the version
  * number to switch to the new version.
+ *
+ * SERIALIZATION FORMAT:
+ * Protocol buffer objects are written in the text format unless the storage
+ * is created with binaryFormat set, in which case they are written in the
+ * binary wire format. Objects in either format are always readable, but
+ * agents of previous versions only read the text format: binary writes must
+ * only be enabled once every reader has been upgraded, and
+ * migrateToBinaryFormat() has rewritten the existing objects.
  */
 class ZookeeperObjectMapper(
     private val basePathPrefix: String,
-    private val curator: CuratorFramework) extends StorageWithOwnership {
+    private val curator: CuratorFramework,
+    private val binaryFormat: Boolean = false) extends StorageWithOwnership {
 
     import org.midonet.cluster.data.storage.ZookeeperObjectMapper._
     @volatile private var built = false
@@ -234,10 +243,12 @@ class ZookeeperObjectMapper(
                 txOp match {
                     case TxCreate(obj, _) =>
                         txn.create()
-                            .forPath(getPath(clazz, id), serialize(obj)).and()
+                            .forPath(getPath(clazz, id),
+                                     serialize(obj, binaryFormat)).and()
                     case TxUpdate(obj, ver, ownerOps) =>
                         txn.setData().withVersion(ver)
-                            .forPath(getPath(clazz, id), serialize(obj)).and()
+                            .forPath(getPath(clazz, id),
+                                     serialize(obj, binaryFormat)).and()
                     case TxDelete(ver, ownerOps) =>
                         txn.delete().withVersion(ver)
                             .forPath(getPath(clazz, id)).and()
@@ -758,6 +769,61 @@ class ZookeeperObjectMapper(
         classCaches.get(clazz).map(_.subscriptionCount)
     }
 
+    /**
+     * Rewrites in the binary format the protocol buffer objects of the current
+     * data set that are still stored in the text format. The objects are
+     * rewritten regardless of the binaryFormat setting of this storage.
+     *
+     * The migration can run while the storage is in use: each node is
+     * rewritten conditionally on the version that was read, and a node
+     * modified concurrently is read again. Since rewriting a node changes its
+     * version, it notifies the subscribers of the object, and transactions
+     * that read the node before it was migrated will fail with a
+     * ConcurrentModificationException.
+     *
+     * @return The number of objects rewritten.
+     */
+    def migrateToBinaryFormat(): Int = {
+        assertBuilt()
+        var migrated = 0
+        for ((clazz, info) <- classInfo if info.isInstanceOf[MessageClassInfo]) {
+            val classPath = getPath(clazz)
+            val ids = try curator.getChildren.forPath(classPath) catch {
+                case ex: Exception => throw new InternalObjectMapperException(
+                    s"Could not list the objects of class $clazz.", ex)
+            }
+            for (id <- ids.asScala
+                 if migrateToBinaryFormat(clazz, s"$classPath/$id")) {
+                migrated += 1
+            }
+            log.info(s"Migrated the objects of class ${clazz.getSimpleName} " +
+                     "to the binary format.")
+        }
+        migrated
+    }
+
+    private def migrateToBinaryFormat(clazz: Class[_], path: String)
+    : Boolean = {
+        val stat = new Stat()
+        try {
+            val data = curator.getData.storingStatIn(stat).forPath(path)
+            if (isBinaryFormat(data)) {
+                false
+            } else {
+                val obj = deserialize(data, clazz).asInstanceOf[Obj]
+                curator.setData().withVersion(stat.getVersion)
+                       .forPath(path, serialize(obj, binaryFormat = true))
+                true
+            }
+        } catch {
+            case _: NoNodeException => false
+            case _: BadVersionException => migrateToBinaryFormat(clazz, path)
+            case ex: InternalObjectMapperException => throw ex
+            case ex: Exception => throw new InternalObjectMapperException(
+                s"Could not migrate the object at $path.", ex)
+        }
+    }
+
     private def assertBuilt() {
         if (!built) throw new ServiceUnavailableException(
             "Data operation received before call to build().")
@@ -799,6 +865,11 @@ object ZookeeperObjectMapper {
         }
     }
 
+    /* Protocol buffer objects in the binary wire format are preceded by this
+     * byte. Objects written in the text format never start with it, as the
+     * text format only contains printable characters. */
+    private[storage] final val BINARY_FORMAT_V1: Byte = 0x01
+
     protected val log = LoggerFactory.getLogger(ZookeeperObjectMapper.getClass)
 
     private val jsonFactory = new JsonFactory(new ObjectMapper())
@@ -819,14 +890,27 @@ object ZookeeperObjectMapper {
         }
     }
 
-    private[storage] def serialize(obj: Obj): Array[Byte] = {
+    private[storage] def serialize(obj: Obj, binaryFormat: Boolean = false)
+    : Array[Byte] = {
         obj match {
-            case msg: Message => serializeMessage(msg)
+            case msg: Message if binaryFormat => serializeBinaryMessage(msg)
+            case msg: Message => msg.toString.getBytes
             case pojo => serializePojo(pojo)
         }
     }
 
-    private def serializeMessage(msg: Message) = msg.toString.getBytes
+    private def serializeBinaryMessage(msg: Message): Array[Byte] = {
+        val size = msg.getSerializedSize
+        val data = new Array[Byte](size + 1)
+        data(0) = BINARY_FORMAT_V1
+        val output = CodedOutputStream.newInstance(data, 1, size)
+        msg.writeTo(output)
+        output.checkNoSpaceLeft()
+        data
+    }
+
+    private[storage] def isBinaryFormat(data: Array[Byte]): Boolean =
+        data.length > 0 && data(0) == BINARY_FORMAT_V1
 
     private def serializePojo(obj: Obj): Array[Byte] = {
         val writer = new StringWriter()
@@ -860,12 +944,25 @@ object ZookeeperObjectMapper {
     }
 
     private def deserializeMessage[T](data: Array[Byte], clazz: Class[T]): T = {
-        val builderObj = clazz.getMethod("newBuilder").invoke(null)
-        val builder = builderObj.asInstanceOf[Message.Builder]
-        TextFormat.merge(new String(data), builder)
+        val builder = defaultInstance(clazz).newBuilderForType()
+        if (isBinaryFormat(data)) {
+            builder.mergeFrom(data, 1, data.length - 1)
+        } else {
+            TextFormat.merge(new String(data), builder)
+        }
         builder.build().asInstanceOf[T]
     }
 
+    private val defaultInstances = new TrieMap[Class[_], Message]
+
+    private def defaultInstance(clazz: Class[_]): Message = {
+        defaultInstances.getOrElse(clazz, {
+            val instance = clazz.getMethod("getDefaultInstance").invoke(null)
+                                .asInstanceOf[Message]
+            defaultInstances.putIfAbsent(clazz, instance).getOrElse(instance)
+        })
+    }
+
     private def deserializePojo[T](json: Array[Byte], clazz: Class[T]): T = {
         val parser = jsonFactory.createJsonParser(json)
         val t = parser.readValueAs(clazz)
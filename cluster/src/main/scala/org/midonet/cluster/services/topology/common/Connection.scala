@@ -60,10 +60,10 @@ class Connection(private val ctx: ChannelHandlerContext,
 
     // Send a message through the low level channel
     private def send(rsp: Message) = if (!terminated.get()) {
-        log.debug("outgoing msg: " + rsp)
+        log.debug("outgoing msg: {}", rsp)
         lastSent.set(sender.sendAndFlush(rsp))
     } else {
-        log.debug("discarded msg after disconnect: " + rsp)
+        log.debug("discarded msg after disconnect: {}", rsp)
     }
 
     // Terminate this connection
@@ -164,16 +164,16 @@ class MessageSender(val ctx: ChannelHandlerContext,
     def sendNow(msg: Message, done: Promise[Boolean] = Promise[Boolean](),
                 flush: Boolean = false)
         : Future[Boolean] = {
-        log.debug("sending message: " + msg)
+        log.debug("sending message: {}", msg)
         val future: ChannelFuture =
             if (flush) ctx.writeAndFlush(msg) else ctx.write(msg)
         future.addListener(new GenericFutureListener[ChannelFuture] {
             override def operationComplete(f: ChannelFuture): Unit = {
                 if (f.isSuccess) {
-                    log.debug("sent message: " + msg)
+                    log.debug("sent message: {}", msg)
                     done.success(true)
                 } else if (f.isCancelled) {
-                    log.debug("canceled message: " + msg)
+                    log.debug("canceled message: {}", msg)
                     done.success(false)
                 } else {
                     log.debug("failed message: " + msg, f.cause)
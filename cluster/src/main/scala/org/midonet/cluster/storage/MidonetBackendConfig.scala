@@ -43,4 +43,11 @@ trait MidonetBackendConfig {
      * storage layer is deployed, this property should disappear. */
     @ConfigBool(key = "enabled", defaultValue = false)
     def isEnabled: Boolean
+
+    /* Writes the ZOOM protobuf objects in the binary format instead of the
+     * text format. Agents of previous versions cannot read the binary
+     * format, so this must only be set once all of them have been upgraded
+     * and the ZoomBinaryMigration tool has been run. */
+    @ConfigBool(key = "zoom_binary_format", defaultValue = false)
+    def zoomBinaryFormat: Boolean
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConverters._
+
+import com.google.protobuf.Message
+
+import org.openjdk.jmh.annotations._
+
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper._
+import org.midonet.cluster.models.Topology.{Network, Port, Router}
+import org.midonet.cluster.util.IPAddressUtil._
+import org.midonet.cluster.util.IPSubnetUtil._
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.packets.{IPv4Addr, IPv4Subnet}
+
+/**
+ * Measures the serialization and deserialization of topology objects as
+ * stored by ZOOM, in the binary format and in the text format used by
+ * previous versions. The size of the stored nodes is printed at setup.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class ZoomSerializationBenchmark {
+
+    @Param(Array("Network", "Port", "Router"))
+    var objectType: String = _
+
+    var message: Message = _
+    var clazz: Class[_ <: Message] = _
+    var textData: Array[Byte] = _
+    var binaryData: Array[Byte] = _
+
+    private def uuids(count: Int) = (0 until count) map {
+        _ => UUID.randomUUID.asProto
+    }
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        message = objectType match {
+            case "Network" =>
+                Network.newBuilder
+                    .setId(UUID.randomUUID.asProto)
+                    .setTenantId("tenant-0123456789")
+                    .setName("network-0")
+                    .setAdminStateUp(true)
+                    .setTunnelKey(10001)
+                    .setInboundFilterId(UUID.randomUUID.asProto)
+                    .setOutboundFilterId(UUID.randomUUID.asProto)
+                    .addAllPortIds(uuids(32).asJava)
+                    .addAllDhcpIds(uuids(2).asJava)
+                    .build()
+            case "Port" =>
+                Port.newBuilder
+                    .setId(UUID.randomUUID.asProto)
+                    .setRouterId(UUID.randomUUID.asProto)
+                    .setInboundFilterId(UUID.randomUUID.asProto)
+                    .setOutboundFilterId(UUID.randomUUID.asProto)
+                    .setTunnelKey(20001)
+                    .setPeerId(UUID.randomUUID.asProto)
+                    .setHostId(UUID.randomUUID.asProto)
+                    .setInterfaceName("tap0123456789a")
+                    .setAdminStateUp(true)
+                    .setPortSubnet(IPv4Subnet.fromCidr("10.0.0.0/24"))
+                    .setPortAddress(IPv4Addr.fromString("10.0.0.1").asProto)
+                    .setPortMac("02:00:00:00:00:01")
+                    .addAllRouteIds(uuids(4).asJava)
+                    .addAllRuleIds(uuids(4).asJava)
+                    .build()
+            case "Router" =>
+                Router.newBuilder
+                    .setId(UUID.randomUUID.asProto)
+                    .setTenantId("tenant-0123456789")
+                    .setName("router-0")
+                    .setAdminStateUp(true)
+                    .setInboundFilterId(UUID.randomUUID.asProto)
+                    .setOutboundFilterId(UUID.randomUUID.asProto)
+                    .addAllRouteIds(uuids(16).asJava)
+                    .addAllPortIds(uuids(16).asJava)
+                    .build()
+        }
+        clazz = message.getClass
+        textData = message.toString.getBytes
+        binaryData = serialize(message, binaryFormat = true)
+        println(s"\n$objectType node size: text ${textData.length} bytes, " +
+                s"binary ${binaryData.length} bytes")
+    }
+
+    @Benchmark
+    def serializeText(): Array[Byte] = message.toString.getBytes
+
+    @Benchmark
+    def serializeBinary(): Array[Byte] = serialize(message, binaryFormat = true)
+
+    @Benchmark
+    def deserializeText(): Message = deserialize(textData, clazz)
+
+    @Benchmark
+    def deserializeBinary(): Message = deserialize(binaryData, clazz)
+}
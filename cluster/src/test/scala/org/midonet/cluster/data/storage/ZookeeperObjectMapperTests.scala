@@ -1219,6 +1219,70 @@ class ZookeeperObjectMapperTests extends Suite
             Set(owner3.toString),
             Set.empty)
     }
+
+    def testProtoStoredInTextFormatByDefault(): Unit = {
+        val network = protoNetwork(name = "network")
+        zom.create(network)
+        val data = curator.getData.forPath(
+            zom.getPath(classOf[Network], network.getId))
+        ZookeeperObjectMapper.isBinaryFormat(data) shouldBe false
+        new String(data) shouldBe network.toString
+        await(zom.get(classOf[Network], network.getId)) shouldBe network
+    }
+
+    def testProtoStoredInBinaryFormat(): Unit = {
+        val binaryZom = new ZookeeperObjectMapper(ZK_ROOT, curator,
+                                                  binaryFormat = true)
+        initAndBuildZoom(binaryZom)
+        val network = protoNetwork(name = "network")
+        binaryZom.create(network)
+        val data = curator.getData.forPath(
+            binaryZom.getPath(classOf[Network], network.getId))
+        data(0) shouldBe ZookeeperObjectMapper.BINARY_FORMAT_V1
+        Network.parseFrom(data.drop(1)) shouldBe network
+        await(binaryZom.get(classOf[Network], network.getId)) shouldBe network
+        await(zom.get(classOf[Network], network.getId)) shouldBe network
+    }
+
+    def testGetProtoStoredInTextFormat(): Unit = {
+        val network = protoNetwork(name = "network")
+        curator.create().forPath(zom.getPath(classOf[Network], network.getId),
+                                 network.toString.getBytes)
+        await(zom.get(classOf[Network], network.getId)) shouldBe network
+        await(zom.getAll(classOf[Network])) should contain only network
+    }
+
+    def testMigrateToBinaryFormat(): Unit = {
+        val textNetworks = for (i <- 0 until 5) yield {
+            val network = protoNetwork(name = s"text-network-$i")
+            curator.create().forPath(
+                zom.getPath(classOf[Network], network.getId),
+                network.toString.getBytes)
+            network
+        }
+        val binaryNetwork = protoNetwork(name = "binary-network")
+        curator.create().forPath(
+            zom.getPath(classOf[Network], binaryNetwork.getId),
+            ZookeeperObjectMapper.serialize(binaryNetwork, binaryFormat = true))
+        val bridge = pojoBridge()
+        zom.create(bridge)
+
+        val textNetwork = protoNetwork(name = "text-format-network")
+        zom.create(textNetwork)
+
+        zom.migrateToBinaryFormat() shouldBe textNetworks.size + 1
+
+        for (network <- textNetworks) {
+            val data = curator.getData.forPath(
+                zom.getPath(classOf[Network], network.getId))
+            ZookeeperObjectMapper.isBinaryFormat(data) shouldBe true
+            await(zom.get(classOf[Network], network.getId)) shouldBe network
+        }
+        await(zom.get(classOf[Network], binaryNetwork.getId)) shouldBe
+            binaryNetwork
+        await(zom.get(classOf[PojoBridge], bridge.id)).id shouldBe bridge.id
+        zom.migrateToBinaryFormat() shouldBe 0
+    }
 }
 
 private object ZookeeperObjectMapperTests {
@@ -64,4 +64,15 @@ public interface Client {
     void getHealthMonitor(UUID uuid, HealthMonitorBuilder builder);
 
     void subscribeBgp(UUID portID, BGPListBuilder builder);
+
+    /* Stop watching a device, releasing the builder registered for it with
+     * the corresponding getter. */
+
+    void releaseBridge(UUID bridgeID);
+
+    void releaseRouter(UUID routerID);
+
+    void releaseChain(UUID chainID);
+
+    void releasePort(UUID portID);
 }
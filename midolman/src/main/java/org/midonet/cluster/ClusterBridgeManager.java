@@ -16,6 +16,7 @@
 
 package org.midonet.cluster;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -36,6 +37,7 @@ import org.midonet.midolman.serialization.SerializationException;
 import org.midonet.midolman.state.NoStatePathException;
 import org.midonet.midolman.state.PortConfig;
 import org.midonet.midolman.state.PortDirectory;
+import org.midonet.midolman.state.ReplicatedMap;
 import org.midonet.midolman.state.StateAccessException;
 import org.midonet.midolman.state.zkManagers.BridgeZkManager;
 import org.midonet.midolman.state.zkManagers.PortZkManager;
@@ -62,6 +64,10 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
     @Inject
     BridgeBuilderStateFeeder stateFeeder;
 
+    /* The replicated maps started for each bridge, which are stopped when
+     * the bridge is no longer watched */
+    private Map<UUID, List<ReplicatedMap<?, ?>>> bridgeMaps = new HashMap<>();
+
     @Override
     protected void getConfig(UUID id) {
         getBridgeConf(id, false);
@@ -71,7 +77,7 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
         log.info("Updating configuration for bridge {}", id);
         BridgeBuilder builder = getBuilder(id);
         if (builder == null) {
-            log.error("Null builder for bridge {}", id.toString());
+            log.debug("Bridge {} is no longer watched", id);
             return;
         }
 
@@ -81,8 +87,9 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
             // update nor to create the logical port table.
             // For detecting changes to these maps we did set watchers.
             if (!isUpdate) {
-                stateFeeder.feedLearningTable(builder, id, UNTAGGED_VLAN_ID);
-                stateFeeder.feedIpToMacMap(builder, id);
+                addBridgeMap(id, stateFeeder.feedLearningTable(
+                    builder, id, UNTAGGED_VLAN_ID));
+                addBridgeMap(id, stateFeeder.feedIpToMacMap(builder, id));
                 updateLogicalPorts(builder, id, false);
                 updateExteriorPorts(builder, id);
             }
@@ -91,13 +98,13 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
              * so that the watcher is not added in an undefined state.
              * We would not want to add the watcher (with update=true) and
              * then find that the ZK calls for the rest of the data fail. */
-            config = bridgeMgr.get(id, watchBridge(id, true));
+            config = bridgeMgr.get(id, watchBridge(id, builder, true));
         } catch (NoStatePathException e) {
             log.debug("Bridge {} has been deleted", id);
         } catch (StateAccessException e) {
             log.warn("Cannot retrieve the configuration for bridge {} - {}", id, e);
             connectionWatcher.handleError(
-                id.toString(), watchBridge(id, isUpdate), e);
+                id.toString(), watchBridge(id, builder, isUpdate), e);
             return;
         } catch (SerializationException e) {
             log.error("Could not deserialize bridge config: {} - {}", id, e);
@@ -119,11 +126,34 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
         log.info("Added watcher for bridge {}", id);
     }
 
-    Runnable watchBridge(final UUID id, final boolean isUpdate) {
+    @Override
+    protected void onBuilderUnregistered(UUID id, BridgeBuilder builder) {
+        List<ReplicatedMap<?, ?>> maps = bridgeMaps.remove(id);
+        if (maps != null) {
+            for (ReplicatedMap<?, ?> map : maps) {
+                map.stop();
+            }
+        }
+    }
+
+    private void addBridgeMap(UUID bridgeId, ReplicatedMap<?, ?> map) {
+        List<ReplicatedMap<?, ?>> maps = bridgeMaps.get(bridgeId);
+        if (maps == null) {
+            maps = new ArrayList<>();
+            bridgeMaps.put(bridgeId, maps);
+        }
+        maps.add(map);
+    }
+
+    Runnable watchBridge(final UUID id, final BridgeBuilder builder,
+                         final boolean isUpdate) {
         return new Runnable() {
             @Override
             public void run() {
-                getBridgeConf(id, isUpdate); // return fast, update later
+                // A builder registered again after the bridge was evicted
+                // has its own watcher
+                if (isRegistered(id, builder))
+                    getBridgeConf(id, isUpdate); // return fast, update later
             }
         };
     }
@@ -230,7 +260,8 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
         for(Short newVlan: createdVlans) {
             try {
                 // Create a MAC learning table for VLAN we hadn't seen before.
-                stateFeeder.feedLearningTable(builder, bridgeId, newVlan);
+                addBridgeMap(bridgeId, stateFeeder.feedLearningTable(
+                    builder, bridgeId, newVlan));
             } catch (StateAccessException e) {
                 log.warn("Error retrieving mac-ports for VLAN ID" +
                         " {}, bridge {}", newVlan, bridgeId, e);
@@ -268,6 +299,9 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
         }
 
         public void run() {
+            if (!isRegistered(bridgeID, builder)) {
+                return;
+            }
             try {
                 buildLogicalPortUpdates(builder, bridgeID);
             } catch (StateAccessException e) {
@@ -302,6 +336,9 @@ public class ClusterBridgeManager extends ClusterManager<BridgeBuilder>{
         }
 
         public void run() {
+            if (!isRegistered(bridgeId, builder)) {
+                return;
+            }
             try {
                 updateExteriorPorts(builder, bridgeId, this);
                 builder.build();
@@ -58,22 +58,35 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
             return;
         }
         chainIdToRuleMap.put(chainId, new HashMap<UUID,Rule>());
-        ChainNameCallback nameCB = new ChainNameCallback(chainId);
+        ChainBuilder builder = getBuilder(chainId);
+        ChainNameCallback nameCB = new ChainNameCallback(chainId, builder);
         chainMgr.getNameAsync(chainId, nameCB, nameCB);
-        RuleListCallback ruleListCB = new RuleListCallback(chainId);
+        RuleListCallback ruleListCB = new RuleListCallback(chainId, builder);
         ruleMgr.getRuleIdListAsync(chainId, ruleListCB, ruleListCB);
     }
 
-    private void requestRule(UUID ruleID) {
-        RuleCallback ruleCallback = new RuleCallback(ruleID);
+    @Override
+    protected void onBuilderUnregistered(UUID chainId, ChainBuilder builder) {
+        // The callbacks of the chain hold on to the builder they were
+        // created for, and stop once it is no longer registered, so that a
+        // chain fetched again after it was evicted is watched only once.
+        chainIdToRuleMap.remove(chainId);
+        chainToRuleIds.remove(chainId);
+        chainToMissingRuleIds.removeAll(chainId);
+    }
+
+    private void requestRule(UUID chainId, UUID ruleID, ChainBuilder builder) {
+        RuleCallback ruleCallback = new RuleCallback(chainId, ruleID, builder);
         ruleMgr.getAsync(ruleID, ruleCallback, ruleCallback);
     }
 
     private class ChainNameCallback extends CallbackWithWatcher<String> {
         private UUID chainId;
+        private ChainBuilder builder;
 
-        private ChainNameCallback(UUID chainId) {
+        private ChainNameCallback(UUID chainId, ChainBuilder builder) {
             this.chainId = chainId;
+            this.builder = builder;
         }
 
         @Override
@@ -83,12 +96,14 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
 
         @Override
         public void onSuccess(String data) {
-            getBuilder(chainId).setName(data);
+            if (isRegistered(chainId, builder))
+                builder.setName(data);
         }
 
         @Override
         public void pathDataChanged(String path) {
-            chainMgr.getNameAsync(chainId, this, this);
+            if (isRegistered(chainId, builder))
+                chainMgr.getNameAsync(chainId, this, this);
         }
 
         @Override
@@ -102,9 +117,11 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
 
     private class RuleListCallback extends CallbackWithWatcher<List<UUID>> {
         private UUID chainId;
+        private ChainBuilder builder;
 
-        private RuleListCallback(UUID chainId) {
+        private RuleListCallback(UUID chainId, ChainBuilder builder) {
             this.chainId = chainId;
+            this.builder = builder;
         }
 
         @Override
@@ -116,6 +133,10 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
         public void onSuccess(List<UUID> curRuleIds) {
             // curlRuleIds is an ordered list of the UUIDs of current rules
 
+            // A callback of an evicted chain
+            if (!isRegistered(chainId, builder))
+                return;
+
             // UUID to actual rule for each rule in chain
             Map<UUID, Rule> ruleMap = chainIdToRuleMap.get(chainId);
 
@@ -141,7 +162,7 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
             // If we have all the rules in the new ordered list, we're
             // ready to call the chainbuilder
             if (oldRuleIds.size() == curRuleIds.size()) {
-                getBuilder(chainId).setRules(curRuleIds, ruleMap);
+                builder.setRules(curRuleIds, ruleMap);
                 return;
             }
             // Otherwise, we have to fetch some rules.
@@ -157,13 +178,14 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
              */
             for (UUID ruleId : curRuleIds) {
                 if (!ruleMap.containsKey(ruleId))
-                    requestRule(ruleId);
+                    requestRule(chainId, ruleId, builder);
             }
         }
 
         @Override
         public void pathDataChanged(String path) {
-            ruleMgr.getRuleIdListAsync(chainId, this, this);
+            if (isRegistered(chainId, builder))
+                ruleMgr.getRuleIdListAsync(chainId, this, this);
         }
 
         @Override
@@ -180,10 +202,14 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
     }
 
     private class RuleCallback extends CallbackWithWatcher<Rule> {
+        private UUID chainId;
         private UUID ruleId;
+        private ChainBuilder builder;
 
-        private RuleCallback(UUID ruleId) {
+        private RuleCallback(UUID chainId, UUID ruleId, ChainBuilder builder) {
+            this.chainId = chainId;
             this.ruleId = ruleId;
+            this.builder = builder;
         }
 
         @Override
@@ -193,6 +219,8 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
 
         @Override
         public void onSuccess(Rule rule) {
+            if (!isRegistered(chainId, builder))
+                return;
             Collection<UUID> missingRuleIds =
                     chainToMissingRuleIds.get(rule.chainId);
             List<UUID> ruleIds = chainToRuleIds.get(rule.chainId);
@@ -205,13 +233,16 @@ public class ClusterChainManager extends ClusterManager<ChainBuilder> {
             ruleMap.put(ruleId, rule);
 
             if ((missingRuleIds.isEmpty())) {
-                getBuilder(rule.chainId).setRules(ruleIds, ruleMap);
+                builder.setRules(ruleIds, ruleMap);
             }
         }
 
         @Override
         public void pathDataChanged(String path) {
-            ruleMgr.getAsync(ruleId, this, this);
+            List<UUID> ruleIds = chainToRuleIds.get(chainId);
+            if (isRegistered(chainId, builder) &&
+                ruleIds != null && ruleIds.contains(ruleId))
+                ruleMgr.getAsync(ruleId, this, this);
         }
 
         @Override
@@ -74,10 +74,40 @@ abstract class ClusterManager<T> {
         // default: do nothing
     }
 
+    /**
+     * Stops feeding the builder registered for a device: the watchers of the
+     * device that fire afterwards find no builder and are not set again, and
+     * the state the manager keeps for the device is released.
+     */
+    public void unregisterBuilder(final UUID id) {
+        reactorLoop.submit(new Runnable() {
+            @Override
+            public void run() {
+                T builder = builderMap.remove(id);
+                if (builder != null) {
+                    log.debug("Unregistering builder for device {}", id);
+                    onBuilderUnregistered(id, builder);
+                }
+            }
+        });
+    }
+
+    protected void onBuilderUnregistered(UUID id, T builder) {
+        // default: do nothing
+    }
+
     protected T getBuilder(UUID id){
         return builderMap.get(id);
     }
 
+    /**
+     * Whether the builder is still the one registered for the device, for
+     * the watchers that hold on to the builder they were created for.
+     */
+    protected boolean isRegistered(UUID id, T builder) {
+        return builder != null && builderMap.get(id) == builder;
+    }
+
     abstract protected void getConfig(UUID id);
 
     /* The following classes provide base implementations for callbacks/watchers
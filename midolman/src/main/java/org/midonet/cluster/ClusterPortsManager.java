@@ -111,6 +111,9 @@ public class ClusterPortsManager extends ClusterManager<PortBuilder> {
         return new Runnable() {
             @Override
             public void run() {
+                if (!isRegistered(portId, builder)) {
+                    return;
+                }
                 log.debug("Port liveness changed: {}", portId);
                 builder.setActive(isActive(portId, this));
                 builder.build();
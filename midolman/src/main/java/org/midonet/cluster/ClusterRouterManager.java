@@ -74,6 +74,8 @@ public class ClusterRouterManager extends ClusterManager<RouterBuilder> {
 
     Map<UUID, ReplicatedRouteSet> mapRouterIdToRoutes = new HashMap<>();
 
+    Map<UUID, ArpTable> mapRouterIdToArpTable = new HashMap<>();
+
     Map<UUID, PortRoutesCallback> portIdCallback = new HashMap<>();
     Map<UUID, PortRoutesWatcher> portIdWatcher = new HashMap<>();
 
@@ -88,7 +90,7 @@ public class ClusterRouterManager extends ClusterManager<RouterBuilder> {
         RouterBuilder builder = getBuilder(id);
 
         if (builder == null) {
-            log.error("Null builder for router {}", id.toString());
+            log.debug("Router {} is no longer watched", id);
             return;
         }
 
@@ -105,19 +107,23 @@ public class ClusterRouterManager extends ClusterManager<RouterBuilder> {
                             CreateMode.EPHEMERAL, builder);
                 routeSet.setConnectionWatcher(connectionWatcher);
                 mapRouterIdToRoutes.put(id, routeSet);
+                mapRouterIdToArpTable.put(id, arpTable);
             }
             /* NOTE(guillermo) this the last zk-related call in this block
              * so that the watcher is not added in an undefined state.
              * We would not want to add the watcher (with update=true) and
              * then find that the ZK calls for the rest of the data fail. */
-             config = routerMgr.get(id, watchRouter(id, true));
+             config = routerMgr.get(id, watchRouter(id, builder, true));
         } catch (NoStatePathException e) {
             log.debug("Router {} has been deleted", id);
         } catch (StateAccessException e) {
-            if (routeSet != null)
+            if (routeSet != null) {
                 mapRouterIdToRoutes.remove(id);
+                mapRouterIdToArpTable.remove(id);
+            }
             log.warn("Cannot retrieve the configuration for router {}", id, e);
-            connectionWatcher.handleError(id.toString(), watchRouter(id, isUpdate), e);
+            connectionWatcher.handleError(id.toString(),
+                                           watchRouter(id, builder, isUpdate), e);
             return;
         } catch (SerializationException e) {
             log.error("Could not deserialize router config {}", id, e);
@@ -151,10 +157,15 @@ public class ClusterRouterManager extends ClusterManager<RouterBuilder> {
         log.debug("Added watcher for router {}", id);
     }
 
-    Runnable watchRouter(final UUID id, final boolean isUpdate) {
+    Runnable watchRouter(final UUID id, final RouterBuilder builder,
+                         final boolean isUpdate) {
         return new Runnable() {
             @Override
             public void run() {
+                // A builder registered again after the router was evicted
+                // has its own watcher
+                if (!isRegistered(id, builder))
+                    return;
                 // return fast and update later
                 getRouterConf(id, isUpdate);
             }
@@ -166,6 +177,17 @@ public class ClusterRouterManager extends ClusterManager<RouterBuilder> {
         getRouterConf(id, false);
     }
 
+    @Override
+    protected void onBuilderUnregistered(UUID id, RouterBuilder builder) {
+        ReplicatedRouteSet routeSet = mapRouterIdToRoutes.remove(id);
+        if (routeSet != null)
+            routeSet.stop();
+        ArpTable arpTable = mapRouterIdToArpTable.remove(id);
+        if (arpTable != null)
+            arpTable.stop();
+        log.debug("Stopped ARP and Routing Tables for router {}", id);
+    }
+
     public void updateRoutesBecauseLocalPortChangedStatus(UUID routerId, UUID portId,
                                                           boolean active){
         log.debug("Port {} of router {} became active {}",
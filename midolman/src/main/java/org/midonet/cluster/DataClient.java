@@ -303,6 +303,22 @@ public interface DataClient {
     List<Subnet> dhcpSubnetsGetByBridgeEnabled(UUID bridgeId)
             throws StateAccessException, SerializationException;
 
+    /**
+     * Gets the addresses of the DHCP subnets of a bridge, and sets the
+     * watcher on the list of subnets.
+     */
+    List<IPv4Subnet> dhcpSubnetAddrsGetByBridge(UUID bridgeId,
+                                                Runnable watcher)
+            throws StateAccessException;
+
+    /**
+     * Gets a DHCP subnet of a bridge, and sets the watcher on the subnet.
+     * Returns null if the subnet does not exist.
+     */
+    @CheckForNull Subnet dhcpSubnetsGet(UUID bridgeId, IPv4Subnet subnetAddr,
+                                        Runnable watcher)
+            throws StateAccessException, SerializationException;
+
     void dhcpHostsCreate(@Nonnull UUID bridgeId, @Nonnull IPv4Subnet subnet,
                          org.midonet.cluster.data.dhcp.Host host)
             throws StateAccessException, SerializationException;
@@ -322,6 +338,22 @@ public interface DataClient {
             UUID bridgeId, IPv4Subnet subnet)
             throws StateAccessException, SerializationException;
 
+    /**
+     * Gets the MAC addresses of the DHCP hosts of a subnet, and sets the
+     * watcher on the list of hosts.
+     */
+    List<MAC> dhcpHostMacsGetBySubnet(UUID bridgeId, IPv4Subnet subnet,
+                                      Runnable watcher)
+            throws StateAccessException;
+
+    /**
+     * Gets a DHCP host of a subnet, and sets the watcher on the host. Returns
+     * null if the host does not exist.
+     */
+    @CheckForNull org.midonet.cluster.data.dhcp.Host dhcpHostsGet(
+            UUID bridgeId, IPv4Subnet subnet, String mac, Runnable watcher)
+            throws StateAccessException, SerializationException;
+
     /* DHCPV6 related methods */
     void dhcpSubnet6Create(@Nonnull UUID bridgeId, @Nonnull Subnet6 subnet)
             throws StateAccessException, SerializationException;
@@ -806,6 +838,14 @@ public interface DataClient {
     UUID routesCreateEphemeral(@Nonnull Route route)
             throws StateAccessException, SerializationException;
 
+    /**
+     * Creates the given ephemeral routes and deletes the given routes, both
+     * indexed by their ids, in a single ZooKeeper multi operation.
+     */
+    void routesUpdateEphemeral(@Nonnull Map<UUID, Route> created,
+                               @Nonnull Map<UUID, Route> deleted)
+            throws StateAccessException, SerializationException;
+
     List<Route> routesFindByRouter(UUID routerId)
             throws StateAccessException, SerializationException;
 
@@ -177,6 +177,30 @@ public class LocalClientImpl implements Client {
         portsManager.registerNewBuilder(portID, builder);
     }
 
+    @Override
+    public void releaseBridge(UUID bridgeID) {
+        log.debug("releaseBridge {}", bridgeID);
+        bridgeManager.unregisterBuilder(bridgeID);
+    }
+
+    @Override
+    public void releaseRouter(UUID routerID) {
+        log.debug("releaseRouter {}", routerID);
+        routerManager.unregisterBuilder(routerID);
+    }
+
+    @Override
+    public void releaseChain(UUID chainID) {
+        log.debug("releaseChain {}", chainID);
+        chainManager.unregisterBuilder(chainID);
+    }
+
+    @Override
+    public void releasePort(UUID portID) {
+        log.debug("releasePort {}", portID);
+        portsManager.unregisterBuilder(portID);
+    }
+
     @Override
     public void getHost(final UUID hostID, final HostBuilder builder) {
         log.debug("getHost {}", hostID);
@@ -18,6 +18,7 @@ package org.midonet.cluster;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -565,9 +566,18 @@ public class LocalDataClientImpl implements DataClient {
         log.debug("bridgesGetAll entered");
         List<Bridge> bridges = new ArrayList<>();
 
-        for (UUID id :
-            bridgeZkManager.getUuidList(pathBuilder.getBridgesPath())) {
-            Bridge bridge = bridgesGet(id);
+        List<UUID> ids =
+            bridgeZkManager.getUuidList(pathBuilder.getBridgesPath());
+        for (Map.Entry<UUID, BridgeConfig> entry :
+            bridgeZkManager.getAll(ids).entrySet()) {
+            Bridge bridge;
+            if (entry.getValue().vxLanPortId != null) {
+                // Let bridgesGet migrate the legacy vxLanPortId property.
+                bridge = bridgesGet(entry.getKey());
+            } else {
+                bridge = Converter.fromBridgeConfig(entry.getValue());
+                bridge.setId(entry.getKey());
+            }
             if (bridge != null) {
                 bridges.add(bridge);
             }
@@ -976,6 +986,32 @@ public class LocalDataClientImpl implements DataClient {
         return subnets;
     }
 
+    @Override
+    public List<IPv4Subnet> dhcpSubnetAddrsGetByBridge(UUID bridgeId,
+                                                       Runnable watcher)
+            throws StateAccessException {
+        return dhcpZkManager.listSubnets(bridgeId, watcher);
+    }
+
+    @Override
+    public @CheckForNull Subnet dhcpSubnetsGet(UUID bridgeId,
+                                               IPv4Subnet subnetAddr,
+                                               Runnable watcher)
+            throws StateAccessException, SerializationException {
+
+        BridgeDhcpZkManager.Subnet subnetConfig;
+        try {
+            subnetConfig = dhcpZkManager.getSubnet(bridgeId, subnetAddr,
+                                                   watcher);
+        } catch (NoStatePathException e) {
+            return null;
+        }
+
+        Subnet subnet = Converter.fromDhcpSubnetConfig(subnetConfig);
+        subnet.setId(subnetAddr.toZkString());
+        return subnet;
+    }
+
     @Override
     public void dhcpHostsCreate(
             @Nonnull UUID bridgeId, @Nonnull IPv4Subnet subnet,
@@ -1034,6 +1070,31 @@ public class LocalDataClientImpl implements DataClient {
         return hosts;
     }
 
+    @Override
+    public List<MAC> dhcpHostMacsGetBySubnet(UUID bridgeId, IPv4Subnet subnet,
+                                             Runnable watcher)
+            throws StateAccessException {
+        return dhcpZkManager.listHosts(bridgeId, subnet, watcher);
+    }
+
+    @Override
+    public @CheckForNull org.midonet.cluster.data.dhcp.Host dhcpHostsGet(
+            UUID bridgeId, IPv4Subnet subnet, String mac, Runnable watcher)
+            throws StateAccessException, SerializationException {
+
+        BridgeDhcpZkManager.Host hostConfig;
+        try {
+            hostConfig = dhcpZkManager.getHost(bridgeId, subnet, mac, watcher);
+        } catch (NoStatePathException e) {
+            return null;
+        }
+
+        org.midonet.cluster.data.dhcp.Host host =
+                Converter.fromDhcpHostConfig(hostConfig);
+        host.setId(MAC.fromString(mac));
+        return host;
+    }
+
     @Override
     public void dhcpSubnet6Create(@Nonnull UUID bridgeId,
                                   @Nonnull Subnet6 subnet)
@@ -1350,18 +1411,17 @@ public class LocalDataClientImpl implements DataClient {
 
         Collection<UUID> ids = portZkManager.getBridgePortIDs(bridgeId);
         List<BridgePort> ports = new ArrayList<>();
-        for (UUID id : ids) {
-            Port<?, ?> port = portsGet(id);
+        for (Port<?, ?> port : portsGet(ids)) {
             if (port instanceof BridgePort) {
                 // Skip the VxLanPort, since it's not really a
                 // BridgePort and is accessible in other ways.
-                ports.add((BridgePort) portsGet(id));
+                ports.add((BridgePort) port);
             }
         }
 
         ids = portZkManager.getBridgeLogicalPortIDs(bridgeId);
-        for (UUID id : ids) {
-            ports.add((BridgePort) portsGet(id));
+        for (Port<?, ?> port : portsGet(ids)) {
+            ports.add((BridgePort) port);
         }
 
         return ports;
@@ -1388,12 +1448,7 @@ public class LocalDataClientImpl implements DataClient {
             throws StateAccessException, SerializationException {
 
         Collection<UUID> ids = portZkManager.getRouterPortIDs(routerId);
-        List<Port<?, ?>> ports = new ArrayList<>();
-        for (UUID id : ids) {
-            ports.add(portsGet(id));
-        }
-
-        return ports;
+        return portsGet(ids);
     }
 
     @Override
@@ -1426,19 +1481,29 @@ public class LocalDataClientImpl implements DataClient {
 
         String path = pathBuilder.getPortsPath();
         if (zkManager.exists(path)) {
-            Set<String> portIds = zkManager.getChildren(path);
-            for (String id : portIds) {
-                Port<?, ?> port = portsGet(UUID.fromString(id));
-                if (port != null) {
-                    ports.add(port);
-                }
-            }
+            ports = portsGet(portZkManager.getUuidList(path));
         }
 
         log.debug("portsGetAll exiting: {} routers found", ports.size());
         return ports;
     }
 
+    /**
+     * Gets the ports with the given IDs, reading them in bulk. Ports that do
+     * not exist are skipped.
+     */
+    private List<Port<?, ?>> portsGet(Collection<UUID> ids)
+            throws StateAccessException, SerializationException {
+        Map<UUID, PortConfig> configs = portZkManager.getAll(ids);
+        List<Port<?, ?>> ports = new ArrayList<>(configs.size());
+        for (Map.Entry<UUID, PortConfig> entry : configs.entrySet()) {
+            Port<?, ?> port = Converter.fromPortConfig(entry.getValue());
+            port.setId(entry.getKey());
+            ports.add(port);
+        }
+        return ports;
+    }
+
     @Override
     public @CheckForNull Port<?,?> portsGet(UUID id)
             throws StateAccessException, SerializationException {
@@ -2830,6 +2895,45 @@ public class LocalDataClientImpl implements DataClient {
         return routeZkManager.create(Converter.toRouteConfig(route), false);
     }
 
+    @Override
+    public void routesUpdateEphemeral(@Nonnull Map<UUID, Route> created,
+                                      @Nonnull Map<UUID, Route> deleted)
+            throws StateAccessException, SerializationException {
+        // The routes of a batch usually go through the same port, whose
+        // configuration determines where the routes are stored.
+        Map<UUID, PortDirectory.RouterPortConfig> ports = new HashMap<>();
+        List<Op> ops = new ArrayList<>();
+        for (Map.Entry<UUID, Route> entry : deleted.entrySet()) {
+            org.midonet.midolman.layer3.Route config =
+                Converter.toRouteConfig(entry.getValue());
+            ops.addAll(routeZkManager.prepareRouteDelete(
+                entry.getKey(), config, routePortConfig(config, ports)));
+        }
+        for (Map.Entry<UUID, Route> entry : created.entrySet()) {
+            org.midonet.midolman.layer3.Route config =
+                Converter.toRouteConfig(entry.getValue());
+            ops.addAll(routeZkManager.prepareRouteCreate(
+                entry.getKey(), config, false, routePortConfig(config, ports)));
+        }
+        if (!ops.isEmpty())
+            zkManager.multi(ops);
+    }
+
+    private PortDirectory.RouterPortConfig routePortConfig(
+            org.midonet.midolman.layer3.Route route,
+            Map<UUID, PortDirectory.RouterPortConfig> ports)
+            throws StateAccessException, SerializationException {
+        if (!route.nextHop.toPort())
+            return null;
+        PortDirectory.RouterPortConfig port = ports.get(route.nextHopPort);
+        if (port == null) {
+            port = portZkManager.get(route.nextHopPort,
+                                     PortDirectory.RouterPortConfig.class);
+            ports.put(route.nextHopPort, port);
+        }
+        return port;
+    }
+
     @Override
     public List<Route> routesFindByRouter(UUID routerId)
             throws StateAccessException, SerializationException {
@@ -2856,12 +2960,12 @@ public class LocalDataClientImpl implements DataClient {
 
         String path = pathBuilder.getRoutersPath();
         if (zkManager.exists(path)) {
-            Set<String> routerIds = zkManager.getChildren(path);
-            for (String id : routerIds) {
-                Router router = routersGet(UUID.fromString(id));
-                if (router != null) {
-                    routers.add(router);
-                }
+            List<UUID> ids = routerZkManager.getUuidList(path);
+            for (Map.Entry<UUID, RouterZkManager.RouterConfig> entry :
+                routerZkManager.getAll(ids).entrySet()) {
+                Router router = Converter.fromRouterConfig(entry.getValue());
+                router.setId(entry.getKey());
+                routers.add(router);
             }
         }
 
@@ -52,6 +52,7 @@ import org.midonet.midolman.routingprotocols.RoutingManagerActor;
 import org.midonet.midolman.services.HostIdProviderService;
 import org.midonet.midolman.services.MidolmanActorsService;
 import org.midonet.midolman.state.FlowStateStorageFactory;
+import org.midonet.midolman.topology.ReachabilityPrefetcher;
 import org.midonet.midolman.topology.VirtualToPhysicalMapper;
 import org.midonet.midolman.topology.VirtualTopologyActor;
 import org.midonet.util.concurrent.NanoClock;
@@ -122,6 +123,7 @@ public class MidolmanActorsModule extends PrivateModule {
         bind(RoutingManagerActor.class);
         bind(HealthMonitor.class);
         bind(MtuIncreaser.class);
+        bind(ReachabilityPrefetcher.class);
     }
 
     protected void bindMidolmanActorsService() {
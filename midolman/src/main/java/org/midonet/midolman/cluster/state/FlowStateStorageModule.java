@@ -15,6 +15,8 @@
  */
 package org.midonet.midolman.cluster.state;
 
+import java.io.File;
+
 import com.google.inject.Inject;
 import com.google.inject.Key;
 import com.google.inject.PrivateModule;
@@ -25,6 +27,8 @@ import com.google.inject.name.Names;
 import org.midonet.cluster.backend.cassandra.CassandraClient;
 import org.midonet.midolman.config.MidolmanConfig;
 import org.midonet.midolman.cluster.zookeeper.ZkConnectionProvider;
+import org.midonet.midolman.state.FlowStateJournal;
+import org.midonet.midolman.state.FlowStateJournal$;
 import org.midonet.midolman.state.FlowStateStorage;
 import org.midonet.midolman.state.FlowStateStorage$;
 import org.midonet.midolman.state.FlowStateStorageFactory;
@@ -55,25 +59,36 @@ public class FlowStateStorageModule extends PrivateModule {
 
         @Override
         public FlowStateStorageFactory get() {
+            boolean legacyWrites = config.getFlowStateLegacyWrites();
             CassandraClient cass = new CassandraClient(
                     config.getCassandraServers(), config.getCassandraCluster(),
                     "MidonetFlowState", config.getCassandraReplicationFactor(),
-                    FlowStateStorage$.MODULE$.SCHEMA(), reactor);
+                    FlowStateStorage$.MODULE$.schema(legacyWrites), reactor);
             cass.connect();
-            return new FlowStateStorageFactoryImpl(cass);
+            String journalDir = config.getFlowStateJournalDir();
+            FlowStateJournal journal = journalDir.isEmpty() ? null
+                : FlowStateJournal$.MODULE$.apply(new File(journalDir));
+            return new FlowStateStorageFactoryImpl(cass, journal,
+                                                  legacyWrites);
         }
     }
 
     private static class FlowStateStorageFactoryImpl implements FlowStateStorageFactory {
         CassandraClient cass;
+        FlowStateJournal journal;
+        boolean legacyWrites;
 
-        public FlowStateStorageFactoryImpl(CassandraClient cass) {
+        public FlowStateStorageFactoryImpl(CassandraClient cass,
+                                           FlowStateJournal journal,
+                                           boolean legacyWrites) {
             this.cass = cass;
+            this.journal = journal;
+            this.legacyWrites = legacyWrites;
         }
 
         @Override
         public FlowStateStorage create() {
-            return FlowStateStorage$.MODULE$.apply(cass);
+            return FlowStateStorage$.MODULE$.apply(cass, journal, legacyWrites);
         }
     }
 }
@@ -69,6 +69,12 @@ public interface MidolmanConfig
     @ConfigString(key = "cache_type", defaultValue = "cassandra")
     public String getMidolmanCacheType();
 
+    @ConfigString(key = "flow_state_journal_dir", defaultValue = "")
+    public String getFlowStateJournalDir();
+
+    @ConfigBool(key = "flow_state_legacy_writes", defaultValue = true)
+    public boolean getFlowStateLegacyWrites();
+
     @ConfigString(key = "top_level_actor_supervisor", defaultValue = "resume")
     public String getMidolmanTopLevelActorSupervisor();
 
@@ -78,6 +84,15 @@ public interface MidolmanConfig
     @ConfigInt(key = "idle_flow_tolerance_interval", defaultValue = 10000)
     public int getIdleFlowToleranceInterval();
 
+    @ConfigInt(key = "flow_stats_dump_interval", defaultValue = 0)
+    public int getFlowStatsDumpInterval();
+
+    @ConfigInt(key = "meters_collection_interval", defaultValue = 0)
+    public int getMetersCollectionInterval();
+
+    @ConfigInt(key = "meters_collection_max_cpu_percent", defaultValue = 5)
+    public int getMetersCollectionMaxCpuPercent();
+
     @ConfigBool(key = "enable_dashboard", defaultValue = false)
     public boolean getDashboardEnabled();
 
@@ -92,6 +107,14 @@ public interface MidolmanConfig
     @ConfigInt(key = "max_bgp_peer_routes", defaultValue = 200)
     public int getMaxBgpPeerRoutes();
 
+    @ConfigGroup("router")
+    @ConfigInt(key = "route_update_window_millis", defaultValue = 0)
+    public int getRouteUpdateWindowMillis();
+
+    @ConfigGroup("router")
+    @ConfigInt(key = "bgp_route_publication_window_millis", defaultValue = 100)
+    public int getBgpRoutePublicationWindowMillis();
+
     @ConfigInt(key = "simulation_threads", defaultValue = 1)
     public int getSimulationThreads();
 
@@ -101,4 +124,10 @@ public interface MidolmanConfig
     @ConfigString(key = "input_channel_threading", defaultValue = "one_to_many")
     public String getInputChannelThreading();
 
+    @ConfigInt(key = "topology_prefetch_depth", defaultValue = 4)
+    public int getTopologyPrefetchDepth();
+
+    @ConfigInt(key = "device_idle_eviction_seconds", defaultValue = 0)
+    public int getDeviceIdleEvictionSeconds();
+
 }
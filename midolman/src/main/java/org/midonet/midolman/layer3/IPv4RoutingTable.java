@@ -16,27 +16,305 @@
 
 package org.midonet.midolman.layer3;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv4Subnet;
 
 /**
- * TODO (galo) - transitional, wraps the legacy RoutesTrie implementation
- * into the new RoutingTableIfc interface. All classes depending on
- * RoutesTrie should be refactored to conform to the RoutesTrie interface.
+ * An IPv4 routing table backed by an immutable, path-compressed binary trie
+ * of destination prefixes.
+ *
+ * Updates copy the nodes on the path to the modified prefix and publish the
+ * new root with a volatile write, so lookups never lock and always see a
+ * consistent version of the table. Each node pre-computes its ECMP set, that
+ * is, its routes with the lowest weight, which is returned as is by lookups
+ * when none of the node's routes depends on the source address. Lookups
+ * only allocate when they need to filter the routes of a prefix by source.
+ *
+ * Updates are serialized among themselves.
  */
 public class IPv4RoutingTable implements RoutingTableIfc<IPv4Addr> {
 
-    private RoutingTable legacyTable = new RoutingTable();
+    private final static Logger log =
+        LoggerFactory.getLogger(IPv4RoutingTable.class);
+
+    private static final Route[] NO_ROUTES = new Route[0];
+
+    private static final Comparator<Route> WEIGHT_ORDER =
+        new Comparator<Route>() {
+            @Override
+            public int compare(Route r1, Route r2) {
+                return Integer.compare(r1.weight, r2.weight);
+            }
+        };
+
+    /**
+     * An immutable node of the trie, holding the routes whose destination
+     * is the prefix addr/bitlen, ordered by weight.
+     */
+    static final class Node {
+        final int addr;
+        final int bitlen;
+        final Node left;
+        final Node right;
+        final Route[] routes;
+        /* The lowest weight routes, or null if they depend on the source */
+        final List<Route> ecmp;
+
+        Node(int addr, int bitlen, Node left, Node right, Route[] routes) {
+            this.addr = addr;
+            this.bitlen = bitlen;
+            this.left = left;
+            this.right = right;
+            this.routes = routes;
+            this.ecmp = ecmpOf(routes);
+        }
+
+        Node withRoutes(Route[] routes) {
+            return new Node(addr, bitlen, left, right, routes);
+        }
+
+        Node withChildren(Node left, Node right) {
+            return new Node(addr, bitlen, left, right, routes);
+        }
+
+        boolean goesLeft(int ip) {
+            return 0 == (ip & (0x80000000 >>> bitlen));
+        }
+
+        boolean matchesSource(int src) {
+            for (Route rt : routes) {
+                if (IPv4Subnet.addrMatch(src, rt.srcNetworkAddr,
+                                         rt.srcNetworkLength))
+                    return true;
+            }
+            return false;
+        }
+
+        List<Route> routesFrom(int src) {
+            List<Route> ret = new ArrayList<>();
+            for (Route rt : routes) {
+                if (IPv4Subnet.addrMatch(src, rt.srcNetworkAddr,
+                                         rt.srcNetworkLength)) {
+                    if (!ret.isEmpty() && ret.get(0).weight != rt.weight)
+                        break;
+                    ret.add(rt);
+                }
+            }
+            return ret;
+        }
+
+        private static List<Route> ecmpOf(Route[] routes) {
+            if (routes.length == 0)
+                return Collections.emptyList();
+            int count = 0;
+            for (Route rt : routes) {
+                if (rt.srcNetworkLength != 0)
+                    return null;
+                if (rt.weight == routes[0].weight)
+                    count++;
+            }
+            return Collections.unmodifiableList(
+                Arrays.asList(Arrays.copyOf(routes, count)));
+        }
+
+        @Override
+        public String toString() {
+            return "Node [addr=" + IPv4Addr.intToString(addr) + ", bitlen=" +
+                   bitlen + ", left=" + left + ", right=" + right +
+                   ", routes=" + Arrays.toString(routes) + "]";
+        }
+    }
+
+    private volatile Node root = null;
+    private volatile int numRoutes = 0;
+
+    public IPv4RoutingTable() { }
+
+    private IPv4RoutingTable(Node root, int numRoutes) {
+        this.root = root;
+        this.numRoutes = numRoutes;
+    }
+
+    /**
+     * Returns a copy of this table that later updates don't affect. Since
+     * the nodes are immutable, the copy shares all of them and takes
+     * constant time.
+     */
+    public synchronized IPv4RoutingTable snapshot() {
+        return new IPv4RoutingTable(root, numRoutes);
+    }
 
-    public void addRoute(Route rt) {
-        legacyTable.addRoute(rt);
+    @Override
+    public synchronized void addRoute(Route rt) {
+        log.debug("addRoute: {}", rt);
+        int dst = mask(rt.dstNetworkAddr, rt.dstNetworkLength);
+        Node newRoot = insert(root, dst, rt.dstNetworkLength, rt);
+        if (newRoot != root) {
+            numRoutes++;
+            root = newRoot;
+        }
     }
 
-    public void deleteRoute(Route rt) {
-        legacyTable.deleteRoute(rt);
+    @Override
+    public synchronized void deleteRoute(Route rt) {
+        log.debug("deleteRoute: {}", rt);
+        int dst = mask(rt.dstNetworkAddr, rt.dstNetworkLength);
+        Node newRoot = delete(root, dst, rt.dstNetworkLength, rt);
+        if (newRoot != root) {
+            numRoutes--;
+            root = newRoot;
+        }
     }
 
-    public Iterable<Route> lookup(IPv4Addr src, IPv4Addr dst) {
-        return legacyTable.lookup(src.toInt(), dst.toInt());
+    @Override
+    public List<Route> lookup(IPv4Addr src, IPv4Addr dst) {
+        return lookup(src.toInt(), dst.toInt());
     }
 
+    /**
+     * Returns the lowest weight routes, among those of the longest
+     * destination prefix matching dst that have any route matching src.
+     * The returned list must not be modified.
+     */
+    public List<Route> lookup(int src, int dst) {
+        Node best = null;
+        Node node = root;
+        while (null != node && IPv4Subnet.addrMatch(dst, node.addr,
+                                                    node.bitlen)) {
+            if (node.routes.length > 0 &&
+                (null != node.ecmp || node.matchesSource(src)))
+                best = node;
+            if (node.bitlen == 32)
+                break;
+            node = node.goesLeft(dst) ? node.left : node.right;
+        }
+
+        List<Route> ret = null == best ? Collections.<Route>emptyList()
+                        : null != best.ecmp ? best.ecmp
+                        : best.routesFrom(src);
+
+        if (log.isDebugEnabled()) {
+            log.debug("lookup: return {} for src {} dst {} in table with {} " +
+                      "routes", ret, IPv4Addr.intToString(src),
+                      IPv4Addr.intToString(dst), numRoutes);
+        }
+        return ret;
+    }
+
+    public int numRoutes() {
+        return numRoutes;
+    }
+
+    private static int mask(int addr, int bitlen) {
+        return bitlen == 0 ? 0 : addr & (0xffffffff << (32 - bitlen));
+    }
+
+    private static Node insert(Node node, int dst, int bitlen, Route rt) {
+        if (null == node)
+            return new Node(dst, bitlen, null, null, new Route[] { rt });
+
+        if (bitlen >= node.bitlen &&
+            IPv4Subnet.addrMatch(dst, node.addr, node.bitlen)) {
+            if (bitlen == node.bitlen) {
+                Route[] routes = addTo(node.routes, rt);
+                return routes == node.routes ? node : node.withRoutes(routes);
+            }
+            if (node.goesLeft(dst)) {
+                Node left = insert(node.left, dst, bitlen, rt);
+                return left == node.left ? node
+                                         : node.withChildren(left, node.right);
+            } else {
+                Node right = insert(node.right, dst, bitlen, rt);
+                return right == node.right ? node
+                                           : node.withChildren(node.left, right);
+            }
+        }
+
+        // The route's prefix diverges from the node's: either a new node is
+        // inserted as the parent of both, or the route's node becomes the
+        // parent of the existing node.
+        int diffBit = RoutesTrie.findMSB(node.addr ^ dst);
+        Node leaf = new Node(dst, bitlen, null, null, new Route[] { rt });
+        if (diffBit < node.bitlen && diffBit < bitlen) {
+            int addr = mask(dst, diffBit);
+            return 0 == (dst & (0x80000000 >>> diffBit))
+                   ? new Node(addr, diffBit, leaf, node, NO_ROUTES)
+                   : new Node(addr, diffBit, node, leaf, NO_ROUTES);
+        } else {
+            return leaf.goesLeft(node.addr) ? leaf.withChildren(node, null)
+                                            : leaf.withChildren(null, node);
+        }
+    }
+
+    private static Node delete(Node node, int dst, int bitlen, Route rt) {
+        if (null == node || bitlen < node.bitlen ||
+            !IPv4Subnet.addrMatch(dst, node.addr, node.bitlen))
+            return node;
+
+        Node newNode;
+        if (bitlen == node.bitlen) {
+            Route[] routes = removeFrom(node.routes, rt);
+            if (routes == node.routes)
+                return node;
+            newNode = node.withRoutes(routes);
+        } else if (node.goesLeft(dst)) {
+            Node left = delete(node.left, dst, bitlen, rt);
+            if (left == node.left)
+                return node;
+            newNode = node.withChildren(left, node.right);
+        } else {
+            Node right = delete(node.right, dst, bitlen, rt);
+            if (right == node.right)
+                return node;
+            newNode = node.withChildren(node.left, right);
+        }
+
+        // A node without routes is only kept when it joins two sub-tries.
+        if (newNode.routes.length == 0) {
+            if (null == newNode.left)
+                return newNode.right;
+            if (null == newNode.right)
+                return newNode.left;
+        }
+        return newNode;
+    }
+
+    private static Route[] addTo(Route[] routes, Route rt) {
+        for (Route route : routes) {
+            if (route.equals(rt))
+                return routes;
+        }
+        Route[] ret = Arrays.copyOf(routes, routes.length + 1);
+        ret[routes.length] = rt;
+        Arrays.sort(ret, WEIGHT_ORDER);
+        return ret;
+    }
+
+    private static Route[] removeFrom(Route[] routes, Route rt) {
+        for (int i = 0; i < routes.length; i++) {
+            if (routes[i].equals(rt)) {
+                if (routes.length == 1)
+                    return NO_ROUTES;
+                Route[] ret = new Route[routes.length - 1];
+                System.arraycopy(routes, 0, ret, 0, i);
+                System.arraycopy(routes, i + 1, ret, i, ret.length - i);
+                return ret;
+            }
+        }
+        return routes;
+    }
+
+    @Override
+    public String toString() {
+        return "IPv4RoutingTable [root=" + root + "]";
+    }
 }
@@ -15,6 +15,8 @@
  */
 package org.midonet.midolman.layer3;
 
+import java.util.List;
+
 import org.midonet.packets.IPAddr;
 
 /**
@@ -38,8 +40,10 @@ public interface RoutingTableIfc<IP extends IPAddr> {
     public void deleteRoute(Route rt);
 
     /**
-     * Returns a route.
+     * Returns the routes to use for a packet, that is, the equal cost
+     * routes of the longest matching destination prefix. The returned list
+     * must not be modified.
      */
-    public Iterable<Route> lookup(IP src, IP dst);
+    public List<Route> lookup(IP src, IP dst);
 
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.rules;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.midonet.midolman.simulation.PacketContext;
+import org.midonet.odp.FlowMatch;
+import org.midonet.packets.IPAddr;
+import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv4Subnet;
+import org.midonet.util.Range;
+
+/**
+ * A compiled index over the rules of a chain, which narrows down the rules
+ * that can match a packet by looking up the packet's in port, network
+ * protocol, network addresses and transport destination port. Each of these
+ * dimensions maps a packet value to the set of rules, as a bitset indexed by
+ * rule position, that either constrain the dimension to that value or don't
+ * constrain it at all. The rules that may match a packet are the intersection
+ * of these sets, and are still evaluated, in order, with Rule.process().
+ *
+ * Skipping a rule must not change the fields the simulation has seen in the
+ * packet's FlowMatch, since megaflows are computed from them, nor any other
+ * state of the PacketContext. Thus:
+ *  - The classifier is only used once all the fields Condition.matches()
+ *    may read have already been seen, see canClassify(). Until then, rules
+ *    are to be evaluated linearly.
+ *  - Rules with an inverted conjunction, or matching on the flow direction,
+ *    are never skipped: the latter set up the connection tracking state of
+ *    the packet.
+ *
+ * Instances are immutable once built and can be shared by the simulation
+ * threads.
+ */
+public final class RuleClassifier {
+
+    /** Chains with fewer rules are cheaper to evaluate linearly. */
+    public static final int MIN_RULES = 8;
+
+    /** The FlowMatch fields read by Condition.matches(). */
+    public static final long MATCHED_FIELDS =
+        (1L << FlowMatch.Field.FragmentType.ordinal()) |
+        (1L << FlowMatch.Field.NetworkSrc.ordinal()) |
+        (1L << FlowMatch.Field.NetworkDst.ordinal()) |
+        (1L << FlowMatch.Field.EtherType.ordinal()) |
+        (1L << FlowMatch.Field.EthSrc.ordinal()) |
+        (1L << FlowMatch.Field.EthDst.ordinal()) |
+        (1L << FlowMatch.Field.NetworkTOS.ordinal()) |
+        (1L << FlowMatch.Field.NetworkProto.ordinal()) |
+        (1L << FlowMatch.Field.SrcPort.ordinal()) |
+        (1L << FlowMatch.Field.DstPort.ordinal());
+
+    private static final long MAX_IPV4 = 0xFFFFFFFFL;
+
+    /**
+     * Maps the values of a dimension, split in consecutive intervals, to the
+     * set of rules that match each interval.
+     */
+    private static final class IntervalIndex {
+        private final long[] bounds;
+        private final long[][] sets;
+
+        private IntervalIndex(long[] bounds, long[][] sets) {
+            this.bounds = bounds;
+            this.sets = sets;
+        }
+
+        long[] lookup(long value) {
+            int i = Arrays.binarySearch(bounds, value);
+            return sets[i >= 0 ? i : -i - 2];
+        }
+    }
+
+    private final int ruleCount;
+    private final long[] all;
+    private final Map<UUID, long[]> inPorts;
+    private final long[] anyInPort;
+    private final long[][] nwProtos;
+    private final IntervalIndex nwSrc;
+    private final IntervalIndex nwDst;
+    private final IntervalIndex tpDst;
+
+    private RuleClassifier(int ruleCount, long[] all,
+                           Map<UUID, long[]> inPorts, long[] anyInPort,
+                           long[][] nwProtos, IntervalIndex nwSrc,
+                           IntervalIndex nwDst, IntervalIndex tpDst) {
+        this.ruleCount = ruleCount;
+        this.all = all;
+        this.inPorts = inPorts;
+        this.anyInPort = anyInPort;
+        this.nwProtos = nwProtos;
+        this.nwSrc = nwSrc;
+        this.nwDst = nwDst;
+        this.tpDst = tpDst;
+    }
+
+    /**
+     * Builds the classifier for the specified rules.
+     *
+     * @return the classifier, or null if there are too few rules or no rule
+     *         can be indexed.
+     */
+    public static RuleClassifier build(List<Rule> rules) {
+        int count = rules.size();
+        if (count < MIN_RULES)
+            return null;
+
+        Condition[] conds = new Condition[count];
+        for (int i = 0; i < count; i++) {
+            Condition c = rules.get(i).getCondition();
+            conds[i] = isIndexable(c) ? c : null;
+        }
+
+        long[] all = newSet(count);
+        for (int i = 0; i < count; i++)
+            set(all, i);
+
+        Map<UUID, long[]> inPorts = null;
+        long[] anyInPort = null;
+        long[][] nwProtos = null;
+        long[] srcLo = new long[count], srcHi = new long[count];
+        long[] dstLo = new long[count], dstHi = new long[count];
+        long[] tpLo = new long[count], tpHi = new long[count];
+        boolean[] hasSrc = new boolean[count];
+        boolean[] hasDst = new boolean[count];
+        boolean[] hasTp = new boolean[count];
+        boolean anySrc = false, anyDst = false, anyTp = false;
+
+        for (int i = 0; i < count; i++) {
+            Condition c = conds[i];
+            if (c == null)
+                continue;
+            if (c.inPortIds != null && !c.inPortIds.isEmpty() &&
+                !c.inPortInv) {
+                if (inPorts == null)
+                    inPorts = new HashMap<>();
+                for (UUID port : c.inPortIds) {
+                    long[] ports = inPorts.get(port);
+                    if (ports == null)
+                        inPorts.put(port, ports = newSet(count));
+                    set(ports, i);
+                }
+            }
+            if (c.nwProto != null && !c.nwProtoInv) {
+                if (nwProtos == null)
+                    nwProtos = new long[256][];
+                int proto = c.nwProto & 0xFF;
+                if (nwProtos[proto] == null)
+                    nwProtos[proto] = newSet(count);
+                set(nwProtos[proto], i);
+            }
+            if (c.nwSrcIp instanceof IPv4Subnet && !c.nwSrcInv) {
+                IPv4Subnet subnet = (IPv4Subnet) c.nwSrcIp;
+                srcLo[i] = networkAddress(subnet);
+                srcHi[i] = broadcastAddress(subnet);
+                hasSrc[i] = anySrc = true;
+            }
+            if (c.nwDstIp instanceof IPv4Subnet && !c.nwDstInv) {
+                IPv4Subnet subnet = (IPv4Subnet) c.nwDstIp;
+                dstLo[i] = networkAddress(subnet);
+                dstHi[i] = broadcastAddress(subnet);
+                hasDst[i] = anyDst = true;
+            }
+            if (c.tpDst != null && !c.tpDstInv) {
+                Range<Integer> range = c.tpDst;
+                tpLo[i] = range.start() != null ? range.start()
+                                                : Integer.MIN_VALUE;
+                tpHi[i] = range.end() != null ? range.end()
+                                              : Integer.MAX_VALUE;
+                hasTp[i] = anyTp = true;
+            }
+        }
+
+        if (inPorts != null) {
+            anyInPort = newSet(count);
+            for (int i = 0; i < count; i++) {
+                Condition c = conds[i];
+                if (c == null || c.inPortIds == null ||
+                    c.inPortIds.isEmpty() || c.inPortInv)
+                    set(anyInPort, i);
+            }
+            for (long[] ports : inPorts.values())
+                or(ports, anyInPort);
+        }
+
+        if (nwProtos != null) {
+            long[] anyProto = newSet(count);
+            for (int i = 0; i < count; i++) {
+                Condition c = conds[i];
+                if (c == null || c.nwProto == null || c.nwProtoInv)
+                    set(anyProto, i);
+            }
+            for (int proto = 0; proto < nwProtos.length; proto++) {
+                if (nwProtos[proto] == null)
+                    nwProtos[proto] = anyProto;
+                else
+                    or(nwProtos[proto], anyProto);
+            }
+        }
+
+        IntervalIndex nwSrc = anySrc ?
+            buildIntervals(count, hasSrc, srcLo, srcHi, 0L, MAX_IPV4) : null;
+        IntervalIndex nwDst = anyDst ?
+            buildIntervals(count, hasDst, dstLo, dstHi, 0L, MAX_IPV4) : null;
+        IntervalIndex tpDst = anyTp ?
+            buildIntervals(count, hasTp, tpLo, tpHi, Integer.MIN_VALUE,
+                           Integer.MAX_VALUE) : null;
+
+        if (inPorts == null && nwProtos == null && nwSrc == null &&
+            nwDst == null && tpDst == null)
+            return null;
+
+        return new RuleClassifier(count, all, inPorts, anyInPort, nwProtos,
+                                  nwSrc, nwDst, tpDst);
+    }
+
+    /**
+     * Whether the rules of the classified chain can be skipped for this
+     * packet without changing the fields seen in its FlowMatch.
+     */
+    public boolean canClassify(FlowMatch match) {
+        return (match.getSeenFields() & MATCHED_FIELDS) == MATCHED_FIELDS;
+    }
+
+    /**
+     * Computes the set of rules that may match the packet. The fields read
+     * from the packet's FlowMatch must already have been seen.
+     */
+    public long[] candidates(PacketContext pktCtx, boolean isPortFilter) {
+        long[] candidates = Arrays.copyOf(all, all.length);
+        if (inPorts != null) {
+            // In a port filter, conditions on the in port never match.
+            long[] ports = isPortFilter ? null
+                                        : inPorts.get(pktCtx.inPortId());
+            and(candidates, ports != null ? ports : anyInPort);
+        }
+
+        FlowMatch match = pktCtx.wcmatch();
+        if (nwProtos != null)
+            and(candidates, nwProtos[match.getNetworkProto() & 0xFF]);
+        if (nwSrc != null) {
+            IPAddr ip = match.getNetworkSrcIP();
+            if (ip instanceof IPv4Addr)
+                and(candidates, nwSrc.lookup(((IPv4Addr) ip).toInt()
+                                             & MAX_IPV4));
+        }
+        if (nwDst != null) {
+            IPAddr ip = match.getNetworkDstIP();
+            if (ip instanceof IPv4Addr)
+                and(candidates, nwDst.lookup(((IPv4Addr) ip).toInt()
+                                             & MAX_IPV4));
+        }
+        if (tpDst != null)
+            and(candidates, tpDst.lookup(match.getDstPort()));
+        return candidates;
+    }
+
+    /**
+     * @return the position of the first candidate rule at or after the
+     *         specified position, or -1 if there is none.
+     */
+    public static int nextCandidate(long[] candidates, int from) {
+        int word = from >>> 6;
+        if (word >= candidates.length)
+            return -1;
+        long bits = candidates[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == candidates.length)
+                return -1;
+            bits = candidates[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    public int ruleCount() {
+        return ruleCount;
+    }
+
+    /* Conditions that can be matched by a packet regardless of the value
+     * of any given field, or that have side effects on the packet context
+     * when evaluated, are wildcards for all the dimensions. */
+    private static boolean isIndexable(Condition c) {
+        return !c.conjunctionInv && !c.matchForwardFlow && !c.matchReturnFlow;
+    }
+
+    private static IntervalIndex buildIntervals(int count, boolean[] has,
+                                                long[] lo, long[] hi,
+                                                long min, long max) {
+        TreeSet<Long> points = new TreeSet<>();
+        points.add(min);
+        for (int i = 0; i < count; i++) {
+            if (!has[i])
+                continue;
+            points.add(Math.max(lo[i], min));
+            if (hi[i] < max)
+                points.add(hi[i] + 1);
+        }
+
+        long[] bounds = new long[points.size()];
+        int n = 0;
+        for (Long point : points)
+            bounds[n++] = point;
+
+        long[][] sets = new long[bounds.length][];
+        for (int k = 0; k < bounds.length; k++) {
+            long[] set = newSet(count);
+            long point = bounds[k];
+            for (int i = 0; i < count; i++) {
+                if (!has[i] || (lo[i] <= point && point <= hi[i]))
+                    set(set, i);
+            }
+            sets[k] = set;
+        }
+        return new IntervalIndex(bounds, sets);
+    }
+
+    private static long networkAddress(IPv4Subnet subnet) {
+        return subnet.toNetworkAddress().toInt() & MAX_IPV4;
+    }
+
+    private static long broadcastAddress(IPv4Subnet subnet) {
+        int prefixLen = subnet.getPrefixLen();
+        return networkAddress(subnet) |
+               (prefixLen == 0 ? MAX_IPV4 : (MAX_IPV4 >>> prefixLen));
+    }
+
+    private static long[] newSet(int count) {
+        return new long[(count + 63) >>> 6];
+    }
+
+    private static void set(long[] set, int i) {
+        set[i >>> 6] |= 1L << i;
+    }
+
+    private static void or(long[] set, long[] other) {
+        for (int i = 0; i < set.length; i++)
+            set[i] |= other[i];
+    }
+
+    private static void and(long[] set, long[] other) {
+        for (int i = 0; i < set.length; i++)
+            set[i] &= other[i];
+    }
+}
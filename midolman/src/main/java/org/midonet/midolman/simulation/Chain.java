@@ -17,7 +17,6 @@ package org.midonet.midolman.simulation;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -26,7 +25,9 @@ import scala.Option;
 import scala.collection.Map;
 
 import org.midonet.midolman.rules.JumpRule;
+import org.midonet.midolman.rules.NatRule;
 import org.midonet.midolman.rules.Rule;
+import org.midonet.midolman.rules.RuleClassifier;
 import org.midonet.midolman.rules.RuleResult;
 import org.midonet.midolman.rules.RuleResult.Action;
 import org.midonet.sdn.flows.FlowTagger;
@@ -39,6 +40,7 @@ public class Chain implements VirtualDevice {
     private final Map<UUID, Chain> jumpTargets;
     public final String name;
     public final FlowTagger.FlowTag flowInvTag;
+    private final RuleClassifier classifier;
 
     public Chain(UUID id, List<Rule> rules, Map<UUID, Chain> jumpTargets,
                  String name) {
@@ -47,6 +49,7 @@ public class Chain implements VirtualDevice {
         this.jumpTargets = jumpTargets;
         this.name = name;
         flowInvTag = FlowTagger.tagForDevice(id);
+        classifier = RuleClassifier.build(this.rules);
     }
 
     public int hashCode() {
@@ -99,12 +102,31 @@ public class Chain implements VirtualDevice {
         context.addFlowTag(flowInvTag);
         traversedChains.add(id);
 
-        Iterator<Rule> iter = rules.iterator();
+        // Rules are evaluated in order until the packet fields they match on
+        // have all been seen, from then on only the rules selected by the
+        // classifier are evaluated. The candidates are recomputed whenever
+        // the packet may have been modified by a NAT rule or a jump chain.
+        long[] candidates = null;
+        int i = 0;
         res.action = Action.CONTINUE;
-        while (iter.hasNext() && res.action == Action.CONTINUE) {
+        while (i < rules.size() && res.action == Action.CONTINUE) {
 
-            Rule r = iter.next();
+            if (classifier != null) {
+                if (candidates == null &&
+                        classifier.canClassify(context.wcmatch())) {
+                    candidates = classifier.candidates(context, isPortFilter);
+                }
+                if (candidates != null) {
+                    i = RuleClassifier.nextCandidate(candidates, i);
+                    if (i < 0)
+                        break;
+                }
+            }
+
+            Rule r = rules.get(i++);
             r.process(context, res, ownerId, isPortFilter);
+            if (r instanceof NatRule)
+                candidates = null;
 
             if (res.action == Action.JUMP) {
                 Chain jumpChain = getJumpTarget(res.jumpToChain);
@@ -124,6 +146,7 @@ public class Chain implements VirtualDevice {
                                     res, depth + 1, traversedChains);
                     if (res.action == Action.RETURN)
                         res.action = Action.CONTINUE;
+                    candidates = null;
                 }
             }
         }
@@ -31,6 +31,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -168,6 +169,40 @@ public abstract class AbstractZkManager<K, CFG>
         return configs;
     }
 
+    /**
+     * Gets the configs for the specified multiple resource IDs, reading
+     * them from ZooKeeper in bulk. Unlike get(Collection), resources that
+     * do not exist are skipped.
+     *
+     * @param keys IDs of resources to be retrieved.
+     * @return A map from the ID to the config of each existing resource,
+     *         in the iteration order of keys.
+     * @throws StateAccessException
+     * @throws SerializationException
+     */
+    public Map<K, CFG> getAll(Collection<K> keys)
+            throws StateAccessException, SerializationException {
+        List<String> configPaths = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            configPaths.add(getConfigPath(key));
+        }
+        Map<String, byte[]> data = zk.getAll(configPaths);
+
+        Map<K, CFG> configs = new LinkedHashMap<>(data.size());
+        int index = 0;
+        for (K key : keys) {
+            byte[] bytes = data.get(configPaths.get(index++));
+            if (bytes == null)
+                continue;
+            CFG config = serializer.deserialize(bytes, getConfigClass());
+            if (config instanceof BaseConfig && key instanceof UUID) {
+                ((BaseConfig)config).id = (UUID)key;
+            }
+            configs.put(key, config);
+        }
+        return configs;
+    }
+
     /**
      * Gets the config for the specified resource ID asynchronously.
      *
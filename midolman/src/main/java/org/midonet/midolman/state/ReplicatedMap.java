@@ -17,9 +17,9 @@
 package org.midonet.midolman.state;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -70,138 +70,190 @@ public abstract class ReplicatedMap<K, V> {
         }
     }
 
-    private class DirectoryWatcher implements Runnable {
+    /**
+     * Watches the children of the map directory, and applies to the local
+     * map only the differences between the last two lists of children: on
+     * each change of the directory, the paths that were added and removed
+     * since the previous list are decoded, and each of them updates the
+     * entry of its key. Since ZooKeeper watchers are one-shot, the changes
+     * made while a list is being fetched are coalesced into the next one.
+     *
+     * The notifications resulting from an update are delivered together to
+     * the watchers once the local map reflects the whole update.
+     */
+    private class DirectoryWatcher extends Directory.DefaultTypedWatcher
+                                   implements DirectoryCallback<Set<String>> {
 
         /**
-         * Retrieve all the children of the watched directory, handling
-         * failures.
-         * @return the set of paths, or null if a failure happened
+         * Fetches asynchronously the children of the watched directory, and
+         * watches it for the next change.
          */
-        Set<String> getCurPaths() {
-            Set<String> paths = null;
+        @Override
+        public void run() {
+            if (running) {
+                dir.asyncGetChildren("", this, this);
+            }
+        }
+
+        /**
+         * Fetches synchronously the children of the watched directory, so
+         * that the map is populated when it is started.
+         */
+        void load() {
+            Set<String> curPaths = null;
             try {
-                // TODO(pino, rossella): make this asynchronous.
-                paths = dir.getChildren("/", this);
+                curPaths = dir.getChildren("/", this);
             } catch (KeeperException e) {
-                log.warn("DirectoryWatcher.run {}", e);
+                log.warn("DirectoryWatcher.load {}", e);
                 if (connectionWatcher == null) {
                     throw new RuntimeException(e);
                 }
                 connectionWatcher.handleError("ReplicatedMap", this, e);
             } catch (InterruptedException e) {
-                log.error("DirectoryWatcher.run {}", e);
+                log.error("DirectoryWatcher.load {}", e);
                 Thread.currentThread().interrupt();
             }
-            return paths;
+            if (curPaths != null) {
+                update(curPaths);
+            }
+        }
+
+        @Override
+        public void onSuccess(Set<String> curPaths) {
+            update(curPaths);
+        }
+
+        @Override
+        public void onTimeout() {
+            log.warn("DirectoryWatcher getChildren timed out");
+            if (connectionWatcher != null) {
+                connectionWatcher.handleTimeout(this);
+            }
+        }
+
+        @Override
+        public void onError(KeeperException e) {
+            log.warn("DirectoryWatcher getChildren failed {}", e);
+            if (connectionWatcher != null) {
+                connectionWatcher.handleError("ReplicatedMap", this, e);
+            }
         }
 
         /**
-         * Takes the curPaths set and populates the given newMap with them,
-         * using only the highest versioned entry for each key, and adding to
-         * cleanupPaths all that need to be purged.
+         * Adds a path to the local map, keeping as the entry of its key the
+         * path with the highest version, and adding to cleanupPaths the
+         * owned paths replaced by a newer version.
          */
-        void populateNewMap(final Map<K, MapValue> newMap,
-                            final Set<String> curPaths,
-                            final List<Path> cleanupPaths) {
-            for (String path : curPaths) {
-                Path p = decodePath(path);
-                MapValue mv = newMap.get(p.key);
-                if (mv == null)
-                    newMap.put(p.key, new MapValue(p.value, p.version));
-                else if (mv.version < p.version) {
-                    // The one currently in newMap needs to be replaced.
-                    // Also clean it up if it belongs to this ZK client.
-                    newMap.put(p.key, new MapValue(p.value, p.version));
-                    if (ownedVersions.contains(mv.version)) {
-                        p.value = mv.value;
-                        p.version = mv.version;
-                        cleanupPaths.add(p);
-                    }
-                } else if (mv.version > p.version &&
+        void pathAdded(Path p, List<Notification<K, V>> notifications,
+                       List<Path> cleanupPaths) {
+            MapValue mv = localMap.get(p.key);
+            if (mv == null) {
+                localMap.put(p.key, new MapValue(p.value, p.version));
+                notifications.add(new Notification<>(p.key, null, p.value));
+            } else if (mv.version < p.version) {
+                // The current entry is replaced by the newer version. Also
+                // clean it up if it belongs to this ZK client.
+                localMap.put(p.key, new MapValue(p.value, p.version));
+                shadow(p.key, mv);
+                notifications.add(new Notification<>(p.key, mv.value,
+                                                     p.value));
+                if (ownedVersions.contains(mv.version)) {
+                    cleanupPaths.add(new Path(p.key, mv.value, mv.version));
+                }
+            } else {
+                // The current entry is newer. Clean up the added path if it
+                // belongs to this ZK client.
+                shadow(p.key, new MapValue(p.value, p.version));
+                if (mv.version > p.version &&
                     ownedVersions.contains(p.version)) {
-                    // The one currently in newMap is newer and the other
-                    // one belongs to this ZK client. Clean it up.
                     cleanupPaths.add(p);
                 }
             }
         }
 
         /**
-         * Cleans all paths in the given List. If a ZK exception occurs in the
-         * process it will abort the cleanup. InterruptedExceptions will
-         * stop the running thread.
-         *
-         * @param paths to clean up
+         * Removes a path from the local map. When the path was the entry of
+         * its key, it is replaced by the remaining path with the highest
+         * version, if any.
          */
-        void cleanup(final List<Path> paths) {
-            for (Path path : paths) {
-                try {
-                    dir.delete(encodePath(path.key, path.value, path.version));
-                    ownedVersions.remove(path.version);
-                } catch (KeeperException e) {
-                    log.error("DirectoryWatcher.run", e);
-                    // TODO (guillermo) connectionWatcher.handleError()?
-                    throw new RuntimeException(e);
-                } catch (InterruptedException e) {
-                    log.error("DirectoryWatcher.run", e);
-                    Thread.currentThread().interrupt();
+        void pathRemoved(Path p, List<Notification<K, V>> notifications) {
+            MapValue mv = localMap.get(p.key);
+            if (mv != null && isEntryOf(mv, p)) {
+                MapValue next = unshadowLatest(p.key);
+                if (next == null) {
+                    localMap.remove(p.key);
+                } else {
+                    localMap.put(p.key, next);
+                }
+                notifications.add(new Notification<>(
+                    p.key, mv.value, next == null ? null : next.value));
+            } else {
+                unshadow(p);
+                // The entry of the key may have been removed locally by
+                // this client before its deletion was seen here.
+                if (mv == null) {
+                    MapValue next = unshadowLatest(p.key);
+                    if (next != null) {
+                        localMap.put(p.key, next);
+                        notifications.add(new Notification<>(
+                            p.key, null, next.value));
+                    }
                 }
             }
         }
 
         /**
-         * Compiles notifications to be sent after the newMap has been compiled.
+         * Cleans all paths in the given List asynchronously, since this may
+         * run in the ZooKeeper event thread.
          *
-         * @param notifications where to accumulate the notifications
-         * @param newMap the new map generated from the last set of paths
+         * @param paths to clean up
          */
-        void collectNotifications(final Set<Notification<K, V>> notifications,
-                                  final Map<K, MapValue> newMap) {
+        void cleanup(final List<Path> paths) {
+            for (final Path path : paths) {
+                dir.asyncDelete(encodePath(path.key, path.value, path.version),
+                                new DirectoryCallback.Void() {
+                    @Override
+                    public void onSuccess(java.lang.Void data) {
+                        synchronized (ReplicatedMap.this) {
+                            ownedVersions.remove(path.version);
+                        }
+                    }
 
-            Set<K> oldKeys = new HashSet<>(localMap.keySet());
-            oldKeys.removeAll(newMap.keySet());
-            for (K deletedKey : oldKeys) {
-                MapValue mv = localMap.get(deletedKey);
-                notifications.add(new Notification<>(
-                    deletedKey, mv.value, null));
-            }
+                    @Override
+                    public void onTimeout() {
+                        log.error("DirectoryWatcher cleanup of {} timed out",
+                                  path.key);
+                    }
 
-            for (Map.Entry<K, MapValue> entry : newMap.entrySet()) {
-                K key = entry.getKey();
-                V value = entry.getValue().value;
-                MapValue mv = localMap.get(key);
-                if (mv == null) {
-                    notifications.add(new Notification<>(
-                        key, null, value));
-                } else if (mv.version != entry.getValue().version) {
-                    // We compare versions because the 'value' members
-                    // might not implement .equals accurately.
-                    notifications.add(new Notification<>(
-                        key, mv.value, value));
-                } // else mv == entry:  No notification.
+                    @Override
+                    public void onError(KeeperException e) {
+                        log.error("DirectoryWatcher cleanup of {} failed",
+                                  path.key, e);
+                    }
+                });
             }
-
         }
 
-        public void run() {
-            if (!running) {
-                return;
-            }
-            Set<String> curPaths = getCurPaths();
-            if (curPaths == null)
-                return;
-
-            List<Path> cleanupPaths = new LinkedList<>();
-            Set<Notification<K,V>> notifications = new HashSet<>();
+        void update(Set<String> curPaths) {
+            List<Path> cleanupPaths = new ArrayList<>();
+            List<Notification<K,V>> notifications = new ArrayList<>();
 
             synchronized(ReplicatedMap.this) {
                 if (!running) {
                     return;
                 }
-                ConcurrentMap<K,MapValue> newMap = new ConcurrentHashMap<>();
-                populateNewMap(newMap, curPaths, cleanupPaths);
-                collectNotifications(notifications, newMap);
-                localMap = newMap;
+                for (String path : paths) {
+                    if (!curPaths.contains(path)) {
+                        pathRemoved(decodePath(path), notifications);
+                    }
+                }
+                for (String path : curPaths) {
+                    if (!paths.contains(path)) {
+                        pathAdded(decodePath(path), notifications,
+                                  cleanupPaths);
+                    }
+                }
+                paths = curPaths;
             }
 
             for (Notification<K,V> notice : notifications) {
@@ -212,9 +264,63 @@ public abstract class ReplicatedMap<K, V> {
         }
     }
 
+    private void shadow(K key, MapValue mv) {
+        List<MapValue> values = shadowedValues.get(key);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            shadowedValues.put(key, values);
+        }
+        values.add(mv);
+    }
+
+    /**
+     * Whether the map value corresponds to the given path. Non-ephemeral
+     * maps may hold several paths with the same version for a key, in which
+     * case their values are compared in their encoded form, since the
+     * values might not implement equals accurately.
+     */
+    private boolean isEntryOf(MapValue mv, Path p) {
+        return mv.version == p.version &&
+               (mv.value == p.value ||
+                encodeValue(mv.value).equals(encodeValue(p.value)));
+    }
+
+    private void unshadow(Path p) {
+        List<MapValue> values = shadowedValues.get(p.key);
+        if (values == null)
+            return;
+        for (int i = 0; i < values.size(); i++) {
+            if (isEntryOf(values.get(i), p)) {
+                values.remove(i);
+                break;
+            }
+        }
+        if (values.isEmpty())
+            shadowedValues.remove(p.key);
+    }
+
+    private MapValue unshadowLatest(K key) {
+        List<MapValue> values = shadowedValues.get(key);
+        if (values == null)
+            return null;
+        MapValue latest = values.get(0);
+        for (MapValue mv : values) {
+            if (latest.version < mv.version)
+                latest = mv;
+        }
+        values.remove(latest);
+        if (values.isEmpty())
+            shadowedValues.remove(key);
+        return latest;
+    }
+
     private Directory dir;
     private volatile boolean running;
     private volatile ConcurrentMap<K, MapValue> localMap;
+    /* The paths of the last list of children, and the older versions of the
+     * keys that have more than one path. Both are guarded by this. */
+    private Set<String> paths;
+    private Map<K, List<MapValue>> shadowedValues;
     private Set<Integer> ownedVersions;
     private Set<Watcher<K, V>> watchers;
     private DirectoryWatcher myWatcher;
@@ -237,6 +343,8 @@ public abstract class ReplicatedMap<K, V> {
         this.dir = dir;
         this.running = false;
         this.localMap = new ConcurrentHashMap<>();
+        this.paths = Collections.emptySet();
+        this.shadowedValues = new HashMap<>();
         this.ownedVersions = new HashSet<>();
         this.watchers = new HashSet<>();
         this.myWatcher = new DirectoryWatcher();
@@ -254,7 +362,7 @@ public abstract class ReplicatedMap<K, V> {
     public void start() {
         if (!this.running) {
             this.running = true;
-            myWatcher.run();
+            myWatcher.load();
         }
     }
 
@@ -263,6 +371,8 @@ public abstract class ReplicatedMap<K, V> {
         Map<K, MapValue> oldMap = localMap;
         localMap = new ConcurrentHashMap<>();
         oldMap.clear();
+        paths = Collections.emptySet();
+        shadowedValues.clear();
     }
 
     public V get(K key) {
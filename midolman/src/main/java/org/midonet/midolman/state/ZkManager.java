@@ -16,12 +16,16 @@
 package org.midonet.midolman.state;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.inject.Inject;
 
@@ -60,6 +64,9 @@ public class ZkManager {
 
     public static final int ZK_SEQ_NUM_LEN = 10;
 
+    /* Maximum number of outstanding requests of a bulk read. */
+    public static final int MAX_PENDING_READS = 256;
+
     /**
      * Constructor.
      *
@@ -320,6 +327,70 @@ public class ZkManager {
         }
     }
 
+    /**
+     * Gets the data of multiple nodes, pipelining asynchronous reads with at
+     * most MAX_PENDING_READS outstanding requests, instead of waiting for a
+     * round trip to ZooKeeper per node. Nodes that do not exist, such as
+     * nodes deleted after their parent was listed, are absent from the
+     * returned map.
+     *
+     * This method blocks until all the reads complete, and therefore must
+     * not be called from the ZooKeeper event thread.
+     *
+     * @param paths The paths of the nodes to read.
+     * @return A map from each existing path to its data.
+     */
+    public Map<String, byte[]> getAll(Collection<String> paths)
+            throws StateAccessException {
+        final Map<String, byte[]> results = new HashMap<>(paths.size());
+        final Semaphore pending = new Semaphore(MAX_PENDING_READS);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+
+        try {
+            for (final String path : paths) {
+                pending.acquire();
+                if (error.get() != null) {
+                    pending.release();
+                    break;
+                }
+                zk.asyncGet(path, new DirectoryCallback<byte[]>() {
+                    @Override
+                    public void onSuccess(byte[] data) {
+                        synchronized (results) {
+                            results.put(path, data);
+                        }
+                        pending.release();
+                    }
+
+                    @Override
+                    public void onTimeout() {
+                        error.compareAndSet(
+                            null, new KeeperException.OperationTimeoutException());
+                        pending.release();
+                    }
+
+                    @Override
+                    public void onError(KeeperException e) {
+                        if (!(e instanceof NoNodeException)) {
+                            error.compareAndSet(null, e);
+                        }
+                        pending.release();
+                    }
+                }, null);
+            }
+            // Wait for the outstanding reads.
+            pending.acquire(MAX_PENDING_READS);
+        } catch (InterruptedException ex) {
+            throw processException(ex, "getting " + paths.size() + " nodes");
+        }
+
+        if (error.get() != null) {
+            throw processException(error.get(),
+                                   "getting " + paths.size() + " nodes");
+        }
+        return results;
+    }
+
     public Map.Entry<byte[], Integer> getWithVersion(String path, Runnable watcher)
             throws StateAccessException {
         try {
@@ -402,8 +402,14 @@ public class BridgeDhcpZkManager extends BaseZkManager {
 
     public Subnet getSubnet(UUID bridgeId, IPv4Subnet subnetAddr)
             throws StateAccessException, SerializationException {
+        return getSubnet(bridgeId, subnetAddr, null);
+    }
+
+    public Subnet getSubnet(UUID bridgeId, IPv4Subnet subnetAddr,
+                            Runnable watcher)
+            throws StateAccessException, SerializationException {
         String path = paths.getBridgeDhcpSubnetPath(bridgeId, subnetAddr);
-        byte[] data = zk.get(path, null);
+        byte[] data = zk.get(path, watcher);
         return serializer.deserialize(data, Subnet.class);
     }
 
@@ -440,9 +446,14 @@ public class BridgeDhcpZkManager extends BaseZkManager {
 
     public List<IPv4Subnet> listSubnets(UUID bridgeId)
             throws StateAccessException {
+        return listSubnets(bridgeId, null);
+    }
+
+    public List<IPv4Subnet> listSubnets(UUID bridgeId, Runnable watcher)
+            throws StateAccessException {
         String path = paths.getBridgeDhcpPath(bridgeId);
         List<IPv4Subnet> addrs = new ArrayList<>();
-        for (String addrStr : zk.getChildren(path , null)) {
+        for (String addrStr : zk.getChildren(path, watcher)) {
             addrs.add(IPv4Subnet.fromZkString(addrStr));
         }
         return addrs;
@@ -500,9 +511,15 @@ public class BridgeDhcpZkManager extends BaseZkManager {
 
     public Host getHost(UUID bridgeId, IPv4Subnet subnetAddr, String mac)
             throws StateAccessException, SerializationException {
+        return getHost(bridgeId, subnetAddr, mac, null);
+    }
+
+    public Host getHost(UUID bridgeId, IPv4Subnet subnetAddr, String mac,
+                        Runnable watcher)
+            throws StateAccessException, SerializationException {
         String path = paths.getBridgeDhcpHostPath(bridgeId, subnetAddr,
                                                   MAC.fromString(mac));
-        byte[] data = zk.get(path, null);
+        byte[] data = zk.get(path, watcher);
         return serializer.deserialize(data, Host.class);
     }
 
@@ -530,9 +547,15 @@ public class BridgeDhcpZkManager extends BaseZkManager {
 
     public List<MAC> listHosts(UUID bridgeId, IPv4Subnet subnetAddr)
             throws StateAccessException {
+        return listHosts(bridgeId, subnetAddr, null);
+    }
+
+    public List<MAC> listHosts(UUID bridgeId, IPv4Subnet subnetAddr,
+                               Runnable watcher)
+            throws StateAccessException {
         String path = paths.getBridgeDhcpHostsPath(bridgeId, subnetAddr);
         List<MAC> macs = new ArrayList<>();
-        for (String macStr : zk.getChildren(path))
+        for (String macStr : zk.getChildren(path, watcher))
             macs.add(MAC.fromString(macStr));
         return macs;
     }
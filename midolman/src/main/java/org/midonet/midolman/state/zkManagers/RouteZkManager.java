@@ -407,12 +407,22 @@ public class RouteZkManager extends AbstractZkManager<UUID, Route> {
      */
     public List<Op> prepareRouteDelete(UUID id)
             throws StateAccessException, SerializationException {
+        return prepareRouteDelete(id, get(id), null);
+    }
+
+    /**
+     * Constructs a list of operations to perform in a route deletion, when
+     * the caller already knows the route's configuration and, for routes
+     * whose next hop is a port, optionally the port's configuration.
+     */
+    public List<Op> prepareRouteDelete(UUID id, Route config,
+                                       PortDirectory.RouterPortConfig portConfig)
+            throws StateAccessException, SerializationException {
         List<Op> ops = new ArrayList<Op>();
         String routePath = paths.getRoutePath(id);
         log.debug("Preparing to delete: " + routePath);
         ops.add(Op.delete(routePath, -1));
-        Route config = get(id);
-        for (String path : getSubDirectoryRoutePaths(id, config, null)) {
+        for (String path : getSubDirectoryRoutePaths(id, config, portConfig)) {
             if (zk.exists(path)) {
                 log.debug("Preparing to delete: " + path);
                 ops.add(Op.delete(path, -1));
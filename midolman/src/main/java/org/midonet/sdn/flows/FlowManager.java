@@ -16,16 +16,17 @@
 
 package org.midonet.sdn.flows;
 
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.PriorityQueue;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.midonet.odp.Flow;
 import org.midonet.odp.FlowMatch;
+import org.midonet.util.collection.TimerWheel;
 import org.midonet.util.functors.Callback1;
 
 // not thread-safe
@@ -41,9 +42,9 @@ import org.midonet.util.functors.Callback1;
  * Idle Time-out
  * This class guarantees that every wildcard flow that has an idle time-out set
  * will be evicted after idle time-out + delta.
- * We have two priority queues, one for hard time-out expiration and the other
- * for idle time-out expiration. They are ordered according to the time that
- * each flow has remaining.
+ * We have two timer wheels, one for hard time-out expiration and the other
+ * for idle time-out expiration. Each flow has a single timer, scheduled in
+ * O(1) when the flow is added and cancelled in O(1) when it is removed.
  * For idle time-out before deleting a wildcard flow, we get from the datapath
  * connection the lastUsedTime of each microflow until we find one whose
  * lastUsedTime < now - timeout. If that's the case, we extend the life of the
@@ -51,6 +52,14 @@ import org.midonet.util.functors.Callback1;
  *
  * Idle Time-out expiration is an expensive operation. We won't accept
  * idle time-out < 5 s.
+ *
+ * To avoid querying the kernel once per expiring flow, the owner of this
+ * class may periodically dump all the datapath flows and feed the results
+ * through flowDumped() and flowDumpCompleted(). Flows that were seen in the
+ * last completed dump are extended using the last used time reported by the
+ * dump, without issuing any further request. Since a flow may have been used
+ * after the dump, the dump is only trusted to expire a flow if it was taken
+ * within the idle flow tolerance interval; otherwise the kernel is queried.
  */
 
 //TODO(ross) create a priority queue of micro flows ordered according to the
@@ -59,6 +68,11 @@ import org.midonet.util.functors.Callback1;
 public class FlowManager {
     private static int DEFAULT_FLOW_REMOVE_BATCH_SIZE = 512;
 
+    /* With 4 levels of 256 slots, 10 ms ticks cover more than a year */
+    private static final long EXPIRATION_TICK_MILLIS = 10;
+    private static final int EXPIRATION_WHEEL_BITS = 8;
+    private static final int EXPIRATION_WHEEL_LEVELS = 4;
+
     private Logger log = LoggerFactory.getLogger("org.midonet.flow-management");
 
     private FlowManagerHelper flowManagerHelper;
@@ -66,6 +80,9 @@ public class FlowManager {
     private int dpFlowRemoveBatchSize;
     private long idleFlowToleranceInterval;
 
+    /* Start time of the last completed datapath flow dump, if any */
+    private long lastFlowDumpMillis = -1L;
+
     public FlowManager(FlowManagerHelper flowManagerHelper, int maxDpFlows,
                        long idleFlowToleranceInterval) {
         this(flowManagerHelper, maxDpFlows, idleFlowToleranceInterval,
@@ -84,15 +101,17 @@ public class FlowManager {
 
     public LinkedHashMap<FlowMatch, ManagedFlow> dpFlowTable = new LinkedHashMap<>((int)maxDpFlows);
 
-    //TODO(ross) size for the priority queue?
-    final int priorityQueueSize = 10000;
-    /* Priority queue to evict flows based on hard time-out */
-    private PriorityQueue<ManagedFlow> hardTimeOutQueue =
-        new PriorityQueue<>(priorityQueueSize, new WildcardFlowHardTimeComparator());
+    /* Timer wheel to evict flows based on hard time-out */
+    private TimerWheel<ManagedFlow> hardTimeOutWheel = new TimerWheel<>(
+        EXPIRATION_TICK_MILLIS, System.currentTimeMillis(),
+        EXPIRATION_WHEEL_BITS, EXPIRATION_WHEEL_LEVELS);
+
+    /* Timer wheel to evict flows based on idle time-out */
+    private TimerWheel<ManagedFlow> idleTimeOutWheel = new TimerWheel<>(
+        EXPIRATION_TICK_MILLIS, System.currentTimeMillis(),
+        EXPIRATION_WHEEL_BITS, EXPIRATION_WHEEL_LEVELS);
 
-    /* Priority queue to evict flows based on idle time-out */
-    private PriorityQueue<ManagedFlow> idleTimeOutQueue =
-        new PriorityQueue<>(priorityQueueSize, new WildcardFlowIdleTimeComparator());
+    private final ArrayList<ManagedFlow> expiredFlows = new ArrayList<>();
 
     public int getNumDpFlows() {
         return dpFlowTable.size();
@@ -117,20 +136,39 @@ public class FlowManager {
             wildFlow.ref();
             wildFlow.setCreationTimeMillis(System.currentTimeMillis());
             wildFlow.setLastUsedTimeMillis(System.currentTimeMillis());
-            if (wildFlow.hardExpirationMillis() > 0) {
-                // timeout queue ref
-                wildFlow.ref();
-                hardTimeOutQueue.add(wildFlow);
-            } else if (wildFlow.idleExpirationMillis() > 0){
-                // timeout queue ref
-                wildFlow.ref();
-                idleTimeOutQueue.add(wildFlow);
-            }
+            scheduleExpiration(wildFlow);
             return true;
         }
         return false;
     }
 
+    /**
+     * Reschedules the expiration of a flow whose creation or last used time
+     * was changed outside this class.
+     */
+    @VisibleForTesting
+    public void updateExpiration(ManagedFlow wildFlow) {
+        if (isAlive(wildFlow))
+            scheduleExpiration(wildFlow);
+    }
+
+    private void scheduleExpiration(ManagedFlow wildFlow) {
+        if (wildFlow.hardExpirationMillis() > 0) {
+            hardTimeOutWheel.schedule(wildFlow.expirationTimer(),
+                                      wildFlow.getCreationTimeMillis() +
+                                      wildFlow.hardExpirationMillis());
+        } else if (wildFlow.idleExpirationMillis() > 0) {
+            idleTimeOutWheel.schedule(wildFlow.expirationTimer(),
+                                      wildFlow.getLastUsedTimeMillis() +
+                                      wildFlow.idleExpirationMillis());
+        }
+    }
+
+    private void cancelExpiration(ManagedFlow wildFlow) {
+        if (!hardTimeOutWheel.cancel(wildFlow.expirationTimer()))
+            idleTimeOutWheel.cancel(wildFlow.expirationTimer());
+    }
+
     public int evictOldestFlows() {
         int evicted = 0;
         for (evicted=0; evicted < dpFlowRemoveBatchSize; evicted++) {
@@ -141,14 +179,12 @@ public class FlowManager {
     }
 
     public boolean evictOneFlow() {
-        ManagedFlow toEvict = hardTimeOutQueue.size() > 0
-                            ? hardTimeOutQueue.poll()
-                            : idleTimeOutQueue.poll();
+        ManagedFlow toEvict = hardTimeOutWheel.isEmpty()
+                            ? idleTimeOutWheel.pollFirst()
+                            : hardTimeOutWheel.pollFirst();
 
         if (toEvict != null) {
             flowManagerHelper.removeWildcardFlow(toEvict);
-            // timeout queue ref
-            toEvict.unref();
             return true;
         }
         return false;
@@ -166,6 +202,7 @@ public class FlowManager {
         FlowMatch flowMatch = wildFlow.flowMatch();
         ManagedFlow removedFlow = dpFlowTable.remove(flowMatch);
         if (removedFlow == wildFlow) { // See isAlive()
+            cancelExpiration(wildFlow);
             flowManagerHelper.removeFlow(wildFlow);
             wildFlow.unref(); // FlowManager's ref
             return true;
@@ -176,29 +213,19 @@ public class FlowManager {
     }
 
     private void checkHardTimeOutExpiration() {
-        ManagedFlow flowToExpire;
-        while ((flowToExpire = hardTimeOutQueue.peek()) != null) {
-            // since we remove the element lazily let's check if this el
-            // has already been removed
-            if (!isAlive(flowToExpire)) {
-                hardTimeOutQueue.poll();
-                // timeout queue ref
-                flowToExpire.unref();
+        hardTimeOutWheel.advance(System.currentTimeMillis(), expiredFlows);
+        for (int i = 0; i < expiredFlows.size(); ++i) {
+            ManagedFlow flowToExpire = expiredFlows.get(i);
+            // a previously expired flow may have removed this one
+            if (!isAlive(flowToExpire))
                 continue;
-            }
             long timeLived = System.currentTimeMillis() - flowToExpire.getCreationTimeMillis();
-            if (timeLived >= flowToExpire.hardExpirationMillis()) {
-                hardTimeOutQueue.poll();
-                flowManagerHelper.removeWildcardFlow(flowToExpire); // will remove remaining refs
-                log.debug("Removing managed flow {} for hard expiration, expired {} ms ago",
-                          flowToExpire,
-                          timeLived - flowToExpire.hardExpirationMillis());
-                // timeout queue ref
-                flowToExpire.unref();
-            } else {
-                return;
-            }
+            flowManagerHelper.removeWildcardFlow(flowToExpire);
+            log.debug("Removing managed flow {} for hard expiration, expired {} ms ago",
+                      flowToExpire,
+                      timeLived - flowToExpire.hardExpirationMillis());
         }
+        expiredFlows.clear();
     }
 
     // Check if the flow is still the same one we're trying to expire.
@@ -217,29 +244,83 @@ public class FlowManager {
     }
 
     private void checkIdleTimeExpiration() {
-        while (idleTimeOutQueue.peek() != null) {
-            ManagedFlow flowToExpire = idleTimeOutQueue.peek();
-            //log.trace("Idle timeout queue size {}", idleTimeOutQueue.size());
-            // since we remove the element lazily let's check if this element
-            // has already been removed
-            if (!isAlive(flowToExpire)) {
-                idleTimeOutQueue.poll();
-                // timeout queue ref
-                flowToExpire.unref();
+        long now = System.currentTimeMillis();
+        idleTimeOutWheel.advance(now, expiredFlows);
+        boolean recentDump =
+            now - lastFlowDumpMillis <= idleFlowToleranceInterval;
+        for (int i = 0; i < expiredFlows.size(); ++i) {
+            ManagedFlow flowToExpire = expiredFlows.get(i);
+            if (!isAlive(flowToExpire))
                 continue;
-            }
-            long expirationDate = flowToExpire.getLastUsedTimeMillis() +
-                flowToExpire.idleExpirationMillis();
-            // if the flow expired we don't delete it immediately, first we query
-            // the kernel to get the updated lastUsedTime
-            if (System.currentTimeMillis() >= expirationDate) {
-                // remove it from the queue so we won't query it again
-                idleTimeOutQueue.poll();
+            // if the flow expired we don't delete it immediately, first we
+            // check the kernel's lastUsedTime
+            if (flowToExpire.lastFlowDumpMillis() == lastFlowDumpMillis &&
+                (recentDump || !isIdle(flowToExpire, now))) {
+                // the last flow dump already told us when the kernel
+                // flow was last used, and either it was used recently
+                // or the dump is recent enough to be trusted
+                expireOrExtend(flowToExpire);
+            } else {
                 getKernelFlowLastUsedTime(flowToExpire);
-                // timeout queue ref
-                flowToExpire.unref();
-            }else
-                break;
+            }
+        }
+        expiredFlows.clear();
+    }
+
+    /**
+     * Records the last used time of a datapath flow obtained through a flow
+     * dump. It is taken into account when the idle timer of the managed flow
+     * expires.
+     *
+     * @param kernelFlow the flow as reported by the datapath
+     * @param dumpStartMillis the time at which the flow dump was requested
+     * @return the managed flow matching the datapath flow, or null if there
+     *         is none.
+     */
+    public ManagedFlow flowDumped(Flow kernelFlow, long dumpStartMillis) {
+        ManagedFlow managedFlow = dpFlowTable.get(kernelFlow.getMatch());
+        if (managedFlow != null) {
+            if (kernelFlow.getLastUsedTime() != null)
+                updateLastUsedTime(managedFlow, kernelFlow.getLastUsedTime());
+            managedFlow.setLastFlowDumpMillis(dumpStartMillis);
+        }
+        return managedFlow;
+    }
+
+    /**
+     * Signals that all the flows of the datapath flow dump started at
+     * dumpStartMillis have been passed to flowDumped(), and expires in one
+     * go the idle flows that weren't used since.
+     */
+    public void flowDumpCompleted(long dumpStartMillis) {
+        lastFlowDumpMillis = dumpStartMillis;
+        checkIdleTimeExpiration();
+    }
+
+    private void updateLastUsedTime(ManagedFlow flow, long kernelLastUsedTime) {
+        if (kernelLastUsedTime > flow.getLastUsedTimeMillis()) {
+            flow.setLastUsedTimeMillis(kernelLastUsedTime);
+            log.trace("update lastUsedTime {}", kernelLastUsedTime);
+        }
+    }
+
+    private boolean isIdle(ManagedFlow flow, long now) {
+        long expirationDate = flow.getLastUsedTimeMillis() + flow.idleExpirationMillis();
+        return expirationDate - now <= idleFlowToleranceInterval;
+    }
+
+    private void expireOrExtend(ManagedFlow flow) {
+        long expirationDate = flow.getLastUsedTimeMillis() + flow.idleExpirationMillis();
+        if (!isIdle(flow, System.currentTimeMillis())) {
+            idleTimeOutWheel.schedule(flow.expirationTimer(), expirationDate);
+        } else {
+            // we can expire it
+            flowManagerHelper.removeWildcardFlow(flow);
+            log.debug(
+                "Removing managed flow {} for idle expiration, expired {} ms ago",
+                flow,
+                System.currentTimeMillis() - (flow.getLastUsedTimeMillis()
+                    + flow.idleExpirationMillis()));
         }
     }
 
@@ -266,35 +347,6 @@ public class FlowManager {
         manageDPFlowTableSpace();
     }
 
-    private abstract class WildcardFlowComparator implements Comparator<ManagedFlow> {
-
-        @Override
-        public int compare(ManagedFlow wildcardFlow,
-                           ManagedFlow wildcardFlow1) {
-            long now = System.currentTimeMillis();
-            long expirationTime1 = getExpirationTime(wildcardFlow, now);
-            long expirationTime2 = getExpirationTime(wildcardFlow1, now);
-
-            return (int) (expirationTime1-expirationTime2);
-        }
-
-        protected abstract long getExpirationTime(ManagedFlow flow, long now);
-    }
-
-    private class WildcardFlowHardTimeComparator extends WildcardFlowComparator {
-        @Override
-        protected long getExpirationTime(ManagedFlow flow, long now) {
-            return flow.getCreationTimeMillis() + flow.hardExpirationMillis();
-        }
-    }
-
-    private class WildcardFlowIdleTimeComparator extends WildcardFlowComparator {
-        @Override
-        protected long getExpirationTime(ManagedFlow flow, long now) {
-            return flow.getLastUsedTimeMillis() + flow.idleExpirationMillis();
-        }
-    }
-
     /**
      * This callback is passed to flowsGet(). When flowsGet() returns with the
      * updated lastUsedTime we take a decision regarding the expiration of the
@@ -319,25 +371,10 @@ public class FlowManager {
 
             if (flowGotFromKernel.getLastUsedTime() != null) {
                 // update the lastUsedTime
-                if (flowGotFromKernel.getLastUsedTime() > wcFlow.getLastUsedTimeMillis()) {
-                    wcFlow.setLastUsedTimeMillis(flowGotFromKernel.getLastUsedTime());
-                    log.trace("update lastUsedTime {}", flowGotFromKernel.getLastUsedTime());
-                }
+                updateLastUsedTime(wcFlow, flowGotFromKernel.getLastUsedTime());
             }
 
-            long expirationDate = wcFlow.getLastUsedTimeMillis() + wcFlow.idleExpirationMillis();
-            if (expirationDate - System.currentTimeMillis() > idleFlowToleranceInterval) {
-                wcFlow.ref(); // timeout queue ref
-                idleTimeOutQueue.add(wcFlow);
-            } else {
-                // we can expire it
-                flowManagerHelper.removeWildcardFlow(wcFlow);
-                log.debug(
-                    "Removing managed flow {} for idle expiration, expired {} ms ago",
-                    wcFlow,
-                    System.currentTimeMillis() - (wcFlow.getLastUsedTimeMillis()
-                        + wcFlow.idleExpirationMillis()));
-            }
+            expireOrExtend(wcFlow);
 
             // getFlow callback ref
             wcFlow.unref();
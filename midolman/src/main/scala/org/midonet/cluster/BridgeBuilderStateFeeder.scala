@@ -110,22 +110,25 @@ class BridgeBuilderStateFeeder {
     }
 
     /** Provides a replicated MAC learning table that will notify the given
-      * Builder whenever there is an update. */
+      * Builder whenever there is an update. Returns the underlying map, which
+      * the caller should stop once the bridge is no longer watched. */
     @throws[StateAccessException]
     def feedLearningTable(toBuilder: BridgeBuilder, bridgeId: UUID, vlanId: Short)
-    : MacLearningTable = {
+    : MacPortMap = {
         val map = dataClient.bridgeGetMacTable(bridgeId, vlanId, true)
         map.setConnectionWatcher(connWatcher)
         map.start()
         val table = new MacLearningTableImpl(map, bridgeId, vlanId, reactor)
         toBuilder.setMacLearningTable(vlanId, table)
         table.notify(new OnUpdate(vlanId, toBuilder))
-        table
+        map
     }
 
-    /** Feeds the given builder with an IP to mac table */
+    /** Feeds the given builder with an IP to mac table, and returns the
+      * underlying map. */
     @throws[StateAccessException]
-    def feedIpToMacMap(toBuilder: BridgeBuilder, bridgeId: UUID) {
+    def feedIpToMacMap(toBuilder: BridgeBuilder, bridgeId: UUID)
+    : Ip4ToMacReplicatedMap = {
         val ip4MacMap = dataClient.getIp4MacMap(bridgeId)
         ip4MacMap.setConnectionWatcher(connWatcher)
         ip4MacMap.start()
@@ -134,6 +137,7 @@ class BridgeBuilderStateFeeder {
              * the other calls in the map */
             override def get(ip: IPv4Addr): MAC = ip4MacMap.get(ip)
         })
+        ip4MacMap
     }
 
 }
@@ -103,7 +103,8 @@ class MidonetBackendService @Inject() (cfg: MidonetBackendConfig,
     extends MidonetBackend {
 
     private val zoom =
-        new ZookeeperObjectMapper(cfg.zookeeperRootPath + "/zoom", curator)
+        new ZookeeperObjectMapper(cfg.zookeeperRootPath + "/zoom", curator,
+                                  cfg.zoomBinaryFormat)
 
     override def store: Storage = zoom
     override def ownershipStore: StorageWithOwnership = zoom
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services
+
+import org.apache.commons.cli.{GnuParser, HelpFormatter, Options, ParseException}
+import org.apache.curator.framework.CuratorFrameworkFactory
+import org.apache.curator.retry.ExponentialBackoffRetry
+
+import org.midonet.cluster.data.storage.{Storage, StorageWithOwnership, ZookeeperObjectMapper}
+
+/**
+ * Command line utility that rewrites in the binary format the ZOOM objects
+ * that are stored in the protobuf text format. The migration is safe to run
+ * while the cluster is in use, but agents of previous versions cannot read
+ * the migrated objects: run it once all agents are upgraded, and then enable
+ * the midonet-backend.zoom_binary_format setting so that new writes use the
+ * binary format as well.
+ *
+ * Run with:
+ *       java -cp <classpath> org.midonet.cluster.services.ZoomBinaryMigration
+ *            -z <zookeeper hosts> -r <midonet root path>
+ */
+object ZoomBinaryMigration {
+
+    def main(args: Array[String]): Unit = {
+        val options = new Options()
+        options.addOption("z", "zookeeper", true,
+                          "ZooKeeper connection string (default localhost:2181)")
+        options.addOption("r", "root", true,
+                          "MidoNet root path in ZooKeeper (default /midonet)")
+        val cl = try new GnuParser().parse(options, args) catch {
+            case e: ParseException =>
+                System.err.println("Bad command arguments: " + e)
+                new HelpFormatter().printHelp("ZoomBinaryMigration", options)
+                sys.exit(-1)
+        }
+
+        val hosts = cl.getOptionValue('z', "localhost:2181")
+        val root = cl.getOptionValue('r', "/midonet")
+
+        val curator = CuratorFrameworkFactory.newClient(
+            hosts, new ExponentialBackoffRetry(1000, 10))
+        curator.start()
+        try {
+            val zoom = new ZookeeperObjectMapper(root + "/zoom", curator,
+                                                 binaryFormat = true)
+            val backend = new MidonetBackend {
+                override def store: Storage = zoom
+                override def ownershipStore: StorageWithOwnership = zoom
+                protected override def doStart(): Unit = notifyStarted()
+                protected override def doStop(): Unit = notifyStopped()
+            }
+            backend.setupBindings()
+            val migrated = zoom.migrateToBinaryFormat()
+            println(s"Migrated $migrated objects to the binary format.")
+        } catch {
+            case e: Exception =>
+                System.err.println("Error migrating the objects: " + e)
+                sys.exit(-1)
+        } finally {
+            curator.close()
+        }
+    }
+}
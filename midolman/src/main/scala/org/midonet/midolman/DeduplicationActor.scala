@@ -29,7 +29,6 @@ import org.slf4j.MDC
 
 import org.jctools.queues.MpscArrayQueue
 
-import org.midonet.cluster.DataClient
 import org.midonet.midolman.FlowController.InvalidateFlowsByTag
 import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.config.MidolmanConfig
@@ -69,7 +68,7 @@ class DeduplicationActor(
             val config: MidolmanConfig,
             val cookieGen: CookieGenerator,
             val dpChannel: DatapathChannel,
-            val clusterDataClient: DataClient,
+            val dhcpAssignments: DhcpAssignmentCache,
             val connTrackStateTable: FlowStateTable[ConnTrackKey, ConnTrackValue],
             val natStateTable: FlowStateTable[NatKey, NatBinding],
             val storage: FlowStateStorage,
@@ -129,7 +128,7 @@ class DeduplicationActor(
                                                  dpState,
                                                  FlowController ! InvalidateFlowsByTag(_),
                                                  config.getControlPacketsTos.toByte)
-            workflow = new PacketWorkflow(dpState, dp, clusterDataClient,
+            workflow = new PacketWorkflow(dpState, dp, dhcpAssignments,
                                           dpChannel, replicator, config)
             context.become(receive)
             unstashAll()
@@ -154,10 +153,12 @@ class DeduplicationActor(
 
             cbExecutor.run()
             genPacketEmitter.process(runGeneratedPacket)
+            replicator.pushState(dpChannel)
 
         case CheckBackchannels =>
             cbExecutor.run()
             genPacketEmitter.process(runGeneratedPacket)
+            replicator.pushState(dpChannel)
 
         case RestartWorkflow(pktCtx, error) =>
             if (pktCtx.idle) {
@@ -169,6 +170,7 @@ class DeduplicationActor(
                 else
                     handleErrorOn(pktCtx, error)
                 MDC.remove("cookie")
+                replicator.pushState(dpChannel)
             }
             // Else the packet may have already been expired and dropped
     }
@@ -220,7 +222,7 @@ class DeduplicationActor(
             case Failure(ex) =>
                 self ! RestartWorkflow(pktCtx, ex)
         }(ExecutionContext.callingThread)
-        metrics.packetPostponed()
+        metrics.packetPostponed(pktCtx.inputPort)
         giveUpWorkflows(waitingRoom enter pktCtx)
     }
 
@@ -17,6 +17,7 @@
 package org.midonet.midolman
 
 import java.nio.ByteBuffer
+import java.util.UUID
 
 import java.util.concurrent.TimeUnit
 import java.util.ArrayList
@@ -44,7 +45,7 @@ import org.midonet.midolman.io.DatapathConnectionPool
 import org.midonet.midolman.logging.ActorLogWithoutPath
 import org.midonet.midolman.monitoring.metrics.{FlowTablesGauge, FlowTablesMeter}
 import org.midonet.midolman.management.Metering
-import org.midonet.midolman.monitoring.MeterRegistry
+import org.midonet.midolman.monitoring.{FlowStatsCollector, MeterRegistry}
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.netlink.exceptions.NetlinkException
 import org.midonet.netlink.exceptions.NetlinkException.ErrorCode
@@ -52,6 +53,7 @@ import org.midonet.netlink.{BytesUtil, Callback}
 import org.midonet.odp.{Datapath, Flow, FlowMatch, OvsProtocol}
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.sdn.flows._
+import org.midonet.util.BatchCollector
 import org.midonet.util.collection.{EventHistory, ArrayObjectPool, ObjectPool}
 import org.midonet.util.collection.EventHistory._
 import org.midonet.util.concurrent.WakerUpper.Parkable
@@ -66,6 +68,12 @@ object FlowController extends Referenceable {
 
     case class InvalidateFlowsByTag(tag: FlowTag)
 
+    /** Asks which of the devices are referenced by the tags of live flows:
+      * the answer is a ReferencedDevices message. */
+    case class GetReferencedDevices(ids: Set[UUID])
+
+    case class ReferencedDevices(ids: Set[UUID], referenced: Set[UUID])
+
     case class FlowUpdateCompleted(flow: Flow) // used in test only
 
     case object CheckFlowExpiration_
@@ -78,10 +86,23 @@ object FlowController extends Referenceable {
     case class GetFlowSucceeded_(flow: Flow, origMatch: FlowMatch, flowCallback: Callback1[Flow])
     case class GetFlowFailed_(flowCallback: Callback1[Flow])
 
+    case object DumpFlowStats_
+
+    /** A chunk of the flows of the datapath flow dump started at
+      * dumpStartMillis, handed over while the dump is in progress. */
+    case class FlowStatsDumpChunk_(flows: ArrayList[Flow], dumpStartMillis: Long)
+    /** Signals that all the chunks of the datapath flow dump started at
+      * dumpStartMillis were handed over. */
+    case class FlowStatsDumped_(dumpStartMillis: Long)
+    case object FlowStatsDumpFailed_
+
     case object CheckCompletedRequests
 
     val MIN_WILDCARD_FLOW_CAPACITY = 4096
 
+    /* Number of dumped datapath flows handed over to the actor at once */
+    val FLOW_DUMP_CHUNK_SIZE = 1024
+
     private val invalidationHistory = new EventHistory[FlowTag](1024)
 
 
@@ -189,6 +210,7 @@ class FlowController extends Actor with ActorLogWithoutPath
     var metricsRegistry: MetricRegistry = null
 
     var meters: MeterRegistry = null
+    private var flowStatsCollector: FlowStatsCollector = null
 
     var flowManager: FlowManager = null
     var flowManagerHelper: FlowManagerHelper = null
@@ -198,6 +220,8 @@ class FlowController extends Actor with ActorLogWithoutPath
             with MultiMap[FlowTag, ManagedFlow]
 
     var flowExpirationCheckInterval: FiniteDuration = null
+    var flowStatsDumpInterval: FiniteDuration = null
+    private var flowStatsDumpInProgress = false
 
     private var managedFlowPool: ObjectPool[ManagedFlow] = null
 
@@ -213,6 +237,8 @@ class FlowController extends Actor with ActorLogWithoutPath
         val idleFlowToleranceInterval = midolmanConfig.getIdleFlowToleranceInterval
         flowExpirationCheckInterval = Duration(midolmanConfig.getFlowExpirationInterval,
             TimeUnit.MILLISECONDS)
+        flowStatsDumpInterval = Duration(midolmanConfig.getFlowStatsDumpInterval,
+            TimeUnit.MILLISECONDS)
 
         flowManagerHelper = new FlowManagerInfoImpl()
         flowManager = new FlowManager(flowManagerHelper, maxDpFlows, idleFlowToleranceInterval)
@@ -236,6 +262,15 @@ class FlowController extends Actor with ActorLogWithoutPath
                     flowExpirationCheckInterval,
                     self,
                     CheckFlowExpiration_)
+                // when enabled, idle flows are checked against a periodic
+                // dump of the datapath flows instead of one request per flow
+                if (flowStatsDumpInterval.toMillis > 0) {
+                    context.system.scheduler.schedule(flowStatsDumpInterval,
+                        flowStatsDumpInterval,
+                        self,
+                        DumpFlowStats_)
+                }
+                startFlowStatsCollector()
             }
 
         case pktCtx: PacketContext  =>
@@ -272,6 +307,10 @@ class FlowController extends Actor with ActorLogWithoutPath
             }
             invalidationHistory.put(tag)
 
+        case GetReferencedDevices(ids) =>
+            sender ! ReferencedDevices(ids, ids filter { id =>
+                tagToFlows.contains(FlowTagger.tagForDevice(id)) })
+
         case CheckFlowExpiration_ =>
             flowManager.checkFlowsExpiration()
 
@@ -285,6 +324,27 @@ class FlowController extends Actor with ActorLogWithoutPath
         case GetFlowFailed_(callback) =>
             callback.call(null)
 
+        case DumpFlowStats_ =>
+            if (!flowStatsDumpInProgress)
+                requestFlowStatsDump()
+
+        case FlowStatsDumpChunk_(flows, dumpStartMillis) =>
+            var i = 0
+            while (i < flows.size) {
+                val flow = flows.get(i)
+                val managedFlow = flowManager.flowDumped(flow, dumpStartMillis)
+                if ((managedFlow ne null) && (flow.getStats ne null))
+                    meters.updateFlow(managedFlow.flowMatch, flow.getStats)
+                i += 1
+            }
+
+        case FlowStatsDumped_(dumpStartMillis) =>
+            flowStatsDumpInProgress = false
+            flowManager.flowDumpCompleted(dumpStartMillis)
+
+        case FlowStatsDumpFailed_ =>
+            flowStatsDumpInProgress = false
+
         case FlowMissing_(flowMatch, callback) =>
             callback.call(null)
             meters.forgetFlow(flowMatch)
@@ -294,6 +354,27 @@ class FlowController extends Actor with ActorLogWithoutPath
             retryFailedFlowRemovals()
     }
 
+    override def postStop(): Unit = {
+        if (flowStatsCollector ne null)
+            flowStatsCollector.stop()
+        super.postStop()
+    }
+
+    /* When enabled, the meters are fed from a periodic dump of the flow
+     * stats processed outside of this actor. */
+    private def startFlowStatsCollector(): Unit = {
+        val interval = midolmanConfig.getMetersCollectionInterval
+        if (interval > 0) {
+            val maxCpuPercent = midolmanConfig.getMetersCollectionMaxCpuPercent
+            flowStatsCollector = new FlowStatsCollector(
+                meters, datapath, datapathConnPool,
+                Duration(interval, TimeUnit.MILLISECONDS),
+                math.min(math.max(maxCpuPercent, 1), 100) / 100.0,
+                metricsRegistry)
+            flowStatsCollector.start()
+        }
+    }
+
     private def removeWildcardFlow(wildFlow: ManagedFlow) {
         def tagsCleanup(tags: ArrayList[FlowTag]): Unit = {
             var i = 0
@@ -311,6 +392,40 @@ class FlowController extends Actor with ActorLogWithoutPath
         }
     }
 
+    /* Dumps all the datapath flows in a netlink channel's thread; the flows
+     * are handed back to this actor in chunks as they are read, so that the
+     * whole dump is never held at once. */
+    private def requestFlowStatsDump(): Unit = {
+        val dumpStartMillis = System.currentTimeMillis()
+        val collector = new BatchCollector[Flow] {
+            private var chunk = new ArrayList[Flow](FLOW_DUMP_CHUNK_SIZE)
+            override def submit(flow: Flow): Unit = {
+                chunk.add(flow)
+                if (chunk.size == FLOW_DUMP_CHUNK_SIZE)
+                    endBatch()
+            }
+            override def endBatch(): Unit = {
+                if (!chunk.isEmpty) {
+                    self ! FlowStatsDumpChunk_(chunk, dumpStartMillis)
+                    chunk = new ArrayList[Flow](FLOW_DUMP_CHUNK_SIZE)
+                }
+            }
+        }
+        val cb = new Callback[Integer] {
+            def onError(ex: NetlinkException) {
+                log.warn("Failed to dump the datapath flows", ex)
+                self ! FlowStatsDumpFailed_
+            }
+            def onSuccess(count: Integer) {
+                log.debug(s"Retrieved $count flows from the datapath")
+                self ! FlowStatsDumped_(dumpStartMillis)
+            }
+        }
+        flowStatsDumpInProgress = true
+        datapathConnPool.get(datapath.getIndex).flowsDump(
+            datapath, collector, cb, flowStatsDumpInterval.toMillis)
+    }
+
     private def handleFlowAddedForNewWildcard(wildFlow: ManagedFlow,
                                               pktCtx: PacketContext): Boolean = {
 
@@ -28,9 +28,10 @@ import akka.util.Timeout
 import org.midonet.midolman.simulation.{Bridge, PacketContext}
 import org.midonet.midolman.topology.VirtualTopologyActor.tryAsk
 import org.midonet.midolman.topology.devices.{Port, VxLanPort}
+import org.midonet.odp.Packet
 import org.midonet.odp.flows.FlowActions.{output, setKey}
 import org.midonet.odp.flows._
-import org.midonet.packets.{Ethernet, ICMP, IPv4, IPv4Addr}
+import org.midonet.packets.{ICMP, IPv4, IPv4Addr}
 import org.midonet.sdn.flows.{FlowTagger, VirtualActions}
 
 object FlowTranslator {
@@ -66,7 +67,7 @@ trait FlowTranslator {
                 case a: FlowActionSetKey =>
                     a.getFlowKey match {
                         case k: FlowKeyICMPError =>
-                            mangleIcmp(context.ethernet, k.icmp_data)
+                            mangleIcmp(context.packet, k.icmp_data)
                         case k: FlowKeyICMPEcho =>
                         case _ =>
                             context.addFlowAndPacketAction(a)
@@ -83,14 +84,15 @@ trait FlowTranslator {
     }
 
     // This is very limited but we don't really need more
-    // This method takes a Ethernet packet and modifies it if it carries an
+    // This method takes a packet and modifies its frame if it carries an
     // icmp payload
-    private def mangleIcmp(eth: Ethernet, data: Array[Byte]) {
-        eth.getPayload match {
+    private def mangleIcmp(packet: Packet, data: Array[Byte]) {
+        packet.getEthernet.getPayload match {
             case ipv4: IPv4 =>
                 ipv4.getPayload match {
                     case icmp: ICMP =>
                         icmp.setData(data)
+                        packet.markModified()
                     case _ =>
                 }
             case _ =>
@@ -17,6 +17,7 @@ package org.midonet.midolman
 
 import java.util.{HashMap => JHashMap, HashSet => JHashSet, Map => JMap, Set => JSet, UUID}
 
+import scala.collection.JavaConverters._
 import scala.concurrent.Future
 import scala.util.{Failure, Success}
 
@@ -57,7 +58,9 @@ object HostRequestProxy {
   * This actor creates a host subscription in the VTPM on behalf of another
   * subscriber. It will proxy requests making sure per-flow state for the
   * host's ports is fetched from Cassandra before the subscriber receives
-  * the host object.
+  * the host object. The state kept in the local journal, if any, is
+  * imported first, so that it is available even if Cassandra is slow or
+  * unreachable.
   */
 class HostRequestProxy(val hostId: UUID, val storage: FlowStateStorage,
                        val subscriber: ActorRef) extends Actor
@@ -135,6 +138,12 @@ class HostRequestProxy(val hostId: UUID, val storage: FlowStateStorage,
             belt.handle(() => {
                 val ps = h.portBindings.keySet -- lastPorts
                 val resolved = resolvePorts(h)
+                storage.fetchLocal(ps.asJava) foreach { stateBatch =>
+                    log.debug(s"Imported ${stateBatch.strongConnTrack.size + stateBatch.weakConnTrack.size} " +
+                              s"conntrack and ${stateBatch.strongNat.size + stateBatch.weakNat.size} " +
+                              "NAT keys from the local journal")
+                    PacketsEntryPoint ! stateBatch
+                }
                 stateForPorts(ps).andThen {
                         case Success(stateBatch) =>
                             lastPorts = ps
@@ -22,11 +22,10 @@ import akka.actor._
 import com.typesafe.scalalogging.Logger
 import org.slf4j.LoggerFactory
 
-import org.midonet.cluster.DataClient
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.DatapathChannel
 import org.midonet.midolman.routingprotocols.RoutingWorkflow
-import org.midonet.midolman.simulation.{Coordinator, DhcpImpl, PacketContext}
+import org.midonet.midolman.simulation.{Coordinator, DhcpAssignmentCache, DhcpImpl, PacketContext}
 import org.midonet.midolman.state.FlowStateReplicator
 import org.midonet.midolman.topology.devices.Port
 import org.midonet.midolman.topology.{VirtualTopologyActor, VxLanPortMapper}
@@ -44,10 +43,13 @@ trait PacketHandler {
 object PacketWorkflow {
     case class PacketIn(wMatch: FlowMatch,
                         inputPort: UUID,
-                        eth: Ethernet,
+                        packet: Packet,
                         dpMatch: FlowMatch,
                         reason: Packet.Reason,
-                        cookie: Int)
+                        cookie: Int) {
+        /* Deserializes the frame only if a subscriber looks at it */
+        def eth: Ethernet = packet.getEthernet
+    }
 
     val TEMPORARY_DROP_MILLIS = 5 * 1000
     val IDLE_EXPIRATION_MILLIS = 60 * 1000
@@ -118,7 +120,7 @@ trait UnderlayTrafficHandler { this: PacketWorkflow =>
 
 class PacketWorkflow(protected val dpState: DatapathState,
                      datapath: Datapath,
-                     dataClient: DataClient,
+                     dhcpAssignments: DhcpAssignmentCache,
                      dpChannel: DatapathChannel,
                      replicator: FlowStateReplicator,
                      config: MidolmanConfig)
@@ -195,9 +197,10 @@ class PacketWorkflow(protected val dpState: DatapathState,
                                          context.outPorts,
                                          context.flowTags,
                                          context.flowRemovedCallbacks)
-            replicator.pushState(dpChannel)
             context.conntrackTx.commit()
             context.natTx.commit()
+            // The peers must receive the state ahead of the packet
+            replicator.flushState(dpChannel)
     }
 
     private def handlePacketIngress(context: PacketContext): SimulationResult = {
@@ -263,8 +266,7 @@ class PacketWorkflow(protected val dpState: DatapathState,
         val packet = context.packet
         system.eventStream.publish(
             PacketIn(context.origMatch.clone(), context.inputPort,
-                     packet.getEthernet,
-                     packet.getMatch, packet.getReason,
+                     packet, packet.getMatch, packet.getReason,
                      context.cookie))
 
         if (handleDHCP(context)) {
@@ -305,7 +307,7 @@ class PacketWorkflow(protected val dpState: DatapathState,
                             dhcp: DHCP, mtu: Short): Boolean = {
         val srcMac = context.origMatch.getEthSrc
         val optMtu = Option(mtu)
-        DhcpImpl(dataClient, inPort, dhcp, srcMac, optMtu, context.log) match {
+        DhcpImpl(dhcpAssignments, inPort, dhcp, srcMac, optMtu, context.log) match {
             case Some(dhcpReply) =>
                 context.log.debug(
                     "sending DHCP reply {} to port {}", dhcpReply, inPort.id)
@@ -16,7 +16,12 @@
 
 package org.midonet.midolman
 
+import java.util.UUID
+import java.util.concurrent.{ExecutorService, Executors}
+
 import scala.collection.immutable
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration._
 
 import akka.actor._
 import akka.event.LoggingReceive
@@ -30,12 +35,14 @@ import org.midonet.midolman.datapath.DatapathChannel
 import org.midonet.midolman.io.DatapathConnectionPool
 import org.midonet.midolman.logging.ActorLogWithoutPath
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.midolman.simulation.DhcpAssignmentCache
 import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
 import org.midonet.midolman.state.NatState.{NatBinding, NatKey}
 import org.midonet.midolman.state.{FlowStateStorageFactory, NatBlockAllocator, NatLeaser}
+import org.midonet.midolman.topology.LocalPortActive
 import org.midonet.sdn.state.ShardedFlowStateTable
 import org.midonet.util.StatisticalCounter
-import org.midonet.util.concurrent.NanoClock
+import org.midonet.util.concurrent.{NamedThreadFactory, NanoClock}
 import org.slf4j.LoggerFactory
 
 object PacketsEntryPoint extends Referenceable {
@@ -44,13 +51,29 @@ object PacketsEntryPoint extends Referenceable {
     case object GetWorkers
 
     case class Workers(list: IndexedSeq[ActorRef])
+
+    /* The postponed simulations of the packets from a port are counted for
+     * this long after the port becomes active, the time it may take to load
+     * the virtual topology reachable from the port */
+    val NewPortWindow = 30 seconds
+
+    private case class NewPortSettled(portId: UUID)
+
+    /* The DHCP assignments of a bridge, and their watchers, are dropped when
+     * the bridge received no DHCP request for one to two of these periods */
+    val DhcpIdleEvictionPeriod = 10 minutes
+
+    private case object EvictIdleDhcpAssignments
 }
 
 class PacketsEntryPoint extends Actor with ActorLogWithoutPath
-        with DatapathReadySubscriberActor {
+        with SubscriberActor {
     import org.midonet.midolman.DatapathController.DatapathReady
     import org.midonet.midolman.PacketsEntryPoint._
 
+    override def subscribedClasses =
+        Seq(classOf[DatapathReady], classOf[LocalPortActive])
+
     private var _NUM_WORKERS = 1
     def NUM_WORKERS = _NUM_WORKERS
     private def NUM_WORKERS_=(n: Int) {
@@ -102,6 +125,9 @@ class PacketsEntryPoint extends Actor with ActorLogWithoutPath
     var connTrackStateTable: ShardedFlowStateTable[ConnTrackKey, ConnTrackValue] = _
     var natStateTable: ShardedFlowStateTable[NatKey, NatBinding] = _
     var natLeaser: NatLeaser = _
+    var dhcpExecutor: ExecutorService = _
+    var dhcpAssignments: DhcpAssignmentCache = _
+    var dhcpEviction: Cancellable = _
 
     override def preStart(): Unit = {
         super.preStart()
@@ -115,6 +141,13 @@ class PacketsEntryPoint extends Actor with ActorLogWithoutPath
             val allocator = natBlockAllocator
             val clock = PacketsEntryPoint.this.clock
         }
+        dhcpExecutor = Executors.newSingleThreadExecutor(
+            new NamedThreadFactory("dhcp-assignments"))
+        dhcpAssignments = new DhcpAssignmentCache(
+            clusterDataClient, ExecutionContext.fromExecutor(dhcpExecutor))
+        dhcpEviction = context.system.scheduler.schedule(
+            DhcpIdleEvictionPeriod, DhcpIdleEvictionPeriod, self,
+            EvictIdleDhcpAssignments)(context.dispatcher)
 
         for (i <- 0 until NUM_WORKERS) {
             workers :+= startWorker(i)
@@ -123,6 +156,10 @@ class PacketsEntryPoint extends Actor with ActorLogWithoutPath
 
     override def postStop(): Unit = {
         dpChannel.stop()
+        if (dhcpEviction ne null)
+            dhcpEviction.cancel()
+        if (dhcpExecutor ne null)
+            dhcpExecutor.shutdownNow()
     }
 
     private def shardLogger(t: AnyRef) =
@@ -137,7 +174,7 @@ class PacketsEntryPoint extends Actor with ActorLogWithoutPath
         val cookieGen = new CookieGenerator(index, NUM_WORKERS)
         Props(
             classOf[DeduplicationActor],
-            config, cookieGen, dpChannel, clusterDataClient,
+            config, cookieGen, dpChannel, dhcpAssignments,
             connTrackStateTable.addShard(log = shardLogger(connTrackStateTable)),
             natStateTable.addShard(log = shardLogger(natStateTable)),
             storageFactory.create(),
@@ -164,5 +201,19 @@ class PacketsEntryPoint extends Actor with ActorLogWithoutPath
         case CheckBackchannels => broadcast(CheckBackchannels)
 
         case GetWorkers => sender ! Workers(workers)
+
+        case LocalPortActive(portId, true) =>
+            metrics.newPortActivated(portId)
+            context.system.scheduler.scheduleOnce(
+                NewPortWindow, self, NewPortSettled(portId))(context.dispatcher)
+
+        case LocalPortActive(portId, false) =>
+            metrics.newPortSettled(portId)
+
+        case NewPortSettled(portId) =>
+            metrics.newPortSettled(portId)
+
+        case EvictIdleDhcpAssignments =>
+            dhcpAssignments.evictIdle()
     }
 }
@@ -38,11 +38,16 @@ object DisruptorDatapathChannel {
     val PACKET_EXECUTION: Byte = 0
     val FLOW_CREATE: Byte = 1
 
+    val EVENT_BUFFER_SIZE = 8 * 1024
+    /* Room for the netlink headers, flow keys and actions of a packet
+     * execution, besides the packet itself. */
+    val PACKET_EXECUTION_OVERHEAD = 4 * 1024
+
     sealed class DatapathEvent(var bb: ByteBuffer, var op: Byte)
 
     object Factory extends EventFactory[DatapathEvent] {
         override def newInstance(): DatapathEvent =
-            new DatapathEvent(BytesUtil.instance.allocateDirect(8*1024), -1)
+            new DatapathEvent(BytesUtil.instance.allocateDirect(EVENT_BUFFER_SIZE), -1)
     }
 }
 
@@ -106,11 +111,19 @@ class DisruptorDatapathChannel(val capacity: Int,
             return
         }
 
+        // The bytes received from the datapath, unless the packet was
+        // generated or modified, in which case it is serialized.
+        val data = packet.getData
         val seq = ringBuffer.next()
         val event = ringBuffer.get(seq)
+        if (event.bb.capacity < data.length + PACKET_EXECUTION_OVERHEAD) {
+            event.bb = BytesUtil.instance.allocateDirect(
+                data.length + PACKET_EXECUTION_OVERHEAD)
+        }
         event.bb.clear()
 
-        protocol.preparePacketExecute(datapath.getIndex, packet, actions, event.bb)
+        protocol.preparePacketExecute(datapath.getIndex, packet, data, actions,
+                                      event.bb)
         event.op = PACKET_EXECUTION
         ringBuffer.publish(seq)
     }
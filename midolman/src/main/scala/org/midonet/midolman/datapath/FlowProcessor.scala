@@ -32,6 +32,10 @@ import org.midonet.netlink._
 import org.midonet.odp.{OvsNetlinkFamilies, OvsProtocol}
 import org.midonet.util.concurrent.{Backchannel, NanoClock}
 
+object FlowProcessor {
+    private val FLOW_CREATE_SEQ = 0x80000000L
+}
+
 sealed class FlowProcessor(flowEjector: FlowEjector,
                            channelFactory: NetlinkChannelFactory,
                            datapathId: Int,
@@ -40,6 +44,7 @@ sealed class FlowProcessor(flowEjector: FlowEjector,
      extends EventPoller.Handler[DatapathEvent]
      with Backchannel
      with LifecycleAware {
+    import FlowProcessor._
 
     private val log = Logger(LoggerFactory.getLogger(
         "org.midonet.datapath.flow-processor"))
@@ -52,29 +57,51 @@ sealed class FlowProcessor(flowEjector: FlowEjector,
     }
 
     private val writer = new NetlinkBlockingWriter(channel)
+    private val batchWriter = new NetlinkBatchWriter(channel)
+    private val replyBuf = BytesUtil.instance.allocateDirect(8*1024)
     private val requestReply = new NetlinkRequestBroker(
         new NetlinkReader(channel),
         writer,
         flowEjector.maxPendingRequests,
-        BytesUtil.instance.allocateDirect(8*1024),
+        replyBuf,
         clock,
         5 seconds)
     private val protocol = new OvsProtocol(pid, ovsFamilies)
 
     private var lastSequence = Sequencer.INITIAL_CURSOR_VALUE
-
+    private var batchStart = 0L
+
+    /**
+     * Flow creations are written in batches, one per batch of the ring
+     * buffer, before the poller gives way to the flow deletions. They are
+     * tagged with negative sequence numbers, derived from their position in
+     * the ring buffer, to tell their errors apart from the replies to the
+     * requests of the broker.
+     */
     override def onEvent(event: DatapathEvent, sequence: Long,
                          endOfBatch: Boolean): Boolean = {
         if (event.op == FLOW_CREATE) {
             try {
                 event.bb.putInt(NetlinkMessage.NLMSG_PID_OFFSET, pid)
-                writer.write(event.bb)
-                log.debug(s"Created flow #$sequence")
+                event.bb.putInt(NetlinkMessage.NLMSG_SEQ_OFFSET,
+                                (sequence | FLOW_CREATE_SEQ).toInt)
+                batchWriter.add(event.bb)
+                if (batchWriter.pending == 1) {
+                    batchStart = sequence
+                }
             } catch { case t: Throwable =>
-                log.error(s"Failed to create flow #$sequence", t)
+                log.error(s"Failed to create flows #$batchStart to #$sequence", t)
             }
             lastSequence = sequence
         }
+        if (endOfBatch && batchWriter.pending > 0) {
+            try {
+                batchWriter.flush()
+                log.debug(s"Created flows #$batchStart to #$sequence")
+            } catch { case t: Throwable =>
+                log.error(s"Failed to create flows #$batchStart to #$sequence", t)
+            }
+        }
         true
     }
 
@@ -96,7 +123,15 @@ sealed class FlowProcessor(flowEjector: FlowEjector,
             override def onCompleted(): Unit =
                 log.warn("Unexpected reply - probably the late answer of a request that timed out")
 
-            override def onError(e: Throwable): Unit = onCompleted()
+            override def onError(e: Throwable): Unit = {
+                val seq = replyBuf.getInt(NetlinkMessage.NLMSG_SEQ_OFFSET)
+                if (seq < 0) {
+                    log.warn(s"Failed to create flow #${seq & Int.MaxValue}: " +
+                             e.getMessage)
+                } else {
+                    onCompleted()
+                }
+            }
             override def onNext(t: ByteBuffer): Unit = { }
     }
 
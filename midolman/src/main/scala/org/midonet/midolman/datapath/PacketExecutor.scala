@@ -23,6 +23,7 @@ import com.lmax.disruptor.{EventHandler, LifecycleAware}
 
 import org.midonet.midolman.datapath.DisruptorDatapathChannel._
 import org.midonet.netlink._
+import org.midonet.netlink.exceptions.NetlinkException
 
 sealed class PacketExecutor(numHandlers: Int, index: Int,
                             channelFactory: NetlinkChannelFactory)
@@ -40,30 +41,58 @@ sealed class PacketExecutor(numHandlers: Int, index: Int,
         log.debug(s"Created channel with pid $pid")
     }
 
-    private val writer = new NetlinkBlockingWriter(channel)
+    private val writer = new NetlinkBatchWriter(channel)
     private val reader = new NetlinkReader(channel)
 
+    private var batchStart = 0L
+
+    /**
+     * Packets are written in batches, one per batch of the ring buffer. Each
+     * packet carries its sequence number, with which the error handler
+     * identifies the packets the kernel failed to execute.
+     */
     override def onEvent(event: DatapathEvent, sequence: Long,
                          endOfBatch: Boolean): Unit = {
         if (event.op == PACKET_EXECUTION && sequence % numHandlers == index) {
             try {
                 event.bb.putInt(NetlinkMessage.NLMSG_PID_OFFSET, pid)
-                writer.write(event.bb)
-                log.debug(s"Executed packet #$sequence")
+                event.bb.putInt(NetlinkMessage.NLMSG_SEQ_OFFSET, sequence.toInt)
+                writer.add(event.bb)
+                if (writer.pending == 1) {
+                    batchStart = sequence
+                }
             } catch { case t: Throwable =>
-                log.error(s"Failed to execute packet #$sequence", t)
+                log.error(s"Failed to execute packets #$batchStart to #$sequence", t)
             }
         }
+        if (endOfBatch) {
+            flush(sequence)
+        }
     }
 
+    private def flush(sequence: Long): Unit =
+        if (writer.pending > 0) {
+            try {
+                writer.flush()
+                log.debug(s"Executed packets #$batchStart to #$sequence")
+            } catch { case t: Throwable =>
+                log.error(s"Failed to execute packets #$batchStart to #$sequence", t)
+            }
+        }
+
     private def processError(): Unit =
         try {
-           if (reader.read(buf) > 0) {
-               buf.clear()
-               log.warn("Unexpected answer to packet execution")
-           }
-        } catch { case t: Throwable =>
-            log.error("Unexpected error while executing packets", t)
+            if (reader.read(buf) > 0) {
+                log.warn("Unexpected answer to packet execution")
+            }
+        } catch {
+            case e: NetlinkException =>
+                val seq = buf.getInt(NetlinkMessage.NLMSG_SEQ_OFFSET)
+                log.warn(s"Failed to execute packet #$seq: ${e.getMessage}")
+            case t: Throwable =>
+                log.error("Unexpected error while executing packets", t)
+        } finally {
+            buf.clear()
         }
 
     val errorHandler = new Thread(s"packet-executor-error-handler-$index") {
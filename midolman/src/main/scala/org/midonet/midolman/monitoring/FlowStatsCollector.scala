@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.monitoring
+
+import java.lang.management.ManagementFactory
+import java.util.{Set => JSet}
+import java.util.concurrent.{Executors, ScheduledExecutorService, TimeUnit}
+
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Gauge, MetricRegistry}
+import com.typesafe.scalalogging.Logger
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.io.DatapathConnectionPool
+import org.midonet.netlink.Callback
+import org.midonet.netlink.exceptions.NetlinkException
+import org.midonet.odp.{Datapath, Flow}
+import org.midonet.util.concurrent.NamedThreadFactory
+
+/**
+ * Periodically dumps the stats of all the datapath flows and feeds them to
+ * the MeterRegistry, so that the meters of long-lived flows are kept up to
+ * date without going through the FlowController.
+ *
+ * The dump is requested on a datapath connection and the returned flows are
+ * processed on the collector's own thread. The CPU time spent processing a
+ * dump is measured and reported, and the next collection is delayed so that
+ * the collector does not use more than maxCpuFraction of a core.
+ */
+class FlowStatsCollector(meters: MeterRegistry,
+                         datapath: Datapath,
+                         connPool: DatapathConnectionPool,
+                         interval: FiniteDuration,
+                         maxCpuFraction: Double,
+                         metrics: MetricRegistry) {
+
+    require(maxCpuFraction > 0 && maxCpuFraction <= 1,
+            "The CPU fraction must be in (0, 1]")
+
+    private val log = Logger(LoggerFactory.getLogger("org.midonet.metering"))
+
+    private val threadMXBean = ManagementFactory.getThreadMXBean
+    private val cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported
+
+    private val executor: ScheduledExecutorService =
+        Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("flow-stats-collector"))
+
+    @volatile private var running = false
+    @volatile private var lastCpuTimeNanos = 0L
+    @volatile private var lastFlowCount = 0
+
+    private val collectionTimer = metrics.timer(name(
+        classOf[FlowStatsCollector], "collectionCpuTime"))
+    private val failedDumps = metrics.counter(name(
+        classOf[FlowStatsCollector], "failedDumps"))
+    metrics.register(name(classOf[FlowStatsCollector], "lastCollectedFlows"),
+        new Gauge[Int] { override def getValue = lastFlowCount })
+    metrics.register(name(classOf[FlowStatsCollector], "cpuUsage"),
+        new Gauge[Double] {
+            override def getValue =
+                lastCpuTimeNanos.toDouble / interval.toNanos
+        })
+
+    private val collect = new Runnable {
+        override def run(): Unit = requestDump()
+    }
+
+    def start(): Unit = {
+        running = true
+        executor.schedule(collect, interval.toMillis, TimeUnit.MILLISECONDS)
+        log.info(s"Collecting flow stats every $interval using at most " +
+                 s"${(maxCpuFraction * 100).toInt}% of a CPU")
+    }
+
+    def stop(): Unit = {
+        running = false
+        executor.shutdownNow()
+    }
+
+    /** The CPU time, in nanoseconds, spent processing the last dump. */
+    def lastCpuTime: Long = lastCpuTimeNanos
+
+    private def requestDump(): Unit = {
+        if (!running)
+            return
+        val cb = new Callback[JSet[Flow]] {
+            override def onSuccess(flows: JSet[Flow]): Unit =
+                try executor.execute(new Runnable {
+                    override def run(): Unit = process(flows)
+                }) catch {
+                    case e: Exception => // shutting down
+                }
+
+            override def onError(ex: NetlinkException): Unit = {
+                log.warn("Failed to dump the datapath flows", ex)
+                failedDumps.inc()
+                scheduleNext(interval.toNanos)
+            }
+        }
+        try {
+            connPool.get(datapath.getIndex).flowsEnumerate(
+                datapath, cb, interval.toMillis)
+        } catch {
+            case e: Exception =>
+                log.warn("Failed to request a dump of the datapath flows", e)
+                failedDumps.inc()
+                scheduleNext(interval.toNanos)
+        }
+    }
+
+    private def process(flows: JSet[Flow]): Unit = {
+        val start = currentCpuTime()
+        try {
+            val it = flows.iterator()
+            while (it.hasNext) {
+                val flow = it.next()
+                if ((flow.getMatch ne null) && (flow.getStats ne null))
+                    meters.updateFlow(flow.getMatch, flow.getStats)
+            }
+        } catch {
+            case e: Exception =>
+                log.error("Failed to process the datapath flow stats", e)
+        }
+        val cpuTime = currentCpuTime() - start
+        lastCpuTimeNanos = cpuTime
+        lastFlowCount = flows.size()
+        collectionTimer.update(cpuTime, TimeUnit.NANOSECONDS)
+        log.debug(s"Collected the stats of ${flows.size} flows in " +
+                  s"${cpuTime / 1000} us of CPU time")
+        scheduleNext((cpuTime / maxCpuFraction).toLong)
+    }
+
+    private def scheduleNext(minDelayNanos: Long): Unit = {
+        if (running) {
+            val delay = math.max(interval.toNanos, minDelayNanos)
+            try executor.schedule(collect, delay, TimeUnit.NANOSECONDS) catch {
+                case e: Exception => // shutting down
+            }
+        }
+    }
+
+    private def currentCpuTime(): Long =
+        if (cpuTimeSupported) threadMXBean.getCurrentThreadCpuTime
+        else System.nanoTime()
+}
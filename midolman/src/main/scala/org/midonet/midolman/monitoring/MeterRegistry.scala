@@ -16,7 +16,7 @@
 package org.midonet.midolman.monitoring
 
 import java.util.concurrent.ConcurrentHashMap
-import java.util.{ArrayList, HashMap => JHashMap}
+import java.util.ArrayList
 
 import com.typesafe.scalalogging.Logger
 import org.slf4j.LoggerFactory
@@ -27,17 +27,26 @@ import org.midonet.sdn.flows.FlowTagger.{FlowTag, MeterTag}
 import org.midonet.util.collection.ArrayObjectPool
 
 
+/**
+ * Tracks the meters of the flows installed in the datapath and accumulates
+ * the stats reported for them. Flows are tracked and forgotten from the
+ * FlowController, while their stats may be updated concurrently from other
+ * threads, such as the FlowStatsCollector.
+ */
 class MeterRegistry(val maxFlows: Int) {
     val log = Logger(LoggerFactory.getLogger("org.midonet.metering"))
 
     class FlowData {
         val meters = new ArrayList[MeterTag](8)
         val stats = new FlowStats()
+        val delta = new FlowStats()
+        var flowMatch: FlowMatch = null
 
         def reset() {
             stats.bytes = 0
             stats.packets = 0
             meters.clear()
+            flowMatch = null
         }
     }
 
@@ -45,8 +54,7 @@ class MeterRegistry(val maxFlows: Int) {
                                                               pool => new FlowData())
 
     val meters = new ConcurrentHashMap[String, FlowStats]()
-    private val trackedFlows = new JHashMap[FlowMatch, FlowData]()
-    private val DELTA = new FlowStats()
+    private val trackedFlows = new ConcurrentHashMap[FlowMatch, FlowData]()
 
     def trackFlow(flowMatch: FlowMatch, tags: ArrayList[FlowTag]): Unit = {
         if (trackedFlows.containsKey(flowMatch))
@@ -56,22 +64,27 @@ class MeterRegistry(val maxFlows: Int) {
         if (metadata eq null)
             metadata = metadataPool.factory(metadataPool)
 
-        metadata.reset()
+        // A pooled instance may still be referenced by a concurrent update
+        // for the flow that used it before.
+        metadata.synchronized {
+            metadata.reset()
+            metadata.flowMatch = flowMatch
 
-        var i = 0
-        while (i < tags.size()) {
-            tags.get(i) match {
-                case meter: MeterTag =>
-                    metadata.meters add meter
-                    if (meters.containsKey(meter.meterName)) {
-                        log.debug(s"tracking a new flow for meter ${meter.meterName}")
-                    } else {
-                        meters.put(meter.meterName, new FlowStats())
-                        log.info(s"discovered a new meter: ${meter.meterName}")
-                    }
-                case _ => // Do nothing
+            var i = 0
+            while (i < tags.size()) {
+                tags.get(i) match {
+                    case meter: MeterTag =>
+                        metadata.meters add meter
+                        if (meters.containsKey(meter.meterName)) {
+                            log.debug(s"tracking a new flow for meter ${meter.meterName}")
+                        } else {
+                            meters.put(meter.meterName, new FlowStats())
+                            log.info(s"discovered a new meter: ${meter.meterName}")
+                        }
+                    case _ => // Do nothing
+                }
+                i += 1
             }
-            i += 1
         }
 
         log.debug(s"new flow is associated with ${metadata.meters.size} meters")
@@ -83,26 +96,40 @@ class MeterRegistry(val maxFlows: Int) {
 
     def updateFlow(flowMatch: FlowMatch, stats: FlowStats): Unit = {
         val metadata = trackedFlows.get(flowMatch)
-        if (metadata ne null) {
-            metadata.stats.updateAndGetDelta(stats, DELTA)
-            if (DELTA.packets < 0) {
-                metadata.stats.packets = 0
-                metadata.stats.bytes = 0
-                metadata.stats.updateAndGetDelta(stats, DELTA)
-            }
-            var i = 0
-            while (i < metadata.meters.size()) {
-                val meterName = metadata.meters.get(i).meterName
-                log.debug(s"meter $meterName got ${DELTA.bytes} bytes / ${DELTA.packets} packets")
-                meters.get(meterName).add(DELTA)
-                i += 1
-            }
+        if (metadata ne null) metadata.synchronized {
+            // the flow may have been forgotten meanwhile
+            if (flowMatch == metadata.flowMatch)
+                addDelta(metadata, stats)
+        }
+    }
+
+    private def addDelta(metadata: FlowData, stats: FlowStats): Unit = {
+        val delta = metadata.delta
+        metadata.stats.updateAndGetDelta(stats, delta)
+        if (delta.packets < 0) {
+            metadata.stats.packets = 0
+            metadata.stats.bytes = 0
+            metadata.stats.updateAndGetDelta(stats, delta)
+        }
+        if (delta.packets == 0 && delta.bytes == 0)
+            return
+        var i = 0
+        while (i < metadata.meters.size()) {
+            val meterName = metadata.meters.get(i).meterName
+            log.debug(s"meter $meterName got ${delta.bytes} bytes / ${delta.packets} packets")
+            val meter = meters.get(meterName)
+            meter.synchronized { meter.add(delta) }
+            i += 1
         }
     }
 
     def forgetFlow(flowMatch: FlowMatch) {
         val metadata = trackedFlows.remove(flowMatch)
-        if (metadata ne null)
+        if (metadata ne null) {
+            metadata.synchronized { metadata.reset() }
             metadataPool.offer(metadata)
+        }
     }
+
+    def trackedFlowCount: Int = trackedFlows.size()
 }
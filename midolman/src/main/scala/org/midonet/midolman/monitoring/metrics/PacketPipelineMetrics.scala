@@ -16,6 +16,10 @@
 
 package org.midonet.midolman.monitoring.metrics
 
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
 import com.codahale.metrics.{Gauge, MetricRegistry}
 import com.codahale.metrics.MetricRegistry.name
 
@@ -60,6 +64,13 @@ class PacketPipelineMetrics(val registry: MetricRegistry) {
         classOf[PacketPipelineAccumulatedTime],
         "simulationAccumulatedTime"))
 
+    val postponedSimulationsPerNewPort = registry.histogram(name(
+        classOf[PacketPipelineHistogram], "postponedSimulationsPerNewPort"))
+
+    /* The number of simulations postponed so far for the packets ingressing
+     * each of the ports that became active recently */
+    private val newPorts = new ConcurrentHashMap[UUID, AtomicInteger]()
+
     def wildcardTableHit(latency: Int) {
         wildcardTableHits.mark()
         wildcardTableHitLatency.update(latency)
@@ -76,4 +87,26 @@ class PacketPipelineMetrics(val registry: MetricRegistry) {
         packetsPostponed.mark()
         packetsOnHold.inc()
     }
+
+    def packetPostponed(inputPort: UUID) {
+        packetPostponed()
+        if (inputPort ne null) {
+            val postponed = newPorts.get(inputPort)
+            if (postponed ne null)
+                postponed.incrementAndGet()
+        }
+    }
+
+    /** Starts counting the postponed simulations of a port that just became
+      * active, until newPortSettled is called for it. */
+    def newPortActivated(portId: UUID) {
+        newPorts.putIfAbsent(portId, new AtomicInteger())
+    }
+
+    /** Records the postponed simulations of a port since it became active. */
+    def newPortSettled(portId: UUID) {
+        val postponed = newPorts.remove(portId)
+        if (postponed ne null)
+            postponedSimulationsPerNewPort.update(postponed.get)
+    }
 }
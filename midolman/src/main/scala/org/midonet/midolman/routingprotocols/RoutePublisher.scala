@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.routingprotocols
+
+import java.util.{Collections, LinkedHashMap, UUID}
+import java.util.concurrent.{ScheduledExecutorService, TimeUnit}
+
+import scala.collection.JavaConversions._
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.scalalogging.Logger
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.DataClient
+import org.midonet.cluster.data.Route
+import org.midonet.midolman.state.{StateAccessException, ZkConnectionAwareWatcher}
+
+object RoutePublisher {
+    /* The maximum number of routes written in a single multi */
+    val MaxBatchSize = 256
+
+    private class Pending(val route: Route, val since: Long)
+}
+
+/**
+ * Publishes the routes learned from the BGP peers of a router port as
+ * ephemeral routes in ZooKeeper, off the thread of the RoutingHandler.
+ *
+ * Route additions and removals are accumulated for the given window and
+ * then written in batches of up to MaxBatchSize routes, each with a single
+ * ZooKeeper multi. The addition and the removal of a route that fall in the
+ * same window cancel each other. If a batch fails, its routes are written
+ * one by one so that a single failure doesn't prevent the others from being
+ * published. The time between a route change and its publication is
+ * reported by the publicationLag timer.
+ *
+ * Routes are identified by the id given to them when they are added, which
+ * must also be used to remove them.
+ */
+class RoutePublisher(dataClient: DataClient,
+                     executor: ScheduledExecutorService,
+                     window: Duration,
+                     connWatcher: ZkConnectionAwareWatcher,
+                     metrics: MetricRegistry,
+                     onCreated: Route => Unit) {
+    import RoutePublisher._
+
+    private val log = Logger(LoggerFactory.getLogger(
+        "org.midonet.routing.bgp.route-publisher"))
+
+    private val lag = metrics.timer(
+        MetricRegistry.name(classOf[RoutePublisher], "publicationLag"))
+
+    private val additions = new LinkedHashMap[UUID, Pending]()
+    private val removals = new LinkedHashMap[UUID, Pending]()
+    private var scheduled = false
+
+    private val publisher = new Runnable {
+        override def run(): Unit = publish()
+    }
+
+    def add(id: UUID, route: Route): Unit = synchronized {
+        additions.put(id, new Pending(route, System.nanoTime()))
+        schedule()
+    }
+
+    def remove(id: UUID, route: Route): Unit = synchronized {
+        if (additions.remove(id) eq null) {
+            removals.put(id, new Pending(route, System.nanoTime()))
+            schedule()
+        }
+    }
+
+    /**
+     * Publishes the pending changes and stops the publisher. Changes made
+     * afterwards are published by the calling thread.
+     */
+    def stop(): Unit = {
+        executor.shutdown()
+        executor.awaitTermination(window.toMillis + 10000,
+                                  TimeUnit.MILLISECONDS)
+        publish()
+    }
+
+    private def schedule(): Unit =
+        if (!scheduled) {
+            scheduled = true
+            if (executor.isShutdown)
+                publish()
+            else
+                executor.schedule(publisher, window.toMillis,
+                                  TimeUnit.MILLISECONDS)
+        }
+
+    private def publish(): Unit = {
+        var created = new LinkedHashMap[UUID, Pending]()
+        var deleted = new LinkedHashMap[UUID, Pending]()
+        while (nextBatch(created, deleted)) {
+            write(created, deleted)
+            created = new LinkedHashMap[UUID, Pending]()
+            deleted = new LinkedHashMap[UUID, Pending]()
+        }
+    }
+
+    /* Moves the next batch of pending changes, removals first, to the given
+     * maps. Returns false if there were no pending changes. */
+    private def nextBatch(created: LinkedHashMap[UUID, Pending],
+                          deleted: LinkedHashMap[UUID, Pending]): Boolean =
+        synchronized {
+            if (additions.isEmpty && removals.isEmpty) {
+                scheduled = false
+                return false
+            }
+            move(removals, deleted, MaxBatchSize)
+            move(additions, created, MaxBatchSize - deleted.size)
+            true
+        }
+
+    private def move(from: LinkedHashMap[UUID, Pending],
+                     to: LinkedHashMap[UUID, Pending], count: Int): Unit = {
+        val it = from.entrySet().iterator()
+        var i = 0
+        while (i < count && it.hasNext) {
+            val entry = it.next()
+            to.put(entry.getKey, entry.getValue)
+            it.remove()
+            i += 1
+        }
+    }
+
+    private def write(created: LinkedHashMap[UUID, Pending],
+                      deleted: LinkedHashMap[UUID, Pending]): Unit = {
+        try {
+            dataClient.routesUpdateEphemeral(routes(created), routes(deleted))
+            log.debug(s"Published ${created.size} new routes and " +
+                      s"${deleted.size} deleted routes")
+            published(created)
+            published(deleted)
+            created.values foreach { pending => onCreated(pending.route) }
+        } catch { case e: Exception =>
+            log.warn(s"Failed to publish ${created.size} new routes and " +
+                     s"${deleted.size} deleted routes in a batch, " +
+                     "publishing them one by one", e)
+            deleted foreach { case (id, pending) =>
+                writeOne(s"BGP delete route: $id",
+                         Collections.emptyMap[UUID, Route](),
+                         Collections.singletonMap(id, pending.route))
+            }
+            created foreach { case (id, pending) =>
+                if (writeOne(s"BGP create route: $id",
+                             Collections.singletonMap(id, pending.route),
+                             Collections.emptyMap[UUID, Route]())) {
+                    onCreated(pending.route)
+                }
+            }
+            published(created)
+            published(deleted)
+        }
+    }
+
+    private def writeOne(desc: String, created: java.util.Map[UUID, Route],
+                         deleted: java.util.Map[UUID, Route]): Boolean =
+        try {
+            dataClient.routesUpdateEphemeral(created, deleted)
+            true
+        } catch {
+            case e: StateAccessException =>
+                log.error(s"Failed to publish route: $desc", e)
+                val retry = new Runnable {
+                    override def run(): Unit =
+                        dataClient.routesUpdateEphemeral(created, deleted)
+                }
+                connWatcher.handleError(desc, retry, e)
+                false
+            case e: Exception =>
+                log.error(s"Failed to publish route: $desc", e)
+                false
+        }
+
+    private def routes(changes: LinkedHashMap[UUID, Pending])
+    : java.util.Map[UUID, Route] = {
+        val routes = new LinkedHashMap[UUID, Route](changes.size)
+        changes foreach { case (id, pending) => routes.put(id, pending.route) }
+        routes
+    }
+
+    private def published(changes: LinkedHashMap[UUID, Pending]): Unit = {
+        val now = System.nanoTime()
+        changes.values foreach { pending =>
+            lag.update(now - pending.since, TimeUnit.NANOSECONDS)
+        }
+    }
+}
@@ -17,13 +17,17 @@ package org.midonet.midolman.routingprotocols
 
 import java.io.File
 import java.util.UUID
+import java.util.concurrent.Executors
 
 import scala.collection.JavaConversions._
 import scala.collection.mutable
+import scala.concurrent.duration._
 
 import akka.actor.{Actor, ActorRef, Stash}
 import akka.pattern.pipe
 
+import com.codahale.metrics.MetricRegistry
+
 import org.midonet.cluster.client.BGPListBuilder
 import org.midonet.cluster.data.{AdRoute, BGP, Route}
 import org.midonet.cluster.{Client, DataClient}
@@ -32,7 +36,7 @@ import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.io.{UpcallDatapathConnectionManager, VirtualMachine}
 import org.midonet.midolman.logging.ActorLogWithoutPath
 import org.midonet.midolman.routingprotocols.RoutingManagerActor.BgpStatus
-import org.midonet.midolman.state.{StateAccessException, ZkConnectionAwareWatcher}
+import org.midonet.midolman.state.ZkConnectionAwareWatcher
 import org.midonet.midolman.topology.VirtualTopologyActor
 import org.midonet.midolman.topology.VirtualTopologyActor.PortRequest
 import org.midonet.midolman._
@@ -44,6 +48,7 @@ import org.midonet.packets._
 import org.midonet.quagga.ZebraProtocol.RIBType
 import org.midonet.quagga._
 import org.midonet.sdn.flows.FlowTagger
+import org.midonet.util.concurrent.NamedThreadFactory
 import org.midonet.util.eventloop.SelectLoop
 import org.midonet.util.process.ProcessHelper
 
@@ -119,7 +124,8 @@ class RoutingHandler(var rport: RouterPort, val bgpIdx: Int,
                      val client: Client, val dataClient: DataClient,
                      val config: MidolmanConfig,
                      val connWatcher: ZkConnectionAwareWatcher,
-                     val selectLoop: SelectLoop)
+                     val selectLoop: SelectLoop,
+                     val metrics: MetricRegistry)
     extends Actor with ActorLogWithoutPath with Stash with FlowTranslator {
 
     import RoutingHandler._
@@ -155,6 +161,14 @@ class RoutingHandler(var rport: RouterPort, val bgpIdx: Int,
     private val bgps = mutable.Map[UUID, BGP]()
     private val adRoutes = mutable.Set[AdRoute]()
     private val peerRoutes = mutable.Map[Route, UUID]()
+    private val eventStream = context.system.eventStream
+    private val routePublisher = new RoutePublisher(
+        dataClient,
+        Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory(s"bgp-route-publisher-$bgpIdx")),
+        config.getBgpRoutePublicationWindowMillis.millis,
+        connWatcher, metrics,
+        route => eventStream.publish(PEER_ROUTE_ADDED(route.getRouterId, route)))
     private var socketAddress: AfUnix.Address = null
 
     // At this moment we only support one bgpd process
@@ -275,6 +289,7 @@ class RoutingHandler(var rport: RouterPort, val bgpIdx: Int,
     override def postStop() {
         super.postStop()
         disable()
+        routePublisher.stop()
         log.debug("({}) Stopped", phase)
     }
 
@@ -380,10 +395,7 @@ class RoutingHandler(var rport: RouterPort, val bgpIdx: Int,
                     // If this is the last BGP for ths port, tear everything down.
                     if (bgps.size == 0) {
                         phase = Stopping
-                        peerRoutes.values foreach {
-                            routeId => deleteRoute(routeId)
-                        }
-                        peerRoutes.clear()
+                        removePeerRoutes()
                         stopBGP()
                     }
                 case Started =>
@@ -539,11 +551,11 @@ class RoutingHandler(var rport: RouterPort, val bgpIdx: Int,
                     route.setNextHop(org.midonet.midolman.layer3.Route.NextHop.PORT)
                     route.setNextHopPort(rport.id)
                     route.setWeight(distance)
-                    val routeId = dataClient.routesCreateEphemeral(route)
-                    peerRoutes.put(route, routeId)
-                    log.debug("({}) announcing we've added a peer route", phase)
-                    context.system.eventStream.publish(
-                        new PEER_ROUTE_ADDED(rport.deviceId, route))
+                    if (!peerRoutes.contains(route)) {
+                        val routeId = UUID.randomUUID()
+                        peerRoutes.put(route, routeId)
+                        routePublisher.add(routeId, route)
+                    }
 
                 case _ =>
                     log.debug("({}) AddPeerRoute: ignoring", phase)
@@ -567,7 +579,7 @@ class RoutingHandler(var rport: RouterPort, val bgpIdx: Int,
                     route.setNextHop(org.midonet.midolman.layer3.Route.NextHop.PORT)
                     route.setNextHopPort(rport.id)
                     peerRoutes.remove(route) match {
-                        case Some(routeId) => deleteRoute(routeId)
+                        case Some(routeId) => routePublisher.remove(routeId, route)
                         case None =>
                     }
                 case _ =>
@@ -640,38 +652,19 @@ class RoutingHandler(var rport: RouterPort, val bgpIdx: Int,
                 stopBGP()
                 invalidateFlows(bgp)
 
-                // NOTE(guillermo) the dataClient's write operations (such as
-                // deleting a route) are synchronous. That implies that a) these
-                // calls, because ZK is disconnected, will only return when
-                // the session is restored or finally lost. The actor is
-                // effectively 'suspended' for that period of time. and b)
-                // these calls should be at the very end of this message
-                // handler's code path, after the flow invalidation and
-                // bgpd tear down.
-                peerRoutes.values foreach {
-                    routeId => deleteRoute(routeId)
-                }
-                peerRoutes.clear()
+                // The routes are deleted by the route publisher, so that the
+                // actor is not suspended while ZK is disconnected.
+                removePeerRoutes()
             case _ =>
                 phase = Disabled
         }
     }
 
-    def deleteRoute(routeId: UUID) {
-        try {
-            dataClient.routesDelete(routeId)
-        } catch {
-            case e: StateAccessException =>
-                log.error(s"({$phase}) Exception", e)
-                val retry = new Runnable() {
-                    @Override
-                    override def run() {
-                        dataClient.routesDelete(routeId)
-                    }
-                }
-
-                connWatcher.handleError("BGP delete route: " + routeId, retry, e)
+    private def removePeerRoutes(): Unit = {
+        peerRoutes foreach {
+            case (route, routeId) => routePublisher.remove(routeId, route)
         }
+        peerRoutes.clear()
     }
 
     private def startBGP() {
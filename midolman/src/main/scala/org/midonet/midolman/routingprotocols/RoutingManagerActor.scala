@@ -21,6 +21,7 @@ import scala.collection.mutable
 
 import akka.actor._
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 
 import org.midonet.cluster.state.{StateStorage, LocalPortActive}
@@ -84,6 +85,9 @@ class RoutingManagerActor extends ReactiveActor[LocalPortActive]
     @Inject
     var upcallConnManager: UpcallDatapathConnectionManager = null
 
+    @Inject
+    var metricsRegistry: MetricRegistry = null
+
     override def preStart() {
         super.preStart()
         if (config.getMidolmanBGPEnabled) {
@@ -154,7 +158,8 @@ class RoutingManagerActor extends ReactiveActor[LocalPortActive]
                     context.actorOf(
                         Props(new RoutingHandler(port, bgpPortIdx, datapath,
                                     dpState, upcallConnManager, client,
-                                    dataClient, config, zkConnWatcher, zebraLoop)).
+                                    dataClient, config, zkConnWatcher, zebraLoop,
+                                    metricsRegistry)).
                               withDispatcher("actors.pinned-dispatcher"),
                         name = port.id.toString)
                 )
@@ -34,6 +34,7 @@ import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.l4lb.HealthMonitor
 import org.midonet.midolman.management.PacketTracing
 import org.midonet.midolman.routingprotocols.RoutingManagerActor
+import org.midonet.midolman.topology.ReachabilityPrefetcher
 import org.midonet.midolman.topology.VirtualToPhysicalMapper
 import org.midonet.midolman.topology.VirtualTopologyActor
 
@@ -75,7 +76,9 @@ class MidolmanActorsService extends AbstractService {
         (propsFor(classOf[NetlinkCallbackDispatcher]),
             NetlinkCallbackDispatcher.Name),
         (propsFor(classOf[MtuIncreaser]).
-            withDispatcher("actors.pinned-dispatcher"), MtuIncreaser.Name))
+            withDispatcher("actors.pinned-dispatcher"), MtuIncreaser.Name),
+        (propsFor(classOf[ReachabilityPrefetcher]),
+            ReachabilityPrefetcher.Name))
 
     protected var supervisorActor: ActorRef = _
     private var childrenActors: List[ActorRef] = Nil
@@ -292,7 +292,7 @@ class Bridge(val id: UUID,
             return ToPortAction(toPort)
         }
 
-        val vlanInFrame: Option[JShort] = context.ethernet.getVlanIDs match {
+        lazy val vlanInFrame: Option[JShort] = context.ethernet.getVlanIDs match {
             case l: java.util.List[_] if !l.isEmpty => Some(l.get(0))
             case _ => None
         }
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue}
+import java.util.concurrent.atomic.AtomicBoolean
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.concurrent.{ExecutionContext, Promise}
+
+import com.typesafe.scalalogging.Logger
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.DataClient
+import org.midonet.cluster.data.dhcp.{Host, Subnet}
+import org.midonet.midolman.NotYetException
+import org.midonet.midolman.state.NoStatePathException
+import org.midonet.packets.{IPv4Subnet, MAC}
+
+object DhcpAssignmentCache {
+
+    /** The DHCP configuration of a bridge: the static assignment of each MAC
+      * to a host, in the first enabled subnet that is ready to reply and
+      * where the host has an IP address. */
+    class BridgeAssignments(val bridgeId: UUID,
+                            val assignments: Map[MAC, (Host, Subnet)]) {
+        def get(mac: MAC): Option[(Host, Subnet)] = assignments.get(mac)
+    }
+}
+
+/**
+ * Caches the DHCP assignments of the bridges so that the packet processing
+ * threads can answer DHCP requests without reading from the storage.
+ *
+ * The assignments of a bridge are loaded the first time they are requested.
+ * The cache then keeps a single watcher on the list of subnets of the bridge,
+ * on each subnet, on the list of hosts of each subnet and on each host, and
+ * when one of them fires it only reads again the node that changed, along
+ * with the subnets and hosts that were added to a list. All of this happens
+ * on the given executor, which must run one task at a time: readers never
+ * block, and only the first request for a bridge fails with a
+ * NotYetException, which completes once the assignments are loaded. While a
+ * bridge is being updated, readers see the previous assignments.
+ *
+ * The bridges that received no request between two calls to evictIdle() are
+ * dropped from the cache, and their watchers are not set again.
+ */
+class DhcpAssignmentCache(dataClient: DataClient, executor: ExecutionContext) {
+    import DhcpAssignmentCache._
+
+    private val log = Logger(LoggerFactory.getLogger("org.midonet.devices.dhcp"))
+
+    private val bridges = new ConcurrentHashMap[UUID, Entry]()
+
+    private class Entry(bridgeId: UUID) extends Runnable {
+        @volatile var assignments: BridgeAssignments = null
+        @volatile var queried = true
+        val ready = Promise[BridgeAssignments]()
+
+        private val scheduled = new AtomicBoolean(false)
+        private val changes = new ConcurrentLinkedQueue[Node]()
+
+        /* The storage nodes of the bridge, only accessed by the executor.
+         * Each node is the watcher of its own path, so that it is read again
+         * when its watcher fires, and never has more than one watcher set. */
+        private abstract class Node extends Runnable {
+            var removed = false
+            override def run(): Unit = {
+                changes.add(this)
+                schedule()
+            }
+            def reload(): Unit
+        }
+
+        private val subnets = new mutable.LinkedHashMap[IPv4Subnet, SubnetNode]
+
+        private object SubnetsNode extends Node {
+            override def reload(): Unit = {
+                val addrs = dataClient.dhcpSubnetAddrsGetByBridge(bridgeId,
+                                                                  this).toSet
+                for (addr <- subnets.keys.toList if !addrs.contains(addr))
+                    subnets.remove(addr).foreach(_.remove())
+                for (addr <- addrs if !subnets.contains(addr)) {
+                    val node = new SubnetNode(addr)
+                    subnets.put(addr, node)
+                    node.reload()
+                    node.hosts.reload()
+                }
+            }
+        }
+
+        private class SubnetNode(addr: IPv4Subnet) extends Node {
+            var subnet: Subnet = null
+            val hosts = new HostsNode(addr)
+
+            override def reload(): Unit =
+                subnet = dataClient.dhcpSubnetsGet(bridgeId, addr, this)
+
+            def remove(): Unit = {
+                removed = true
+                hosts.remove()
+            }
+        }
+
+        private class HostsNode(addr: IPv4Subnet) extends Node {
+            val hosts = new mutable.LinkedHashMap[MAC, HostNode]
+
+            override def reload(): Unit = {
+                val macs = try {
+                    dataClient.dhcpHostMacsGetBySubnet(bridgeId, addr,
+                                                       this).toSet
+                } catch {
+                    // The subnet was deleted, the list of subnets will
+                    // remove it.
+                    case e: NoStatePathException => Set.empty[MAC]
+                }
+                for (mac <- hosts.keys.toList if !macs.contains(mac))
+                    hosts.remove(mac).foreach(_.removed = true)
+                for (mac <- macs if !hosts.contains(mac)) {
+                    val node = new HostNode(addr, mac)
+                    hosts.put(mac, node)
+                    node.reload()
+                }
+            }
+
+            def remove(): Unit = {
+                removed = true
+                for (node <- hosts.values)
+                    node.removed = true
+            }
+        }
+
+        private class HostNode(addr: IPv4Subnet, mac: MAC) extends Node {
+            var host: Host = null
+
+            override def reload(): Unit =
+                host = dataClient.dhcpHostsGet(bridgeId, addr, mac.toString,
+                                               this)
+        }
+
+        def load(): Unit = SubnetsNode.run()
+
+        def schedule(): Unit =
+            if (scheduled.compareAndSet(false, true))
+                executor.execute(this)
+
+        override def run(): Unit = {
+            if (bridges.get(bridgeId) ne this)
+                return
+            // Changes from now on trigger a new update.
+            scheduled.set(false)
+            try {
+                var node = changes.poll()
+                while (node ne null) {
+                    if (!node.removed)
+                        node.reload()
+                    node = changes.poll()
+                }
+                assignments = build()
+                ready.trySuccess(assignments)
+            } catch {
+                case e: Exception =>
+                    log.warn(s"Failed to load the DHCP assignments of " +
+                             s"bridge $bridgeId", e)
+                    // The next request for this bridge loads it again.
+                    bridges.remove(bridgeId, this)
+                    ready.tryFailure(e)
+            }
+        }
+
+        private def build(): BridgeAssignments = {
+            var assignments = Map.empty[MAC, (Host, Subnet)]
+            for (node <- subnets.values) {
+                val subnet = node.subnet
+                if ((subnet ne null) && isEnabled(subnet)) {
+                    if (subnet.isReplyReady) {
+                        for (hostNode <- node.hosts.hosts.values) {
+                            val host = hostNode.host
+                            if ((host ne null) && (host.getIp ne null) &&
+                                !assignments.contains(host.getMAC)) {
+                                assignments += host.getMAC -> (host, subnet)
+                            }
+                        }
+                    } else {
+                        log.warn(s"The DHCP subnet ${subnet.getId} of " +
+                                 s"bridge $bridgeId does not have all the " +
+                                 "information necessary to create DHCP replies")
+                    }
+                }
+            }
+            log.debug(s"Loaded ${assignments.size} DHCP assignments in " +
+                      s"${subnets.size} subnets of bridge $bridgeId")
+            new BridgeAssignments(bridgeId, assignments)
+        }
+    }
+
+    /* Subnets created in v1.3 or earlier may not have the enabled field, and
+     * are treated as enabled. */
+    private def isEnabled(subnet: Subnet): Boolean = {
+        val enabled = subnet.isEnabled
+        (enabled eq null) || enabled.booleanValue
+    }
+
+    /**
+     * Returns the DHCP host assigned to the MAC address in the bridge,
+     * together with its subnet. Throws a NotYetException if the assignments
+     * of the bridge have not been loaded yet.
+     */
+    @throws(classOf[NotYetException])
+    def get(bridgeId: UUID, mac: MAC): Option[(Host, Subnet)] = {
+        var entry = bridges.get(bridgeId)
+        if (entry eq null) {
+            val newEntry = new Entry(bridgeId)
+            entry = bridges.putIfAbsent(bridgeId, newEntry)
+            if (entry eq null) {
+                entry = newEntry
+                entry.load()
+            }
+        }
+        if (!entry.queried)
+            entry.queried = true
+        val assignments = entry.assignments
+        if (assignments eq null)
+            throw NotYetException(entry.ready.future,
+                s"Waiting for the DHCP assignments of bridge $bridgeId")
+        assignments.get(mac)
+    }
+
+    /**
+     * Drops the bridges that were not queried since the previous call. The
+     * watchers of a dropped bridge are not set again once they fire.
+     */
+    def evictIdle(): Unit = {
+        val it = bridges.entrySet().iterator()
+        while (it.hasNext) {
+            val entry = it.next()
+            if (entry.getValue.queried) {
+                entry.getValue.queried = false
+            } else {
+                log.debug(s"Evicting the DHCP assignments of idle bridge " +
+                          s"${entry.getKey}")
+                bridges.remove(entry.getKey, entry.getValue)
+            }
+        }
+    }
+}
@@ -23,8 +23,7 @@ import scala.concurrent.duration._
 
 import com.typesafe.scalalogging.Logger
 
-import org.midonet.cluster.DataClient
-import org.midonet.cluster.data.dhcp.{Subnet, Host, Opt121}
+import org.midonet.cluster.data.dhcp.{Host, Opt121}
 import org.midonet.midolman.topology.devices.{RouterPort, BridgePort, Port}
 import org.midonet.packets._
 
@@ -410,9 +409,9 @@ object DhcpValueParser {
 }
 
 object DhcpImpl {
-    def apply(dataClient: DataClient, inPort: Port, request: DHCP,
+    def apply(assignments: DhcpAssignmentCache, inPort: Port, request: DHCP,
               sourceMac: MAC, mtu: Option[Short], log: Logger) =
-        new DhcpImpl(dataClient, request, sourceMac, mtu, log).handleDHCP(inPort)
+        new DhcpImpl(assignments, request, sourceMac, mtu, log).handleDHCP(inPort)
 }
 
 class DhcpException extends Exception {
@@ -422,7 +421,7 @@ class DhcpException extends Exception {
 object UnsupportedDhcpRequestException extends DhcpException {}
 object MalformedDhcpRequestException extends DhcpException {}
 
-class DhcpImpl(val dataClient: DataClient,
+class DhcpImpl(val assignments: DhcpAssignmentCache,
                val request: DHCP, val sourceMac: MAC,
                val mtu: Option[Short], val log: Logger) {
     import DhcpValueParser._
@@ -455,37 +454,11 @@ class DhcpImpl(val dataClient: DataClient,
         }
     }
 
-    private type HostAndSubnetOptPair = (Option[Host], Option[Subnet])
-
-    private
-    def getHostAndAssignedSubnet(port: BridgePort): HostAndSubnetOptPair = {
-        // TODO(pino): use an async API
-        val subnets = dataClient.dhcpSubnetsGetByBridgeEnabled(port.deviceId)
-
-        // Look for the DHCP's source MAC in the list of hosts in each subnet
-        var host: Option[Host] = None
-        val assignment = subnets.find { sub =>
-            log.debug("Looking up assignment for MAC {} on subnet {} ",
-                      sourceMac, sub.getId)
-            if (sub.isReplyReady) {
-                // TODO(pino): make this asynchronous?
-                host = Option(dataClient.dhcpHostsGet(port.deviceId,
-                                                    sub.getSubnetAddr,
-                                                    sourceMac.toString))
-                host.isDefined && (host.get.getIp != null)
-            } else {
-                log.warn("Can not create DHCP reply because the subnet" +
-                         s" ${sub.getId} does not have all necessary " +
-                         "information.")
-                false
-            }
-        }
-        (host, assignment)
-    }
-
     private def dhcpFromBridgePort(port: BridgePort): Option[Ethernet] = {
-        getHostAndAssignedSubnet(port) match {
-            case (Some(host: Host), Some(sub: Subnet)) =>
+        log.debug("Looking up assignment for MAC {} on bridge {}",
+                  sourceMac, port.deviceId)
+        assignments.get(port.deviceId, sourceMac) match {
+            case Some((host, sub)) =>
                 log.debug(s"Found DHCP static assignment for MAC $sourceMac => "+
                           s"${host.getName} @ ${host.getIp}")
 
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.io.{File, IOException, RandomAccessFile}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel.MapMode
+import java.util.{ArrayDeque, UUID, Set => JSet}
+import java.util.concurrent.ConcurrentHashMap
+
+import org.slf4j.LoggerFactory
+import sun.nio.ch.DirectBuffer
+
+import org.midonet.midolman.HostRequestProxy.{EmptyFlowStateBatch, FlowStateBatch}
+import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
+import org.midonet.midolman.state.NatState.{KeyType, NatBinding, NatKey}
+import org.midonet.packets.{IPAddr, IPv4Addr}
+
+object FlowStateJournal {
+    val SEGMENT_SIZE = 32 * 1024 * 1024
+
+    /* Segments are compacted once all the keys with the default expiration
+     * they contain have expired, so that only the long lived keys are
+     * copied forward. */
+    val COMPACTION_DELAY = FlowState.DEFAULT_EXPIRATION.toMillis
+
+    /* The maximum number of records compacted by each call to maintain() */
+    val COMPACTION_BATCH = 1024
+
+    /* Record layout: length (int), kind (byte), deadline (long), port (uuid),
+     * followed by the key and, for NAT keys, the binding. */
+    val HEADER_SIZE = 4 + 1 + 8 + 16
+    val DEADLINE_OFFSET = 5
+    val MAX_RECORD_SIZE = 128
+
+    val CONNTRACK_STRONG: Byte = 1
+    val CONNTRACK_WEAK: Byte = 2
+    val NAT_STRONG: Byte = 3
+    val NAT_WEAK: Byte = 4
+
+    val NAT_KEY_TYPES = Array[KeyType](
+        NatState.FWD_DNAT, NatState.FWD_SNAT, NatState.FWD_STICKY_DNAT,
+        NatState.REV_DNAT, NatState.REV_SNAT, NatState.REV_STICKY_DNAT)
+
+    def apply(dir: File): FlowStateJournal = new FlowStateJournal(dir)
+
+    private val PREFIX = "flow-state-"
+    private val SUFFIX = ".journal"
+
+    private def segmentIndex(file: File): Long = {
+        val name = file.getName
+        try {
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                name.substring(PREFIX.length, name.length - SUFFIX.length).toLong
+            else -1L
+        } catch { case e: NumberFormatException => -1L }
+    }
+
+    /* Only the segments being appended to or compacted are mapped: the
+     * buffer of a segment is null in between. */
+    private[state] final class Segment(val file: File, var buf: ByteBuffer,
+                                       @volatile var limit: Int) {
+        var sealedAt = 0L
+        var cursor = 0
+        var compacted = false
+    }
+
+    /* Releases the mapping of a segment right away, instead of waiting for
+     * the buffer to be garbage collected, so that the address space and the
+     * pages of the rotated and deleted segments are returned promptly. The
+     * buffer must not be accessed afterwards. */
+    private def unmap(buf: ByteBuffer): Unit = buf match {
+        case direct: DirectBuffer if direct.cleaner() ne null =>
+            direct.cleaner().clean()
+        case _ =>
+    }
+
+    private def putUUID(buf: ByteBuffer, id: UUID): Unit = {
+        buf.putLong(id.getMostSignificantBits)
+        buf.putLong(id.getLeastSignificantBits)
+    }
+
+    private def getUUID(buf: ByteBuffer): UUID =
+        new UUID(buf.getLong(), buf.getLong())
+
+    private def putIp(buf: ByteBuffer, ip: IPAddr): Unit = {
+        val bytes = ip.toBytes
+        buf.put(bytes.length.toByte)
+        buf.put(bytes)
+    }
+
+    private def getIp(buf: ByteBuffer): IPAddr = {
+        val bytes = new Array[Byte](buf.get())
+        buf.get(bytes)
+        IPAddr.fromBytes(bytes)
+    }
+}
+
+/**
+ * A local journal of the flow state keys owned by this host, which allows
+ * recovering them after a restart without fetching them from Cassandra.
+ *
+ * Each packet processing thread appends the keys it touches, through its
+ * own Writer, to memory-mapped segment files in the journal directory. A
+ * record carries the wall clock time at which its key expires, so a key
+ * touched again is simply appended again. The Writer compacts its oldest
+ * segments incrementally, copying forward the records that haven't expired
+ * and then deleting them. The segments left by a previous run of the agent
+ * are adopted by the first Writer.
+ *
+ * Replaying the journal reads all the segments and returns the keys of the
+ * requested ports that haven't expired.
+ */
+class FlowStateJournal(val dir: File,
+                       segmentSize: Int = FlowStateJournal.SEGMENT_SIZE,
+                       clock: () => Long = () => System.currentTimeMillis()) {
+    import FlowStateJournal._
+
+    private val log = LoggerFactory.getLogger("org.midonet.state.journal")
+
+    if (!dir.isDirectory && !dir.mkdirs())
+        throw new IOException(s"Failed to create the flow state journal " +
+                              s"directory $dir")
+
+    /* The segments the writers are appending to, which are read through the
+     * same mapping and up to their last complete record. */
+    private val segments = new ConcurrentHashMap[File, Segment]()
+    private var orphans = segmentFiles()
+    private var nextSegment =
+        if (orphans.isEmpty) 0L else segmentIndex(orphans.last) + 1
+
+    private def segmentFiles(): Seq[File] = {
+        val files = dir.listFiles()
+        if (files eq null) Seq.empty
+        else files.filter(segmentIndex(_) >= 0).sortBy(segmentIndex).toSeq
+    }
+
+    /**
+     * Creates a writer of this journal. The writer is not thread safe, each
+     * thread appending keys must create its own.
+     */
+    def newWriter(): Writer = synchronized {
+        val adopted = orphans
+        orphans = Seq.empty
+        new Writer(adopted)
+    }
+
+    /**
+     * Returns the keys in the journal, for the given ports, that haven't
+     * expired.
+     */
+    def replay(ports: JSet[UUID]): FlowStateBatch = synchronized {
+        val batch = EmptyFlowStateBatch()
+        val now = clock()
+        for (file <- segmentFiles()) {
+            try {
+                val segment = segments.get(file)
+                if (segment ne null) {
+                    read(segment.buf.duplicate(), segment.limit, now, ports, batch)
+                } else {
+                    val buf = map(file, readOnly = true)
+                    try read(buf, buf.capacity(), now, ports, batch)
+                    finally unmap(buf)
+                }
+            } catch { case e: Exception =>
+                log.warn(s"Failed to read flow state journal segment $file", e)
+            }
+        }
+        batch
+    }
+
+    private def read(buf: ByteBuffer, limit: Int, now: Long,
+                     ports: JSet[UUID], batch: FlowStateBatch): Unit = {
+        var pos = 0
+        while (pos + HEADER_SIZE <= limit) {
+            val len = buf.getInt(pos)
+            if (len < HEADER_SIZE || pos + len > limit)
+                return
+            buf.position(pos + 4)
+            val kind = buf.get()
+            val deadline = buf.getLong()
+            val port = getUUID(buf)
+            if (deadline > now && ports.contains(port)) {
+                kind match {
+                    case CONNTRACK_STRONG => batch.strongConnTrack.add(readConnTrack(buf))
+                    case CONNTRACK_WEAK => batch.weakConnTrack.add(readConnTrack(buf))
+                    case NAT_STRONG => batch.strongNat.put(readNat(buf), readBinding(buf))
+                    case NAT_WEAK => batch.weakNat.put(readNat(buf), readBinding(buf))
+                    case _ =>
+                }
+            }
+            pos += len
+        }
+    }
+
+    private def readConnTrack(buf: ByteBuffer): ConnTrackKey = {
+        val proto = buf.get()
+        val src = getIp(buf)
+        val dst = getIp(buf)
+        val srcPort = buf.getInt()
+        val dstPort = buf.getInt()
+        ConnTrackKey(src, srcPort, dst, dstPort, proto, getUUID(buf))
+    }
+
+    private def readNat(buf: ByteBuffer): NatKey = {
+        val keyType = NAT_KEY_TYPES(buf.get())
+        val proto = buf.get()
+        val src = IPv4Addr.fromInt(buf.getInt())
+        val srcPort = buf.getInt()
+        val dst = IPv4Addr.fromInt(buf.getInt())
+        val dstPort = buf.getInt()
+        NatKey(keyType, src, srcPort, dst, dstPort, proto, getUUID(buf))
+    }
+
+    private def readBinding(buf: ByteBuffer): NatBinding =
+        NatBinding(IPv4Addr.fromInt(buf.getInt()), buf.getInt())
+
+    private def map(file: File, readOnly: Boolean): ByteBuffer = {
+        val raf = new RandomAccessFile(file, if (readOnly) "r" else "rw")
+        try {
+            val channel = raf.getChannel
+            if (readOnly) channel.map(MapMode.READ_ONLY, 0, channel.size())
+            else channel.map(MapMode.READ_WRITE, 0, segmentSize)
+        } finally {
+            raf.close()
+        }
+    }
+
+    private def newSegment(): Segment = synchronized {
+        val file = new File(dir, s"$PREFIX$nextSegment$SUFFIX")
+        nextSegment += 1
+        val segment = new Segment(file, map(file, readOnly = false), 0)
+        segments.put(file, segment)
+        segment
+    }
+
+    /* The segments of a previous run are compacted once the delay has
+     * elapsed after adopting them, since the replays that read them
+     * happen at startup. */
+    private def adopt(file: File): Segment = {
+        val segment = new Segment(file, null, file.length().toInt)
+        segment.sealedAt = clock()
+        segment
+    }
+
+    /* Sealing a segment waits for the replays in progress, which may be
+     * reading it through its mapping. Later replays map it on their own. */
+    private def seal(segment: Segment): Unit = synchronized {
+        segments.remove(segment.file)
+        segment.sealedAt = clock()
+        unmap(segment.buf)
+        segment.buf = null
+    }
+
+    /* Deleting a segment waits for the replays in progress, which may not
+     * have read the records copied forward from it. */
+    private def delete(segment: Segment): Unit = synchronized {
+        if (segment.buf ne null) {
+            unmap(segment.buf)
+            segment.buf = null
+        }
+        if (!segment.file.delete())
+            log.warn(s"Failed to delete flow state journal segment ${segment.file}")
+    }
+
+    class Writer private[FlowStateJournal] (adopted: Seq[File]) {
+        private var head: Segment = null
+        private val sealedSegments = new ArrayDeque[Segment]()
+
+        for (file <- adopted) {
+            sealedSegments.add(adopt(file))
+        }
+
+        /**
+         * Appends a connection tracking key, for which the given port is
+         * ingress (strong) or egress (weak).
+         */
+        def appendConnTrack(k: ConnTrackKey, port: UUID, strong: Boolean): Unit = {
+            val buf = reserve()
+            val start = begin(buf, if (strong) CONNTRACK_STRONG else CONNTRACK_WEAK,
+                              k.expiresAfter.toMillis, port)
+            buf.put(k.networkProtocol)
+            putIp(buf, k.networkSrc)
+            putIp(buf, k.networkDst)
+            buf.putInt(k.icmpIdOrTransportSrc)
+            buf.putInt(k.icmpIdOrTransportDst)
+            putUUID(buf, k.deviceId)
+            commit(buf, start)
+        }
+
+        /**
+         * Appends a NAT key and its binding, for which the given port is
+         * ingress (strong) or egress (weak).
+         */
+        def appendNat(k: NatKey, v: NatBinding, port: UUID, strong: Boolean): Unit = {
+            val buf = reserve()
+            val start = begin(buf, if (strong) NAT_STRONG else NAT_WEAK,
+                              k.expiresAfter.toMillis, port)
+            buf.put(NAT_KEY_TYPES.indexOf(k.keyType).toByte)
+            buf.put(k.networkProtocol)
+            buf.putInt(k.networkSrc.addr)
+            buf.putInt(k.transportSrc)
+            buf.putInt(k.networkDst.addr)
+            buf.putInt(k.transportDst)
+            putUUID(buf, k.deviceId)
+            buf.putInt(v.networkAddress.addr)
+            buf.putInt(v.transportPort)
+            commit(buf, start)
+        }
+
+        /**
+         * Compacts up to COMPACTION_BATCH records of the oldest segments
+         * that are due for compaction.
+         */
+        def maintain(): Unit = {
+            val now = clock()
+            var budget = COMPACTION_BATCH
+            while (budget > 0 && !sealedSegments.isEmpty &&
+                   sealedSegments.peek().sealedAt + COMPACTION_DELAY <= now) {
+                val segment = sealedSegments.peek()
+                if (segment.buf eq null) {
+                    try {
+                        segment.buf = map(segment.file, readOnly = true)
+                    } catch { case e: IOException =>
+                        log.warn("Failed to map flow state journal segment " +
+                                 s"${segment.file} for compaction", e)
+                        sealedSegments.poll()
+                    }
+                }
+                if (segment.buf ne null) {
+                    budget -= compact(segment, now, budget)
+                    if (segment.compacted) {
+                        sealedSegments.poll()
+                        delete(segment)
+                    }
+                }
+            }
+        }
+
+        private def compact(segment: Segment, now: Long, budget: Int): Int = {
+            val src = segment.buf
+            var count = 0
+            while (count < budget && !segment.compacted) {
+                val pos = segment.cursor
+                val len = if (pos + HEADER_SIZE <= segment.limit) src.getInt(pos)
+                          else 0
+                if (len < HEADER_SIZE || pos + len > segment.limit) {
+                    segment.compacted = true
+                } else {
+                    if (src.getLong(pos + DEADLINE_OFFSET) > now)
+                        copy(src, pos, len)
+                    segment.cursor += len
+                    count += 1
+                }
+            }
+            count
+        }
+
+        private def copy(src: ByteBuffer, pos: Int, len: Int): Unit = {
+            val buf = reserve()
+            val record = src.duplicate()
+            record.limit(pos + len)
+            record.position(pos)
+            buf.put(record)
+            head.limit = buf.position()
+        }
+
+        private def reserve(): ByteBuffer = {
+            if ((head eq null) || head.buf.remaining() < MAX_RECORD_SIZE) {
+                if (head ne null) {
+                    seal(head)
+                    sealedSegments.add(head)
+                }
+                head = newSegment()
+            }
+            head.buf
+        }
+
+        private def begin(buf: ByteBuffer, kind: Byte, expiresAfter: Long,
+                          port: UUID): Int = {
+            val start = buf.position()
+            buf.position(start + 4)
+            buf.put(kind)
+            buf.putLong(clock() + expiresAfter)
+            putUUID(buf, port)
+            start
+        }
+
+        /* The length is written last, so that a record is only visible to
+         * the readers once it is complete. */
+        private def commit(buf: ByteBuffer, start: Int): Unit = {
+            buf.putInt(start, buf.position() - start)
+            head.limit = buf.position()
+        }
+    }
+}
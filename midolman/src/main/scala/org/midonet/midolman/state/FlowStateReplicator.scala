@@ -16,10 +16,9 @@
 
 package org.midonet.midolman.state
 
-import java.util.{ArrayList, HashSet => JHashSet, Iterator => JIterator, List => JList, Set => JSet, UUID}
+import java.util.{ArrayList, HashMap => JHashMap, HashSet => JHashSet, Iterator => JIterator, List => JList, Set => JSet, UUID}
 
 import akka.actor.ActorSystem
-import com.google.protobuf.{CodedOutputStream, MessageLite}
 import com.typesafe.scalalogging.Logger
 import org.slf4j.LoggerFactory
 
@@ -40,7 +39,6 @@ import org.midonet.packets.{Ethernet, FlowStateEthernet}
 import org.midonet.rpc.{FlowStateProto => Proto}
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.sdn.state.{FlowStateTable, FlowStateTransaction}
-import org.midonet.util.FixedArrayOutputStream
 import org.midonet.util.collection.Reducer
 import org.midonet.util.functors.Callback0
 
@@ -51,9 +49,12 @@ import org.midonet.util.functors.Callback0
  *
  * <code>
  * replicator.accumulateNewKeys(natTx, conntrackTx, ingressPort, egressPort, null)
- * replicator.pushState()
  * natTx.commit()
  * conntrackTx.commit()
+ * replicator.flushState()
+ * dpChannel.executePacket()
+ * ...
+ * replicator.pushState()
  *
  * natTable.expireIdleEntries(interval, replicator.natRemover)
  * conntrackTable.expireIdleEntries(interval, replicator.conntrackRemover)
@@ -97,38 +98,54 @@ abstract class BaseFlowStateReplicator(conntrackTable: FlowStateTable[ConnTrackK
                                        invalidateFlowsFor: (FlowStateKey) => Unit,
                                        tos: Byte) {
     import FlowStatePackets._
+    import StateMessageEncoder.{HeaderSize, MaxEntrySize, StateHeaderSize}
 
     protected def log: Logger
     protected def getPort(id: UUID): Port
     protected def getPortGroup(id: UUID): PortGroup
 
     /* Used for message building */
-    private[this] val txState = Proto.FlowState.newBuilder()
-    private[this] val txNatEntry = Proto.NatEntry.newBuilder()
-    private[this] val currentMessage = Proto.StateMessage.newBuilder()
     private[this] var txIngressPort: UUID = _
     private[this] val txPeers: JSet[UUID] = new JHashSet[UUID]()
     private[this] val txPorts: JSet[UUID] = new JHashSet[UUID]()
+    private[this] var txOutbox: Outbox = _
+    private[this] var txHasConnTrackKey = false
+    private[this] val entry = new Array[Byte](MaxEntrySize)
 
-    private[this] val pendingMessages = new ArrayList[(JSet[UUID], MessageLite)]()
-    private[this] val hostId = uuidToProto(underlay.host.id)
+    /* The messages being built for each set of peers, and the messages
+     * that are full and wait to be pushed */
+    private[this] val outboxes = new JHashMap[JSet[UUID], Outbox]()
+    private[this] val fullOutboxes = new ArrayList[Outbox]()
+    private[this] val freeOutboxes = new ArrayList[Outbox]()
+    private[this] val hostId = underlay.host.id
 
-    /* Used for packet building
+    /**
+     * A state message for a set of peers, which is encoded in place in the
+     * payload of the packet that carries it.
+     *
      * FIXME(guillermo) - use MTU
      */
-    private[this] val buffer =
-        new Array[Byte](FlowStateEthernet.FLOW_STATE_MAX_PAYLOAD_LENGTH)
-    private[this] val stream = new FixedArrayOutputStream(buffer)
-    private[this] val udpShell: FlowStateEthernet =
-        makeFlowStateUdpShell(buffer)
-    private[this] val packet: Packet =
-        new Packet(udpShell, FlowMatches.fromEthernetPacket(udpShell))
+    private final class Outbox {
+        val buffer =
+            new Array[Byte](FlowStateEthernet.FLOW_STATE_MAX_PAYLOAD_LENGTH)
+        val udpShell: FlowStateEthernet = makeFlowStateUdpShell(buffer)
+        val packet: Packet =
+            new Packet(udpShell, FlowMatches.fromEthernetPacket(udpShell))
+        var peers: JSet[UUID] = _
+        var position = 0
+        var stateStart = -1
+    }
+
     private val _conntrackAdder = new Reducer[ConnTrackKey, ConnTrackValue, ArrayList[Callback0]] {
         override def apply(callbacks: ArrayList[Callback0], k: ConnTrackKey,
                            v: ConnTrackValue): ArrayList[Callback0] = {
-            if (txPeers.size() > 0) {
+            if (txOutbox ne null) {
                 log.debug("push conntrack key: {}", k)
-                txState.setConntrackKey(connTrackKeyToProto(k))
+                /* A FlowState holds a single conntrack key */
+                if (txHasConnTrackKey)
+                    nextState()
+                append(StateMessageEncoder.writeConnTrackKey(entry, 0, k))
+                txHasConnTrackKey = true
             }
             log.debug("touch conntrack key: {}", k)
             storage.touchConnTrackKey(k, txIngressPort, txPorts.iterator())
@@ -143,11 +160,9 @@ abstract class BaseFlowStateReplicator(conntrackTable: FlowStateTable[ConnTrackK
     private val _natAdder = new Reducer[NatKey, NatBinding, ArrayList[Callback0]] {
         override def apply(callbacks: ArrayList[Callback0], k: NatKey,
                            v: NatBinding): ArrayList[Callback0] = {
-            if (txPeers.size() > 0) {
+            if (txOutbox ne null) {
                 log.debug("push nat key: {}", k)
-                txNatEntry.clear()
-                txNatEntry.setK(natKeyToProto(k)).setV(natBindingToProto(v))
-                txState.addNatEntries(txNatEntry.build())
+                append(StateMessageEncoder.writeNatEntry(entry, 0, k, v))
             }
             log.debug("touch nat key: {}", k)
             storage.touchNatKey(k, v, txIngressPort, txPorts.iterator())
@@ -159,13 +174,68 @@ abstract class BaseFlowStateReplicator(conntrackTable: FlowStateTable[ConnTrackK
         }
     }
 
-    private def resetCurrentMessage() {
-        currentMessage.clear()
-        currentMessage.setSender(hostId)
-        currentMessage.setEpoch(0L /* the epoch is not used*/)
+    /* Returns the outbox with the message being built for the current
+     * peers, starting a new one if there is none */
+    private def outboxFor(peers: JSet[UUID]): Outbox = {
+        val outbox = outboxes.get(peers)
+        if (outbox ne null)
+            outbox
+        else
+            newOutbox(new JHashSet[UUID](peers))
+    }
 
-        /* We don't expect ACKs, seq is unused for now */
-        currentMessage.setSeq(0x1)
+    private def newOutbox(peers: JSet[UUID]): Outbox = {
+        val outbox =
+            if (freeOutboxes.isEmpty) new Outbox
+            else freeOutboxes.remove(freeOutboxes.size() - 1)
+        outbox.peers = peers
+        outbox.position = StateMessageEncoder.writeHeader(outbox.buffer, hostId)
+        outbox.stateStart = -1
+        outboxes.put(peers, outbox)
+        outbox
+    }
+
+    /* Opens a FlowState for the current ingress port in the current outbox,
+     * moving on to a new message if this one has no room left for it */
+    private def beginState(): Unit = {
+        if (txOutbox.position + StateHeaderSize + MaxEntrySize >
+                txOutbox.buffer.length) {
+            fullOutboxes.add(txOutbox)
+            txOutbox = newOutbox(txOutbox.peers)
+        }
+        txOutbox.stateStart = txOutbox.position
+        txOutbox.position = StateMessageEncoder.beginState(
+            txOutbox.buffer, txOutbox.position, txIngressPort)
+        txHasConnTrackKey = false
+    }
+
+    /* Closes the current FlowState, discarding it if it's empty */
+    private def endState(): Unit = {
+        val outbox = txOutbox
+        if (outbox.position == outbox.stateStart + StateHeaderSize)
+            outbox.position = outbox.stateStart
+        else
+            StateMessageEncoder.endState(outbox.buffer, outbox.stateStart,
+                                         outbox.position)
+        outbox.stateStart = -1
+    }
+
+    private def nextState(): Unit = {
+        endState()
+        beginState()
+    }
+
+    /* Copies an encoded entry into the current FlowState. An entry that
+     * doesn't fit in the message continues the FlowState in a new one. */
+    private def append(length: Int): Unit = {
+        if (txOutbox.position + length > txOutbox.buffer.length) {
+            endState()
+            fullOutboxes.add(txOutbox)
+            txOutbox = newOutbox(txOutbox.peers)
+            beginState()
+        }
+        System.arraycopy(entry, 0, txOutbox.buffer, txOutbox.position, length)
+        txOutbox.position += length
     }
 
     def importFromStorage(batch: FlowStateBatch) {
@@ -228,27 +298,21 @@ abstract class BaseFlowStateReplicator(conntrackTable: FlowStateTable[ConnTrackK
             return
 
         resolvePeers(ingressPort, egressPorts, txPeers, txPorts, tags)
-        val hasPeers = !txPeers.isEmpty
+        txIngressPort = ingressPort
 
-        if (hasPeers) {
-            txState.clear()
-            resetCurrentMessage()
+        if (!txPeers.isEmpty) {
+            txOutbox = outboxFor(txPeers)
+            beginState()
         }
 
-        txIngressPort = ingressPort
         conntrackTx.fold(callbacks, _conntrackAdder)
         natTx.fold(callbacks, _natAdder)
 
-        if (hasPeers)
-            buildMessage(ingressPort)
-    }
-
-    def buildMessage(ingressPort: UUID): Unit =
-        if (txState.hasConntrackKey || txState.getNatEntriesCount > 0) {
-            txState.setIngressPort(uuidToProto(ingressPort))
-            currentMessage.addNewState(txState.build())
-            pendingMessages.add((txPeers, currentMessage.build()))
+        if (txOutbox ne null) {
+            endState()
+            txOutbox = null
         }
+    }
 
     private def hostsToActions(hosts: JSet[UUID]): JList[FlowAction] = {
         val actions = new ArrayList[FlowAction]()
@@ -268,9 +332,12 @@ abstract class BaseFlowStateReplicator(conntrackTable: FlowStateTable[ConnTrackK
     }
 
     /**
-     * Pushes all of the messages that were previously prepared by natRemover,
-     * conntrackRemover and accumulateNewKeys() to their destinations, using the
-     * given datapath connection.
+     * Pushes all of the messages that were previously prepared by
+     * accumulateNewKeys() to their destinations, using the given datapath
+     * connection, and submits the touched keys to the storage. The state
+     * accumulated for each set of peers is packed in as few messages as fit
+     * in the flow state packets, so this method is best called once per
+     * batch of packets.
      *
      * Packets will be tunneled to their destinations using the usual TunnelZone
      * information and with tunnel key FlowStatePackets.TUNNEL_KEY
@@ -279,27 +346,45 @@ abstract class BaseFlowStateReplicator(conntrackTable: FlowStateTable[ConnTrackK
      * this replicator.
      */
     def pushState(dpChannel: DatapathChannel) {
-        var i = pendingMessages.size() - 1
-        while (i >= 0) {
-            val (hosts, message) = pendingMessages.remove(i)
-            val messageSizeVariantLength: Int =
-                CodedOutputStream.computeRawVarint32Size(
-                    message.getSerializedSize)
-            val messageLength: Int =
-                message.getSerializedSize + messageSizeVariantLength
-            if (messageLength <= buffer.length) {
-                stream.reset()
-                message.writeDelimitedTo(stream)
-                udpShell.setElasticDataLength(messageLength)
-                dpChannel.executePacket(packet, hostsToActions(hosts))
-            } else {
-                // TODO(guillermo) partition messages
-                log.warn(s"Skipping state message, too large: $message")
+        flushState(dpChannel)
+        storage.submit()
+    }
+
+    /**
+     * Sends the messages prepared so far, without submitting the keys to the
+     * storage. It must be called before executing a packet whose state was
+     * accumulated, so that the peers receive the state ahead of the packet.
+     *
+     * EXPECTED CALLING THREADS: only the packet processing thread that owns
+     * this replicator.
+     */
+    def flushState(dpChannel: DatapathChannel) {
+        var i = 0
+        while (i < fullOutboxes.size()) {
+            send(fullOutboxes.get(i), dpChannel)
+            i += 1
+        }
+        fullOutboxes.clear()
+
+        if (!outboxes.isEmpty) {
+            val it = outboxes.values().iterator()
+            while (it.hasNext) {
+                send(it.next(), dpChannel)
             }
-            i -= 1
+            outboxes.clear()
         }
+    }
 
-        storage.submit()
+    private def send(outbox: Outbox, dpChannel: DatapathChannel): Unit = {
+        if (outbox.position > HeaderSize) {
+            StateMessageEncoder.writeMessageLength(outbox.buffer,
+                                                   outbox.position)
+            outbox.udpShell.setElasticDataLength(outbox.position)
+            dpChannel.executePacket(outbox.packet,
+                                    hostsToActions(outbox.peers))
+        }
+        outbox.peers = null
+        freeOutboxes.add(outbox)
     }
 
     private def acceptNewState(msg: Proto.StateMessage) {
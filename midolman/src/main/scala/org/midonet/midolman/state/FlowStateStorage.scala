@@ -16,7 +16,7 @@
 
 package org.midonet.midolman.state
 
-import java.lang.{Integer => JInt}
+import java.lang.{Integer => JInt, Long => JLong}
 import java.net.InetAddress
 import java.util.{UUID, Set => JSet, Map => JMap, HashMap => JHashMap,
                   HashSet => JHashSet, Iterator => JIterator}
@@ -29,18 +29,42 @@ import com.datastax.driver.core._
 import com.google.common.util.concurrent.{FutureCallback, Futures}
 import org.slf4j.{Logger, LoggerFactory}
 import org.midonet.cluster.backend.cassandra.CassandraClient
+import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
 import org.midonet.midolman.state.NatState.{KeyType, NatKey, NatBinding}
 import org.midonet.packets.{IPv4Addr, IPAddr}
 import org.midonet.util.collection.Bimap
+import org.midonet.util.concurrent.NanoClock
 
 object FlowStateStorage {
     val KEYSPACE_NAME = "MidonetFlowState"
 
-    val CONNTRACK_BY_INGRESS_TABLE = "conntrack_by_ingress_port"
-    val CONNTRACK_BY_EGRESS_TABLE = "conntrack_by_egress_port"
-    val NAT_BY_INGRESS_TABLE = "nat_by_ingress_port"
-    val NAT_BY_EGRESS_TABLE = "nat_by_egress_port"
+    /* Version 2 of the schema: the rows of each table are partitioned by
+     * port and clustered by the flow state key, so that the keys of a port
+     * are fetched from a single partition and the touches of a port are
+     * written with a single unlogged batch. */
+    val CONNTRACK_BY_INGRESS_TABLE = "conntrack_by_ingress_port_v2"
+    val CONNTRACK_BY_EGRESS_TABLE = "conntrack_by_egress_port_v2"
+    val NAT_BY_INGRESS_TABLE = "nat_by_ingress_port_v2"
+    val NAT_BY_EGRESS_TABLE = "nat_by_egress_port_v2"
+
+    /* Version 1 of the schema, partitioned by the whole key and indexed by
+     * port. These tables are still written while legacy writes are enabled,
+     * so that agents running the previous version, which only read them,
+     * recover the state stored by upgraded agents, and they are read while
+     * they exist. Once all the agents are upgraded, legacy writes can be
+     * disabled and, since all rows are written with a TTL, the tables can be
+     * dropped with LEGACY_SCHEMA_DROP after the longest flow state
+     * expiration has elapsed. */
+    val LEGACY_CONNTRACK_BY_INGRESS_TABLE = "conntrack_by_ingress_port"
+    val LEGACY_CONNTRACK_BY_EGRESS_TABLE = "conntrack_by_egress_port"
+    val LEGACY_NAT_BY_INGRESS_TABLE = "nat_by_ingress_port"
+    val LEGACY_NAT_BY_EGRESS_TABLE = "nat_by_egress_port"
+
+    /* A key touched again within this fraction of its TTL is not written
+     * again, so a stored key lives at least (1 - 1/TOUCH_COALESCING_RATIO)
+     * of its TTL after it was last touched. */
+    val TOUCH_COALESCING_RATIO = 4
 
     object Schema {
         def CONNTRACK(name: String) =
@@ -52,12 +76,34 @@ object FlowStateStorage {
                 "        dstIp inet, " +
                 "        dstPort int, " +
                 "        device uuid, " +
-                "PRIMARY KEY ((port, proto, srcIp, srcPort, dstIp, dstPort, device)));"
-
-        def CONNTRACK_IDX(table: String) =
-            s"CREATE INDEX IF NOT EXISTS ON $table (port);"
+                "PRIMARY KEY (port, proto, srcIp, srcPort, dstIp, dstPort, device));"
 
         def NAT(name: String) =
+            s"CREATE TABLE IF NOT EXISTS $name ( " +
+                "        port uuid, " +
+                "        type text, " +
+                "        proto int, " +
+                "        srcIp inet, " +
+                "        srcPort int, " +
+                "        dstIp inet, " +
+                "        dstPort int, " +
+                "        device uuid, " +
+                "        translateIp inet, " +
+                "        translatePort int, " +
+                "PRIMARY KEY (port, type, proto, srcIp, srcPort, dstIp, dstPort, device));"
+
+        def LEGACY_CONNTRACK(name: String) =
+            s"CREATE TABLE IF NOT EXISTS $name ( " +
+                "        port uuid, " +
+                "        proto int, " +
+                "        srcIp inet, " +
+                "        srcPort int, " +
+                "        dstIp inet, " +
+                "        dstPort int, " +
+                "        device uuid, " +
+                "PRIMARY KEY ((port, proto, srcIp, srcPort, dstIp, dstPort, device)));"
+
+        def LEGACY_NAT(name: String) =
             s"CREATE TABLE IF NOT EXISTS $name ( " +
                 "        port uuid, " +
                 "        type text, " +
@@ -71,19 +117,38 @@ object FlowStateStorage {
                 "        translatePort int, " +
                 "PRIMARY KEY ((port, type, proto, srcIp, srcPort, dstIp, dstPort, device)));"
 
-        def NAT_IDX(table: String) =
+        def LEGACY_IDX(table: String) =
             s"CREATE INDEX IF NOT EXISTS ON $table (port);"
+
+        def DROP(table: String) =
+            s"DROP TABLE IF EXISTS $table;"
     }
 
     val SCHEMA = Array[String](
             Schema.CONNTRACK(CONNTRACK_BY_INGRESS_TABLE),
-            Schema.CONNTRACK_IDX(CONNTRACK_BY_INGRESS_TABLE),
             Schema.CONNTRACK(CONNTRACK_BY_EGRESS_TABLE),
-            Schema.CONNTRACK_IDX(CONNTRACK_BY_EGRESS_TABLE),
             Schema.NAT(NAT_BY_INGRESS_TABLE),
-            Schema.NAT_IDX(NAT_BY_INGRESS_TABLE),
-            Schema.NAT(NAT_BY_EGRESS_TABLE),
-            Schema.NAT_IDX(NAT_BY_EGRESS_TABLE))
+            Schema.NAT(NAT_BY_EGRESS_TABLE))
+
+    val LEGACY_SCHEMA = Array[String](
+            Schema.LEGACY_CONNTRACK(LEGACY_CONNTRACK_BY_INGRESS_TABLE),
+            Schema.LEGACY_IDX(LEGACY_CONNTRACK_BY_INGRESS_TABLE),
+            Schema.LEGACY_CONNTRACK(LEGACY_CONNTRACK_BY_EGRESS_TABLE),
+            Schema.LEGACY_IDX(LEGACY_CONNTRACK_BY_EGRESS_TABLE),
+            Schema.LEGACY_NAT(LEGACY_NAT_BY_INGRESS_TABLE),
+            Schema.LEGACY_IDX(LEGACY_NAT_BY_INGRESS_TABLE),
+            Schema.LEGACY_NAT(LEGACY_NAT_BY_EGRESS_TABLE),
+            Schema.LEGACY_IDX(LEGACY_NAT_BY_EGRESS_TABLE))
+
+    /* The statements creating the tables written by the agent. */
+    def schema(legacyWrites: Boolean): Array[String] =
+        if (legacyWrites) SCHEMA ++ LEGACY_SCHEMA else SCHEMA
+
+    val LEGACY_SCHEMA_DROP = Array[String](
+            Schema.DROP(LEGACY_CONNTRACK_BY_INGRESS_TABLE),
+            Schema.DROP(LEGACY_CONNTRACK_BY_EGRESS_TABLE),
+            Schema.DROP(LEGACY_NAT_BY_INGRESS_TABLE),
+            Schema.DROP(LEGACY_NAT_BY_EGRESS_TABLE))
 
     val NAT_KEY_TYPES = Bimap[NatState.KeyType, String](List(
         NatState.FWD_DNAT -> "fwd_dnat",
@@ -123,6 +188,17 @@ object FlowStateStorage {
             transportPort = r.getInt("translatePort"))
 
     def apply(client: CassandraClient): FlowStateStorage = new FlowStateStorageImpl(client)
+
+    def apply(client: CassandraClient, clock: NanoClock): FlowStateStorage =
+        new FlowStateStorageImpl(client, clock)
+
+    def apply(client: CassandraClient, journal: FlowStateJournal): FlowStateStorage =
+        new FlowStateStorageImpl(client, journal = journal)
+
+    def apply(client: CassandraClient, journal: FlowStateJournal,
+              legacyWrites: Boolean): FlowStateStorage =
+        new FlowStateStorageImpl(client, journal = journal,
+                                 legacyWrites = legacyWrites)
 }
 
 trait FlowStateStorage {
@@ -142,6 +218,12 @@ trait FlowStateStorage {
     def touchConnTrackKey(k: ConnTrackKey, strongRef: UUID, weakRefs: JIterator[UUID])
 
     def submit()
+
+    /**
+     * Fetches the state of the given ports from the local journal, if there
+     * is one.
+     */
+    def fetchLocal(ports: JSet[UUID]): Option[FlowStateBatch]
 }
 
 
@@ -156,16 +238,108 @@ trait FlowStateStorage {
  *
  * All operations are asynchronous, submit is meant to be fire-and-forget with
  * no error control and for this reason, returns Unit.
+ *
+ * The touches of each port are sent in an unlogged batch, which Cassandra
+ * applies to a single partition. Touching a key again, for the same port,
+ * within 1/TOUCH_COALESCING_RATIO of its TTL is a no-op.
+ *
+ * If a journal is given, the keys written to Cassandra are also appended to
+ * it, whether Cassandra is reachable or not.
+ *
+ * If legacyWrites is set, the keys are also written to the version 1 tables,
+ * in a single batch per submit as the previous version did, so that agents
+ * not yet upgraded keep recovering the state of their ports.
  */
-class FlowStateStorageImpl(val client: CassandraClient) extends FlowStateStorage {
+class FlowStateStorageImpl(val client: CassandraClient,
+                           clock: NanoClock = NanoClock.DEFAULT,
+                           journal: FlowStateJournal = null,
+                           legacyWrites: Boolean = false)
+        extends FlowStateStorage {
     private val log: Logger = LoggerFactory.getLogger(classOf[FlowStateStorage])
 
     import FlowStateStorage._
 
-    var batch: BatchStatement = new BatchStatement()
     val ASYNC_REQUEST_TIMEOUT = Duration.create(3, TimeUnit.SECONDS)
+    val PURGE_INTERVAL = TimeUnit.SECONDS.toNanos(1)
+
+    /* A key touched for a port of a table, optionally with its value. */
+    private case class Touch(port: UUID, key: AnyRef, value: AnyRef)
+
+    /* The deadlines until which the keys recently written are not written
+     * again. */
+    private class Coalescer {
+        val recent = new JHashMap[Touch, JLong]()
+
+        def shouldWrite(touch: Touch, ttl: Duration, now: Long): Boolean = {
+            val deadline = recent.get(touch)
+            if ((deadline ne null) && deadline > now) {
+                false
+            } else {
+                recent.put(touch, now + ttl.toNanos / TOUCH_COALESCING_RATIO)
+                true
+            }
+        }
 
-    class Prepared(query: String) {
+        def purge(now: Long): Unit = {
+            val it = recent.values().iterator()
+            while (it.hasNext) {
+                if (it.next() <= now)
+                    it.remove()
+            }
+        }
+    }
+
+    /**
+     * The pending writes to a table, in one batch per port. The keys queued
+     * for Cassandra and the keys appended to the journal are coalesced
+     * separately, so that the touches made while Cassandra is unreachable
+     * don't hold back the writes once it is reachable again. The legacy
+     * statement, if any, writes the same keys to the version 1 table.
+     */
+    private class Touches(val statement: Prepared, val legacy: Prepared) {
+        val batches = new JHashMap[UUID, BatchStatement]()
+        val stored = new Coalescer
+        val journaled = new Coalescer
+
+        def add(port: UUID, st: Statement): Unit = {
+            var batch = batches.get(port)
+            if (batch eq null) {
+                batch = new BatchStatement(BatchStatement.Type.UNLOGGED)
+                batches.put(port, batch)
+            }
+            batch.add(st)
+        }
+
+        def submit(s: Session): Unit = {
+            val it = batches.values().iterator()
+            while (it.hasNext) {
+                val result = s.executeAsync(it.next())
+                Futures.addCallback(result, touchCallback)
+            }
+            batches.clear()
+        }
+
+        def purge(now: Long): Unit = {
+            stored.purge(now)
+            journaled.purge(now)
+        }
+    }
+
+    private var nextPurge = clock.tick + PURGE_INTERVAL
+
+    private var legacyBatch = new BatchStatement()
+
+    /* Created on the first touch, so that instances that only fetch keys
+     * don't adopt the segments left by a previous run. */
+    private var journalWriter: FlowStateJournal.Writer = null
+
+    private def writer: FlowStateJournal.Writer = {
+        if (journalWriter eq null)
+            journalWriter = journal.newWriter()
+        journalWriter
+    }
+
+    class Prepared(query: String, val table: String = null) {
         var _statement: PreparedStatement = null
 
         def apply(s: Session) = {
@@ -176,7 +350,7 @@ class FlowStateStorageImpl(val client: CassandraClient) extends FlowStateStorage
     }
 
     def fetchByPortStatement(table: String) =
-        new Prepared(s"SELECT * FROM $table  WHERE port = ?;")
+        new Prepared(s"SELECT * FROM $table  WHERE port = ?;", table)
 
     def touchConnTrackStatement(table: String) =
         new Prepared(
@@ -192,20 +366,73 @@ class FlowStateStorageImpl(val client: CassandraClient) extends FlowStateStorage
                 " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
                 " USING TTL ?;")
 
-    val touchIngressConnTrack = touchConnTrackStatement(CONNTRACK_BY_INGRESS_TABLE)
-    val touchEgressConnTrack = touchConnTrackStatement(CONNTRACK_BY_EGRESS_TABLE)
-
-    val touchIngressNat = touchNatStatement(NAT_BY_INGRESS_TABLE)
-    val touchEgressNat = touchNatStatement(NAT_BY_EGRESS_TABLE)
+    private def legacyStatement(statement: String => Prepared, table: String) =
+        if (legacyWrites) statement(table) else null
+
+    private val touchIngressConnTrack =
+        new Touches(touchConnTrackStatement(CONNTRACK_BY_INGRESS_TABLE),
+                    legacyStatement(touchConnTrackStatement,
+                                    LEGACY_CONNTRACK_BY_INGRESS_TABLE))
+    private val touchEgressConnTrack =
+        new Touches(touchConnTrackStatement(CONNTRACK_BY_EGRESS_TABLE),
+                    legacyStatement(touchConnTrackStatement,
+                                    LEGACY_CONNTRACK_BY_EGRESS_TABLE))
+
+    private val touchIngressNat =
+        new Touches(touchNatStatement(NAT_BY_INGRESS_TABLE),
+                    legacyStatement(touchNatStatement,
+                                    LEGACY_NAT_BY_INGRESS_TABLE))
+    private val touchEgressNat =
+        new Touches(touchNatStatement(NAT_BY_EGRESS_TABLE),
+                    legacyStatement(touchNatStatement,
+                                    LEGACY_NAT_BY_EGRESS_TABLE))
+
+    private val allTouches = Array(touchIngressConnTrack, touchEgressConnTrack,
+                                   touchIngressNat, touchEgressNat)
 
     val fetchIngressConnTrack = fetchByPortStatement(CONNTRACK_BY_INGRESS_TABLE)
     val fetchEgressConnTrack = fetchByPortStatement(CONNTRACK_BY_EGRESS_TABLE)
     val fetchIngressNat = fetchByPortStatement(NAT_BY_INGRESS_TABLE)
     val fetchEgressNat = fetchByPortStatement(NAT_BY_EGRESS_TABLE)
 
+    val fetchLegacyIngressConnTrack =
+        fetchByPortStatement(LEGACY_CONNTRACK_BY_INGRESS_TABLE)
+    val fetchLegacyEgressConnTrack =
+        fetchByPortStatement(LEGACY_CONNTRACK_BY_EGRESS_TABLE)
+    val fetchLegacyIngressNat = fetchByPortStatement(LEGACY_NAT_BY_INGRESS_TABLE)
+    val fetchLegacyEgressNat = fetchByPortStatement(LEGACY_NAT_BY_EGRESS_TABLE)
+
     final def withSession[U](body: (Session) => U): Option[U] =
         Option(client.session) map body
 
+    private def touch(s: Session, table: Touches, port: UUID, k: ConnTrackKey,
+                      strong: Boolean, now: Long): Unit = {
+        val touch = Touch(port, k, null)
+        if ((journal ne null) &&
+            table.journaled.shouldWrite(touch, k.expiresAfter, now))
+            writer.appendConnTrack(k, port, strong)
+        if ((s ne null) &&
+            table.stored.shouldWrite(touch, k.expiresAfter, now)) {
+            table.add(port, bind(table.statement(s), port, k))
+            if (table.legacy ne null)
+                legacyBatch.add(bind(table.legacy(s), port, k))
+        }
+    }
+
+    private def touch(s: Session, table: Touches, port: UUID, k: NatKey,
+                      v: NatBinding, strong: Boolean, now: Long): Unit = {
+        val touch = Touch(port, k, v)
+        if ((journal ne null) &&
+            table.journaled.shouldWrite(touch, k.expiresAfter, now))
+            writer.appendNat(k, v, port, strong)
+        if ((s ne null) &&
+            table.stored.shouldWrite(touch, k.expiresAfter, now)) {
+            table.add(port, bind(table.statement(s), port, k, v))
+            if (table.legacy ne null)
+                legacyBatch.add(bind(table.legacy(s), port, k, v))
+        }
+    }
+
     private def bind(st: PreparedStatement, port: UUID, k: ConnTrackKey) = {
         st.bind(port, k.networkProtocol.toInt.asInstanceOf[JInt],
                       ipAddrToInet(k.networkSrc), k.icmpIdOrTransportSrc.asInstanceOf[JInt],
@@ -233,13 +460,14 @@ class FlowStateStorageImpl(val client: CassandraClient) extends FlowStateStorage
      * @param weakRefs Egress ports.
      */
     override def touchConnTrackKey(k: ConnTrackKey, strongRef: UUID,
-            weakRefs: JIterator[UUID]): Unit = withSession {
-        s =>
-            if (strongRef ne null)
-                batch.add(bind(touchIngressConnTrack(s), strongRef, k))
-            while (weakRefs.hasNext) {
-                batch.add(bind(touchEgressConnTrack(s), weakRefs.next(), k))
-            }
+            weakRefs: JIterator[UUID]): Unit = {
+        val s = client.session
+        val now = clock.tick
+        if (strongRef ne null)
+            touch(s, touchIngressConnTrack, strongRef, k, true, now)
+        while (weakRefs.hasNext) {
+            touch(s, touchEgressConnTrack, weakRefs.next(), k, false, now)
+        }
     }
 
     /**
@@ -251,49 +479,75 @@ class FlowStateStorageImpl(val client: CassandraClient) extends FlowStateStorage
      * @param weakRefs Egress ports.
      */
     override def touchNatKey(k: NatKey, v: NatBinding, strongRef: UUID,
-            weakRefs: JIterator[UUID]): Unit = withSession {
-        s =>
-            if (strongRef ne null)
-                batch.add(bind(touchIngressNat(s), strongRef, k, v))
-            while (weakRefs.hasNext) {
-                batch.add(bind(touchEgressNat(s), weakRefs.next(), k, v))
-            }
+            weakRefs: JIterator[UUID]): Unit = {
+        val s = client.session
+        val now = clock.tick
+        if (strongRef ne null)
+            touch(s, touchIngressNat, strongRef, k, v, true, now)
+        while (weakRefs.hasNext) {
+            touch(s, touchEgressNat, weakRefs.next(), k, v, false, now)
+        }
     }
 
     /**
      * Sends all state accumulated through touchConnTrackKey() and touchNatKey()
      * to Cassandra, asynchronously. Errors will be logged but ignored.
      */
-    override def submit(): Unit = withSession {
-        s =>
-            val result = s.executeAsync(batch)
-            Futures.addCallback(result, touchCallback)
-            batch = new BatchStatement()
+    override def submit(): Unit = {
+        withSession { s =>
+            var i = 0
+            while (i < allTouches.length) {
+                allTouches(i).submit(s)
+                i += 1
+            }
+            if (!legacyBatch.getStatements.isEmpty) {
+                Futures.addCallback(s.executeAsync(legacyBatch), touchCallback)
+                legacyBatch = new BatchStatement()
+            }
+        }
+        val now = clock.tick
+        if (now >= nextPurge) {
+            var i = 0
+            while (i < allTouches.length) {
+                allTouches(i).purge(now)
+                i += 1
+            }
+            nextPurge = now + PURGE_INTERVAL
+        }
+        if (journalWriter ne null)
+            journalWriter.maintain()
     }
 
+    override def fetchLocal(ports: JSet[UUID]): Option[FlowStateBatch] =
+        Option(journal) map (_.replay(ports))
+
     /**
      * Fetch all conntrack keys for which a give port is ingress.
      */
     override def fetchStrongConnTrackRefs(port: UUID)(implicit ec: ExecutionContext, as: ActorSystem) =
-        fetch(fetchIngressConnTrack, port, resultSetToConnTrackKeys)
+        fetch(fetchIngressConnTrack, fetchLegacyIngressConnTrack, port,
+              resultSetToConnTrackKeys, mergeConnTrackKeys)
 
     /**
      * Fetch all conntrack keys for which a give port is egress.
      */
     override def fetchWeakConnTrackRefs(port: UUID)(implicit ec: ExecutionContext, as: ActorSystem) =
-        fetch(fetchEgressConnTrack, port, resultSetToConnTrackKeys)
+        fetch(fetchEgressConnTrack, fetchLegacyEgressConnTrack, port,
+              resultSetToConnTrackKeys, mergeConnTrackKeys)
 
     /**
      * Fetch all nat keys for which a give port is ingress.
      */
     override def fetchStrongNatRefs(port: UUID)(implicit ec: ExecutionContext, as: ActorSystem) =
-        fetch(fetchIngressNat, port, resultSetToNatBindings)
+        fetch(fetchIngressNat, fetchLegacyIngressNat, port,
+              resultSetToNatBindings, mergeNatBindings)
 
     /**
      * Fetch all nat keys for which a give port is egress.
      */
     override def fetchWeakNatRefs(port: UUID)(implicit ec: ExecutionContext, as: ActorSystem) =
-        fetch(fetchEgressNat, port, resultSetToNatBindings)
+        fetch(fetchEgressNat, fetchLegacyEgressNat, port,
+              resultSetToNatBindings, mergeNatBindings)
 
     private def resultSetToConnTrackKeys(rs: ResultSet): JSet[ConnTrackKey] = {
         val keys = new JHashSet[ConnTrackKey]()
@@ -314,19 +568,47 @@ class FlowStateStorageImpl(val client: CassandraClient) extends FlowStateStorage
         bindings
     }
 
+    private def mergeConnTrackKeys(keys: JSet[ConnTrackKey],
+                                   legacy: JSet[ConnTrackKey]) = {
+        keys.addAll(legacy)
+        keys
+    }
+
+    private def mergeNatBindings(bindings: JMap[NatKey, NatBinding],
+                                 legacy: JMap[NatKey, NatBinding]) = {
+        legacy.putAll(bindings)
+        legacy
+    }
+
     private def peelResult[U](result: Option[Future[U]]): Future[U] = result match {
         case Some(f) => f
         case None =>
             Future.failed(new IllegalStateException("Cassandra client is not connected"))
     }
 
-    private def fetch[U](statement: Prepared, portId: UUID, transform: (ResultSet) => U)
+    /* Fetches the keys of a port, merging the keys stored in the legacy
+     * table if it still exists. */
+    private def fetch[U](statement: Prepared, legacy: Prepared, portId: UUID,
+                         transform: (ResultSet) => U, merge: (U, U) => U)
                 (implicit ec: ExecutionContext, as: ActorSystem): Future[U] = {
         peelResult (withSession { s =>
-            toScalaFuture(s.executeAsync(statement(s).bind(portId))) map transform
+            val keys = toScalaFuture(
+                s.executeAsync(statement(s).bind(portId))) map transform
+            if (tableExists(s, legacy.table)) {
+                val legacyKeys = toScalaFuture(
+                    s.executeAsync(legacy(s).bind(portId))) map transform
+                for (k <- keys; l <- legacyKeys) yield merge(k, l)
+            } else {
+                keys
+            }
         })
     }
 
+    private def tableExists(s: Session, table: String): Boolean = {
+        val keyspace = s.getCluster.getMetadata.getKeyspace(s.getLoggedKeyspace)
+        (keyspace ne null) && (keyspace.getTable(table) ne null)
+    }
+
     private val touchCallback = new FutureCallback[ResultSet] {
         override def onSuccess(result: ResultSet): Unit = {
             log.debug("key touch success: {}", result)
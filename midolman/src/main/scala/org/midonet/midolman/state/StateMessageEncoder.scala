@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.util.UUID
+
+import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
+import org.midonet.midolman.state.NatState.{NatBinding, NatKey}
+import org.midonet.packets.{IPAddr, IPv4Addr, IPv6Addr}
+
+/**
+ * Encodes length-delimited StateMessages, as defined in flowstate.proto,
+ * directly into a byte array, without going through the protobuf builders.
+ * The result can be read with Proto.StateMessage.parseDelimitedFrom().
+ *
+ * A message is laid out as:
+ *
+ *     +---------------------------------------+
+ *     | Length (2 byte varint)                |
+ *     +---------------------------------------+
+ *     | seq, sender, epoch                    |
+ *     +---------------------------------------+
+ *     | FlowState (2 byte varint length)      |
+ *     |   ingress_port                        |
+ *     |   conntrack_key or nat_entries...     |
+ *     +---------------------------------------+
+ *     | FlowState...                          |
+ *     +---------------------------------------+
+ *
+ * The lengths of the message and of the flow states are written once their
+ * contents are known, in place of the two bytes reserved for them, as
+ * varints padded with a continuation byte. The encoders of the entries
+ * write their fields in a single pass and fill the one byte length of their
+ * nested messages afterwards: the entries are always shorter than
+ * MaxEntrySize.
+ */
+object StateMessageEncoder {
+
+    /* The keys of the fields: (field number << 3) | wire type */
+    private final val MessageSeq = 0x08
+    private final val MessageSender = 0x12
+    private final val MessageEpoch = 0x18
+    private final val MessageNewState = 0x22
+
+    private final val StateConnTrackKey = 0x0a
+    private final val StateNatEntry = 0x12
+    private final val StateIngressPort = 0x1a
+
+    private final val UuidMsb = 0x09
+    private final val UuidLsb = 0x11
+
+    private final val IpVersion = 0x08
+    private final val IpQuad0 = 0x10
+    private final val IpQuad1 = 0x18
+    private final val IpQuad2 = 0x20
+    private final val IpQuad3 = 0x28
+
+    private final val ConnTrackProtocol = 0x08
+    private final val ConnTrackSrcIp = 0x12
+    private final val ConnTrackSrcPort = 0x18
+    private final val ConnTrackDstIp = 0x22
+    private final val ConnTrackDstPort = 0x28
+    private final val ConnTrackDevice = 0x32
+
+    private final val NatKeyType = 0x08
+    private final val NatKeyProtocol = 0x10
+    private final val NatKeySrcIp = 0x1a
+    private final val NatKeyDstIp = 0x22
+    private final val NatKeySrcPort = 0x28
+    private final val NatKeyDstPort = 0x30
+    private final val NatKeyDevice = 0x3a
+
+    private final val NatValueIp = 0x0a
+    private final val NatValuePort = 0x10
+
+    private final val NatEntryKey = 0x0a
+    private final val NatEntryValue = 0x12
+
+    private final val UuidSize = 18
+    private final val MaxDelimitedLength = 1 << 14
+
+    /* Length, seq = 1, sender and epoch = 0 */
+    final val HeaderSize = 2 + 2 + 2 + UuidSize + 2
+    /* Key, length and ingress port */
+    final val StateHeaderSize = 1 + 2 + 2 + UuidSize
+    /* An upper bound of the encoded size of a conntrack key or a nat entry,
+     * including the key and the length of the field */
+    final val MaxEntrySize = 128
+
+    /**
+     * Writes the seq, sender and epoch of a message that starts at the
+     * beginning of the buffer, and returns the position that follows them.
+     */
+    def writeHeader(buf: Array[Byte], sender: UUID): Int = {
+        var pos = 2
+        buf(pos) = MessageSeq.toByte
+        buf(pos + 1) = 0x1 /* We don't expect ACKs, seq is unused for now */
+        pos = writeUuid(buf, pos + 2, MessageSender, sender)
+        buf(pos) = MessageEpoch.toByte
+        buf(pos + 1) = 0x0 /* the epoch is not used */
+        pos + 2
+    }
+
+    /**
+     * Writes the length of the message that starts at the beginning of the
+     * buffer and ends at the given position.
+     */
+    def writeMessageLength(buf: Array[Byte], end: Int): Unit =
+        writePaddedLength(buf, 0, end - 2)
+
+    /**
+     * Opens a FlowState for the given ingress port at the given position,
+     * and returns the position where its entries are to be written.
+     */
+    def beginState(buf: Array[Byte], pos: Int, ingressPort: UUID): Int = {
+        buf(pos) = MessageNewState.toByte
+        writeUuid(buf, pos + 3, StateIngressPort, ingressPort)
+    }
+
+    /**
+     * Closes the FlowState that was opened at the given position, now that
+     * its last entry ends at the given end position.
+     */
+    def endState(buf: Array[Byte], start: Int, end: Int): Unit =
+        writePaddedLength(buf, start + 1, end - start - 3)
+
+    /**
+     * Writes a conntrack key as a field of a FlowState, and returns the
+     * position that follows it.
+     */
+    def writeConnTrackKey(buf: Array[Byte], pos: Int, k: ConnTrackKey): Int = {
+        buf(pos) = StateConnTrackKey.toByte
+        val start = pos + 2
+        var p = writeVarint(buf, start, ConnTrackProtocol,
+                            k.networkProtocol)
+        p = writeIp(buf, p, ConnTrackSrcIp, k.networkSrc)
+        p = writeVarint(buf, p, ConnTrackSrcPort, k.icmpIdOrTransportSrc)
+        p = writeIp(buf, p, ConnTrackDstIp, k.networkDst)
+        p = writeVarint(buf, p, ConnTrackDstPort, k.icmpIdOrTransportDst)
+        p = writeUuid(buf, p, ConnTrackDevice, k.deviceId)
+        buf(pos + 1) = (p - start).toByte
+        p
+    }
+
+    /**
+     * Writes a nat key and its binding as a field of a FlowState, and
+     * returns the position that follows it.
+     */
+    def writeNatEntry(buf: Array[Byte], pos: Int, k: NatKey,
+                      v: NatBinding): Int = {
+        buf(pos) = StateNatEntry.toByte
+
+        val keyStart = pos + 2
+        buf(keyStart) = NatEntryKey.toByte
+        var p = writeVarint(buf, keyStart + 2, NatKeyType,
+                            FlowStatePackets.natKeyTypeToProto(k.keyType)
+                                            .getNumber)
+        p = writeVarint(buf, p, NatKeyProtocol, k.networkProtocol)
+        p = writeIp(buf, p, NatKeySrcIp, k.networkSrc)
+        p = writeIp(buf, p, NatKeyDstIp, k.networkDst)
+        p = writeVarint(buf, p, NatKeySrcPort, k.transportSrc)
+        p = writeVarint(buf, p, NatKeyDstPort, k.transportDst)
+        p = writeUuid(buf, p, NatKeyDevice, k.deviceId)
+        buf(keyStart + 1) = (p - keyStart - 2).toByte
+
+        val valueStart = p
+        buf(valueStart) = NatEntryValue.toByte
+        p = writeIp(buf, valueStart + 2, NatValueIp, v.networkAddress)
+        p = writeVarint(buf, p, NatValuePort, v.transportPort)
+        buf(valueStart + 1) = (p - valueStart - 2).toByte
+
+        buf(pos + 1) = (p - keyStart).toByte
+        p
+    }
+
+    private def writeUuid(buf: Array[Byte], pos: Int, key: Int,
+                          uuid: UUID): Int = {
+        buf(pos) = key.toByte
+        buf(pos + 1) = UuidSize.toByte
+        buf(pos + 2) = UuidMsb.toByte
+        writeFixed64(buf, pos + 3, uuid.getMostSignificantBits)
+        buf(pos + 11) = UuidLsb.toByte
+        writeFixed64(buf, pos + 12, uuid.getLeastSignificantBits)
+        pos + 2 + UuidSize
+    }
+
+    private def writeIp(buf: Array[Byte], pos: Int, key: Int,
+                        ip: IPAddr): Int = {
+        buf(pos) = key.toByte
+        val start = pos + 2
+        var p = start
+        ip match {
+            case v4: IPv4Addr =>
+                p = writeVarint(buf, p, IpVersion, 0)
+                p = writeVarint(buf, p, IpQuad0, v4.addr)
+            case v6: IPv6Addr =>
+                p = writeVarint(buf, p, IpVersion, 1)
+                p = writeVarint(buf, p, IpQuad0, v6.lowerWord.toInt)
+                p = writeVarint(buf, p, IpQuad1, (v6.lowerWord >>> 32).toInt)
+                p = writeVarint(buf, p, IpQuad2, v6.upperWord.toInt)
+                p = writeVarint(buf, p, IpQuad3, (v6.upperWord >>> 32).toInt)
+            case _ => throw new IllegalArgumentException()
+        }
+        buf(pos + 1) = (p - start).toByte
+        p
+    }
+
+    /* Writes a key and the value as an unsigned 32 bit varint, as protobuf
+     * does for uint32 and non-negative enum and int32 fields */
+    private def writeVarint(buf: Array[Byte], pos: Int, key: Int,
+                            value: Int): Int = {
+        buf(pos) = key.toByte
+        var p = pos + 1
+        var v = value
+        while ((v & ~0x7f) != 0) {
+            buf(p) = ((v & 0x7f) | 0x80).toByte
+            v >>>= 7
+            p += 1
+        }
+        buf(p) = v.toByte
+        p + 1
+    }
+
+    private def writeFixed64(buf: Array[Byte], pos: Int, value: Long): Unit = {
+        var i = 0
+        while (i < 8) {
+            buf(pos + i) = (value >>> (i * 8)).toByte
+            i += 1
+        }
+    }
+
+    private def writePaddedLength(buf: Array[Byte], pos: Int,
+                                  length: Int): Unit = {
+        if (length >= MaxDelimitedLength)
+            throw new IllegalArgumentException(s"Length too large: $length")
+        buf(pos) = ((length & 0x7f) | 0x80).toByte
+        buf(pos + 1) = (length >>> 7).toByte
+    }
+}
@@ -24,6 +24,7 @@ import scala.collection.{Map => ROMap}
 import scala.compat.Platform
 import scala.concurrent.duration._
 
+import akka.actor.Cancellable
 import com.typesafe.scalalogging.Logger
 
 import org.midonet.cluster.Client
@@ -141,6 +142,8 @@ import org.midonet.midolman.topology.BridgeManager._
 
     private var vlanToPort: VlanPortMap = null
 
+    private var expirationCheck: Cancellable = null
+
     def topologyReady() {
         val bridge = new Bridge(id, cfg.adminStateUp, cfg.tunnelKey,
             learningMgr.vlanMacTableMap,
@@ -161,11 +164,18 @@ import org.midonet.midolman.topology.BridgeManager._
             FlowController, self))
         // Schedule the recurring cleanup of expired mac-port associations.
         implicit val executor = context.dispatcher
-        context.system.scheduler.schedule(
+        expirationCheck = context.system.scheduler.schedule(
             Duration(macPortExpiration, TimeUnit.MILLISECONDS),
             Duration(2000, TimeUnit.MILLISECONDS), self, CheckExpiredMacPorts())
     }
 
+    override def postStop() {
+        if (expirationCheck ne null)
+            expirationCheck.cancel()
+        clusterClient.releaseBridge(id)
+        super.postStop()
+    }
+
     override def receive = super.receive orElse {
 
         case CheckExpiredMacPorts() =>
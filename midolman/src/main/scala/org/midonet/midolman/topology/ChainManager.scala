@@ -68,6 +68,14 @@ class ChainManager(val id: UUID, val clusterClient: Client)
         clusterClient.getChain(id, new ChainBuilderImpl(self))
     }
 
+    override def postStop() {
+        for (refId <- idToRefCount.keys) {
+            VirtualTopologyActor ! Unsubscribe(refId)
+        }
+        clusterClient.releaseChain(id)
+        super.postStop()
+    }
+
     private var chainName: Option[String] = None
     // Store the chains that these rules jump to.
     private val idToChain = mutable.Map[UUID, Chain]()
@@ -151,7 +159,7 @@ class ChainManager(val id: UUID, val clusterClient: Client)
 
             case Some(refCount) if refCount == 1 =>
                 // That was the last reference, so stop tracking this resource.
-                VirtualTopologyActor ! Unsubscribe(id)
+                VirtualTopologyActor ! Unsubscribe(refId)
                 idToRefCount.remove(refId)
                 idToResource.remove(refId) match {
                     // If it wasn't in the cache we must have been waiting for it.
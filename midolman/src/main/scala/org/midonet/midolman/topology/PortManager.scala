@@ -50,6 +50,11 @@ class PortManager(id: UUID, val clusterClient: Client)
         clusterClient.getPort(id, new PortBuilderImpl(self))
     }
 
+    override def postStop() {
+        clusterClient.releasePort(id)
+        super.postStop()
+    }
+
     override def receive = super.receive orElse {
         case TriggerUpdate(p: Port) =>
             changed = cfg != null
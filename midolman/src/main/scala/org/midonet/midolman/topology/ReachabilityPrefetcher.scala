@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+
+import akka.actor.Actor
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Counter, Histogram, MetricRegistry}
+import com.google.inject.Inject
+
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.logging.ActorLogWithoutPath
+import org.midonet.midolman.rules.JumpRule
+import org.midonet.midolman.simulation.{Bridge, Chain, IPAddrGroup, LoadBalancer, Pool, Router}
+import org.midonet.midolman.topology.VirtualTopologyActor._
+import org.midonet.midolman.topology.devices.{Port, RouterPort}
+import org.midonet.midolman.{LocalPortActiveSubscriberActor, Referenceable}
+
+object ReachabilityPrefetcher extends Referenceable {
+    override val Name = "ReachabilityPrefetcher"
+
+    private[topology] case class PrefetchTimeout(portId: UUID,
+                                                 startNanos: Long)
+
+    /** The devices directly reachable from a device, which a simulation
+      * may need once it reaches the device: its peer, owner and filters,
+      * for a port; the interior ports, which lead to their peers, and
+      * filters, for a bridge; the filters and load balancer, for a
+      * router; the chains it jumps to and the groups its rules match on,
+      * for a chain; and the pools of the VIPs, for a load balancer.
+      *
+      * The ports of a router are not known until its routes are looked up,
+      * so the walk stops at the router, unless its ports are reached from
+      * elsewhere. The exterior ports of a bridge are not walked either: a
+      * bridge may have thousands of them, which lead nowhere else, and each
+      * one is loaded when a packet is first sent to it. */
+    def reachable(device: AnyRef): Seq[DeviceRequest] = {
+        val reqs: Seq[DeviceRequest] = device match {
+            case p: RouterPort =>
+                Seq(port(p.peerId), router(p.routerId),
+                    chain(p.inboundFilter), chain(p.outboundFilter))
+            case p: Port =>
+                Seq(port(p.peerId), bridge(p.deviceId),
+                    chain(p.inboundFilter), chain(p.outboundFilter))
+            case b: Bridge =>
+                Seq(chain(b.inFilterId.orNull), chain(b.outFilterId.orNull),
+                    port(b.vlanPortId.orNull)) ++
+                (b.vxlanPortIds map port) ++
+                (b.macToLogicalPortId.values.toSeq.distinct map port)
+            case r: Router =>
+                Seq(chain(r.cfg.inboundFilter), chain(r.cfg.outboundFilter),
+                    loadBalancer(r.cfg.loadBalancer))
+            case c: Chain =>
+                c.getRules.toSeq flatMap { rule =>
+                    val jump = rule match {
+                        case j: JumpRule => chain(j.jumpToChainID)
+                        case _ => null
+                    }
+                    rule.getCondition match {
+                        case null => Seq(jump)
+                        case cond => Seq(jump,
+                                         ipGroup(cond.ipAddrGroupIdSrc),
+                                         ipGroup(cond.ipAddrGroupIdDst))
+                    }
+                }
+            case lb: LoadBalancer =>
+                lb.vips.toSeq map { vip => pool(vip.poolId) }
+            case _ => Nil
+        }
+        reqs filter { _ ne null }
+    }
+
+    private def port(id: UUID) = if (id eq null) null else PortRequest(id)
+    private def bridge(id: UUID) = if (id eq null) null else BridgeRequest(id)
+    private def router(id: UUID) = if (id eq null) null else RouterRequest(id)
+    private def chain(id: UUID) = if (id eq null) null else ChainRequest(id)
+    private def ipGroup(id: UUID) =
+        if (id eq null) null else IPAddrGroupRequest(id)
+    private def loadBalancer(id: UUID) =
+        if (id eq null) null else LoadBalancerRequest(id)
+    private def pool(id: UUID) = if (id eq null) null else PoolRequest(id)
+}
+
+/**
+ * The ReachabilityPrefetcher loads the virtual topology reachable from a port
+ * as soon as the port becomes active on this host, so that the simulations
+ * of the first packets from the port find the devices they traverse in the
+ * VirtualTopologyActor, instead of being postponed once per missing device.
+ *
+ * It walks the topology breadth first from the port, up to the configured
+ * number of hops, requesting the devices of each hop at once. The walk of a
+ * port is abandoned if it doesn't complete within the device request
+ * timeout, which happens when a device cannot be loaded.
+ *
+ * The number of devices loaded for each port, and the time it takes, are
+ * recorded in the metrics registry.
+ */
+class ReachabilityPrefetcher extends Actor
+                             with ActorLogWithoutPath
+                             with LocalPortActiveSubscriberActor {
+    import ReachabilityPrefetcher._
+    import context.{dispatcher, system}
+
+    override def logSource = "org.midonet.devices.prefetcher"
+
+    @Inject
+    var config: MidolmanConfig = null
+
+    @Inject
+    var metricsRegistry: MetricRegistry = null
+
+    private class Walk(val portId: UUID, val startNanos: Long) {
+        val visited = mutable.Set[UUID]()
+        var pending = 0
+    }
+
+    private var maxDepth = 0
+    private val walks = mutable.Map[UUID, Walk]()
+    /* The walks waiting for each device, with the hop of the device */
+    private val waiting = mutable.Map[UUID, List[(Walk, Int)]]()
+
+    private var devicesPerPort: Histogram = _
+    private var prefetchLatency: Histogram = _
+    private var prefetchTimeouts: Counter = _
+
+    override def preStart(): Unit = {
+        super.preStart()
+        maxDepth = config.getTopologyPrefetchDepth
+        devicesPerPort = metricsRegistry.histogram(
+            name(classOf[ReachabilityPrefetcher], "devicesPerPort"))
+        prefetchLatency = metricsRegistry.histogram(
+            name(classOf[ReachabilityPrefetcher], "prefetchLatencyMillis"))
+        prefetchTimeouts = metricsRegistry.counter(
+            name(classOf[ReachabilityPrefetcher], "prefetchTimeouts"))
+    }
+
+    override def receive = {
+        case LocalPortActive(portId, true) if maxDepth > 0 =>
+            startWalk(portId)
+        case LocalPortActive(portId, false) =>
+            walks.remove(portId) foreach abandon
+        case PrefetchTimeout(portId, startNanos)
+                if walks.get(portId).exists(_.startNanos == startNanos) =>
+            walks.remove(portId) foreach { walk =>
+                log.info("Could not load the topology reachable from " +
+                         "port {} in {}", portId, deviceRequestTimeout)
+                prefetchTimeouts.inc()
+                abandon(walk)
+            }
+        case port: Port => receivedDevice(port.id, port)
+        case bridge: Bridge => receivedDevice(bridge.id, bridge)
+        case router: Router => receivedDevice(router.id, router)
+        case chain: Chain => receivedDevice(chain.id, chain)
+        case group: IPAddrGroup => receivedDevice(group.id, group)
+        case lb: LoadBalancer => receivedDevice(lb.id, lb)
+        case pool: Pool => receivedDevice(pool.id, pool)
+    }
+
+    private def startWalk(portId: UUID): Unit = {
+        if (walks.contains(portId))
+            return
+        log.debug("Prefetching the topology reachable from port {}", portId)
+        val walk = new Walk(portId, System.nanoTime())
+        walks.put(portId, walk)
+        system.scheduler.scheduleOnce(deviceRequestTimeout, self,
+                                      PrefetchTimeout(portId, walk.startNanos))
+        visit(walk, PortRequest(portId), 0)
+    }
+
+    private def visit(walk: Walk, req: DeviceRequest, depth: Int): Unit = {
+        if (depth > maxDepth || walk.visited.contains(req.id))
+            return
+        walk.visited += req.id
+        walk.pending += 1
+        waiting.get(req.id) match {
+            case Some(walkers) =>
+                waiting.put(req.id, (walk, depth) :: walkers)
+            case None =>
+                waiting.put(req.id, List((walk, depth)))
+                // The VTA answers with the device as soon as it's loaded
+                VirtualTopologyActor ! req
+        }
+    }
+
+    private def receivedDevice(id: UUID, device: AnyRef): Unit =
+        waiting.remove(id) foreach { walkers =>
+            for ((walk, depth) <- walkers) {
+                walk.pending -= 1
+                for (req <- reachable(device)) {
+                    visit(walk, req, depth + 1)
+                }
+                if (walk.pending == 0 && walks.remove(walk.portId).nonEmpty)
+                    finish(walk)
+            }
+        }
+
+    private def finish(walk: Walk): Unit = {
+        val millis = TimeUnit.NANOSECONDS.toMillis(
+            System.nanoTime() - walk.startNanos)
+        log.debug("Prefetched {} devices reachable from port {} in {} ms",
+                  Int.box(walk.visited.size), walk.portId, Long.box(millis))
+        devicesPerPort.update(walk.visited.size)
+        prefetchLatency.update(millis)
+    }
+
+    private def abandon(walk: Walk): Unit = {
+        for (id <- walk.visited) {
+            waiting.get(id) foreach { walkers =>
+                walkers filter { _._1 ne walk } match {
+                    case Nil => waiting.remove(id)
+                    case remaining => waiting.put(id, remaining)
+                }
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.midonet.midolman.topology
 import collection.{Set => ROSet, mutable, Iterable}
 import collection.JavaConversions._
 import java.util.UUID
+import scala.concurrent.duration._
 
 import org.midonet.cluster.Client
 import org.midonet.cluster.client.ArpCache
@@ -35,9 +36,7 @@ import org.midonet.util.functors.Callback0
 
 class RoutingTableWrapper[IP <: IPAddr](val rTable: RoutingTableIfc[IP]) {
 
-    import collection.JavaConversions._
-
-    def lookup(wmatch: FlowMatch): Iterable[Route] =
+    def lookup(wmatch: FlowMatch): java.util.List[Route] =
     // TODO (ipv6) de facto implementation for ipv4, that explains
     // the casts at this point.
         rTable.lookup(wmatch.getNetworkSrcIP.asInstanceOf[IP],
@@ -48,10 +47,14 @@ object RouterManager {
     val Name = "RouterManager"
 
     case class TriggerUpdate(cfg: RouterConfig, arpCache: ArpCache,
-                             rTable: RoutingTableWrapper[IPv4Addr])
+                             rTable: RoutingTableWrapper[IPv4Addr],
+                             addedRoutes: ROSet[Route] = Set.empty,
+                             deletedRoutes: ROSet[Route] = Set.empty)
+
+    /* Sent by the RouterBuilderImpl when it has an update to take */
+    case object UpdateAvailable
 
-    case class InvalidateFlows(addedRoutes: ROSet[Route],
-                               deletedRoutes: ROSet[Route])
+    private case object TakeUpdate
 
     case class AddTag(dstIp: IPAddr)
 
@@ -94,10 +97,16 @@ class RouterManager(id: UUID, val client: Client, val config: MidolmanConfig)
     override def logSource = s"org.midonet.devices.router.router-$id"
 
     protected var cfg: RouterConfig = null
+    private var builder: RouterBuilderImpl = null
+    // Route changes within this window are published as a single update
+    private val updateWindow = config.getRouteUpdateWindowMillis.millis
     private var changed = false
     private var rTable: RoutingTableWrapper[IPv4Addr] = null
     private var arpCache: ArpCache = null
     private var arpTable: ArpTable = null
+    // Routes changed by the updates not yet published to the VTA
+    private var addedRoutes = Set.empty[Route]
+    private var deletedRoutes = Set.empty[Route]
     // This trie is to store the tag that represent the ip destination to be
     // able to do flow invalidation properly when a route is added or deleted
     private val dstIpTagTrie: InvalidationTrie = new InvalidationTrie()
@@ -120,10 +129,19 @@ class RouterManager(id: UUID, val client: Client, val config: MidolmanConfig)
             VirtualTopologyActor ! InvalidateFlowsByTag(router.deviceTag)
             changed = false
         }
+        invalidateFlowsByRoutes()
     }
 
     override def preStart() {
-        client.getRouter(id, new RouterBuilderImpl(id, self))
+        builder = new RouterBuilderImpl(id, self)
+        client.getRouter(id, builder)
+    }
+
+    override def postStop() {
+        if (arpTable ne null)
+            arpTable.stop()
+        client.releaseRouter(id)
+        super.postStop()
     }
 
     private def invalidateFlowsByIp(ip: IPv4Addr) {
@@ -132,44 +150,17 @@ class RouterManager(id: UUID, val client: Client, val config: MidolmanConfig)
     }
 
     override def receive = super.receive orElse {
-        case TriggerUpdate(newCfg, newArpCache, newRoutingTable) =>
-            log.debug("TriggerUpdate with {} {} {}",
-                      newCfg, newArpCache, newRoutingTable)
-
-            if (newCfg != cfg && cfg != null)
-                changed = true
-
-            cfg = newCfg
-
-            if (arpCache == null && newArpCache != null) {
-                arpCache = newArpCache
-                arpTable = new ArpTableImpl(arpCache, config,
-                    (ip: IPv4Addr, oldMac: MAC, newMac: MAC) => invalidateFlowsByIp(ip))
-                arpTable.start()
-            } else if (arpCache != newArpCache) {
-                throw new RuntimeException("Trying to re-set the arp cache")
-            }
-            rTable = newRoutingTable
+        case UpdateAvailable =>
+            if (updateWindow.length > 0)
+                system.scheduler.scheduleOnce(updateWindow, self, TakeUpdate)
+            else
+                triggerUpdate(builder.takeUpdate())
 
-            prefetchTopology(loadBalancer(newCfg.loadBalancer))
+        case TakeUpdate =>
+            triggerUpdate(builder.takeUpdate())
 
-        case InvalidateFlows(addedRoutes, deletedRoutes) =>
-            for (route <- deletedRoutes) {
-                FlowController ! FlowController.InvalidateFlowsByTag(
-                    FlowTagger.tagForRoute(route))
-            }
-            for (route <- addedRoutes) {
-                log.debug("Projecting added route {}", route)
-                val subTree = dstIpTagTrie.projectRouteAndGetSubTree(route)
-                val ipToInvalidate = InvalidationTrie.getAllDescendantsIpDestination(subTree)
-                log.debug("Got the following ip destination to invalidate {}",
-                          ipToInvalidate)
-
-                val it = ipToInvalidate.iterator()
-                it.foreach(ip => FlowController !
-                    FlowController.InvalidateFlowsByTag(
-                        FlowTagger.tagForDestinationIp(id, ip)))
-                }
+        case update: TriggerUpdate =>
+            triggerUpdate(update)
 
         case AddTag(dstIp) =>
             // check if the tag is already in the map
@@ -209,6 +200,55 @@ class RouterManager(id: UUID, val client: Client, val config: MidolmanConfig)
                     else 0))
     }
 
+    private def triggerUpdate(update: TriggerUpdate): Unit = {
+        val TriggerUpdate(newCfg, newArpCache, newRoutingTable) = update
+        log.debug("TriggerUpdate with {} {} {}",
+                  newCfg, newArpCache, newRoutingTable)
+
+        if (newCfg != cfg && cfg != null)
+            changed = true
+
+        cfg = newCfg
+
+        if (arpCache == null && newArpCache != null) {
+            arpCache = newArpCache
+            arpTable = new ArpTableImpl(arpCache, config,
+                (ip: IPv4Addr, oldMac: MAC, newMac: MAC) => invalidateFlowsByIp(ip))
+            arpTable.start()
+        } else if (arpCache != newArpCache) {
+            throw new RuntimeException("Trying to re-set the arp cache")
+        }
+        rTable = newRoutingTable
+        addedRoutes ++= update.addedRoutes
+        deletedRoutes ++= update.deletedRoutes
+
+        prefetchTopology(loadBalancer(newCfg.loadBalancer))
+    }
+
+    /* Invalidates the flows affected by the route changes of the published
+     * updates. The invalidations are sent through the VTA after the router,
+     * so that the flows simulated again already use the new routing table.
+     */
+    private def invalidateFlowsByRoutes(): Unit = {
+        for (route <- deletedRoutes) {
+            VirtualTopologyActor ! InvalidateFlowsByTag(
+                FlowTagger.tagForRoute(route))
+        }
+        for (route <- addedRoutes) {
+            log.debug("Projecting added route {}", route)
+            val subTree = dstIpTagTrie.projectRouteAndGetSubTree(route)
+            val ipToInvalidate = InvalidationTrie.getAllDescendantsIpDestination(subTree)
+            log.debug("Got the following ip destination to invalidate {}",
+                      ipToInvalidate)
+
+            val it = ipToInvalidate.iterator()
+            it.foreach(ip => VirtualTopologyActor ! InvalidateFlowsByTag(
+                FlowTagger.tagForDestinationIp(id, ip)))
+        }
+        addedRoutes = Set.empty
+        deletedRoutes = Set.empty
+    }
+
     def adjustMapValue[A, B](m: mutable.Map[A, B], k: A)(f: B => B) {
         m.update(k, f(m(k)))
     }
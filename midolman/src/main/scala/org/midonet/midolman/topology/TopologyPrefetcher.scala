@@ -73,6 +73,16 @@ trait TopologyPrefetcher extends Actor with ActorLogWithoutPath {
         checkTopologyFetched()
     }
 
+    /* Releases the devices of a stopped device manager, so that they can be
+     * evicted from the VirtualTopologyActor when idle */
+    override def postStop(): Unit = {
+        for (id <- subscriptions) {
+            VirtualTopologyActor ! Unsubscribe(id)
+        }
+        subscriptions = Set.empty
+        super.postStop()
+    }
+
     final def port(id: UUID) =
         if (id eq null) null else PortRequest(id, update = true)
 
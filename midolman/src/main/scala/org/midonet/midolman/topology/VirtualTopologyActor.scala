@@ -15,7 +15,9 @@
  */
 package org.midonet.midolman.topology
 
+import java.lang.{Long => JLong}
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 import akka.pattern.AskTimeoutException
 
 import scala.collection.mutable
@@ -24,6 +26,8 @@ import scala.concurrent.duration._
 import scala.reflect._
 
 import akka.actor._
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Counter, MetricRegistry}
 import com.google.inject.Inject
 import com.typesafe.scalalogging.Logger
 import org.slf4j.LoggerFactory
@@ -37,8 +41,9 @@ import org.midonet.midolman.NotYetException
 import org.midonet.midolman.Referenceable
 import org.midonet.midolman.simulation._
 import org.midonet.midolman.l4lb.PoolHealthMonitorMapManager.PoolHealthMonitorMap
-import org.midonet.midolman.FlowController.InvalidateFlowsByTag
+import org.midonet.midolman.FlowController.{GetReferencedDevices, InvalidateFlowsByTag, ReferencedDevices}
 import org.midonet.midolman.topology.devices.{RouterPort, BridgePort, Port}
+import org.midonet.util.UnixClock
 import org.midonet.util.concurrent._
 
 /**
@@ -167,11 +172,18 @@ object VirtualTopologyActor extends Referenceable {
 
     case class Unsubscribe(id: UUID)
 
+    private[topology] case object CheckIdleDevices
+
     private val topology = Topology()
 
+    /* The devices found idle by the VTA, with the time they were first found
+     * idle. Simulations remove the devices they access, from tryAsk. */
+    private val idleDevices = new ConcurrentHashMap[UUID, JLong]()
+
     // useful for testing, not much else.
     def clearTopology(): Unit = {
         topology.clear()
+        idleDevices.clear()
     }
 
     // WARNING!! This code is meant to be called from outside the actor.
@@ -185,6 +197,9 @@ object VirtualTopologyActor extends Referenceable {
         if (dev eq null) {
             throw NotYetException(requestFuture(id), s"Waiting for device: $id")
         }
+        if (idleDevices.containsKey(id)) {
+            idleDevices.remove(id)
+        }
         dev
     }
 
@@ -214,6 +229,14 @@ object VirtualTopologyActor extends Referenceable {
                     throw new Exception(s"Failed to get $devType: $id", ex)
             }(ExecutionContext.callingThread)
 
+    /* The devices whose managers release their cluster resources when
+     * stopped, and that can therefore be evicted when idle. */
+    private def isEvictable(req: DeviceRequest) = req match {
+        case _: PortRequest | _: BridgeRequest | _: RouterRequest |
+             _: ChainRequest => true
+        case _ => false
+    }
+
     def bridgeManagerName(bridgeId: UUID) = "BridgeManager-" + bridgeId
 
     def portManagerName(portId: UUID) = "PortManager-" + portId
@@ -262,17 +285,37 @@ object VirtualTopologyActor extends Referenceable {
         getDeviceManagerPath(parentActorName, poolHealthMonitorManagerName())
 }
 
+/**
+ * When the device_idle_eviction_seconds setting is positive, the VTA also
+ * evicts the ports, bridges, routers and chains that are idle for that long:
+ * those without subscribers, which no simulation has accessed and no flow
+ * has been tagged with in the meantime. The manager of an evicted device is
+ * stopped, releasing the watches and the replicated maps of the device, and
+ * the device is loaded again if it's requested afterwards. The number of
+ * evictions and of such refetches is recorded in the metrics registry.
+ */
 class VirtualTopologyActor extends VirtualTopologyRedirector {
     import VirtualTopologyActor._
     import context.system
 
-    // TODO(pino): unload devices with no subscribers that haven't been used
-    // TODO:       in a while.
     private val idToSubscribers = mutable.Map[UUID, mutable.Set[ActorRef]]()
     private val idToUnansweredClients = mutable.Map[UUID, mutable.Set[ActorRef]]()
 
     private val managedDevices = mutable.Set[UUID]()
 
+    /* The managers of the devices that can be evicted */
+    private val evictableManagers = mutable.Map[UUID, ActorRef]()
+    /* The managers of the evicted devices that have not terminated yet, and
+     * the requests for these devices received meanwhile */
+    private val terminatingManagers = mutable.Map[ActorRef, UUID]()
+    private val deferredRequests =
+        mutable.Map[UUID, List[(DeviceRequest, ActorRef)]]()
+    private val evictedDevices = mutable.Set[UUID]()
+
+    private var idleTimeout: FiniteDuration = _
+    private var evictions: Counter = _
+    private var refetches: Counter = _
+
     @Inject
     override val supervisorStrategy: SupervisorStrategy = null
 
@@ -282,6 +325,25 @@ class VirtualTopologyActor extends VirtualTopologyRedirector {
     @Inject
     val config: MidolmanConfig = null
 
+    @Inject
+    val metricsRegistry: MetricRegistry = null
+
+    override def preStart(): Unit = {
+        super.preStart()
+        idleTimeout = config.getDeviceIdleEvictionSeconds.seconds
+        evictions = metricsRegistry.counter(
+            name(classOf[VirtualTopologyActor], "evictions"))
+        refetches = metricsRegistry.counter(
+            name(classOf[VirtualTopologyActor], "refetches"))
+        if (idleTimeout > Duration.Zero) {
+            // A device is evicted after being idle between one and one and
+            // a half idle timeouts
+            val interval = (idleTimeout / 2) max 1.second
+            system.scheduler.schedule(interval, interval, self,
+                                      CheckIdleDevices)(context.dispatcher)
+        }
+    }
+
     /** Manages the device, by adding the request sender to the set of
       * unanswered clients and subscribers, if needed.
       * @param createManager If true, it creates a legacy device manager for
@@ -298,7 +360,11 @@ class VirtualTopologyActor extends VirtualTopologyRedirector {
             val mgrFactory = req.managerFactory(clusterClient, config)
             val props = Props { mgrFactory() }
                 .withDispatcher(context.props.dispatcher)
-            context.actorOf(props, req.managerName)
+            val manager = context.actorOf(props, req.managerName)
+            if (isEvictable(req))
+                evictableManagers.put(req.id, manager)
+            if (evictedDevices.remove(req.id))
+                refetches.inc()
         }
 
         managedDevices += req.id
@@ -324,6 +390,10 @@ class VirtualTopologyActor extends VirtualTopologyRedirector {
     }
 
     protected override def deviceUpdated(id: UUID, device: AnyRef) {
+        if (!managedDevices.contains(id)) {
+            log.debug("Ignoring update for evicted device {}", id)
+            return
+        }
         for (client <- idToSubscribers(id)) {
             log.debug("Sending subscriber {} the device update for {}",
                       client, id)
@@ -346,6 +416,10 @@ class VirtualTopologyActor extends VirtualTopologyRedirector {
     }
 
     protected override def deviceError(id: UUID, e: Throwable): Unit = {
+        if (!managedDevices.contains(id)) {
+            log.debug("Ignoring error for evicted device {}", id)
+            return
+        }
         // Notify the error to promise sender actors that are not subscribers:
         // this allows tryAsk() futures to complete immediately with an error.
         for (client <- idToUnansweredClients(id)
@@ -377,14 +451,85 @@ class VirtualTopologyActor extends VirtualTopologyRedirector {
         }
     }
 
+    private def isIdle(id: UUID): Boolean =
+        !hasSubscribers(id) && idToUnansweredClients(id).isEmpty &&
+        topology.containsKey(id)
+
+    /** Marks the evictable devices that became idle, and asks the
+      * FlowController whether the devices that have been idle for the whole
+      * timeout are still used by any flow. */
+    private def checkIdleDevices(): Unit = {
+        val now = UnixClock.timeNanos
+        var expired = Set.empty[UUID]
+        for (id <- evictableManagers.keys) {
+            if (isIdle(id)) {
+                val since = idleDevices.putIfAbsent(id, now)
+                if ((since ne null) && now - since >= idleTimeout.toNanos)
+                    expired += id
+            } else if (idleDevices.containsKey(id)) {
+                idleDevices.remove(id)
+            }
+        }
+        if (expired.nonEmpty) {
+            log.debug("Devices idle for {}: {}", idleTimeout, expired)
+            FlowController ! GetReferencedDevices(expired)
+        }
+    }
+
+    private def evictIdleDevices(ids: Set[UUID], referenced: Set[UUID]) {
+        for (id <- ids) {
+            if (referenced.contains(id)) {
+                // Start over the idle period of the device
+                idleDevices.remove(id)
+            } else if ((idleDevices.remove(id) ne null) &&
+                       managedDevices.contains(id) && isIdle(id)) {
+                evict(id)
+            }
+        }
+    }
+
+    private def evict(id: UUID): Unit =
+        evictableManagers.remove(id) foreach { manager =>
+            log.info("Evicting idle device {}", id)
+            context.watch(manager)
+            context.stop(manager)
+            terminatingManagers.put(manager, id)
+            deferredRequests.put(id, Nil)
+            managedDevices -= id
+            idToSubscribers.remove(id)
+            idToUnansweredClients.remove(id)
+            topology.remove(id)
+            evictedDevices += id
+            evictions.inc()
+        }
+
+    /* The manager of an evicted device must terminate before the device can
+     * be managed again, since the new manager takes the same name. */
+    private def managerTerminated(manager: ActorRef): Unit =
+        terminatingManagers.remove(manager) foreach { id =>
+            for ((req, client) <- deferredRequests.remove(id).get.reverse) {
+                self.tell(req, client)
+            }
+        }
+
     override def receive = super.receive orElse {
         case null =>
             log.warn("Received null device?")
+        case r: DeviceRequest if deferredRequests.contains(r.id) =>
+            log.debug("Deferring {} until the evicted device is released", r)
+            deferredRequests.put(r.id, (r, sender()) :: deferredRequests(r.id))
         case r: DeviceRequest =>
             log.debug("Received {}", r)
+            if (idleDevices.containsKey(r.id)) {
+                idleDevices.remove(r.id)
+            }
             manageDevice(r, createManager = true)
             deviceRequested(r)
         case u: Unsubscribe => unsubscribe(u.id, sender())
+        case CheckIdleDevices => checkIdleDevices()
+        case ReferencedDevices(ids, referenced) =>
+            evictIdleDevices(ids, referenced)
+        case Terminated(manager) => managerTerminated(manager)
         case bridge: Bridge =>
             log.debug("Received a Bridge for {}", bridge.id)
             deviceUpdated(bridge.id, bridge)
@@ -17,20 +17,38 @@
 package org.midonet.midolman.topology.builders
 
 import java.util.UUID
+import java.util.concurrent.atomic.AtomicBoolean
 import org.midonet.cluster.client.{ArpCache, RouterBuilder}
 import akka.actor.ActorRef
 import org.midonet.midolman.layer3.{IPv4RoutingTable, Route}
-import org.midonet.midolman.topology.RouterManager.{InvalidateFlows, TriggerUpdate}
+import org.midonet.midolman.topology.RouterManager.{TriggerUpdate, UpdateAvailable}
 import org.midonet.midolman.topology.{RoutingTableWrapper, RouterConfig}
 
+/**
+ * Maintains the routing table of a router as its routes change, updating a
+ * persistent table in place rather than rebuilding it, so that learning a
+ * large number of routes one by one takes linear time. Each build publishes
+ * a snapshot of the table, which shares its nodes with the current version.
+ *
+ * Builds don't send their update to the RouterManager, but notify it that
+ * an update is available: the builds that happen before the manager takes
+ * the update are coalesced into the latest one, which carries the routes
+ * added and deleted by all of them, so that the manager invalidates the
+ * flows they affect once it has published the new table.
+ */
 class RouterBuilderImpl(val id: UUID, val routerManager: ActorRef)
     extends RouterBuilder {
 
     private var cfg: RouterConfig = new RouterConfig
     private var arpCache: ArpCache = null
-    private val routes = new scala.collection.mutable.HashSet[Route]()
+    private val table = new IPv4RoutingTable()
+    private var update: TriggerUpdate = null
+    private val updatePending = new AtomicBoolean(false)
     private val routesToAdd = new scala.collection.mutable.HashSet[Route]()
     private val routesToRemove = new scala.collection.mutable.HashSet[Route]()
+    // Routes changed by the builds since the manager took the last update
+    private var addedRoutes = Set.empty[Route]
+    private var deletedRoutes = Set.empty[Route]
 
     def setArpCache(table: ArpCache) {
         if (arpCache != null)
@@ -40,12 +58,12 @@ class RouterBuilderImpl(val id: UUID, val routerManager: ActorRef)
     }
 
     def addRoute(rt: Route) {
-        routes.add(rt)
+        table.addRoute(rt)
         routesToAdd.add(rt)
     }
 
     def removeRoute(rt: Route) {
-        routes.remove(rt)
+        table.deleteRoute(rt)
         routesToRemove.add(rt)
     }
 
@@ -69,19 +87,30 @@ class RouterBuilderImpl(val id: UUID, val routerManager: ActorRef)
     }
 
     def build() {
-        // we always pass a new copy of the RoutingTable since this is accessed
-        // by the RCU Router
-        val table = new IPv4RoutingTable()
-        for (rt <- routes)
-            table.addRoute(rt)
-        if (routesToAdd.size > 0 || routesToRemove.size > 0) {
-            val added = routesToAdd.clone()
-            val deleted = routesToRemove.clone()
-            routerManager ! InvalidateFlows(added, deleted)
+        synchronized {
+            addedRoutes ++= routesToAdd
+            deletedRoutes ++= routesToRemove
+            // the RCU Router gets a snapshot, which later routes don't modify
+            update = TriggerUpdate(cfg, arpCache,
+                                   new RoutingTableWrapper(table.snapshot()),
+                                   addedRoutes, deletedRoutes)
         }
         routesToAdd.clear()
         routesToRemove.clear()
-        routerManager ! TriggerUpdate(cfg, arpCache, new RoutingTableWrapper(table))
+        if (updatePending.compareAndSet(false, true))
+            routerManager ! UpdateAvailable
+    }
+
+    /**
+     * Called by the RouterManager to take the latest update. The next build
+     * notifies the manager again, and only carries the routes changed after
+     * this call.
+     */
+    def takeUpdate(): TriggerUpdate = synchronized {
+        updatePending.set(false)
+        addedRoutes = Set.empty
+        deletedRoutes = Set.empty
+        update
     }
 
     def start() = null
@@ -22,7 +22,7 @@ import org.midonet.midolman.CallbackExecutor
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.odp.FlowMatch
 import org.midonet.sdn.flows.FlowTagger.FlowTag
-import org.midonet.util.collection.{ObjectPool, PooledObject}
+import org.midonet.util.collection.{ObjectPool, PooledObject, TimerWheel}
 import org.midonet.util.functors.Callback0
 
 /**
@@ -36,6 +36,8 @@ final class ManagedFlow(override val pool: ObjectPool[ManagedFlow])
 
     var creationTimeMillis: Long = 0L
     var lastUsedTimeMillis: Long = 0L
+    /* Start time of the most recent datapath flow dump including this flow */
+    var lastFlowDumpMillis: Long = 0L
     val callbacks = new ArrayList[Callback0]()
     val tags = new ArrayList[FlowTag]
 
@@ -43,12 +45,16 @@ final class ManagedFlow(override val pool: ObjectPool[ManagedFlow])
     var hardExpirationMillis = 0
     var idleExpirationMillis = 0
     var cbExecutor: CallbackExecutor = _
+    /* The hard or idle expiration timer of this flow, scheduled by the
+     * FlowManager */
+    val expirationTimer = new TimerWheel.Entry[ManagedFlow](this)
 
     def reset(pktCtx: PacketContext) = {
         this.flowMatch.reset(pktCtx.origMatch)
         this.hardExpirationMillis = pktCtx.hardExpirationMillis
         this.idleExpirationMillis = pktCtx.idleExpirationMillis
         this.cbExecutor = pktCtx.callbackExecutor
+        this.lastFlowDumpMillis = 0L
         this.tags.addAll(pktCtx.flowTags)
         this.callbacks.addAll(pktCtx.flowRemovedCallbacks)
         this
@@ -68,6 +74,11 @@ final class ManagedFlow(override val pool: ObjectPool[ManagedFlow])
         this
     }
 
+    def setLastFlowDumpMillis(lastFlowDumpMillis: Long): this.type = {
+        this.lastFlowDumpMillis = lastFlowDumpMillis
+        this
+    }
+
     def setCreationTimeMillis(creationTimeMillis: Long): this.type = {
         this.creationTimeMillis = creationTimeMillis
         this
@@ -17,7 +17,7 @@
 package org.midonet.sdn.state
 
 import java.util.ArrayList
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
 
 import org.slf4j.LoggerFactory
 import com.typesafe.scalalogging.Logger
@@ -48,7 +48,15 @@ object ShardedFlowStateTable {
  * distribute shards among threads in a way that results in no keyspace overlap.
  *
  * Gets, on the other hand, will fall back to the parent and the other shards
- * if a key is not found locally.
+ * if a key is not found locally. To avoid probing every shard, the parent
+ * keeps a concurrent index from each key to the shard that last wrote it, so
+ * a lookup touches at most the local shard, the index and the owner shard.
+ * The index is updated by the shards when they insert a key and when they
+ * expire it. If the same key is written on several shards, the index points
+ * to the last writer, and when the copy of the owner expires the index is
+ * re-pointed to one of the remaining holders. Should a lookup find that the
+ * owner no longer holds the key, because it expired concurrently with the
+ * re-pointing, the index is repaired in the same way.
  *
  * unref() calls may require coordination, but they are meant to happen in an
  * external thread or pool, not a shard-owning thread.
@@ -57,6 +65,7 @@ class ShardedFlowStateTable[K <: IdleExpiration, V >: Null]
         (val clock: NanoClock = NanoClock.DEFAULT) extends FlowStateTable[K, V] {
 
     private val shards = new ArrayList[FlowStateShard]()
+    private val owners = new ConcurrentHashMap[K, FlowStateShard]()
     private val SHARD_NONE: Int = -1
 
     private val defaultLogger =
@@ -76,14 +85,36 @@ class ShardedFlowStateTable[K <: IdleExpiration, V >: Null]
         assert(shardToSkip == SHARD_NONE ||
                 (shardToSkip >= 0 && shardToSkip < shards.size))
 
-        var i = 0
-        while (i < shards.size) {
-            if (i != shardToSkip) {
-                val v: V = shards.get(i).shallowGet(key)
-                if (v != null)
-                    return v
+        val owner = owners.get(key)
+        if (owner eq null)
+            return null
+        if (owner.workerId != shardToSkip) {
+            val v = owner.shallowGet(key)
+            if (v != null)
+                return v
+        }
+        reindex(key, owner)
+    }
+
+    /**
+     * Removes the given shard as the owner of a key in the index and, if it
+     * was still the owner, points the index to another shard holding the key,
+     * returning its value.
+     */
+    private def reindex(key: K, stale: FlowStateShard): V = {
+        if (owners.remove(key, stale)) {
+            var i = 0
+            while (i < shards.size) {
+                val s = shards.get(i)
+                if (s ne stale) {
+                    val v = s.shallowGet(key)
+                    if (v != null) {
+                        owners.putIfAbsent(key, s)
+                        return v
+                    }
+                }
+                i += 1
             }
-            i += 1
         }
         null
     }
@@ -165,11 +196,20 @@ class ShardedFlowStateTable[K <: IdleExpiration, V >: Null]
      * It stores entries locally but forwards queries to the parent table for
      * aggregation. Reference counting is also delegated on the parent.
      */
-    class FlowStateShard(workerId: Int, log: Logger) extends FlowStateTable[K, V] {
+    class FlowStateShard(val workerId: Int, log: Logger) extends FlowStateTable[K, V] {
         private val map = new TimedExpirationMap[K, V](log, _.expiresAfter)
 
-        override def putAndRef(key: K, value: V): V =
-            map.putAndRef(key, value)
+        private val unindex = new Reducer[K, V, Unit] {
+            override def apply(acc: Unit, key: K, value: V): Unit =
+                reindex(key, FlowStateShard.this)
+        }
+
+        override def putAndRef(key: K, value: V): V = {
+            val oldValue = map.putAndRef(key, value)
+            if (owners.get(key) ne this)
+                owners.put(key, this)
+            oldValue
+        }
 
         override def get(key: K) = {
             val v = map.get(key)
@@ -202,9 +242,14 @@ class ShardedFlowStateTable[K <: IdleExpiration, V >: Null]
             map.fold(seed, func)
 
         override def expireIdleEntries() =
-            map.obliterateIdleEntries(tickMillis)
+            map.obliterateIdleEntries(tickMillis, (), unindex)
 
         override def expireIdleEntries[U](seed: U, func: Reducer[K, V, U]): U =
-            map.obliterateIdleEntries(tickMillis, seed, func)
+            map.obliterateIdleEntries(tickMillis, seed, new Reducer[K, V, U] {
+                override def apply(acc: U, key: K, value: V): U = {
+                    reindex(key, FlowStateShard.this)
+                    func(acc, key, value)
+                }
+            })
     }
 }
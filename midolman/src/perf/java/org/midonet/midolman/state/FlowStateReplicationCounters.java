@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The state messages sent by the FlowStateReplicatorBenchmark, and their
+ * bytes, reported by JMH next to the score of each iteration. JMH only picks
+ * up public fields as counters, hence this class is written in Java.
+ */
+@AuxCounters
+@State(Scope.Thread)
+public class FlowStateReplicationCounters {
+
+    public long messages;
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        messages = 0;
+        bytes = 0;
+    }
+}
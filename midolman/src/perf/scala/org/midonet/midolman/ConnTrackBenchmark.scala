@@ -19,6 +19,7 @@ package org.midonet.midolman
 import java.util.UUID.randomUUID
 import java.util.{ArrayList, HashSet, UUID}
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 import scala.collection.JavaConverters._
 
@@ -37,12 +38,59 @@ import org.midonet.midolman.topology.rcu.ResolvedHost
 import org.midonet.odp.flows.FlowActionOutput
 import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
 import org.midonet.packets.util.PacketBuilder._
-import org.midonet.sdn.state.{ShardedFlowStateTable, FlowStateTransaction}
+import org.midonet.sdn.state.{FlowStateTable, ShardedFlowStateTable, FlowStateTransaction}
 
 object ConnTrackBenchmark {
     val leftMac = MAC.random
     val rightMac = MAC.random
 
+    @State(Scope.Benchmark)
+    class ShardedTables {
+        @Param(Array("8", "16"))
+        var shardCount: Int = _
+
+        val keysPerShard = 4096
+        val table = new ShardedFlowStateTable[ConnTrackKey, ConnTrackValue]()
+        var shards: Array[FlowStateTable[ConnTrackKey, ConnTrackValue]] = _
+        var keys: Array[Array[ConnTrackKey]] = _
+        val nextShard = new AtomicInteger(0)
+
+        @JmhSetup
+        def setup(): Unit = {
+            val device = randomUUID()
+            shards = Array.fill[FlowStateTable[ConnTrackKey, ConnTrackValue]](
+                shardCount)(table.addShard())
+            keys = Array.tabulate(shardCount) { shard =>
+                Array.fill(keysPerShard) {
+                    val key = ConnTrackKey(IPv4Addr.random, 5003,
+                                           IPv4Addr.random, 80, 6, device)
+                    shards(shard).putAndRef(key, FORWARD_FLOW)
+                    key
+                }
+            }
+        }
+    }
+
+    /* Each benchmark thread owns one shard, as a packet processing thread. */
+    @State(Scope.Thread)
+    class ShardOwner {
+        var shard: Int = _
+        var remoteShard: Int = _
+        var index = 0
+        val device = randomUUID()
+
+        @JmhSetup
+        def setup(tables: ShardedTables): Unit = {
+            shard = tables.nextShard.getAndIncrement % tables.shardCount
+            remoteShard = (shard + 1) % tables.shardCount
+        }
+
+        def next(tables: ShardedTables): Int = {
+            index = (index + 1) & (tables.keysPerShard - 1)
+            index
+        }
+    }
+
     @State(Scope.Thread)
     class PacketHolder {
         var packet: Ethernet = _
@@ -117,3 +165,35 @@ class ConnTrackBenchmark extends MidolmanBenchmark {
         conntrackTx.flush()
     }
 }
+
+/**
+ * Measures the lookups of connection tracking keys performed concurrently by
+ * the packet processing threads on a ShardedFlowStateTable, each one owning a
+ * shard: keys found in the local shard, keys written by another thread, and
+ * keys of new connections that are not in any shard.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+class ConnTrackContentionBenchmark {
+    import org.midonet.midolman.ConnTrackBenchmark._
+
+    @Benchmark
+    def localHit(tables: ShardedTables, owner: ShardOwner): ConnTrackValue =
+        tables.shards(owner.shard).get(
+            tables.keys(owner.shard)(owner.next(tables)))
+
+    @Benchmark
+    def remoteHit(tables: ShardedTables, owner: ShardOwner): ConnTrackValue =
+        tables.shards(owner.shard).get(
+            tables.keys(owner.remoteShard)(owner.next(tables)))
+
+    @Benchmark
+    def miss(tables: ShardedTables, owner: ShardOwner): ConnTrackValue =
+        tables.shards(owner.shard).get(
+            ConnTrackKey(IPv4Addr.random, owner.next(tables), IPv4Addr.random,
+                         80, 6, owner.device))
+}
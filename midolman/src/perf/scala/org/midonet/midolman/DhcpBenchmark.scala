@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.LinkedList
+import java.util.concurrent.TimeUnit
+
+import scala.collection.mutable
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.cluster.data.dhcp.{Host, Subnet}
+import org.midonet.cluster.data.ports.BridgePort
+import org.midonet.midolman.PacketWorkflow.SimulationResult
+import org.midonet.midolman.simulation.PacketEmitter.GeneratedPacket
+import org.midonet.midolman.topology.VirtualTopologyActor
+import org.midonet.packets._
+import org.midonet.packets.util.PacketBuilder._
+
+/**
+ * Measures the DHCP replies that a packet processing thread generates per
+ * second for the DHCP discover messages of the VMs in a bridge, with the
+ * DHCP assignments of the bridge already cached.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class DhcpBenchmark extends MidolmanBenchmark {
+
+    registerActors(VirtualTopologyActor -> (() => new VirtualTopologyActor))
+
+    @Param(Array("100", "1000"))
+    var hostCount: Int = _
+
+    val portNumber = 1
+    val samples = 1024
+
+    var port: BridgePort = _
+    var workflow: PacketWorkflow = _
+    var requests: Array[Ethernet] = _
+    val emitter = new LinkedList[GeneratedPacket]
+    var index = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        newHost("myself", hostId)
+        val bridge = newBridge("bridge")
+        port = newBridgePort(bridge)
+        materializePort(port, hostId, "port0")
+        fetchTopology(bridge, port)
+
+        val subnet = new Subnet()
+            .setSubnetAddr(new IPv4Subnet("10.0.0.0", 16))
+            .setDefaultGateway(IPv4Addr.fromString("10.0.0.1"))
+        addDhcpSubnet(bridge, subnet)
+        val macs = Array.fill(hostCount)(MAC.random())
+        for (i <- 0 until hostCount) {
+            addDhcpHost(bridge, subnet, new Host()
+                .setMAC(macs(i))
+                .setIp(IPv4Addr.fromInt(0x0a000100 + i)))
+        }
+
+        workflow = packetWorkflow(Map(portNumber -> port.getId))
+        requests = Array.tabulate(samples)(i => discover(macs(i % hostCount)))
+        // Loads the assignments of the bridge.
+        force { simulate(requests(0)) }
+    }
+
+    private def discover(mac: MAC): Ethernet =
+        { eth src mac dst "ff:ff:ff:ff:ff:ff" } <<
+        { ip4 src 0 dst 0xffffffff } <<
+        { udp src 68 dst 67 } <<
+        { new DHCP()
+              .setOpCode(DHCP.OPCODE_REQUEST)
+              .setHardwareType(0x01)
+              .setHardwareAddressLength(6)
+              .setClientHardwareAddress(mac)
+              .setOptions(mutable.ListBuffer(
+                  new DHCPOption(DHCPOption.Code.DHCP_TYPE.value,
+                                 DHCPOption.Code.DHCP_TYPE.length,
+                                 Array[Byte](DHCPOption.MsgType.DISCOVER.value)))) }
+
+    private def simulate(request: Ethernet): SimulationResult = {
+        emitter.clear()
+        val context = packetContextFor(request, inPortNumber = portNumber,
+                                       emitter = emitter)
+        workflow.start(context)
+    }
+
+    @Benchmark
+    def dhcpReply(): GeneratedPacket = {
+        index = (index + 1) & (samples - 1)
+        simulate(requests(index))
+        emitter.poll()
+    }
+}
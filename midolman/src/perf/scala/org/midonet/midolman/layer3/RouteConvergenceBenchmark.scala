@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations._
+
+import org.midonet.midolman.layer3.Route.NextHop
+
+/**
+ * Measures the time a router takes to converge when it learns a full BGP
+ * feed one route at a time, as the RouterBuilderImpl does: each route is
+ * added to the routing table and a snapshot is published for every
+ * publishEvery routes. Run with -prof gc to measure the allocation.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+class RouteConvergenceBenchmark {
+
+    @Param(Array("50000", "500000"))
+    var routeCount: Int = _
+
+    @Param(Array("1", "1000"))
+    var publishEvery: Int = _
+
+    var routes: Array[Route] = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        val random = new Random(1234)
+        val port = UUID.randomUUID()
+        routes = Array.fill(routeCount) {
+            new Route(0, 0, random.nextInt(), 8 + random.nextInt(17),
+                      NextHop.PORT, port, 0, Route.DEFAULT_WEIGHT, null, null)
+        }
+    }
+
+    @Benchmark
+    def learnRoutes(): IPv4RoutingTable = {
+        val table = new IPv4RoutingTable()
+        var published: IPv4RoutingTable = null
+        var i = 0
+        while (i < routes.length) {
+            table.addRoute(routes(i))
+            i += 1
+            if (i % publishEvery == 0)
+                published = table.snapshot()
+        }
+        published
+    }
+}
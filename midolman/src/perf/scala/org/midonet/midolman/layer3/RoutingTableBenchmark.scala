@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations._
+
+import org.midonet.midolman.layer3.Route.NextHop
+
+/**
+ * Measures route lookups in the IPv4RoutingTable, and in the legacy
+ * RoutingTable it replaced, with tables modelled after BGP-learned routes.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class RoutingTableBenchmark {
+
+    @Param(Array("1000", "10000", "100000"))
+    var routeCount: Int = _
+
+    val table = new IPv4RoutingTable()
+    val legacyTable = new RoutingTable()
+    var destinations: Array[Int] = _
+    var index = 0
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        val random = new Random(1234)
+        val default = new Route(0, 0, 0, 0, NextHop.PORT, UUID.randomUUID(),
+                                0, Route.DEFAULT_WEIGHT, null, null)
+        table.addRoute(default)
+        legacyTable.addRoute(default)
+        for (i <- 1 until routeCount) {
+            val route = new Route(0, 0, random.nextInt(), 16 + random.nextInt(9),
+                                  NextHop.PORT, UUID.randomUUID(), 0,
+                                  Route.DEFAULT_WEIGHT, null, null)
+            table.addRoute(route)
+            legacyTable.addRoute(route)
+        }
+        destinations = Array.fill(1024)(random.nextInt())
+    }
+
+    private def nextDestination(): Int = {
+        index = (index + 1) & (destinations.length - 1)
+        destinations(index)
+    }
+
+    @Benchmark
+    def lookup(): java.util.List[Route] =
+        table.lookup(0x01020304, nextDestination())
+
+    @Benchmark
+    def legacyLookup(): java.lang.Iterable[Route] =
+        legacyTable.lookup(0x01020304, nextDestination())
+}
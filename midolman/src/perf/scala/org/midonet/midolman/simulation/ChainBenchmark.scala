@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConverters._
+
+import org.openjdk.jmh.annotations._
+
+import org.midonet.midolman.rules.{Condition, LiteralRule, Rule, RuleResult}
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4, IPv4Addr, IPv4Subnet, TCP}
+import org.midonet.util.Range
+
+/**
+ * Measures the application of a chain modelled after a large security
+ * group, where each rule accepts a TCP port from a subnet, to a packet that
+ * matches only the last rule. The chain is evaluated with the classifier,
+ * through Chain.apply, and by iterating linearly over its rules.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class ChainBenchmark {
+
+    @Param(Array("10", "100", "1000"))
+    var ruleCount: Int = _
+
+    val ownerId = UUID.randomUUID()
+    var chain: Chain = _
+    var context: PacketContext = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        val chainId = UUID.randomUUID()
+        val rules = (0 until ruleCount) map { i =>
+            val cond = new Condition()
+            cond.etherType = IPv4.ETHERTYPE.toInt
+            cond.nwProto = TCP.PROTOCOL_NUMBER
+            cond.nwSrcIp = new IPv4Subnet(IPv4Addr(0x0a000000 + (i << 8)), 24)
+            cond.tpDst = new Range[Integer](1000 + i)
+            val rule: Rule = new LiteralRule(cond, Action.ACCEPT)
+            rule.chainId = chainId
+            rule
+        }
+        chain = new Chain(chainId, rules.asJava, Map.empty[UUID, Chain],
+                          "security-group")
+
+        val last = ruleCount - 1
+        val fmatch = new FlowMatch()
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr(0x0a000001 + (last << 8)))
+            .setNetworkDst(IPv4Addr.fromString("192.168.0.1"))
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setSrcPort(50000)
+            .setDstPort(1000 + last)
+        context = new PacketContext(1, null, fmatch)
+        // Devices traversed before the chain read the packet fields.
+        Chain.apply(chain, context, ownerId, false)
+    }
+
+    @Benchmark
+    def classified(): RuleResult =
+        Chain.apply(chain, context, ownerId, false)
+
+    @Benchmark
+    def linear(): RuleResult = {
+        val res = new RuleResult(Action.CONTINUE, null)
+        val rules = chain.getRules
+        var i = 0
+        while (i < rules.size && res.action == Action.CONTINUE) {
+            rules.get(i).process(context, res, ownerId, false)
+            i += 1
+        }
+        res
+    }
+}
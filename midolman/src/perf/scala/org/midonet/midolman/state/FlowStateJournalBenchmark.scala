@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.io.File
+import java.nio.file.Files
+import java.util.{HashSet, UUID}
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.duration._
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.state.ConnTrackState._
+import org.midonet.midolman.state.NatState.{NatBinding, NatKey}
+import org.midonet.packets.IPv4Addr
+import org.midonet.sdn.state.ShardedFlowStateTable
+
+/**
+ * Measures the time from an agent restart until it can forward the first
+ * packet that depends on the flow state it owned: the journal is replayed
+ * for all the local ports and its keys imported into the flow state tables,
+ * as the HostRequestProxy and the FlowStateReplicator do, before looking up
+ * the key of the packet.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class FlowStateJournalBenchmark {
+
+    @Param(Array("1000000"))
+    var entries: Int = _
+
+    @Param(Array("256"))
+    var portCount: Int = _
+
+    var dir: File = _
+    val ports = new HashSet[UUID]()
+    var firstPacketKey: ConnTrackKey = _
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        /* The keys outlive the trial, so that all of them are replayed */
+        dir = Files.createTempDirectory("flow-state-journal").toFile
+        val portIds = Array.fill(portCount)(UUID.randomUUID())
+        portIds foreach ports.add
+        val device = UUID.randomUUID()
+
+        val writer = new FlowStateJournal(dir).newWriter()
+        var i = 0
+        while (i < entries) {
+            val port = portIds(i % portCount)
+            if (i % 5 == 0) {
+                val k = NatKey(NatState.FWD_SNAT, IPv4Addr.random, i & 0xffff,
+                               IPv4Addr.random, 80, 6, device)
+                k.expiresAfter = 1 day
+                writer.appendNat(k, NatBinding(IPv4Addr.random, i & 0xffff),
+                                 port, strong = true)
+            } else {
+                val k = ConnTrackKey(IPv4Addr.random, i & 0xffff,
+                                     IPv4Addr.random, 80, 6, device)
+                k.expiresAfter = 1 day
+                writer.appendConnTrack(k, port, strong = true)
+                firstPacketKey = k
+            }
+            i += 1
+        }
+    }
+
+    @TearDown(Level.Trial)
+    def teardown(): Unit = {
+        dir.listFiles() foreach (_.delete())
+        dir.delete()
+    }
+
+    @Benchmark
+    def restart(): ConnTrackValue = {
+        val conntrack = new ShardedFlowStateTable[ConnTrackKey, ConnTrackValue]()
+                            .addShard()
+        val nat = new ShardedFlowStateTable[NatKey, NatBinding]().addShard()
+
+        val batch = new FlowStateJournal(dir).replay(ports)
+        val keys = batch.strongConnTrack.iterator()
+        while (keys.hasNext) {
+            val k = keys.next()
+            conntrack.putAndRef(k, FORWARD_FLOW)
+            conntrack.unref(k)
+        }
+        val bindings = batch.strongNat.entrySet().iterator()
+        while (bindings.hasNext) {
+            val e = bindings.next()
+            nat.putAndRef(e.getKey, e.getValue)
+            nat.unref(e.getKey)
+        }
+        conntrack.get(firstPacketKey)
+    }
+}
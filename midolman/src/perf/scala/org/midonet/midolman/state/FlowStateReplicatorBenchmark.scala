@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.util.{ArrayList, Arrays, HashSet => JHashSet, List => JList, UUID}
+import java.util.concurrent.TimeUnit
+
+import com.typesafe.scalalogging.Logger
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.midolman.datapath.DatapathChannel
+import org.midonet.midolman.simulation.PortGroup
+import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
+import org.midonet.midolman.state.NatState.{NatBinding, NatKey}
+import org.midonet.midolman.topology.devices.{BridgePort, Port}
+import org.midonet.odp.flows.FlowAction
+import org.midonet.odp.{Datapath, Flow, Packet}
+import org.midonet.packets.{FlowStateEthernet, IPv4Addr}
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+import org.midonet.sdn.state.{FlowStateTransaction, ShardedFlowStateTable}
+import org.midonet.util.functors.Callback0
+
+/**
+ * Measures the replication of the flow state of new connections, each one
+ * with a conntrack key and a nat key, to the host that owns their egress
+ * port. As the PacketWorkflow does, the state of each connection is flushed
+ * before its packet would be executed, while the keys are submitted to the
+ * storage once per batch of flowsPerBatch packets. The score is the number
+ * of connections per second; the state messages sent and their bytes are
+ * reported per second as auxiliary counters.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class FlowStateReplicatorBenchmark {
+
+    @Param(Array("1", "16", "256"))
+    var flowsPerBatch: Int = _
+
+    val localHost = UUID.randomUUID()
+    val peerHost = UUID.randomUUID()
+    val ingressPort = new BridgePort() { id = UUID.randomUUID(); hostId = localHost }
+    val egressPort = new BridgePort() { id = UUID.randomUUID(); hostId = peerHost }
+    val egressPorts: JList[UUID] = Arrays.asList(egressPort.id)
+    val tags = new JHashSet[FlowTag]()
+    val callbacks = new ArrayList[Callback0]()
+
+    val conntrackTable =
+        new ShardedFlowStateTable[ConnTrackKey, ConnTrackValue]().addShard()
+    val natTable = new ShardedFlowStateTable[NatKey, NatBinding]().addShard()
+    val conntrackTx = new FlowStateTransaction(conntrackTable)
+    val natTx = new FlowStateTransaction(natTable)
+
+    var connTrackKeys: Array[ConnTrackKey] = _
+    var natKeys: Array[NatKey] = _
+    var binding: NatBinding = _
+    var next = 0
+
+    var counters: FlowStateReplicationCounters = _
+
+    val dpChannel = new DatapathChannel {
+        override def executePacket(packet: Packet,
+                                   actions: JList[FlowAction]): Unit = {
+            counters.messages += 1
+            counters.bytes += packet.getEthernet.asInstanceOf[FlowStateEthernet]
+                           .getElasticDataLength
+        }
+        override def createFlow(flow: Flow): Unit = { }
+        override def start(datapath: Datapath): Unit = { }
+        override def stop(): Unit = { }
+    }
+
+    val replicator = new BaseFlowStateReplicator(
+            conntrackTable, natTable, new MockStateStorage,
+            new MockUnderlayResolver(localHost, IPv4Addr.random,
+                                     Map(peerHost -> IPv4Addr.random)),
+            _ => { }, 0) {
+        override val log = Logger(NOPLogger.NOP_LOGGER)
+        override def getPort(id: UUID): Port =
+            if (id == ingressPort.id) ingressPort else egressPort
+        override def getPortGroup(id: UUID): PortGroup = null
+    }
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        val device = UUID.randomUUID()
+        connTrackKeys = Array.tabulate(1024) { i =>
+            ConnTrackKey(IPv4Addr.random, i, IPv4Addr.random, 80, 6, device)
+        }
+        natKeys = Array.tabulate(1024) { i =>
+            NatKey(NatState.FWD_SNAT, IPv4Addr.random, i, IPv4Addr.random, 80,
+                   6, device)
+        }
+        binding = NatBinding(IPv4Addr.random, 10000)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(256)
+    def replicate(counters: FlowStateReplicationCounters): Unit = {
+        this.counters = counters
+        var i = 0
+        while (i < 256) {
+            val k = next & 1023
+            next += 1
+            conntrackTx.putAndRef(connTrackKeys(k), ConnTrackState.FORWARD_FLOW)
+            natTx.putAndRef(natKeys(k), binding)
+            replicator.accumulateNewKeys(conntrackTx, natTx, ingressPort.id,
+                                         egressPorts, tags, callbacks)
+            conntrackTx.flush()
+            natTx.flush()
+            callbacks.clear()
+            replicator.flushState(dpChannel)
+            i += 1
+            if (i % flowsPerBatch == 0)
+                replicator.pushState(dpChannel)
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.apache.zookeeper.CreateMode
+import org.openjdk.jmh.annotations._
+
+import org.midonet.packets.MAC
+
+/**
+ * Measures the update of a bridge MAC table replicated through a
+ * MockDirectory when a single MAC is learned and then expires, compared
+ * to decoding the whole list of children into a new map, which is what the
+ * ReplicatedMap did on every change before applying the updates
+ * incrementally.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class ReplicatedMapBenchmark {
+
+    @Param(Array("1000", "10000", "50000"))
+    var entries: Int = _
+
+    var dir: Directory = _
+    var map: MacPortMap = _
+    val port = UUID.randomUUID()
+    var changes = 0
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        val root = new MockDirectory()
+        root.add("/macs", null, CreateMode.PERSISTENT)
+        dir = root.getSubDirectory("/macs")
+        for (i <- 0 until entries) {
+            dir.add(s"/${MAC.random()},$port,", null,
+                    CreateMode.PERSISTENT_SEQUENTIAL)
+        }
+        map = new MacPortMap(dir)
+        map.addWatcher(new ReplicatedMap.Watcher[MAC, UUID] {
+            override def processChange(key: MAC, oldValue: UUID,
+                                       newValue: UUID): Unit = changes += 1
+        })
+        map.start()
+    }
+
+    @TearDown(Level.Trial)
+    def teardown(): Unit = map.stop()
+
+    @Benchmark
+    def learnAndExpire(): Int = {
+        val path = dir.add(s"/${MAC.random()},$port,", null,
+                           CreateMode.PERSISTENT_SEQUENTIAL)
+        dir.delete(path)
+        changes
+    }
+
+    @Benchmark
+    def fullRelist(): java.util.Map[MAC, UUID] = MacPortMap.getAsMap(dir)
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.collection.JavaConverters._
+
+import org.apache.curator.test.TestingServer
+import org.apache.zookeeper.CreateMode
+import org.apache.zookeeper.ZooDefs.Ids
+import org.openjdk.jmh.annotations._
+
+/**
+ * Measures the latency of reading all the children of a node from a local
+ * test ZooKeeper server, with a synchronous read per child as done by the
+ * legacy *GetAll methods of the LocalDataClientImpl, and with the pipelined
+ * bulk read of ZkManager.getAll.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class ZkBulkReadBenchmark {
+
+    @Param(Array("100", "1000", "10000"))
+    var nodes: Int = _
+
+    val root = "/ports"
+    val data = new Array[Byte](512)
+
+    var server: TestingServer = _
+    var connection: ZkConnection = _
+    var zk: ZkManager = _
+    var paths: Seq[String] = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        server = new TestingServer()
+        server.start()
+        connection = new ZkConnection(server.getConnectString, 30000, null)
+        connection.open()
+        val dir = new ZkDirectory(connection, "", Ids.OPEN_ACL_UNSAFE, null)
+        zk = new ZkManager(dir, "")
+        zk.addPersistent(root, null)
+        for (i <- 0 until nodes) {
+            dir.asyncAdd(s"$root/${UUID.randomUUID()}", data,
+                         CreateMode.PERSISTENT)
+        }
+        while (zk.getChildren(root).size < nodes) {
+            Thread.sleep(100)
+        }
+        paths = zk.getChildren(root).asScala.map(root + "/" + _).toSeq
+    }
+
+    @TearDown(Level.Trial)
+    def teardown(): Unit = {
+        connection.close()
+        server.close()
+    }
+
+    @Benchmark
+    def sequentialGet(): Int = {
+        var size = 0
+        for (path <- paths) {
+            size += zk.get(path).length
+        }
+        size
+    }
+
+    @Benchmark
+    def bulkGet(): Int = zk.getAll(paths.asJava).size
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.sdn.flows
+
+import java.util.{ArrayList, Comparator, PriorityQueue}
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.util.collection.TimerWheel
+
+object FlowExpirationBenchmark {
+    val Start = 0L
+    val MaxIdleMillis = 60000
+    val EvictBatchSize = 512
+
+    /* The comparator of the priority queues formerly used by FlowManager */
+    object IdleTimeComparator extends Comparator[ManagedFlow] {
+        override def compare(f1: ManagedFlow, f2: ManagedFlow): Int =
+            ((f1.getLastUsedTimeMillis + f1.idleExpirationMillis) -
+             (f2.getLastUsedTimeMillis + f2.idleExpirationMillis)).toInt
+    }
+
+    def deadline(flow: ManagedFlow) =
+        flow.getLastUsedTimeMillis + flow.idleExpirationMillis
+
+    abstract class Flows {
+        @Param(Array("10000", "100000", "1000000"))
+        var flowCount: Int = _
+
+        var flows: Array[ManagedFlow] = _
+
+        @Setup(Level.Trial)
+        def createFlows(): Unit = {
+            flows = Array.fill(flowCount) {
+                val flow = new ManagedFlow(null)
+                flow.idleExpirationMillis = 1 + Random.nextInt(MaxIdleMillis)
+                flow.setLastUsedTimeMillis(Start)
+                flow
+            }
+        }
+
+        def newWheel() = new TimerWheel[ManagedFlow](10, Start, 8, 4)
+
+        def newQueue() = new PriorityQueue[ManagedFlow](10000, IdleTimeComparator)
+    }
+
+    @State(Scope.Thread)
+    class EmptyStructures extends Flows {
+        var wheel: TimerWheel[ManagedFlow] = _
+        var queue: PriorityQueue[ManagedFlow] = _
+
+        @Setup(Level.Invocation)
+        def setup(): Unit = {
+            if (wheel ne null)
+                wheel.clear()
+            wheel = newWheel()
+            queue = newQueue()
+        }
+    }
+
+    @State(Scope.Thread)
+    class FullStructures extends Flows {
+        var wheel: TimerWheel[ManagedFlow] = _
+        var queue: PriorityQueue[ManagedFlow] = _
+        val expired = new ArrayList[ManagedFlow]()
+
+        @Setup(Level.Invocation)
+        def setup(): Unit = {
+            if (wheel ne null)
+                wheel.clear()
+            wheel = newWheel()
+            queue = newQueue()
+            expired.clear()
+            var i = 0
+            while (i < flows.length) {
+                val flow = flows(i)
+                wheel.schedule(flow.expirationTimer, deadline(flow))
+                queue.add(flow)
+                i += 1
+            }
+        }
+    }
+}
+
+/**
+ * Compares the timer wheels used by the FlowManager to track flow expiration
+ * with the priority queues they replaced, when inserting all the flows,
+ * expiring all of them and evicting the batch of flows closest to expire.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+class FlowExpirationBenchmark {
+    import FlowExpirationBenchmark._
+
+    @Benchmark
+    def insertWheel(s: EmptyStructures): Int = {
+        var i = 0
+        while (i < s.flows.length) {
+            val flow = s.flows(i)
+            s.wheel.schedule(flow.expirationTimer, deadline(flow))
+            i += 1
+        }
+        s.wheel.size
+    }
+
+    @Benchmark
+    def insertQueue(s: EmptyStructures): Int = {
+        var i = 0
+        while (i < s.flows.length) {
+            s.queue.add(s.flows(i))
+            i += 1
+        }
+        s.queue.size
+    }
+
+    @Benchmark
+    def expireWheel(s: FullStructures): Int =
+        s.wheel.advance(Start + MaxIdleMillis, s.expired)
+
+    @Benchmark
+    def expireQueue(s: FullStructures): Int = {
+        val now = Start + MaxIdleMillis
+        var flow: ManagedFlow = null
+        while (({ flow = s.queue.peek(); flow } ne null) && deadline(flow) <= now) {
+            s.expired.add(s.queue.poll())
+        }
+        s.expired.size
+    }
+
+    @Benchmark
+    def evictOldestWheel(s: FullStructures, bh: Blackhole): Unit = {
+        var i = 0
+        while (i < EvictBatchSize) {
+            bh.consume(s.wheel.pollFirst())
+            i += 1
+        }
+    }
+
+    @Benchmark
+    def evictOldestQueue(s: FullStructures, bh: Blackhole): Unit = {
+        var i = 0
+        while (i < EvictBatchSize) {
+            bh.consume(s.queue.poll())
+            i += 1
+        }
+    }
+}
@@ -17,15 +17,20 @@
 package org.midonet.cluster;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.junit.Test;
 
+import org.midonet.cluster.data.Bridge;
+import org.midonet.cluster.data.Port;
 import org.midonet.cluster.data.Route;
 import org.midonet.cluster.data.Router;
 import org.midonet.cluster.data.VTEP;
 import org.midonet.cluster.data.dhcp.Subnet;
+import org.midonet.cluster.data.ports.BridgePort;
 import org.midonet.cluster.data.ports.RouterPort;
 import org.midonet.midolman.layer3.Route.NextHop;
 import org.midonet.midolman.serialization.SerializationException;
@@ -71,6 +76,63 @@ public class LocalDataClientImplTest extends LocalDataClientImplTestBase {
         assertThat(routes, hasSize(0));
     }
 
+    @Test
+    public void getAllReadsAllDevicesTest() throws StateAccessException,
+            SerializationException {
+        Set<UUID> bridgeIds = new HashSet<>();
+        Set<UUID> routerIds = new HashSet<>();
+        Set<UUID> portIds = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            UUID bridgeId = client.bridgesCreate(getStockBridge());
+            bridgeIds.add(bridgeId);
+            portIds.add(client.portsCreate(
+                new BridgePort().setDeviceId(bridgeId)));
+            UUID routerId = client.routersCreate(new Router());
+            routerIds.add(routerId);
+            portIds.add(client.portsCreate(
+                new RouterPort().setDeviceId(routerId)
+                    .setHwAddr(MAC.random())
+                    .setPortAddr("10.0." + i + ".1").setNwAddr("10.0." + i + ".0")
+                    .setNwLength(24)));
+        }
+
+        Set<UUID> ids = new HashSet<>();
+        for (Bridge bridge : client.bridgesGetAll()) {
+            ids.add(bridge.getId());
+        }
+        assertEquals(bridgeIds, ids);
+
+        ids.clear();
+        for (Router router : client.routersGetAll()) {
+            ids.add(router.getId());
+        }
+        assertEquals(routerIds, ids);
+
+        ids.clear();
+        for (Port<?, ?> port : client.portsGetAll()) {
+            ids.add(port.getId());
+        }
+        assertEquals(portIds, ids);
+
+        for (UUID bridgeId : bridgeIds) {
+            List<BridgePort> ports = client.portsFindByBridge(bridgeId);
+            assertThat(ports, hasSize(1));
+            assertEquals(bridgeId, ports.get(0).getDeviceId());
+        }
+    }
+
+    @Test
+    public void getAllSkipsDeletedDevicesTest() throws StateAccessException,
+            SerializationException {
+        UUID routerId = client.routersCreate(new Router());
+        UUID deletedId = client.routersCreate(new Router());
+        client.routersDelete(deletedId);
+
+        List<Router> routers = client.routersGetAll();
+        assertThat(routers, hasSize(1));
+        assertEquals(routerId, routers.get(0).getId());
+    }
+
     private void assertIsLeader(boolean[] leaderArr, int leader) {
         assertThat(leaderArr[leader], equalTo(true));
         for(int i = 0; i < leaderArr.length; i++) {
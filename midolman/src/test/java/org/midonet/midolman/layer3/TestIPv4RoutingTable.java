@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.midonet.midolman.layer3.Route.NextHop;
+
+public class TestIPv4RoutingTable {
+
+    private final Random random = new Random(4321);
+
+    private Route route(int src, int srcLen, int dst, int dstLen, int weight) {
+        return new Route(src, srcLen, dst, dstLen, NextHop.PORT,
+                         UUID.randomUUID(), 0, weight, null, null);
+    }
+
+    private Set<Route> set(Iterable<Route> routes) {
+        Set<Route> set = new HashSet<>();
+        for (Route rt : routes)
+            set.add(rt);
+        return set;
+    }
+
+    @Test
+    public void testEmptyTable() {
+        IPv4RoutingTable table = new IPv4RoutingTable();
+        Assert.assertTrue(table.lookup(0x0a010108, 0x0a010106).isEmpty());
+        Assert.assertTrue(table.lookup(0x00000009, 0xfffffffe).isEmpty());
+    }
+
+    @Test
+    public void testLongestPrefixMatch() {
+        Route rt1 = route(0, 0, 0, 0, 100);
+        Route rt2 = route(0, 0, 0x0a000000, 8, 100);
+        Route rt3 = route(0, 0, 0x0a010000, 16, 100);
+        Route rt4 = route(0, 0, 0x0a010203, 32, 100);
+        IPv4RoutingTable table = new IPv4RoutingTable();
+        table.addRoute(rt3);
+        table.addRoute(rt1);
+        table.addRoute(rt4);
+        table.addRoute(rt2);
+        Assert.assertEquals(4, table.numRoutes());
+
+        Assert.assertEquals(set(table.lookup(0, 0x0b000001)), set(rt1));
+        Assert.assertEquals(set(table.lookup(0, 0x0a020001)), set(rt2));
+        Assert.assertEquals(set(table.lookup(0, 0x0a010001)), set(rt3));
+        Assert.assertEquals(set(table.lookup(0, 0x0a010203)), set(rt4));
+
+        table.deleteRoute(rt3);
+        Assert.assertEquals(set(table.lookup(0, 0x0a010001)), set(rt2));
+        Assert.assertEquals(set(table.lookup(0, 0x0a010203)), set(rt4));
+        table.deleteRoute(rt1);
+        Assert.assertTrue(table.lookup(0, 0x0b000001).isEmpty());
+        Assert.assertEquals(2, table.numRoutes());
+    }
+
+    @Test
+    public void testEcmpAndSourceRoutes() {
+        Route rt1 = route(0, 0, 0x0a140000, 24, 100);
+        Route rt2 = route(0, 0, 0x0a140000, 24, 100);
+        Route rt3 = route(0, 0, 0x0a140000, 24, 200);
+        IPv4RoutingTable table = new IPv4RoutingTable();
+        table.addRoute(rt1);
+        table.addRoute(rt2);
+        table.addRoute(rt3);
+
+        List<Route> routes = table.lookup(0x12345678, 0x0a140080);
+        Assert.assertEquals(set(routes), set(rt1, rt2));
+        // The pre-computed ECMP set is returned without allocating
+        Assert.assertSame(routes, table.lookup(0x01020304, 0x0a1400ff));
+
+        // A route depending on the source is only selected for that source
+        Route rt4 = route(0xc0a80000, 16, 0x0a140000, 24, 50);
+        table.addRoute(rt4);
+        Assert.assertEquals(set(table.lookup(0xc0a80101, 0x0a140080)),
+                            set(rt4));
+        Assert.assertEquals(set(table.lookup(0x12345678, 0x0a140080)),
+                            set(rt1, rt2));
+
+        // A prefix without routes for the source falls back to a shorter one
+        table.deleteRoute(rt1);
+        table.deleteRoute(rt2);
+        table.deleteRoute(rt3);
+        Route rt5 = route(0, 0, 0x0a000000, 8, 100);
+        table.addRoute(rt5);
+        Assert.assertEquals(set(table.lookup(0x12345678, 0x0a140080)),
+                            set(rt5));
+    }
+
+    @Test
+    public void testUpdatesDoNotAffectPreviousLookups() {
+        Route rt1 = route(0, 0, 0x0a000000, 8, 100);
+        Route rt2 = route(0, 0, 0x0a000000, 8, 100);
+        IPv4RoutingTable table = new IPv4RoutingTable();
+        table.addRoute(rt1);
+        List<Route> routes = table.lookup(0, 0x0a000001);
+
+        table.addRoute(rt2);
+        table.deleteRoute(rt1);
+        Assert.assertEquals(set(routes), set(rt1));
+        Assert.assertEquals(set(table.lookup(0, 0x0a000001)), set(rt2));
+    }
+
+    @Test
+    public void testUpdatesDoNotAffectSnapshots() {
+        Route rt1 = route(0, 0, 0x0a000000, 8, 100);
+        Route rt2 = route(0, 0, 0x0a010000, 16, 100);
+        IPv4RoutingTable table = new IPv4RoutingTable();
+        table.addRoute(rt1);
+        IPv4RoutingTable snapshot = table.snapshot();
+
+        table.addRoute(rt2);
+        Assert.assertEquals(1, snapshot.numRoutes());
+        Assert.assertEquals(set(snapshot.lookup(0, 0x0a010001)), set(rt1));
+        Assert.assertEquals(set(table.lookup(0, 0x0a010001)), set(rt2));
+
+        table.deleteRoute(rt1);
+        Assert.assertEquals(set(snapshot.lookup(0, 0x0a020001)), set(rt1));
+        Assert.assertTrue(table.lookup(0, 0x0a020001).isEmpty());
+
+        snapshot.addRoute(rt2);
+        Assert.assertEquals(1, table.numRoutes());
+        Assert.assertTrue(table.lookup(0, 0x0a020001).isEmpty());
+        Assert.assertEquals(set(snapshot.lookup(0, 0x0a010001)), set(rt2));
+    }
+
+    @Test
+    public void testSameResultsAsLegacyTable() {
+        IPv4RoutingTable table = new IPv4RoutingTable();
+        RoutingTable legacy = new RoutingTable();
+        List<Route> routes = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            if (routes.isEmpty() || random.nextInt(4) != 0) {
+                Route rt = route(
+                    random.nextInt(8) == 0 ? 0xc0a80000 : 0,
+                    random.nextInt(8) == 0 ? 16 : 0,
+                    0x0a000000 | random.nextInt(1 << 16) << 8,
+                    8 + random.nextInt(25), 100 + random.nextInt(2) * 100);
+                routes.add(rt);
+                table.addRoute(rt);
+                legacy.addRoute(rt);
+            } else {
+                Route rt = routes.remove(random.nextInt(routes.size()));
+                table.deleteRoute(rt);
+                legacy.deleteRoute(rt);
+            }
+
+            for (int j = 0; j < 10; j++) {
+                int src = random.nextBoolean() ? 0xc0a80000 | random.nextInt()
+                                                              & 0xffff
+                                               : random.nextInt();
+                int dst = 0x0a000000 | random.nextInt(1 << 24);
+                Assert.assertEquals(set(legacy.lookup(src, dst)),
+                                    set(table.lookup(src, dst)));
+            }
+        }
+    }
+
+    private Set<Route> set(Route... routes) {
+        Set<Route> set = new HashSet<>();
+        for (Route rt : routes)
+            set.add(rt);
+        return set;
+    }
+}
@@ -387,4 +387,97 @@ public class TestReplicatedMap {
         expectedMap.clear();
         Assert.assertEquals(expectedMap, strMap.getMap());
     }
+
+    private class CountingWatcher
+            implements ReplicatedMap.Watcher<String, String> {
+        int changes = 0;
+        String lastKey, lastOldValue, lastNewValue;
+
+        @Override
+        public void processChange(String key, String oldValue,
+                                  String newValue) {
+            changes++;
+            lastKey = key;
+            lastOldValue = oldValue;
+            lastNewValue = newValue;
+        }
+    }
+
+    @Test
+    public void testOnlyChangedEntriesAreNotified()
+            throws KeeperException, InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            mapDir.add("/key" + i + ",value" + i + ",", null,
+                       CreateMode.PERSISTENT_SEQUENTIAL);
+        }
+        ReplicatedStringMap strMap = new ReplicatedStringMap(mapDir);
+        CountingWatcher watcher = new CountingWatcher();
+        strMap.addWatcher(watcher);
+        strMap.start();
+        Assert.assertEquals(1000, watcher.changes);
+        Assert.assertEquals(1000, strMap.getMap().size());
+
+        String path = mapDir.add("/new,value,", null,
+                                 CreateMode.PERSISTENT_SEQUENTIAL);
+        Assert.assertEquals(1001, watcher.changes);
+        Assert.assertEquals("new", watcher.lastKey);
+        Assert.assertNull(watcher.lastOldValue);
+        Assert.assertEquals("value", watcher.lastNewValue);
+
+        mapDir.delete(path);
+        Assert.assertEquals(1002, watcher.changes);
+        Assert.assertEquals("new", watcher.lastKey);
+        Assert.assertEquals("value", watcher.lastOldValue);
+        Assert.assertNull(watcher.lastNewValue);
+        Assert.assertEquals(1000, strMap.getMap().size());
+        Assert.assertNull(strMap.get("new"));
+    }
+
+    @Test
+    public void testOlderVersionRestoredWhenNewerRemoved()
+            throws KeeperException, InterruptedException {
+        ReplicatedStringMap strMap = new ReplicatedStringMap(mapDir);
+        CountingWatcher watcher = new CountingWatcher();
+        strMap.addWatcher(watcher);
+        strMap.start();
+        String path1 = mapDir.add("/one,100,", null,
+                                  CreateMode.PERSISTENT_SEQUENTIAL);
+        String path2 = mapDir.add("/one,200,", null,
+                                  CreateMode.PERSISTENT_SEQUENTIAL);
+        String path3 = mapDir.add("/one,300,", null,
+                                  CreateMode.PERSISTENT_SEQUENTIAL);
+        Assert.assertEquals("300", strMap.get("one"));
+        Assert.assertEquals(3, watcher.changes);
+
+        // Removing an older version is not a change of the map.
+        mapDir.delete(path2);
+        Assert.assertEquals("300", strMap.get("one"));
+        Assert.assertEquals(3, watcher.changes);
+
+        // Removing the latest version restores the previous one.
+        mapDir.delete(path3);
+        Assert.assertEquals("100", strMap.get("one"));
+        Assert.assertEquals(4, watcher.changes);
+        Assert.assertEquals("300", watcher.lastOldValue);
+        Assert.assertEquals("100", watcher.lastNewValue);
+
+        mapDir.delete(path1);
+        Assert.assertNull(strMap.get("one"));
+        Assert.assertEquals(5, watcher.changes);
+    }
+
+    @Test
+    public void testRestartReloadsEntries()
+            throws KeeperException, InterruptedException {
+        ReplicatedStringMap strMap = new ReplicatedStringMap(mapDir);
+        mapDir.add("/one,100,", null, CreateMode.PERSISTENT_SEQUENTIAL);
+        strMap.start();
+        strMap.stop();
+        mapDir.add("/two,200,", null, CreateMode.PERSISTENT_SEQUENTIAL);
+        strMap.start();
+        Map<String, String> expectedMap = new HashMap<>();
+        expectedMap.put("one", "100");
+        expectedMap.put("two", "200");
+        Assert.assertEquals(expectedMap, strMap.getMap());
+    }
 }
@@ -125,6 +125,74 @@ public class FlowStateTableTest {
         }
     }
 
+    @Test
+    public void testRemoteLookupAfterExpiration() {
+        FlowStateTable<TestKey, Integer> owner = shards.get(1);
+        owner.putAndRef(keys[0], vals[0]);
+        owner.putAndRef(keys[1], vals[1]);
+        owner.unref(keys[0]);
+        owner.unref(keys[1]);
+        assertThat(shards.get(2).get(keys[0]), equalTo(vals[0]));
+
+        clock.time_$eq(IDLE_EXPIRATION.toNanos() + 1);
+        owner.expireIdleEntries();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertThat(shards.get(shard).get(keys[0]), nullValue());
+            assertThat(shards.get(shard).get(keys[1]), nullValue());
+        }
+
+        shards.get(3).putAndRef(keys[0], 9595);
+        shards.get(3).unref(keys[0]);
+        assertThat(shards.get(1).get(keys[0]), equalTo(9595));
+        assertThat(global.get(keys[0]), equalTo(9595));
+
+        clock.time_$eq(clock.time() + IDLE_EXPIRATION.toNanos() + 1);
+        Set<TestKey> expired = shards.get(3).expireIdleEntries(
+            new HashSet<TestKey>(), new KeyReducer());
+        assertThat(expired, contains(keys[0]));
+        assertThat(shards.get(1).get(keys[0]), nullValue());
+    }
+
+    @Test
+    public void testRemoteLookupFindsLastWriter() {
+        shards.get(1).putAndRef(keys[0], vals[0]);
+        shards.get(2).putAndRef(keys[0], vals[1]);
+        assertThat(shards.get(0).get(keys[0]), equalTo(vals[1]));
+        assertThat(shards.get(1).get(keys[0]), equalTo(vals[0]));
+
+        // expiring the copy of a shard that isn't the last writer keeps
+        // the key visible to the other shards
+        shards.get(1).unref(keys[0]);
+        clock.time_$eq(IDLE_EXPIRATION.toNanos() + 1);
+        shards.get(1).expireIdleEntries();
+        assertThat(shards.get(1).get(keys[0]), equalTo(vals[1]));
+        assertThat(shards.get(3).get(keys[0]), equalTo(vals[1]));
+    }
+
+    @Test
+    public void testRemoteLookupAfterLastWriterExpires() {
+        shards.get(1).putAndRef(keys[0], vals[0]);
+        shards.get(2).putAndRef(keys[0], vals[1]);
+        assertThat(shards.get(0).get(keys[0]), equalTo(vals[1]));
+
+        // expiring the copy of the last writer makes the other shards find
+        // the copy that remains
+        shards.get(2).unref(keys[0]);
+        clock.time_$eq(IDLE_EXPIRATION.toNanos() + 1);
+        shards.get(2).expireIdleEntries();
+        assertThat(shards.get(0).get(keys[0]), equalTo(vals[0]));
+        assertThat(shards.get(2).get(keys[0]), equalTo(vals[0]));
+        assertThat(shards.get(3).get(keys[0]), equalTo(vals[0]));
+        assertThat(global.get(keys[0]), equalTo(vals[0]));
+
+        shards.get(1).unref(keys[0]);
+        clock.time_$eq(clock.time() + IDLE_EXPIRATION.toNanos() + 1);
+        shards.get(1).expireIdleEntries();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertThat(shards.get(shard).get(keys[0]), nullValue());
+        }
+    }
+
     @Test
     public void testTransactionSetGet() {
         FlowStateTable<TestKey, Integer> shard = shards.get(0);
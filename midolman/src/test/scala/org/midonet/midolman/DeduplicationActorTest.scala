@@ -337,7 +337,8 @@ class DeduplicationActorTest extends MidolmanSpec {
                       packetOut: Int => Unit,
                       override val simulationExpireMillis: Long)
             extends DeduplicationActor(injector.getInstance(classOf[MidolmanConfig]),
-                                       cookieGen, dpChannel, clusterDataClient,
+                                       cookieGen, dpChannel,
+                                       newDhcpAssignments(clusterDataClient),
                                        new ShardedFlowStateTable[ConnTrackKey, ConnTrackValue](),
                                        new ShardedFlowStateTable[NatKey, NatBinding](),
                                        new MockStateStorage(),
@@ -161,6 +161,54 @@ class FlowControllerTest extends MidolmanSpec {
             testFlowRemoved(flow, mwcFlow, state)
         }
 
+        scenario("Check idle expired flows are removed using a datapath " +
+                 "flow dump") {
+            Given("A wildcard flow")
+            val flow = new TestableFlow(10, flowTimeout)
+
+            val state = new MetricsSnapshot()
+
+            When("The flow is added to the flow controller")
+            flow.add()
+
+            val mwcFlow = testFlowAdded(flow, state)
+
+            When("The flow has expired")
+            expireFlowIdle(mwcFlow)
+
+            And("A datapath flow dump reports the flow as not recently used")
+            val now = System.currentTimeMillis()
+            dumpFlow(flow, now, lastUsed = now - flowTimeout)
+
+            testFlowRemoved(flow, mwcFlow, state)
+        }
+
+        scenario("Check a stale datapath flow dump does not expire idle " +
+                 "flows") {
+            Given("A wildcard flow")
+            val flow = new TestableFlow(11, flowTimeout)
+
+            val state = new MetricsSnapshot()
+
+            When("The flow is added to the flow controller")
+            flow.add()
+
+            val mwcFlow = testFlowAdded(flow, state)
+
+            When("The flow has expired")
+            expireFlowIdle(mwcFlow)
+
+            And("A datapath flow dump older than the idle tolerance reports " +
+                "the flow as not recently used")
+            val dumpStart = System.currentTimeMillis() -
+                            2 * flowController.midolmanConfig
+                                .getIdleFlowToleranceInterval
+            dumpFlow(flow, dumpStart, lastUsed = dumpStart - flowTimeout)
+
+            Then("The flow is not expired before the kernel is queried")
+            testFlowExists(flow, mwcFlow, state)
+        }
+
         scenario("Check hard expired flows are removed from the flow " +
                  "controller") {
             Given("A wildcard flow")
@@ -318,12 +366,22 @@ class FlowControllerTest extends MidolmanSpec {
         flow.isFlowRemoved should be (false)
     }
 
+    private def dumpFlow(flow: TestableFlow, dumpStart: Long,
+                         lastUsed: Long): Unit = {
+        val flows = new ArrayList[Flow]()
+        flows.add(new Flow(flow.flowMatch).setLastUsedTime(lastUsed))
+        FlowController ! FlowController.FlowStatsDumpChunk_(flows, dumpStart)
+        FlowController ! FlowController.FlowStatsDumped_(dumpStart)
+    }
+
     private def expireFlowHard(mwcFlow: ManagedFlow) {
         mwcFlow.setCreationTimeMillis(System.currentTimeMillis() - flowTimeout)
+        flowController.flowManager.updateExpiration(mwcFlow)
     }
 
     private def expireFlowIdle(mwcFlow: ManagedFlow) {
         mwcFlow.setLastUsedTimeMillis(System.currentTimeMillis() - flowTimeout)
+        flowController.flowManager.updateExpiration(mwcFlow)
     }
 
     sealed abstract class TestableFlowType
@@ -158,7 +158,8 @@ class FlowTracingTest extends MidolmanSpec {
                       postQueue: Queue[Boolean],
                       override val simulationExpireMillis: Long)
             extends DeduplicationActor(injector.getInstance(classOf[MidolmanConfig]),
-                                       cookieGen, dpChannel, clusterDataClient,
+                                       cookieGen, dpChannel,
+                                       newDhcpAssignments(clusterDataClient),
                                        new ShardedFlowStateTable[ConnTrackKey, ConnTrackValue](),
                                        new ShardedFlowStateTable[NatKey, NatBinding](),
                                        new MockStateStorage(),
@@ -25,7 +25,6 @@ import akka.actor._
 import akka.testkit._
 import org.apache.commons.configuration.HierarchicalConfiguration
 
-import datapath.DatapathChannel
 import org.slf4j.helpers.NOPLogger
 import com.typesafe.scalalogging.Logger
 
@@ -36,6 +35,7 @@ import org.scalatest.junit.JUnitRunner
 import org.midonet.config.ConfigProvider
 import org.midonet.midolman.UnderlayResolver.Route
 import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.datapath.DatapathChannel
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.midolman.state.ConnTrackState.{ConnTrackValue, ConnTrackKey}
 import org.midonet.midolman.state.NatState.{NatKey, NatBinding}
@@ -51,6 +51,7 @@ import org.midonet.util.functors.Callback0
 
 object PacketWorkflowTest {
     case object ExecPacket
+    case object ExecStatePacket
     case object FlowCreated
     case object TranslateActions
 
@@ -64,14 +65,17 @@ object PacketWorkflowTest {
     val conntrackTable = new MockFlowStateTable[ConnTrackKey, ConnTrackValue]()
     val natTable = new MockFlowStateTable[NatKey, NatBinding]()
 
-    var statePushed = false
+    var stateAccumulated = false
+
+    val statePacket = new Packet(Ethernet.random, new FlowMatch())
 
     def forCookie(testKit: ActorRef, pkt: Packet, cookie: Int)
         (implicit system: ActorSystem): (PacketContext, PacketWorkflow) = {
         val dpChannel = new MockDatapathChannel() {
             override def executePacket(packet: Packet,
                                        actions: JList[FlowAction]): Unit = {
-                testKit ! ExecPacket
+                testKit ! (if (packet eq statePacket) ExecStatePacket
+                           else ExecPacket)
                 Future.successful(true)
             }
         }
@@ -90,16 +94,24 @@ object PacketWorkflowTest {
             override def isVtepTunnellingPort(portNumber: Integer): Boolean = ???
             override def isOverlayTunnellingPort(portNumber: Integer): Boolean = ???
         }, null, 0) {
-            override def pushState(dpChannel: DatapathChannel): Unit = {
-                 statePushed = true
-            }
-
             override def accumulateNewKeys(
                           conntrackTx: FlowStateTransaction[ConnTrackKey, ConnTrackValue],
                           natTx: FlowStateTransaction[NatKey, NatBinding],
                           ingressPort: UUID, egressPorts: JList[UUID],
                           tags: JHashSet[FlowTag],
-                          callbacks: ArrayList[Callback0]): Unit = { }
+                          callbacks: ArrayList[Callback0]): Unit = {
+                stateAccumulated = true
+                pendingState = true
+            }
+
+            var pendingState = false
+
+            override def flushState(dpChannel: DatapathChannel): Unit =
+                if (pendingState) {
+                    dpChannel.executePacket(statePacket,
+                                            java.util.Arrays.asList(output))
+                    pendingState = false
+                }
         }
         val wf = new PacketWorkflow(dpState, null, null, dpChannel,
                                     replicator, config) {
@@ -164,7 +176,7 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, checkTranslate, checkExecPacket)
 
             And("state is not pushed")
-            statePushed should be (false)
+            stateAccumulated should be (false)
         }
 
         scenario("A Simulation returns NoOp") {
@@ -178,7 +190,7 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, checkEmptyActions _)
 
             And("state is not pushed")
-            statePushed should be (false)
+            stateAccumulated should be (false)
         }
 
         scenario("A Simulation returns Drop for userspace only match") {
@@ -192,7 +204,7 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, applyEmptyActions)
 
             And("state is not pushed")
-            statePushed should be (false)
+            stateAccumulated should be (false)
         }
 
         scenario("A Simulation returns Drop") {
@@ -208,7 +220,7 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, applyEmptyActions)
 
             And("state is not pushed")
-            statePushed should be (false)
+            stateAccumulated should be (false)
         }
 
         scenario("A Simulation returns TemporaryDrop for userspace only match") {
@@ -224,7 +236,7 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, applyEmptyActions)
 
             And("state is not pushed")
-            statePushed should be (false)
+            stateAccumulated should be (false)
         }
 
         scenario("A Simulation returns TemporaryDrop") {
@@ -240,7 +252,7 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, applyEmptyActions)
 
             And("state is not pushed")
-            statePushed should be (false)
+            stateAccumulated should be (false)
         }
 
         scenario("A Simulation returns AddVirtualWildcardFlow " +
@@ -261,7 +273,7 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, checkTranslate _)
 
             And("state is pushed")
-            statePushed should be (true)
+            stateAccumulated should be (true)
         }
 
         scenario("A Simulation returns AddVirtualWildcardFlow") {
@@ -279,7 +291,18 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
             runChecks(pktCtx, pkfw, checkTranslate _ :: applyOutputActions)
 
             And("state is pushed")
-            statePushed should be (true)
+            stateAccumulated should be (true)
+        }
+
+        scenario("The state is sent ahead of the packet") {
+            Given("a PkWf object")
+            val (pktCtx, pkfw) = PacketWorkflowTest.forCookie(self, packet(false), cookie)
+
+            When("the simulation layer returns AddVirtualWildcardFlow")
+            pkfw.processSimulationResult(pktCtx, AddVirtualWildcardFlow)
+
+            Then("the state packet is executed before the current packet")
+            runChecks(pktCtx, pkfw, checkTranslate _, checkStateFirst _)
         }
 
     }
@@ -328,6 +351,12 @@ class PacketWorkflowTest extends TestKit(ActorSystem("PacketWorkflowTest"))
     def checkExecPacket(msgs: Seq[Any], as: JList[FlowAction]): Unit =
         msgs should contain(ExecPacket)
 
+    def checkStateFirst(msgs: Seq[Any], as: JList[FlowAction]): Unit = {
+        msgs should contain (ExecStatePacket)
+        msgs should contain (ExecPacket)
+        msgs.indexOf(ExecStatePacket) should be < msgs.indexOf(ExecPacket)
+    }
+
     def checkEmptyActions(msgs: Seq[Any], as: JList[FlowAction]): Unit =
         as should be (empty)
 
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman
+
+import scala.collection.JavaConversions._
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import akka.pattern.ask
+import akka.util.Timeout
+import org.apache.commons.configuration.HierarchicalConfiguration
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.{Router => ClusterRouter}
+import org.midonet.cluster.data.ports.RouterPort
+import org.midonet.midolman.FlowController.InvalidateFlowsByTag
+import org.midonet.midolman.PacketWorkflow.Drop
+import org.midonet.midolman.layer3.Route._
+import org.midonet.midolman.simulation.{Router => SimRouter}
+import org.midonet.midolman.topology.VirtualTopologyActor
+import org.midonet.midolman.topology.VirtualTopologyActor.RouterRequest
+import org.midonet.midolman.util.{MidolmanSpec, TestHelpers}
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4Addr, MAC}
+import org.midonet.sdn.flows.FlowTagger
+
+@RunWith(classOf[JUnitRunner])
+class RouteUpdateWindowTest extends MidolmanSpec {
+
+    registerActors(VirtualTopologyActor -> (() => new VirtualTopologyActor))
+
+    implicit val timeout: Timeout = 3 seconds
+
+    var router: ClusterRouter = null
+    var inPort: RouterPort = null
+    var outPort: RouterPort = null
+    var simRouter: SimRouter = null
+
+    val macInPort = "02:11:22:33:44:10"
+    val macOutPort = "02:11:22:33:46:10"
+    val ipInPort = "10.10.0.1"
+    val ipOutPort = "11.11.0.10"
+    val ipSource = "20.20.0.20"
+    val macSource = "02:11:22:33:44:11"
+    val ipVm = "11.11.1.2"
+    val macVm = "02:11:22:33:55:02"
+
+    override protected def fillConfig(config: HierarchicalConfiguration)
+            : HierarchicalConfiguration = {
+        config.setProperty("router.route_update_window_millis", 1000)
+        super.fillConfig(config)
+    }
+
+    override def beforeTest(): Unit = {
+        router = newRouter("router")
+        inPort = newRouterPort(router, MAC.fromString(macInPort),
+                               ipInPort, ipInPort, 32)
+        outPort = newRouterPort(router, MAC.fromString(macOutPort),
+                                ipOutPort, "11.11.0.0", 16)
+        materializePort(inPort, hostId, "inport")
+        materializePort(outPort, hostId, "outport")
+        newRoute(router, ipSource, 32, "11.11.0.0", 16, NextHop.PORT,
+                 outPort.getId, new IPv4Addr(NO_GATEWAY).toString, 2)
+
+        val request = VirtualTopologyActor ? RouterRequest(router.getId)
+        scheduler.runAll()
+        simRouter = Await.result(request, timeout.duration)
+                         .asInstanceOf[SimRouter]
+        fetchTopology(inPort, outPort)
+    }
+
+    private def routesToVm(router: SimRouter): Seq[Int] = {
+        val wmatch = new FlowMatch()
+            .setNetworkSrc(IPv4Addr.fromString(ipSource))
+            .setNetworkDst(IPv4Addr.fromString(ipVm))
+        router.rTable.lookup(wmatch).map(_.dstNetworkLength)
+    }
+
+    feature("Route changes are published after the update window") {
+        scenario("Flows are invalidated once the new table is published") {
+            Given("A flow to a VM behind the router")
+            feedArpTable(simRouter, IPv4Addr.fromString(ipVm),
+                         MAC.fromString(macVm))
+            val eth = TestHelpers.createUdpPacket(macSource, ipSource,
+                                                  macInPort, ipVm)
+            simulate(packetContextFor(eth, inPort.getId))._1 should not be Drop
+            FlowController.getAndClear()
+
+            When("A more specific route to the VM is added")
+            newRoute(router, ipSource, 32, "11.11.1.0", 24, NextHop.PORT,
+                     outPort.getId, new IPv4Addr(NO_GATEWAY).toString, 2)
+
+            Then("The flow is not invalidated while the update is pending")
+            FlowController.getAndClear() shouldBe empty
+            routesToVm(fetchDevice[SimRouter](router)) should not contain 24
+
+            When("The update window elapses")
+            scheduler.runAll()
+
+            Then("The router with the new route is published")
+            routesToVm(fetchDevice[SimRouter](router)) should contain (24)
+
+            And("The flow is invalidated")
+            FlowController.getAndClear() should contain (
+                InvalidateFlowsByTag(FlowTagger.tagForDestinationIp(
+                    router.getId, IPv4Addr.fromString(ipVm))))
+        }
+    }
+}
@@ -95,6 +95,52 @@ class DatapathChannelTest extends MidolmanSpec {
             new Ethernet().deserialize(bb) should be (packet.getEthernet)
         }
 
+        scenario ("Sends the bytes received from the datapath") {
+            // The trailing padding is not part of the deserialized frame
+            val data = ethernet.serialize() ++ new Array[Byte](4)
+            val received = new Packet(ethernet, packet.getMatch, data)
+            dpChannel.executePacket(received, actions)
+
+            eventually {
+                nlChannel.packetsWritten.get() should be (1)
+            }
+
+            packetAttribute(nlChannel.written.poll()) should be (data)
+        }
+
+        scenario ("Serializes the packets modified in place") {
+            val frame: Ethernet = { eth src MAC.random() dst MAC.random() } <<
+                                  { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+                                  payload(Array[Byte](0))
+            val received = new Packet(frame, FlowMatches.fromEthernetPacket(frame),
+                                      frame.serialize())
+            frame.setSourceMACAddress(MAC.random())
+            received.markModified()
+            dpChannel.executePacket(received, actions)
+
+            eventually {
+                nlChannel.packetsWritten.get() should be (1)
+            }
+
+            packetAttribute(nlChannel.written.poll()) should be (frame.serialize())
+        }
+
+        scenario ("Can execute jumbo frames") {
+            val frame: Ethernet = { eth src MAC.random() dst MAC.random() } <<
+                                  { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+                                  payload(new Array[Byte](9000))
+            val data = frame.serialize()
+            dpChannel.executePacket(
+                new Packet(frame, FlowMatches.fromEthernetPacket(frame), data),
+                actions)
+
+            eventually {
+                nlChannel.packetsWritten.get() should be (1)
+            }
+
+            packetAttribute(nlChannel.written.poll()) should be (data)
+        }
+
         scenario ("Can create flows") {
             dpChannel.createFlow(new Flow(packet.getMatch, actions))
 
@@ -113,6 +159,26 @@ class DatapathChannelTest extends MidolmanSpec {
                                      FlowActions.reader.deserializeFrom, actions)
         }
 
+        scenario ("Messages are tagged to identify their errors") {
+            dpChannel.executePacket(packet, actions)
+            dpChannel.executePacket(packet, actions)
+            dpChannel.createFlow(new Flow(packet.getMatch, actions))
+
+            eventually {
+                nlChannel.packetsWritten.get() should be (3)
+            }
+
+            // Packets and flows are written by different handlers
+            val seqs = Seq.fill(3)(
+                nlChannel.written.poll().getInt(NetlinkMessage.NLMSG_SEQ_OFFSET))
+            val packets = seqs.filter(_ >= 0).sorted
+            val flows = seqs.filter(_ < 0)
+            packets should have size 2
+            packets(1) should be (packets(0) + 1)
+            flows should have size 1
+            flows(0) & Int.MaxValue should be (packets(1) + 1)
+        }
+
         scenario ("Channel is bounded and thread spins when ring buffer is full") {
             var i = 0
             while (i < 10000) {
@@ -164,6 +230,16 @@ class DatapathChannelTest extends MidolmanSpec {
         new FlowMatch(keys)
     }
 
+    private def packetAttribute(bb: ByteBuffer): Array[Byte] = {
+        bb.position(NetlinkMessage.GENL_HEADER_SIZE + 4)
+        val pos = NetlinkMessage.seekAttribute(bb, OpenVSwitch.Packet.Attr.Packet)
+        val attrLen = bb.getShort(pos - 4)
+        val data = new Array[Byte](attrLen - 4)
+        bb.position(pos)
+        bb.get(data)
+        data
+    }
+
     private def attributeListShouldMatch[T](bb: ByteBuffer, key: Short,
                                             reader: ByteBuffer => T, expected: T) = {
         val attrLen = bb.getShort
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.monitoring
+
+import java.util.{ArrayList, Collections, UUID}
+import java.util.concurrent.ConcurrentHashMap
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import org.junit.runner.RunWith
+import org.scalatest.concurrent.Eventually._
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.time.{Seconds, Span}
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import org.midonet.midolman.io.DatapathConnectionPool
+import org.midonet.odp.flows.{FlowAction, FlowStats}
+import org.midonet.odp.protos.OvsDatapathConnection
+import org.midonet.odp.{Datapath, Flow, FlowMatch, FlowMatches}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{IPv4Addr, MAC}
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.MeterTag
+
+@RunWith(classOf[JUnitRunner])
+class FlowStatsCollectorTest extends FeatureSpec with Matchers
+                             with BeforeAndAfter {
+
+    val device = FlowTagger.tagForDevice(UUID.randomUUID()).asInstanceOf[MeterTag]
+    val datapath = new Datapath(1, "midonet")
+
+    var flowsTable: ConcurrentHashMap[FlowMatch, Flow] = _
+    var pool: DatapathConnectionPool = _
+    var registry: MeterRegistry = _
+    var collector: FlowStatsCollector = _
+
+    before {
+        flowsTable = new ConcurrentHashMap[FlowMatch, Flow]()
+        val conn = OvsDatapathConnection.createMock(flowsTable)
+        pool = new DatapathConnectionPool {
+            override def getAll = Collections.singletonList(conn).iterator()
+            override def get(hash: Int) = conn
+            override def start(): Unit = {}
+            override def stop(): Unit = {}
+        }
+        registry = new MeterRegistry(10)
+    }
+
+    after {
+        if (collector ne null)
+            collector.stop()
+    }
+
+    private def newMatch(): FlowMatch =
+        FlowMatches.fromEthernetPacket(
+            { eth addr MAC.random() -> MAC.random() } <<
+            { ip4 addr IPv4Addr.random --> IPv4Addr.random } <<
+            { udp ports 4500 ---> 500 })
+
+    private def installFlow(fmatch: FlowMatch, stats: FlowStats): Unit = {
+        // the kernel reports the match built from the flow keys
+        val kernelMatch = new FlowMatch(fmatch.getKeys)
+        flowsTable.put(kernelMatch,
+            new Flow(kernelMatch, new ArrayList[FlowAction](), stats))
+    }
+
+    feature("Flow stats collector") {
+        scenario("feeds the meters with the stats of the datapath flows") {
+            val fmatch = newMatch()
+            registry.trackFlow(fmatch, new ArrayList(List(device).asJava))
+            installFlow(fmatch, new FlowStats(10, 1000))
+
+            collector = new FlowStatsCollector(registry, datapath, pool,
+                                               50 millis, 1.0,
+                                               new MetricRegistry)
+            collector.start()
+
+            eventually (timeout(Span(5, Seconds))) {
+                registry.meters.get(device.meterName).packets should === (10)
+                registry.meters.get(device.meterName).bytes should === (1000)
+            }
+
+            installFlow(fmatch, new FlowStats(25, 2500))
+            eventually (timeout(Span(5, Seconds))) {
+                registry.meters.get(device.meterName).packets should === (25)
+                registry.meters.get(device.meterName).bytes should === (2500)
+            }
+        }
+
+        scenario("ignores the flows that are not tracked") {
+            val fmatch = newMatch()
+            registry.trackFlow(fmatch, new ArrayList(List(device).asJava))
+            installFlow(fmatch, new FlowStats(10, 1000))
+            installFlow(newMatch(), new FlowStats(99, 9900))
+
+            val metrics = new MetricRegistry
+            collector = new FlowStatsCollector(registry, datapath, pool,
+                                               50 millis, 1.0, metrics)
+            collector.start()
+
+            eventually (timeout(Span(5, Seconds))) {
+                metrics.getTimers.values.asScala.head.getCount should be > 1L
+            }
+            registry.meters.get(device.meterName).packets should === (10)
+            registry.meters.get(device.meterName).bytes should === (1000)
+        }
+
+        scenario("rejects an invalid CPU budget") {
+            intercept[IllegalArgumentException] {
+                new FlowStatsCollector(registry, datapath, pool, 50 millis,
+                                       0.0, new MetricRegistry)
+            }
+        }
+    }
+}
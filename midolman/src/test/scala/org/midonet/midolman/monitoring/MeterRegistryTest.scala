@@ -137,5 +137,39 @@ class MeterRegistryTest extends FeatureSpec with Matchers {
 
             }
         }
+
+        scenario("concurrent updates of flows sharing a meter") {
+            val registry = new MeterRegistry(10)
+            registry.trackFlow(matchA, tagsA)
+            registry.trackFlow(matchB, tagsB)
+
+            val threads = for (m <- List(matchA, matchB)) yield new Thread {
+                override def run(): Unit = {
+                    for (i <- 1 to 10000) {
+                        registry.updateFlow(m, new FlowStats(i, i * 100))
+                    }
+                }
+            }
+            threads foreach (_.start())
+            threads foreach (_.join())
+
+            registry.meters.get(commonDevice.meterName).packets should === (20000)
+            registry.meters.get(commonDevice.meterName).bytes should === (2000000)
+            registry.meters.get(deviceA.meterName).packets should === (10000)
+            registry.meters.get(deviceB.meterName).packets should === (10000)
+        }
+
+        scenario("updates are ignored after the flow is forgotten") {
+            val registry = new MeterRegistry(10)
+            registry.trackFlow(matchA, tagsA)
+            registry.updateFlow(matchA, new FlowStats(1, 100))
+            registry.forgetFlow(matchA)
+            registry.trackFlow(matchB, tagsB)
+            registry.updateFlow(matchA, new FlowStats(5, 500))
+            registry.trackedFlowCount should be (1)
+
+            registry.meters.get(deviceA.meterName).packets should === (1)
+            registry.meters.get(deviceB.meterName).packets should === (0)
+        }
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.routingprotocols
+
+import java.util.{Map => JMap, UUID}
+import java.util.concurrent.Executors
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import org.junit.runner.RunWith
+import org.mockito.Matchers.{any, anyString}
+import org.mockito.Mockito.{doAnswer, verify}
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest._
+import org.scalatest.concurrent.Eventually._
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.mock.MockitoSugar
+
+import org.midonet.cluster.DataClient
+import org.midonet.cluster.data.Route
+import org.midonet.midolman.state.{StateAccessException, ZkConnectionAwareWatcher}
+
+@RunWith(classOf[JUnitRunner])
+class RoutePublisherTest extends FeatureSpec
+                         with Matchers
+                         with OneInstancePerTest
+                         with MockitoSugar {
+
+    /* Records the routes created and deleted by each multi. */
+    val writes = mutable.ArrayBuffer[(Set[UUID], Set[UUID])]()
+    var failBatches = false
+
+    val dataClient = mock[DataClient]
+    val connWatcher = mock[ZkConnectionAwareWatcher]
+    val metrics = new MetricRegistry
+    val created = mutable.ArrayBuffer[Route]()
+
+    doAnswer(new Answer[Unit] {
+        override def answer(invocation: InvocationOnMock): Unit = {
+            val args = invocation.getArguments
+            val c = args(0).asInstanceOf[JMap[UUID, Route]].keySet.toSet
+            val d = args(1).asInstanceOf[JMap[UUID, Route]].keySet.toSet
+            if (failBatches && c.size + d.size > 1)
+                throw new StateAccessException("multi failed")
+            writes.synchronized { writes += ((c, d)) }
+        }
+    }).when(dataClient).routesUpdateEphemeral(any[JMap[UUID, Route]](),
+                                            any[JMap[UUID, Route]]())
+
+    def publisher(window: Duration) =
+        new RoutePublisher(dataClient,
+                           Executors.newSingleThreadScheduledExecutor(),
+                           window, connWatcher, metrics,
+                           route => created.synchronized { created += route })
+
+    def route() = {
+        val route = new Route()
+        route.setRouterId(UUID.randomUUID())
+        route
+    }
+
+    def lag = metrics.timer(
+        MetricRegistry.name(classOf[RoutePublisher], "publicationLag"))
+
+    feature ("RoutePublisher publishes routes in batches") {
+        scenario ("Routes changed within the window are written together") {
+            val pub = publisher(100 millis)
+            val ids = Seq.fill(3)(UUID.randomUUID())
+            ids foreach { pub.add(_, route()) }
+
+            eventually {
+                created.synchronized { created should have size 3 }
+            }
+            writes should be (Seq((ids.toSet, Set.empty[UUID])))
+            lag.getCount should be (3)
+
+            pub.remove(ids.head, route())
+            pub.stop()
+            writes should have size 2
+            writes.last should be ((Set.empty[UUID], Set(ids.head)))
+            lag.getCount should be (4)
+        }
+
+        scenario ("Batches are bounded") {
+            val pub = publisher(1 hour)
+            val ids = Seq.fill(RoutePublisher.MaxBatchSize + 10)(
+                UUID.randomUUID())
+            ids foreach { pub.add(_, route()) }
+            pub.stop()
+
+            writes should have size 2
+            writes(0)._1 should have size RoutePublisher.MaxBatchSize
+            writes(1)._1 should have size 10
+            (writes(0)._1 ++ writes(1)._1) should be (ids.toSet)
+        }
+
+        scenario ("The addition and removal of a route cancel each other") {
+            val pub = publisher(1 hour)
+            val id1 = UUID.randomUUID()
+            val id2 = UUID.randomUUID()
+            pub.add(id1, route())
+            pub.add(id2, route())
+            pub.remove(id1, route())
+            pub.stop()
+
+            writes should be (Seq((Set(id2), Set.empty[UUID])))
+            created should have size 1
+            lag.getCount should be (1)
+        }
+
+        scenario ("Changes after stopping are published right away") {
+            val pub = publisher(1 hour)
+            pub.stop()
+            val id = UUID.randomUUID()
+            pub.add(id, route())
+            writes should be (Seq((Set(id), Set.empty[UUID])))
+        }
+
+        scenario ("Routes of a failed batch are written one by one") {
+            failBatches = true
+            val pub = publisher(1 hour)
+            val removed = UUID.randomUUID()
+            pub.remove(removed, route())
+            val ids = Seq.fill(3)(UUID.randomUUID())
+            ids foreach { pub.add(_, route()) }
+            pub.stop()
+
+            writes should have size 4
+            writes.head should be ((Set.empty[UUID], Set(removed)))
+            writes.tail.map(_._1).reduce(_ ++ _) should be (ids.toSet)
+            created should have size 3
+            lag.getCount should be (4)
+        }
+
+        scenario ("Routes that can't be written are retried by the watcher") {
+            val pub = publisher(1 hour)
+            doAnswer(new Answer[Unit] {
+                override def answer(invocation: InvocationOnMock): Unit =
+                    throw new StateAccessException("write failed")
+            }).when(dataClient).routesUpdateEphemeral(
+                any[JMap[UUID, Route]](), any[JMap[UUID, Route]]())
+
+            pub.add(UUID.randomUUID(), route())
+            pub.stop()
+
+            verify(connWatcher).handleError(anyString(), any(classOf[Runnable]),
+                                            any(classOf[StateAccessException]))
+            created should be ('empty)
+        }
+    }
+}
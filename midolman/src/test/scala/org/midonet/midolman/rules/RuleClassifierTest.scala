@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.rules
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.simulation.{Chain, PacketContext}
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4, IPv4Addr, IPv4Subnet}
+import org.midonet.util.Range
+
+@RunWith(classOf[JUnitRunner])
+class RuleClassifierTest extends FeatureSpec
+                         with GivenWhenThen
+                         with Matchers {
+
+    val random = new Random(1234)
+    val ports = Array.fill(3)(UUID.randomUUID())
+    val protos = Array[Byte](6, 17)
+    val ownerId = UUID.randomUUID()
+
+    def randomSubnet() =
+        new IPv4Subnet(IPv4Addr.fromString(s"10.0.${random.nextInt(4)}.0"),
+                       16 + 8 * random.nextInt(2))
+
+    def randomCondition(): Condition = {
+        val cond = new Condition()
+        cond.conjunctionInv = random.nextInt(20) == 0
+        if (random.nextBoolean()) {
+            cond.nwProto = protos(random.nextInt(protos.length))
+            cond.nwProtoInv = random.nextInt(5) == 0
+        }
+        if (random.nextBoolean()) {
+            val start = random.nextInt(10)
+            cond.tpDst = new Range[Integer](start, start + random.nextInt(3))
+            cond.tpDstInv = random.nextInt(5) == 0
+        }
+        if (random.nextBoolean()) {
+            cond.nwSrcIp = randomSubnet()
+            cond.nwSrcInv = random.nextInt(5) == 0
+        }
+        if (random.nextBoolean()) {
+            cond.nwDstIp = randomSubnet()
+            cond.nwDstInv = random.nextInt(5) == 0
+        }
+        if (random.nextInt(3) == 0) {
+            cond.inPortIds = Set(ports(random.nextInt(ports.length))).asJava
+            cond.inPortInv = random.nextInt(5) == 0
+        }
+        cond
+    }
+
+    def randomChain(size: Int): Chain = {
+        val chainId = UUID.randomUUID()
+        val rules = (0 until size) map { i =>
+            val action = if (random.nextBoolean()) Action.ACCEPT else Action.DROP
+            val rule: Rule = new LiteralRule(randomCondition(), action)
+            rule.chainId = chainId
+            rule.setMeterName(s"rule-$i")
+            rule
+        }
+        new Chain(chainId, rules.asJava, Map.empty[UUID, Chain],
+                  s"Chain-$chainId")
+    }
+
+    def randomMatch(): FlowMatch =
+        new FlowMatch()
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString(
+                s"10.0.${random.nextInt(5)}.${random.nextInt(3)}"))
+            .setNetworkDst(IPv4Addr.fromString(
+                s"10.0.${random.nextInt(5)}.${random.nextInt(3)}"))
+            .setNetworkProto(protos(random.nextInt(protos.length)))
+            .setSrcPort(random.nextInt(12))
+            .setDstPort(random.nextInt(12))
+
+    def newContext(fmatch: FlowMatch, inPort: UUID, seeAll: Boolean) = {
+        val context = new PacketContext(1, null, fmatch)
+        context.inPortId = inPort
+        if (seeAll) {
+            val wcmatch = context.wcmatch
+            wcmatch.getIpFragmentType
+            wcmatch.getNetworkSrcIP
+            wcmatch.getNetworkDstIP
+            wcmatch.getEtherType
+            wcmatch.getEthSrc
+            wcmatch.getEthDst
+            wcmatch.getNetworkTOS
+            wcmatch.getNetworkProto
+            wcmatch.getSrcPort
+            wcmatch.getDstPort
+        }
+        context
+    }
+
+    def applyLinearly(chain: Chain, context: PacketContext,
+                      isPortFilter: Boolean): Action = {
+        context.addFlowTag(chain.flowInvTag)
+        val res = new RuleResult(Action.CONTINUE, null)
+        val rules = chain.getRules.iterator()
+        while (rules.hasNext && res.action == Action.CONTINUE) {
+            rules.next().process(context, res, ownerId, isPortFilter)
+        }
+        if (res.action.isDecisive) res.action else Action.ACCEPT
+    }
+
+    def checkChain(chain: Chain, seeAll: Boolean, isPortFilter: Boolean) {
+        for (i <- 0 until 500) {
+            val fmatch = randomMatch()
+            val inPort =
+                if (random.nextInt(4) == 0) null
+                else ports(random.nextInt(ports.length))
+            val expected = newContext(fmatch, inPort, seeAll)
+            val actual = newContext(fmatch, inPort, seeAll)
+
+            val action = applyLinearly(chain, expected, isPortFilter)
+            Chain.apply(chain, actual, ownerId, isPortFilter).action should be (action)
+            actual.flowTags.asScala should be (expected.flowTags.asScala)
+            actual.wcmatch.getSeenFields should be (expected.wcmatch.getSeenFields)
+        }
+    }
+
+    feature("The classifier selects the rules that may match a packet") {
+        scenario("Chains too small to be classified") {
+            val rules = (0 until RuleClassifier.MIN_RULES - 1) map { _ =>
+                new LiteralRule(randomCondition(), Action.ACCEPT): Rule
+            }
+            RuleClassifier.build(rules.asJava) should be (null)
+        }
+
+        scenario("Chains without indexable conditions") {
+            val rules = (0 until 100) map { _ =>
+                new LiteralRule(Condition.TRUE, Action.ACCEPT): Rule
+            }
+            RuleClassifier.build(rules.asJava) should be (null)
+        }
+
+        scenario("Candidates never exclude a matching rule") {
+            Given("A classifier over random rules")
+            val rules = (0 until 200) map { _ =>
+                new LiteralRule(randomCondition(), Action.ACCEPT): Rule
+            }
+            val classifier = RuleClassifier.build(rules.asJava)
+            classifier should not be null
+
+            When("Computing the candidates for random packets")
+            Then("All the rules matching each packet are candidates")
+            for (i <- 0 until 500) {
+                val context = newContext(randomMatch(),
+                                         ports(random.nextInt(ports.length)),
+                                         seeAll = true)
+                classifier.canClassify(context.wcmatch) should be (true)
+                val candidates = classifier.candidates(context, false)
+                rules.zipWithIndex foreach { case (rule, index) =>
+                    if (rule.getCondition.matches(context, false)) {
+                        RuleClassifier.nextCandidate(candidates, index) should be (index)
+                    }
+                }
+            }
+        }
+    }
+
+    feature("Classified chains give the same results as linear evaluation") {
+        scenario("Packets whose fields were all seen") {
+            for (size <- List(10, 100, 1000)) {
+                checkChain(randomChain(size), seeAll = true, isPortFilter = false)
+            }
+        }
+
+        scenario("Packets whose fields were not seen yet") {
+            for (size <- List(10, 100, 1000)) {
+                checkChain(randomChain(size), seeAll = false, isPortFilter = false)
+            }
+        }
+
+        scenario("Packets in a port filter") {
+            checkChain(randomChain(100), seeAll = true, isPortFilter = true)
+        }
+    }
+}
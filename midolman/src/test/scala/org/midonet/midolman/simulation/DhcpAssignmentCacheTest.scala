@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import scala.concurrent.ExecutionContext
+
+import org.junit.runner.RunWith
+import org.mockito.Matchers.{any, eq => mockEq}
+import org.mockito.Mockito.{spy, times, verify}
+import org.scalatest.concurrent.Eventually._
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.DataClient
+import org.midonet.cluster.data.Bridge
+import org.midonet.cluster.data.dhcp.{Host, Subnet}
+import org.midonet.midolman.NotYetException
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
+
+@RunWith(classOf[JUnitRunner])
+class DhcpAssignmentCacheTest extends MidolmanSpec {
+
+    /* Runs the loads of the cache when the test decides to. */
+    val pending = new ConcurrentLinkedQueue[Runnable]()
+    val executor = new ExecutionContext {
+        override def execute(runnable: Runnable): Unit = pending.add(runnable)
+        override def reportFailure(t: Throwable): Unit = { }
+    }
+
+    def runPending(): Unit =
+        while (!pending.isEmpty)
+            pending.poll().run()
+
+    var bridge: Bridge = _
+    var subnet: Subnet = _
+    var dataClient: DataClient = _
+    var cache: DhcpAssignmentCache = _
+
+    val mac1 = MAC.random()
+    val mac2 = MAC.random()
+
+    override def beforeTest(): Unit = {
+        bridge = newBridge("bridge")
+        subnet = newSubnet("10.0.0.0/24", "10.0.0.1")
+        addDhcpSubnet(bridge, subnet)
+        addDhcpHost(bridge, subnet, newHost(mac1, "10.0.0.10"))
+        dataClient = spy(clusterDataClient)
+        cache = new DhcpAssignmentCache(dataClient, executor)
+    }
+
+    def newSubnet(cidr: String, gateway: String): Subnet =
+        new Subnet()
+            .setSubnetAddr(IPv4Subnet.fromCidr(cidr))
+            .setDefaultGateway(IPv4Addr.fromString(gateway))
+            .setServerAddr(IPv4Addr.fromString(gateway))
+
+    def newHost(mac: MAC, ip: String): Host =
+        new Host().setMAC(mac).setIp(IPv4Addr.fromString(ip))
+
+    feature("DHCP assignment cache") {
+        scenario("The first request for a bridge is postponed") {
+            val e = intercept[NotYetException] {
+                cache.get(bridge.getId, mac1)
+            }
+            e.waitFor.isCompleted shouldBe false
+
+            When("The assignments are loaded")
+            runPending()
+
+            Then("The request can be answered")
+            e.waitFor.isCompleted shouldBe true
+            val (host, sub) = cache.get(bridge.getId, mac1).get
+            host.getIp shouldBe IPv4Addr.fromString("10.0.0.10")
+            sub.getSubnetAddr shouldBe subnet.getSubnetAddr
+            cache.get(bridge.getId, mac2) shouldBe None
+        }
+
+        scenario("Changes are applied without blocking the readers") {
+            intercept[NotYetException] { cache.get(bridge.getId, mac1) }
+            runPending()
+
+            When("A host is added")
+            addDhcpHost(bridge, subnet, newHost(mac2, "10.0.0.20"))
+
+            Then("The previous assignments are served until the reload")
+            cache.get(bridge.getId, mac2) shouldBe None
+
+            And("The new host is assigned once they are reloaded")
+            eventually {
+                runPending()
+                cache.get(bridge.getId, mac2).get._1.getIp shouldBe
+                    IPv4Addr.fromString("10.0.0.20")
+            }
+
+            When("A host is updated")
+            updatedhcpHost(bridge, subnet, newHost(mac1, "10.0.0.11"))
+
+            Then("The host has the new address once they are reloaded")
+            eventually {
+                runPending()
+                cache.get(bridge.getId, mac1).get._1.getIp shouldBe
+                    IPv4Addr.fromString("10.0.0.11")
+            }
+        }
+
+        scenario("Subnets that are not ready to reply are ignored") {
+            val notReady = new Subnet()
+                .setSubnetAddr(IPv4Subnet.fromCidr("10.0.1.0/24"))
+            addDhcpSubnet(bridge, notReady)
+            addDhcpHost(bridge, notReady, newHost(mac2, "10.0.1.20"))
+            val other = newSubnet("10.0.2.0/24", "10.0.2.1")
+            addDhcpSubnet(bridge, other)
+            addDhcpHost(bridge, other, newHost(mac2, "10.0.2.20"))
+
+            intercept[NotYetException] { cache.get(bridge.getId, mac2) }
+            runPending()
+
+            val (host, sub) = cache.get(bridge.getId, mac2).get
+            host.getIp shouldBe IPv4Addr.fromString("10.0.2.20")
+            sub.getSubnetAddr shouldBe other.getSubnetAddr
+        }
+
+        scenario("Only the nodes that changed are read again") {
+            intercept[NotYetException] { cache.get(bridge.getId, mac1) }
+            runPending()
+
+            When("A host is added and another one is updated")
+            addDhcpHost(bridge, subnet, newHost(mac2, "10.0.0.20"))
+            eventually {
+                runPending()
+                cache.get(bridge.getId, mac2) should not be None
+            }
+            updatedhcpHost(bridge, subnet, newHost(mac2, "10.0.0.21"))
+            eventually {
+                runPending()
+                cache.get(bridge.getId, mac2).get._1.getIp shouldBe
+                    IPv4Addr.fromString("10.0.0.21")
+            }
+
+            Then("The subnet and the unchanged host were read only once")
+            verify(dataClient, times(1)).dhcpSubnetAddrsGetByBridge(
+                mockEq(bridge.getId), any(classOf[Runnable]))
+            verify(dataClient, times(1)).dhcpSubnetsGet(
+                mockEq(bridge.getId), mockEq(subnet.getSubnetAddr),
+                any(classOf[Runnable]))
+            verify(dataClient, times(1)).dhcpHostsGet(
+                mockEq(bridge.getId), mockEq(subnet.getSubnetAddr),
+                mockEq(mac1.toString), any(classOf[Runnable]))
+            verify(dataClient, times(2)).dhcpHostsGet(
+                mockEq(bridge.getId), mockEq(subnet.getSubnetAddr),
+                mockEq(mac2.toString), any(classOf[Runnable]))
+        }
+
+        scenario("Deleted hosts and subnets are unassigned") {
+            val other = newSubnet("10.0.1.0/24", "10.0.1.1")
+            addDhcpSubnet(bridge, other)
+            addDhcpHost(bridge, other, newHost(mac2, "10.0.1.20"))
+            intercept[NotYetException] { cache.get(bridge.getId, mac1) }
+            runPending()
+            cache.get(bridge.getId, mac2) should not be None
+
+            When("A host is deleted")
+            clusterDataClient.dhcpHostsDelete(bridge.getId,
+                                              subnet.getSubnetAddr,
+                                              mac1.toString)
+
+            Then("Its MAC is no longer assigned")
+            eventually {
+                runPending()
+                cache.get(bridge.getId, mac1) shouldBe None
+            }
+
+            When("A subnet is deleted")
+            clusterDataClient.dhcpSubnetsDelete(bridge.getId,
+                                                other.getSubnetAddr)
+
+            Then("The MACs of its hosts are no longer assigned")
+            eventually {
+                runPending()
+                cache.get(bridge.getId, mac2) shouldBe None
+            }
+        }
+
+        scenario("Bridges that are not queried are evicted") {
+            intercept[NotYetException] { cache.get(bridge.getId, mac1) }
+            runPending()
+
+            When("The bridge is queried between two evictions")
+            cache.evictIdle()
+            cache.get(bridge.getId, mac1) should not be None
+            cache.evictIdle()
+
+            Then("The bridge is kept")
+            cache.get(bridge.getId, mac1) should not be None
+
+            When("The bridge is not queried between two evictions")
+            cache.evictIdle()
+            cache.evictIdle()
+
+            Then("The bridge is loaded again")
+            intercept[NotYetException] { cache.get(bridge.getId, mac1) }
+            runPending()
+            cache.get(bridge.getId, mac1) should not be None
+        }
+    }
+}
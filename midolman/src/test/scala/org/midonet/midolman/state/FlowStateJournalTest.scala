@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.io.File
+import java.nio.file.Files
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest._
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
+import org.midonet.midolman.state.NatState.{NatBinding, NatKey}
+import org.midonet.packets.{IPv4Addr, IPv6Addr}
+
+@RunWith(classOf[JUnitRunner])
+class FlowStateJournalTest extends FeatureSpec
+                           with BeforeAndAfter
+                           with ShouldMatchers
+                           with OneInstancePerTest {
+
+    implicit def stringToIp(str: String): IPv4Addr = IPv4Addr.fromString(str)
+
+    var now = 1000000L
+    val dir = Files.createTempDirectory("flow-state-journal").toFile
+
+    val port1 = UUID.randomUUID()
+    val port2 = UUID.randomUUID()
+
+    val connTrackKey = ConnTrackKey("10.0.0.1", 1234, "10.0.0.2", 22, 6,
+                                    UUID.randomUUID())
+    val connTrackKey6 = ConnTrackKey(IPv6Addr.fromString("fe80::1"), 1234,
+                                     IPv6Addr.fromString("fe80::2"), 80, 17,
+                                     UUID.randomUUID())
+    val natKey = NatKey(NatState.FWD_SNAT, "192.168.10.1", 10001,
+                        "17.16.15.1", 80, 6, UUID.randomUUID())
+    val natBinding = NatBinding("1.2.3.4", 54321)
+    val stickyKey = NatKey(NatState.FWD_STICKY_DNAT, "192.168.10.2", 10002,
+                           "17.16.15.2", 443, 6, UUID.randomUUID())
+
+    after {
+        dir.listFiles() foreach (_.delete())
+        dir.delete()
+    }
+
+    def journal(segmentSize: Int = FlowStateJournal.SEGMENT_SIZE) =
+        new FlowStateJournal(dir, segmentSize, () => now)
+
+    def segments = dir.listFiles().length
+
+    feature("The journal stores the flow state of local ports") {
+        scenario("Keys are replayed for their ports") {
+            val j = journal()
+            val writer = j.newWriter()
+            writer.appendConnTrack(connTrackKey, port1, strong = true)
+            writer.appendConnTrack(connTrackKey6, port1, strong = false)
+            writer.appendNat(natKey, natBinding, port1, strong = true)
+            writer.appendNat(natKey, natBinding, port2, strong = false)
+
+            val batch = j.replay(Set(port1).asJava)
+            batch.strongConnTrack.asScala should be (Set(connTrackKey))
+            batch.weakConnTrack.asScala should be (Set(connTrackKey6))
+            batch.strongNat.asScala should be (Map(natKey -> natBinding))
+            batch.weakNat should be ('empty)
+
+            j.replay(Set(port2).asJava).weakNat.asScala should be (
+                Map(natKey -> natBinding))
+        }
+
+        scenario("Expired keys are not replayed") {
+            val j = journal()
+            val writer = j.newWriter()
+            writer.appendConnTrack(connTrackKey, port1, strong = true)
+            writer.appendNat(stickyKey, natBinding, port1, strong = true)
+
+            now += connTrackKey.expiresAfter.toMillis
+            val batch = j.replay(Set(port1).asJava)
+            batch.strongConnTrack should be ('empty)
+            batch.strongNat.asScala should be (Map(stickyKey -> natBinding))
+        }
+
+        scenario("Keys are recovered after a restart") {
+            val writer = journal().newWriter()
+            writer.appendConnTrack(connTrackKey, port1, strong = true)
+            writer.appendNat(natKey, natBinding, port1, strong = true)
+
+            val restarted = journal()
+            val batch = restarted.replay(Set(port1).asJava)
+            batch.strongConnTrack.asScala should be (Set(connTrackKey))
+            batch.strongNat.asScala should be (Map(natKey -> natBinding))
+
+            And("New segments don't overwrite the previous ones")
+            restarted.newWriter().appendConnTrack(connTrackKey6, port1,
+                                                  strong = true)
+            segments should be (2)
+            restarted.replay(Set(port1).asJava).strongConnTrack.asScala should be (
+                Set(connTrackKey, connTrackKey6))
+        }
+
+        scenario("Writers append to new segments when they are full") {
+            val j = journal(segmentSize = 1024)
+            val writer = j.newWriter()
+            val keys = (0 until 100) map { i =>
+                ConnTrackKey("10.0.0.1", i, "10.0.0.2", 22, 6, UUID.randomUUID())
+            }
+            keys foreach { writer.appendConnTrack(_, port1, strong = true) }
+
+            segments should be > 1
+            j.replay(Set(port1).asJava).strongConnTrack.asScala should be (
+                keys.toSet)
+        }
+    }
+
+    feature("The journal is compacted") {
+        scenario("Segments are deleted and their live keys copied forward") {
+            val j = journal(segmentSize = 1024)
+            val writer = j.newWriter()
+            writer.appendNat(stickyKey, natBinding, port1, strong = true)
+            val keys = (0 until 100) map { i =>
+                ConnTrackKey("10.0.0.1", i, "10.0.0.2", 22, 6, UUID.randomUUID())
+            }
+            keys foreach { writer.appendConnTrack(_, port1, strong = true) }
+            val before = segments
+
+            When("The segments are not due for compaction")
+            writer.maintain()
+            segments should be (before)
+
+            When("The default expiration has elapsed")
+            now += FlowStateJournal.COMPACTION_DELAY
+            writer.maintain()
+
+            Then("The sealed segments are deleted")
+            segments should be < before
+
+            And("The keys that haven't expired are kept")
+            val batch = j.replay(Set(port1).asJava)
+            batch.strongConnTrack should be ('empty)
+            batch.strongNat.asScala should be (Map(stickyKey -> natBinding))
+        }
+
+        scenario("The segments of a previous run are adopted") {
+            val writer = journal().newWriter()
+            writer.appendConnTrack(connTrackKey, port1, strong = true)
+            writer.appendNat(stickyKey, natBinding, port1, strong = true)
+
+            val restarted = journal()
+            val first = restarted.newWriter()
+            val second = restarted.newWriter()
+            first.appendConnTrack(connTrackKey6, port2, strong = true)
+            second.appendConnTrack(connTrackKey6, port2, strong = false)
+            segments should be (3)
+
+            now += FlowStateJournal.COMPACTION_DELAY
+            second.maintain()
+            segments should be (3)
+            first.maintain()
+            segments should be (2)
+
+            val batch = restarted.replay(Set(port1).asJava)
+            batch.strongConnTrack should be ('empty)
+            batch.strongNat.asScala should be (Map(stickyKey -> natBinding))
+        }
+    }
+}
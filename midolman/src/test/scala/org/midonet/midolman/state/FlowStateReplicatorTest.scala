@@ -278,6 +278,101 @@ class FlowStateReplicatorTest extends FeatureSpec
         }
     }
 
+    feature("State messages are packed and partitioned") {
+        scenario("The state of a flow that doesn't fit in a message is split") {
+            Given("More keys in a transaction than fit in a message")
+            val device = UUID.randomUUID()
+            val keys = (0 until 64) map { i =>
+                ConnTrackKey("10.0.0.1", i, "10.0.0.2", 22, 6, device)
+            }
+            val bindings = (0 until 64) map { i =>
+                NatKey(NatState.FWD_SNAT, "192.168.10.1", i, "17.16.15.1", 80,
+                       6, device) -> NatBinding("1.2.3.4", 10000 + i)
+            }
+            keys foreach { connTrackTx.putAndRef(_, ConnTrackState.RETURN_FLOW) }
+            for ((k, v) <- bindings) {
+                natTx.putAndRef(k, v)
+            }
+
+            When("The transaction is added to the replicator and pushed")
+            val packets = sendAndAcceptTransactions()
+
+            Then("The state is sent in several messages")
+            packets.size should be > 1
+            packets foreach { case (packet, _) =>
+                packet.getData.length should be <= (FlowStateEthernet.MTU -
+                    FlowStateEthernet.VXLAN_ENCAPUSULATION_OVERHEAD)
+            }
+
+            And("Its peer's stateful tables should contain all the keys")
+            keys foreach { k =>
+                recipient.conntrackTable.get(k) should equal (ConnTrackState.RETURN_FLOW)
+            }
+            for ((k, v) <- bindings) {
+                recipient.natTable.get(k) should equal (v)
+            }
+        }
+
+        scenario("The state of several flows to the same peers is packed") {
+            Given("The keys of several flows")
+            val keys = connTrackKeys :+
+                ConnTrackKey(IPv6Addr.fromString("fe80::1"), 1234,
+                             IPv6Addr.fromString("fe80::2"), 80, 17,
+                             UUID.randomUUID())
+
+            When("They are added to the replicator one flow at a time")
+            for (k <- keys) {
+                connTrackTx.putAndRef(k, ConnTrackState.RETURN_FLOW)
+                sender.accumulateNewKeys(connTrackTx, natTx, ingressPort.id,
+                                         List(egressPort1.id).asJava,
+                                         new JHashSet[FlowTag](),
+                                         new ArrayList[Callback0])
+                connTrackTx.commit()
+                connTrackTx.flush()
+            }
+            packetsSeen should be (empty)
+
+            And("The state is pushed")
+            sender.pushState(dpChannel)
+
+            Then("A single message is sent")
+            packetsSeen should have size 1
+
+            And("Its peer's stateful tables should contain all the keys")
+            acceptPushedState()
+            keys foreach { k =>
+                recipient.conntrackTable.get(k) should equal (ConnTrackState.RETURN_FLOW)
+            }
+        }
+
+        scenario("Messages are encoded as protobuf StateMessages") {
+            Given("A conntrack key and a nat key in a transaction")
+            connTrackTx.putAndRef(connTrackKeys.head, ConnTrackState.RETURN_FLOW)
+            natTx.putAndRef(natMappings.head._1, natMappings.head._2)
+
+            When("The transaction is added to the replicator and pushed")
+            val (packet, _) = sendAndAcceptTransactions().head
+
+            Then("The message has the fields set by the protobuf builders")
+            import FlowStatePackets._
+            val msg = parseDatagram(packet.getEthernet)
+            msg.getSeq should be (0x1L)
+            msg.getEpoch should be (0L)
+            uuidFromProto(msg.getSender) should be (ingressHostId)
+            msg.getNewStateCount should be (1)
+
+            val state = msg.getNewState(0)
+            uuidFromProto(state.getIngressPort) should be (ingressPort.id)
+            state.getConntrackKey.toByteArray should be (
+                connTrackKeyToProto(connTrackKeys.head).toByteArray)
+            state.getNatEntriesCount should be (1)
+            state.getNatEntries(0).getK.toByteArray should be (
+                natKeyToProto(natMappings.head._1).toByteArray)
+            state.getNatEntries(0).getV.toByteArray should be (
+                natBindingToProto(natMappings.head._2).toByteArray)
+        }
+    }
+
     feature("Unref callbacks are correctly added") {
         scenario("For conntrack keys") {
             Given("A conntrack key and a contrack ref in a transaction")
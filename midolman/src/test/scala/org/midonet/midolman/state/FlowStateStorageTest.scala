@@ -19,11 +19,12 @@ package org.midonet.midolman.state
 import java.util.UUID
 
 import scala.collection.JavaConverters._
-import scala.concurrent.Await
+import scala.concurrent.{Await, Future}
 
 import akka.actor.ActorSystem
 import org.cassandraunit.utils.EmbeddedCassandraServerHelper
 import org.junit.runner.RunWith
+import org.mockito.Mockito.{doCallRealMethod, doReturn, spy}
 import org.scalatest._
 import org.scalatest.concurrent.Eventually._
 import org.scalatest.junit.JUnitRunner
@@ -32,6 +33,7 @@ import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
 import org.midonet.midolman.state.NatState.{NatBinding, NatKey}
 import org.midonet.packets.IPv4Addr
 import org.midonet.util.MidonetEventually
+import org.midonet.util.concurrent.MockClock
 
 @RunWith(classOf[JUnitRunner])
 class FlowStateStorageTest extends FeatureSpec
@@ -59,6 +61,7 @@ class FlowStateStorageTest extends FeatureSpec
     val ingressPort = UUID.randomUUID()
     val egressPorts = List(UUID.randomUUID(), UUID.randomUUID())
 
+    val clock = new MockClock
     var cass: CassandraClient = _
     var storage: FlowStateStorage = _
 
@@ -67,11 +70,17 @@ class FlowStateStorageTest extends FeatureSpec
         Thread.sleep(10000L)
         cass = new CassandraClient("127.0.0.1:9142", "TestCluster",
                                    "MidonetFlowState", 1,
-                                   FlowStateStorage.SCHEMA, null)
+                                   FlowStateStorage.SCHEMA ++
+                                   FlowStateStorage.LEGACY_SCHEMA, null)
         cass.connect()
-        storage = FlowStateStorage(cass)
+        storage = FlowStateStorage(cass, clock)
     }
 
+    def natWriteTime(port: UUID): Long =
+        cass.session.execute(
+            s"SELECT writetime(translateIp) FROM ${FlowStateStorage.NAT_BY_INGRESS_TABLE} " +
+            s"WHERE port = $port;").one().getLong(0)
+
     feature("Stores and fetches state from cassandra") {
         scenario("Conntrack keys and NAT bindings") {
             for (k <- connTrackKeys) {
@@ -116,5 +125,134 @@ class FlowStateStorageTest extends FeatureSpec
                 }
             }
         }
+
+        scenario("Keys stored by the previous schema version") {
+            val legacyKey = ConnTrackKey("10.0.0.3", 5555, "10.0.0.4", 443, 6,
+                                         UUID.randomUUID())
+            cass.session.execute(
+                s"INSERT INTO ${FlowStateStorage.LEGACY_CONNTRACK_BY_INGRESS_TABLE} " +
+                "(port, proto, srcIp, srcPort, dstIp, dstPort, device) VALUES " +
+                s"($ingressPort, 6, '10.0.0.3', 5555, '10.0.0.4', 443, " +
+                s"${legacyKey.deviceId}) USING TTL 60;")
+            storage.touchConnTrackKey(connTrackKeys.head, ingressPort,
+                                      List.empty[UUID].asJava.iterator())
+            storage.submit()
+
+            eventually {
+                val keys = Await.result(
+                    storage.fetchStrongConnTrackRefs(ingressPort), expiration)
+                keys.asScala should be (Set(legacyKey, connTrackKeys.head))
+            }
+        }
+
+        scenario("Keys are written to the previous schema version") {
+            Given("A storage writing the legacy tables")
+            val legacyStorage = FlowStateStorage(cass, null,
+                                                 legacyWrites = true)
+
+            When("A key is touched")
+            legacyStorage.touchConnTrackKey(connTrackKeys.head, ingressPort,
+                                            egressPorts.asJava.iterator())
+            legacyStorage.submit()
+
+            Then("The key is stored in both the current and legacy tables")
+            eventually {
+                for ((table, port) <- List(
+                        FlowStateStorage.CONNTRACK_BY_INGRESS_TABLE -> ingressPort,
+                        FlowStateStorage.CONNTRACK_BY_EGRESS_TABLE -> egressPorts.head,
+                        FlowStateStorage.LEGACY_CONNTRACK_BY_INGRESS_TABLE -> ingressPort,
+                        FlowStateStorage.LEGACY_CONNTRACK_BY_EGRESS_TABLE -> egressPorts.head)) {
+                    val rows = cass.session.execute(
+                        s"SELECT * FROM $table WHERE port = $port;").all()
+                    rows.asScala.map(FlowStateStorage.rowToConnTrack) should be (
+                        List(connTrackKeys.head))
+                }
+            }
+        }
+
+        scenario("Repeated touches are coalesced") {
+            val (k, v) = natMappings.head
+            storage.touchNatKey(k, v, ingressPort, List.empty[UUID].asJava.iterator())
+            storage.submit()
+            var written = 0L
+            eventually {
+                written = natWriteTime(ingressPort)
+            }
+
+            When("The key is touched again within a fraction of its TTL")
+            clock.time += k.expiresAfter.toNanos /
+                          FlowStateStorage.TOUCH_COALESCING_RATIO / 2
+            storage.touchNatKey(k, v, ingressPort, List.empty[UUID].asJava.iterator())
+            storage.submit()
+            Thread.sleep(500)
+
+            Then("It is not written again")
+            natWriteTime(ingressPort) should be (written)
+
+            When("The key is touched again after that fraction of its TTL")
+            clock.time += k.expiresAfter.toNanos /
+                          FlowStateStorage.TOUCH_COALESCING_RATIO
+            storage.touchNatKey(k, v, ingressPort, List.empty[UUID].asJava.iterator())
+            storage.submit()
+
+            Then("It is written again")
+            eventually {
+                natWriteTime(ingressPort) should be > written
+            }
+        }
+
+        scenario("Touches while disconnected are written once connected") {
+            val (k, v) = natMappings.head
+            val client = spy(cass)
+            val reconnecting = FlowStateStorage(client, clock)
+
+            Given("A key touched while Cassandra is unreachable")
+            doReturn(null).when(client).session()
+            reconnecting.touchNatKey(k, v, ingressPort, List.empty[UUID].asJava.iterator())
+            reconnecting.submit()
+
+            When("The key is touched again once Cassandra is reachable")
+            doCallRealMethod().when(client).session()
+            reconnecting.touchNatKey(k, v, ingressPort, List.empty[UUID].asJava.iterator())
+            reconnecting.submit()
+
+            Then("It is written without waiting for the coalescing deadline")
+            eventually {
+                Await.result(reconnecting.fetchStrongNatRefs(ingressPort),
+                             expiration).get(k) should === (v)
+            }
+        }
+
+        scenario("Load of keys spread across ports") {
+            val ports = List.fill(32)(UUID.randomUUID())
+            val keysPerPort = 500
+            val keys = ports map { port =>
+                port -> List.tabulate(keysPerPort) { i =>
+                    ConnTrackKey("10.1.0.1", 1024 + i, "10.2.0.1", 80, 6,
+                                 UUID.randomUUID())
+                }
+            }
+
+            val start = System.nanoTime()
+            for (i <- 0 until keysPerPort; (port, portKeys) <- keys) {
+                storage.touchConnTrackKey(portKeys(i), port,
+                                          egressPorts.asJava.iterator())
+                if (i % 10 == 0)
+                    storage.submit()
+            }
+            storage.submit()
+
+            eventually {
+                val fetches = Future.sequence(keys map { case (port, _) =>
+                    storage.fetchStrongConnTrackRefs(port)
+                })
+                val fetched = Await.result(fetches, expiration)
+                fetched.zip(keys) foreach { case (stored, (_, portKeys)) =>
+                    stored.asScala should be (portKeys.toSet)
+                }
+            }
+            info(s"Stored and fetched ${ports.size * keysPerPort} keys in " +
+                 s"${(System.nanoTime() - start) / 1000000} ms")
+        }
     }
 }
@@ -15,12 +15,13 @@
  */
 package org.midonet.midolman.state
 
-import java.util.{UUID, HashMap => JHashMap,
-                  HashSet => JHashSet, Iterator => JIterator}
+import java.util.{UUID, HashMap => JHashMap, HashSet => JHashSet,
+                  Iterator => JIterator, Set => JSet}
 import scala.concurrent.{ExecutionContext, Future}
 
 import akka.actor.ActorSystem
 
+import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
 import org.midonet.midolman.state.NatState.NatKey
 import org.midonet.midolman.state.NatState.NatBinding
@@ -35,6 +36,8 @@ class MockStateStorage extends FlowStateStorage {
 
     override def submit(): Unit = {}
 
+    override def fetchLocal(ports: JSet[UUID]): Option[FlowStateBatch] = None
+
     override def fetchStrongConnTrackRefs(port: UUID)
             (implicit ec: ExecutionContext, as: ActorSystem) =
                 Future.successful(new JHashSet[ConnTrackKey]())
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.topology
+
+import akka.actor.Props
+import akka.testkit.TestActorRef
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.MetricRegistry.name
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.{Bridge, Chain, Router}
+import org.midonet.cluster.data.ports.{BridgePort, RouterPort}
+import org.midonet.midolman.topology.VirtualTopologyActor._
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.mock.MessageAccumulator
+import org.midonet.packets.MAC
+
+@RunWith(classOf[JUnitRunner])
+class ReachabilityPrefetcherTest extends MidolmanSpec {
+    registerActors(VirtualTopologyActor -> (() => new VirtualTopologyActor
+                                                  with MessageAccumulator))
+
+    var bridge: Bridge = _
+    var bridgeChain: Chain = _
+    var port: BridgePort = _
+    var portChain: Chain = _
+    var interiorPort: BridgePort = _
+    var exteriorPort: BridgePort = _
+    var router: Router = _
+    var routerChain: Chain = _
+    var routerPort: RouterPort = _
+
+    var prefetcher: TestActorRef[ReachabilityPrefetcher] = _
+
+    override def beforeTest() {
+        bridge = newBridge("bridge0")
+        bridgeChain = newInboundChainOnBridge("bridge-in", bridge)
+        port = newBridgePort(bridge)
+        portChain = newInboundChainOnPort("port-in", port)
+        interiorPort = newBridgePort(bridge)
+        exteriorPort = newBridgePort(bridge)
+        materializePort(exteriorPort, hostId, "exterior")
+
+        router = newRouter("router0")
+        routerChain = newInboundChainOnRouter("router-in", router)
+        routerPort = newRouterPort(router, MAC.random(), "10.0.0.1",
+                                   "10.0.0.0", 24)
+        linkPorts(routerPort, interiorPort)
+
+        prefetcher = TestActorRef(Props({
+            val actor = new ReachabilityPrefetcher
+            injector.injectMembers(actor)
+            actor
+        }))
+        VirtualTopologyActor.getAndClear()
+    }
+
+    private def devicesPerPort =
+        injector.getInstance(classOf[MetricRegistry]).histogram(
+            name(classOf[ReachabilityPrefetcher], "devicesPerPort"))
+
+    feature("The topology reachable from an active port is loaded") {
+        scenario("The port, its device and their chains") {
+            When("A port becomes active")
+            val prefetched = devicesPerPort.getCount
+            prefetcher ! LocalPortActive(port.getId, active = true)
+
+            Then("The VTA receives requests for the port and its chain")
+            val requested = VirtualTopologyActor.messages
+            requested should contain (PortRequest(port.getId))
+            requested should contain (ChainRequest(portChain.getId))
+
+            And("For the bridge of the port and its chain")
+            requested should contain (BridgeRequest(bridge.getId))
+            requested should contain (ChainRequest(bridgeChain.getId))
+
+            And("The devices prefetched for the port are recorded")
+            devicesPerPort.getCount shouldBe prefetched + 1
+        }
+
+        scenario("The devices beyond a peer port") {
+            When("An interior port becomes active")
+            prefetcher ! LocalPortActive(interiorPort.getId, active = true)
+
+            Then("The VTA receives requests for the peer port")
+            val requested = VirtualTopologyActor.messages
+            requested should contain (PortRequest(routerPort.getId))
+
+            And("For the router of the peer port and its chain")
+            requested should contain (RouterRequest(router.getId))
+            requested should contain (ChainRequest(routerChain.getId))
+        }
+
+        scenario("The exterior ports of a bridge are not walked") {
+            When("A port becomes active")
+            prefetcher ! LocalPortActive(port.getId, active = true)
+
+            Then("The VTA receives a request for the interior port")
+            val requested = VirtualTopologyActor.messages
+            requested should contain (PortRequest(interiorPort.getId))
+
+            And("None for the other exterior ports of the bridge")
+            requested should not contain PortRequest(exteriorPort.getId)
+        }
+
+        scenario("Each device is requested once") {
+            When("A port becomes active")
+            prefetcher ! LocalPortActive(port.getId, active = true)
+
+            Then("Every device is requested once")
+            val requested = VirtualTopologyActor.messages
+            requested.distinct.size shouldBe requested.size
+        }
+
+        scenario("Inactive ports are ignored") {
+            When("A port becomes inactive")
+            prefetcher ! LocalPortActive(port.getId, active = false)
+
+            Then("The VTA receives no requests")
+            VirtualTopologyActor.messages shouldBe empty
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+import scala.reflect.ClassTag
+
+import akka.actor.{Actor, Props}
+import akka.testkit.TestActorRef
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.MetricRegistry.name
+import org.apache.commons.configuration.HierarchicalConfiguration
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.{Bridge => ClusterBridge, Chain => ClusterChain,
+                                 Router => ClusterRouter}
+import org.midonet.midolman.FlowController.{GetReferencedDevices, ReferencedDevices}
+import org.midonet.midolman.rules.{Condition, RuleResult}
+import org.midonet.midolman.simulation.{Bridge, Chain, Router}
+import org.midonet.midolman.topology.VirtualTopologyActor._
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.mock.{AwaitableActor, MessageAccumulator}
+import org.midonet.midolman.{FlowController, NotYetException}
+import org.midonet.util.UnixClock
+
+@RunWith(classOf[JUnitRunner])
+class VirtualTopologyEvictionTest extends MidolmanSpec {
+
+    private class TestableFC extends Actor {
+        var referenced = Set.empty[UUID]
+        override def receive = {
+            case GetReferencedDevices(ids) =>
+                sender ! ReferencedDevices(ids, ids intersect referenced)
+        }
+    }
+
+    registerActors(VirtualTopologyActor -> (() => new VirtualTopologyActor
+                                                  with MessageAccumulator),
+                   FlowController -> (() => new TestableFC))
+
+    private val idleSeconds = 10
+
+    private var clusterBridge: ClusterBridge = _
+
+    protected override def fillConfig(config: HierarchicalConfiguration)
+    : HierarchicalConfiguration = {
+        super.fillConfig(config)
+        config.setProperty("midolman.device_idle_eviction_seconds", idleSeconds)
+        config
+    }
+
+    override def beforeTest(): Unit = {
+        System.getProperties.setProperty(UnixClock.USE_MOCK_CLOCK_PROPERTY,
+                                         "yes")
+        clusterBridge = newBridge("bridge0")
+        fetchDevice[Bridge](clusterBridge)
+    }
+
+    override def afterTest(): Unit = {
+        System.getProperties.remove(UnixClock.USE_MOCK_CLOCK_PROPERTY)
+    }
+
+    private def counter(metric: String) =
+        injector.getInstance(classOf[MetricRegistry]).counter(
+            name(classOf[VirtualTopologyActor], metric))
+
+    /* Runs the check of idle devices once, and again after the timeout */
+    private def idleTimeoutElapses(): Unit = {
+        VirtualTopologyActor ! CheckIdleDevices
+        UnixClock.MOCK.time += idleSeconds * 1000
+        VirtualTopologyActor ! CheckIdleDevices
+    }
+
+    private def isCached[D <: AnyRef](id: UUID)(implicit tag: ClassTag[D])
+    : Boolean =
+        try {
+            VirtualTopologyActor.tryAsk[D](id) ne null
+        } catch { case NotYetException(f, _) =>
+            Await.ready(f, 3 seconds)
+            false
+        }
+
+    /* Evicts the device and loads it again, with a new manager */
+    private def evictAndRefetch[D <: AnyRef](id: UUID)
+                                            (implicit tag: ClassTag[D])
+    : Unit = {
+        idleTimeoutElapses()
+        isCached[D](id) shouldBe false
+        isCached[D](id) shouldBe true
+        VirtualTopologyActor.getAndClear()
+    }
+
+    /* The updates of the device received by the VTA after a change */
+    private def updatesOf[D <: AnyRef](id: UUID, deviceId: D => UUID)
+                                      (implicit tag: ClassTag[D]): Int = {
+        Thread.sleep(200)
+        VirtualTopologyActor.getAndClear() count {
+            case d: D => deviceId(d) == id
+            case _ => false
+        }
+    }
+
+    feature("Idle devices are evicted") {
+        scenario("A device not used for the idle timeout is evicted") {
+            val evicted = counter("evictions").getCount
+
+            When("The device is not used for the idle timeout")
+            idleTimeoutElapses()
+
+            Then("The device is evicted")
+            counter("evictions").getCount shouldBe evicted + 1
+            isCached[Bridge](clusterBridge.getId) shouldBe false
+        }
+
+        scenario("An evicted device is loaded again when requested") {
+            val refetched = counter("refetches").getCount
+
+            Given("An evicted device")
+            idleTimeoutElapses()
+
+            When("The device is requested")
+            isCached[Bridge](clusterBridge.getId) shouldBe false
+
+            Then("The device is loaded again")
+            isCached[Bridge](clusterBridge.getId) shouldBe true
+            counter("refetches").getCount shouldBe refetched + 1
+        }
+    }
+
+    feature("A device loaded again is watched once") {
+        scenario("A bridge") {
+            Given("A bridge evicted and loaded again")
+            evictAndRefetch[Bridge](clusterBridge.getId)
+
+            When("The bridge changes")
+            clusterDataClient.bridgesUpdate(
+                clusterBridge.setAdminStateUp(false))
+
+            Then("A single update reaches the VTA")
+            updatesOf[Bridge](clusterBridge.getId, _.id) shouldBe 1
+        }
+
+        scenario("A router") {
+            Given("A router evicted and loaded again")
+            val router: ClusterRouter = newRouter("router0")
+            fetchDevice[Router](router)
+            evictAndRefetch[Router](router.getId)
+
+            When("The router changes")
+            clusterDataClient.routersUpdate(router.setAdminStateUp(false))
+
+            Then("A single update reaches the VTA")
+            updatesOf[Router](router.getId, _.id) shouldBe 1
+        }
+
+        scenario("A chain") {
+            Given("A chain evicted and loaded again")
+            val chain: ClusterChain = createChain("chain0")
+            fetchDevice[Chain](chain)
+            evictAndRefetch[Chain](chain.getId)
+
+            When("A rule is added to the chain")
+            newLiteralRuleOnChain(chain, 1, new Condition(),
+                                  RuleResult.Action.ACCEPT)
+
+            Then("A single update reaches the VTA")
+            updatesOf[Chain](chain.getId, _.id) shouldBe 1
+        }
+    }
+
+    feature("Devices in use are not evicted") {
+        scenario("A device accessed by a simulation") {
+            val evicted = counter("evictions").getCount
+
+            When("A simulation accesses the device during the idle timeout")
+            VirtualTopologyActor ! CheckIdleDevices
+            isCached[Bridge](clusterBridge.getId) shouldBe true
+            UnixClock.MOCK.time += idleSeconds * 1000
+            VirtualTopologyActor ! CheckIdleDevices
+
+            Then("The device is not evicted")
+            counter("evictions").getCount shouldBe evicted
+            isCached[Bridge](clusterBridge.getId) shouldBe true
+        }
+
+        scenario("A device referenced by the tags of a flow") {
+            val evicted = counter("evictions").getCount
+
+            Given("A flow tagged with the device")
+            FlowController.as[TestableFC].referenced =
+                Set(clusterBridge.getId)
+
+            When("The device is not used for the idle timeout")
+            idleTimeoutElapses()
+
+            Then("The device is not evicted")
+            counter("evictions").getCount shouldBe evicted
+            isCached[Bridge](clusterBridge.getId) shouldBe true
+        }
+
+        scenario("A device with subscribers") {
+            val evicted = counter("evictions").getCount
+
+            Given("A subscriber to the device")
+            val subscriber = TestActorRef(Props(new AwaitableActor
+                                                    with MessageAccumulator))
+            VirtualTopologyActor.tell(
+                BridgeRequest(clusterBridge.getId, update = true), subscriber)
+
+            When("The device is not used for the idle timeout")
+            idleTimeoutElapses()
+
+            Then("The device is not evicted")
+            counter("evictions").getCount shouldBe evicted
+            isCached[Bridge](clusterBridge.getId) shouldBe true
+        }
+    }
+}
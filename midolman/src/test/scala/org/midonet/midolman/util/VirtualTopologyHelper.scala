@@ -40,7 +40,7 @@ import org.midonet.midolman.PacketWorkflow.SimulationResult
 import org.midonet.midolman.UnderlayResolver.{Route => UnderlayRoute}
 import org.midonet.midolman.simulation.Coordinator.Device
 import org.midonet.midolman.simulation.{Router => SimRouter}
-import org.midonet.midolman.simulation.{Coordinator, PacketContext, PacketEmitter}
+import org.midonet.midolman.simulation.{Coordinator, DhcpAssignmentCache, PacketContext, PacketEmitter}
 import org.midonet.midolman.state.ConnTrackState._
 import org.midonet.midolman.state.{FlowStateReplicator, HappyGoLuckyLeaser}
 import org.midonet.midolman.state.NatState.{NatBinding, NatKey}
@@ -53,6 +53,7 @@ import org.midonet.packets.{IPv4Addr, MAC, Ethernet, IPv4, ICMP, TCP, UDP}
 import org.midonet.packets.util.AddressConversions._
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.sdn.state.FlowStateTransaction
+import org.midonet.util.concurrent.CallingThreadExecutionContext
 import org.midonet.util.functors.Callback0
 
 trait VirtualTopologyHelper {
@@ -214,6 +215,10 @@ trait VirtualTopologyHelper {
         eth
     }
 
+    /** DHCP assignments that are loaded and updated on the calling thread. */
+    def newDhcpAssignments(client: DataClient) =
+        new DhcpAssignmentCache(client, CallingThreadExecutionContext)
+
     def packetWorkflow(dpPortToVport: Map[Int, UUID])
                       (implicit hostId: UUID, client: DataClient) = new PacketWorkflow(
         new DatapathState {
@@ -230,7 +235,7 @@ trait VirtualTopologyHelper {
             override def getDpPortNumberForVport(vportId: UUID): Option[Integer] =
                 dpPortToVport.map(_.swap).toMap.get(vportId).map(_.asInstanceOf[Integer])
             override def getDpPortName(num: Integer): Option[String] =  None
-        }, null, client, new DatapathChannel {
+        }, null, newDhcpAssignments(client), new DatapathChannel {
             override def executePacket(packet: Packet,
                                        actions: List[FlowAction]): Unit = { }
             override def createFlow(flow: Flow): Unit = { }
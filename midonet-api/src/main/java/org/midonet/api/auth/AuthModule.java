@@ -17,6 +17,8 @@ package org.midonet.api.auth;
 
 import java.net.MalformedURLException;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Provides;
@@ -89,6 +91,15 @@ public class AuthModule extends AbstractModule {
                 .to(MockAuthService.class);
     }
 
+    // -- Metrics --
+    @Provides @Singleton
+    MetricRegistry provideMetricRegistry() {
+        MetricRegistry metrics = new MetricRegistry();
+        JmxReporter.forRegistry(metrics).inDomain("org.midonet.api").build()
+                   .start();
+        return metrics;
+    }
+
     // -- Keystone --
     @Provides @Singleton
     @Inject
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.api.auth;
+
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of token validations, which spares an auth service the
+ * round trip to its identity server for the tokens it has seen recently.
+ *
+ * A valid token is cached until its expiration time, as reported by the
+ * identity server, but no longer than the maximum TTL. A token found to be
+ * invalid is cached for the negative TTL. Failed validations are not cached.
+ * Concurrent validations of a token that is not in the cache are coalesced
+ * into a single request to the identity server.
+ *
+ * The hits and misses of the cache are counted in the given registry under
+ * the given name.
+ */
+public class TokenCache {
+
+    private final static Logger log = LoggerFactory.getLogger(TokenCache.class);
+
+    /**
+     * Validates tokens against the identity server.
+     */
+    public interface Validator {
+        /**
+         * @return The validation of the token. Its identity is null if the
+         *         token is invalid.
+         */
+        Validation validate(String token) throws AuthException;
+    }
+
+    /**
+     * The result of validating a token: the identity of its user, or null if
+     * the token is invalid, and the time it expires, if known.
+     */
+    public static class Validation {
+        private final UserIdentity identity;
+        private final Date expires;
+
+        public Validation(UserIdentity identity, Date expires) {
+            this.identity = identity;
+            this.expires = expires;
+        }
+
+        public UserIdentity getIdentity() {
+            return identity;
+        }
+
+        public Date getExpires() {
+            return expires;
+        }
+    }
+
+    private static class Entry {
+        final UserIdentity identity;
+        final long deadline;
+
+        Entry(UserIdentity identity, long deadline) {
+            this.identity = identity;
+            this.deadline = deadline;
+        }
+    }
+
+    private final Validator validator;
+    private final long maxTtlNanos;
+    private final long negativeTtlNanos;
+    private final Ticker ticker;
+    private final LoadingCache<String, Entry> cache;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * @param validator Validator of the tokens that miss the cache.
+     * @param maxSize Maximum number of tokens in the cache. If 0, tokens are
+     *                not cached.
+     * @param maxTtlMillis Maximum time a valid token is cached.
+     * @param negativeTtlMillis Time an invalid token is cached.
+     * @param metrics Registry of the hits and misses counters.
+     * @param name Name of the cache in the registry.
+     */
+    public TokenCache(Validator validator, int maxSize, long maxTtlMillis,
+                      long negativeTtlMillis, MetricRegistry metrics,
+                      String name) {
+        this(validator, maxSize, maxTtlMillis, negativeTtlMillis, metrics,
+             name, Ticker.systemTicker());
+    }
+
+    TokenCache(final Validator validator, int maxSize, long maxTtlMillis,
+               long negativeTtlMillis, MetricRegistry metrics, String name,
+               Ticker ticker) {
+        this.validator = validator;
+        this.maxTtlNanos = TimeUnit.MILLISECONDS.toNanos(maxTtlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.ticker = ticker;
+        this.hits = metrics.counter(MetricRegistry.name(name, "hits"));
+        this.misses = metrics.counter(MetricRegistry.name(name, "misses"));
+
+        if (maxSize > 0 && maxTtlMillis > 0) {
+            cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(maxTtlMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build(new CacheLoader<String, Entry>() {
+                    @Override
+                    public Entry load(String token) throws AuthException {
+                        return toEntry(validator.validate(token));
+                    }
+                });
+        } else {
+            log.info("Token cache {} is disabled", name);
+            cache = null;
+        }
+    }
+
+    /**
+     * Returns the identity of the user of a token, validating the token if
+     * it's not in the cache or its cached validation has expired.
+     *
+     * @return The identity of the user, null if the token is invalid.
+     */
+    public UserIdentity get(String token) throws AuthException {
+        if (cache == null) {
+            misses.inc();
+            return validator.validate(token).getIdentity();
+        }
+
+        Entry entry = cache.getIfPresent(token);
+        if (entry != null && isLive(entry)) {
+            hits.inc();
+            return entry.identity;
+        }
+
+        misses.inc();
+        if (entry != null) {
+            cache.asMap().remove(token, entry);
+        }
+        entry = load(token);
+        if (!isLive(entry)) {
+            // The token expired as soon as it was validated
+            cache.asMap().remove(token, entry);
+        }
+        return entry.identity;
+    }
+
+    /**
+     * Removes a token from the cache.
+     */
+    public void invalidate(String token) {
+        if (cache != null) {
+            cache.invalidate(token);
+        }
+    }
+
+    private Entry load(String token) throws AuthException {
+        try {
+            return cache.get(token);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AuthException) {
+                throw (AuthException) e.getCause();
+            }
+            throw new AuthServerException(
+                "Failed to validate token", e.getCause(),
+                Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private boolean isLive(Entry entry) {
+        return entry.deadline - ticker.read() > 0;
+    }
+
+    private Entry toEntry(Validation validation) {
+        long now = ticker.read();
+        if (validation.getIdentity() == null) {
+            return new Entry(null, now + negativeTtlNanos);
+        }
+
+        long ttl = maxTtlNanos;
+        if (validation.getExpires() != null) {
+            long expiresIn = TimeUnit.MILLISECONDS.toNanos(
+                validation.getExpires().getTime() - System.currentTimeMillis());
+            ttl = Math.min(ttl, expiresIn);
+        }
+        return new Entry(validation.getIdentity(), now + ttl);
+    }
+}
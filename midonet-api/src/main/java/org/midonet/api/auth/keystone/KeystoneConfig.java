@@ -33,6 +33,9 @@ public interface KeystoneConfig extends AuthConfig {
     String SERVICE_HOST_kEY = "service_host";
     String SERVICE_PORT_KEY = "service_port";
     String TENANT_NAME = "tenant_name";
+    String TOKEN_CACHE_SIZE = "token_cache_size";
+    String TOKEN_CACHE_MAX_TTL = "token_cache_max_ttl_seconds";
+    String TOKEN_CACHE_NEGATIVE_TTL = "token_cache_negative_ttl_seconds";
 
     @ConfigString(key = ADMIN_TOKEN, defaultValue = "")
     String getAdminToken();
@@ -48,4 +51,16 @@ public interface KeystoneConfig extends AuthConfig {
 
     @ConfigString(key = TENANT_NAME, defaultValue = "admin")
     String getAdminName();
+
+    /* Maximum number of validated tokens kept in the cache, 0 disables it */
+    @ConfigInt(key = TOKEN_CACHE_SIZE, defaultValue = 10000)
+    int getTokenCacheSize();
+
+    /* Maximum time a token is trusted without validating it again, which
+     * bounds how long a revoked token is still accepted */
+    @ConfigInt(key = TOKEN_CACHE_MAX_TTL, defaultValue = 300)
+    int getTokenCacheMaxTtlSeconds();
+
+    @ConfigInt(key = TOKEN_CACHE_NEGATIVE_TTL, defaultValue = 5)
+    int getTokenCacheNegativeTtlSeconds();
 }
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.TimeZone;
 import javax.servlet.http.HttpServletRequest;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -45,6 +46,7 @@ public class KeystoneService implements AuthService {
 
     private final KeystoneClient client;
     private final KeystoneConfig config;
+    private final TokenCache tokenCache;
 
     /**
      * Create a KeystoneService object from a KeystoneConfig object.
@@ -53,11 +55,26 @@ public class KeystoneService implements AuthService {
      *            KeystoneClient object
      * @param config
      *            KeystoneConfig object.
+     * @param metrics
+     *            Registry of the token cache metrics.
      */
     @Inject
-    public KeystoneService(KeystoneClient client, KeystoneConfig config) {
+    public KeystoneService(KeystoneClient client, KeystoneConfig config,
+                           MetricRegistry metrics) {
         this.client = client;
         this.config = config;
+        this.tokenCache = new TokenCache(
+            new TokenCache.Validator() {
+                @Override
+                public TokenCache.Validation validate(String token)
+                        throws AuthException {
+                    return validateToken(token);
+                }
+            },
+            config.getTokenCacheSize(),
+            config.getTokenCacheMaxTtlSeconds() * 1000L,
+            config.getTokenCacheNegativeTtlSeconds() * 1000L,
+            metrics, MetricRegistry.name(KeystoneService.class, "tokenCache"));
     }
 
     private String convertToAuthRole(String role) {
@@ -154,10 +171,19 @@ public class KeystoneService implements AuthService {
             throw new InvalidCredentialsException("No token was passed in.");
         }
 
+        return tokenCache.get(token);
+    }
+
+    private TokenCache.Validation validateToken(String token)
+            throws AuthException {
         KeystoneAccess access = client.getToken(token);
 
         // Parse the JSON response
-        return (access == null) ? null : getUserIdentity(access);
+        if (access == null) {
+            return new TokenCache.Validation(null, null);
+        }
+        return new TokenCache.Validation(getUserIdentity(access),
+                                         getToken(access).getExpires());
     }
 
     @Override
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.api.auth;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import org.midonet.cluster.DataClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+public class TestTokenCache {
+
+    private static final String ADMIN_TOKEN = "admin-token";
+    private static final String INVALID_TOKEN = "invalid-token";
+    private static final long MAX_TTL = 60000;
+    private static final long NEGATIVE_TTL = 1000;
+
+    @Mock
+    private MockAuthConfig mockAuthConfig;
+    @Mock
+    private DataClient mockDataClient;
+
+    private MockAuthService authService;
+    private final FakeTicker ticker = new FakeTicker();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final AtomicInteger validations = new AtomicInteger();
+    private volatile Date expires;
+    private volatile CountDownLatch blockValidations;
+    private ExecutorService executor;
+
+    private static class FakeTicker extends Ticker {
+        volatile long nanos = 0;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private final TokenCache.Validator validator = new TokenCache.Validator() {
+        @Override
+        public TokenCache.Validation validate(String token)
+                throws AuthException {
+            validations.incrementAndGet();
+            if (blockValidations != null) {
+                try {
+                    blockValidations.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (token.equals(INVALID_TOKEN)) {
+                return new TokenCache.Validation(null, null);
+            }
+            return new TokenCache.Validation(
+                authService.getUserIdentityByToken(token), expires);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mockAuthConfig.getAdminToken()).thenReturn(ADMIN_TOKEN);
+        authService = new MockAuthService(mockAuthConfig, mockDataClient);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private TokenCache newCache(int maxSize) {
+        return new TokenCache(validator, maxSize, MAX_TTL, NEGATIVE_TTL,
+                              metrics, "cache", ticker);
+    }
+
+    private long hits() {
+        return metrics.counter("cache.hits").getCount();
+    }
+
+    private long misses() {
+        return metrics.counter("cache.misses").getCount();
+    }
+
+    @Test
+    public void testValidTokensAreCached() throws Exception {
+        TokenCache cache = newCache(100);
+
+        UserIdentity identity = cache.get(ADMIN_TOKEN);
+        assertNotNull(identity);
+        assertEquals(identity, cache.get(ADMIN_TOKEN));
+        assertEquals(identity, cache.get(ADMIN_TOKEN));
+
+        assertEquals(1, validations.get());
+        assertEquals(2, hits());
+        assertEquals(1, misses());
+    }
+
+    @Test
+    public void testValidTokensAreCachedForTheMaxTtl() throws Exception {
+        TokenCache cache = newCache(100);
+
+        cache.get(ADMIN_TOKEN);
+        ticker.advance(MAX_TTL - 1);
+        cache.get(ADMIN_TOKEN);
+        assertEquals(1, validations.get());
+
+        ticker.advance(1);
+        cache.get(ADMIN_TOKEN);
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    public void testValidTokensAreCachedUntilTheyExpire() throws Exception {
+        TokenCache cache = newCache(100);
+        expires = new Date(System.currentTimeMillis() + 10000);
+
+        cache.get(ADMIN_TOKEN);
+        ticker.advance(5000);
+        cache.get(ADMIN_TOKEN);
+        assertEquals(1, validations.get());
+
+        ticker.advance(5000);
+        cache.get(ADMIN_TOKEN);
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    public void testExpiredTokensAreNotCached() throws Exception {
+        TokenCache cache = newCache(100);
+        expires = new Date(System.currentTimeMillis() - 1000);
+
+        assertNotNull(cache.get(ADMIN_TOKEN));
+        assertNotNull(cache.get(ADMIN_TOKEN));
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    public void testInvalidTokensAreCachedForTheNegativeTtl()
+            throws Exception {
+        TokenCache cache = newCache(100);
+
+        assertNull(cache.get(INVALID_TOKEN));
+        assertNull(cache.get(INVALID_TOKEN));
+        assertEquals(1, validations.get());
+
+        ticker.advance(NEGATIVE_TTL);
+        assertNull(cache.get(INVALID_TOKEN));
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    public void testFailedValidationsAreNotCached() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        TokenCache cache = new TokenCache(new TokenCache.Validator() {
+            @Override
+            public TokenCache.Validation validate(String token)
+                    throws AuthException {
+                failures.incrementAndGet();
+                throw new AuthServerException("Keystone is down", 503);
+            }
+        }, 100, MAX_TTL, NEGATIVE_TTL, metrics, "cache", ticker);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get(ADMIN_TOKEN);
+                fail("The validation should have failed");
+            } catch (AuthServerException e) {
+                assertEquals(503, e.getStatus());
+            }
+        }
+        assertEquals(2, failures.get());
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        TokenCache cache = newCache(10);
+
+        for (int i = 0; i < 100; i++) {
+            cache.get("token-" + i);
+        }
+        cache.get("token-0");
+        assertEquals(101, validations.get());
+    }
+
+    @Test
+    public void testCacheCanBeDisabled() throws Exception {
+        TokenCache cache = newCache(0);
+
+        cache.get(ADMIN_TOKEN);
+        cache.get(ADMIN_TOKEN);
+        assertEquals(2, validations.get());
+        assertEquals(0, hits());
+    }
+
+    @Test
+    public void testInvalidatedTokensAreValidatedAgain() throws Exception {
+        TokenCache cache = newCache(100);
+
+        cache.get(ADMIN_TOKEN);
+        cache.invalidate(ADMIN_TOKEN);
+        cache.get(ADMIN_TOKEN);
+        assertEquals(2, validations.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentValidationsAreCoalesced() throws Exception {
+        final TokenCache cache = newCache(100);
+        blockValidations = new CountDownLatch(1);
+
+        List<Future<UserIdentity>> results =
+            new ArrayList<Future<UserIdentity>>();
+        for (int i = 0; i < 4; i++) {
+            results.add(executor.submit(new Callable<UserIdentity>() {
+                @Override
+                public UserIdentity call() throws Exception {
+                    return cache.get(ADMIN_TOKEN);
+                }
+            }));
+        }
+        while (misses() < 4) {
+            Thread.sleep(10);
+        }
+        blockValidations.countDown();
+
+        UserIdentity identity = results.get(0).get();
+        assertNotNull(identity);
+        for (Future<UserIdentity> result : results) {
+            assertEquals(identity, result.get());
+        }
+        assertEquals(1, validations.get());
+    }
+}
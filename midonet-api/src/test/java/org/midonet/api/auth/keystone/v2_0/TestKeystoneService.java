@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.api.auth.keystone.v2_0;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.midonet.api.auth.AuthRole;
+import org.midonet.api.auth.UserIdentity;
+import org.midonet.api.auth.keystone.KeystoneConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the validation of tokens by the KeystoneService against a local
+ * HTTP stub of the Keystone tokens API.
+ */
+public class TestKeystoneService {
+
+    private static final String VALID_TOKEN = "valid-token";
+    private static final String UNKNOWN_TOKEN = "unknown-token";
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private KeystoneService service;
+
+    private class TokensHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            if (!path.equals("/v2.0/tokens/" + VALID_TOKEN)) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+
+            SimpleDateFormat df = new SimpleDateFormat(
+                KeystoneService.KEYSTONE_TOKEN_EXPIRED_FORMAT);
+            df.setTimeZone(TimeZone.getTimeZone("GMT"));
+            String expires =
+                df.format(new Date(System.currentTimeMillis() + 3600000));
+            byte[] body = ("{\"access\": {" +
+                "\"token\": {\"id\": \"" + VALID_TOKEN + "\", " +
+                    "\"expires\": \"" + expires + "\", " +
+                    "\"tenant\": {\"id\": \"tenant-id\", " +
+                                 "\"name\": \"tenant\"}}, " +
+                "\"user\": {\"id\": \"user-id\", " +
+                    "\"roles\": [{\"name\": \"admin\"}]}}}").getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type",
+                                              "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v2.0/tokens", new TokensHandler());
+        server.start();
+
+        KeystoneConfig config = mock(KeystoneConfig.class);
+        when(config.getAdminRole()).thenReturn("admin");
+        when(config.getTokenCacheSize()).thenReturn(100);
+        when(config.getTokenCacheMaxTtlSeconds()).thenReturn(300);
+        when(config.getTokenCacheNegativeTtlSeconds()).thenReturn(300);
+
+        KeystoneClient client = new KeystoneClient(
+            "localhost", server.getAddress().getPort(), "http", "admin-token");
+        service = new KeystoneService(client, config, metrics);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testValidTokenIsValidatedOnce() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            UserIdentity identity =
+                service.getUserIdentityByToken(VALID_TOKEN);
+            assertEquals("user-id", identity.getUserId());
+            assertEquals("tenant-id", identity.getTenantId());
+            assertTrue(identity.hasRole(AuthRole.ADMIN));
+        }
+
+        assertEquals(1, requests.get());
+        String name = MetricRegistry.name(KeystoneService.class, "tokenCache");
+        assertEquals(9, metrics.counter(name + ".hits").getCount());
+        assertEquals(1, metrics.counter(name + ".misses").getCount());
+    }
+
+    @Test
+    public void testUnknownTokenIsValidatedOnce() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertNull(service.getUserIdentityByToken(UNKNOWN_TOKEN));
+        }
+
+        assertEquals(1, requests.get());
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.packets;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A flyweight parser of the L2 to L4 headers of an Ethernet frame. It reads
+ * the header fields straight from a ByteBuffer into primitive fields, without
+ * building the {@link Ethernet} object tree, so that a packet can be
+ * inspected without allocating. The cursor is reused across parses: each
+ * call to {@link #parse(ByteBuffer)} overwrites the values of the previous
+ * frame, which are only valid until the next call.
+ *
+ * The cursor accepts and rejects frames as {@link Ethernet#deserialize}
+ * does: only a truncated Ethernet header makes the frame malformed, while a
+ * malformed upper layer header is simply not parsed, in the same way as the
+ * object tree keeps it as a {@link Data} payload.
+ *
+ * Offsets are relative to the start of the frame. Instances are not thread
+ * safe, use {@link #get()} to obtain the cursor of the current thread.
+ */
+public final class HeaderCursor {
+
+    private static final ThreadLocal<HeaderCursor> CURSOR =
+        new ThreadLocal<HeaderCursor>() {
+            @Override
+            protected HeaderCursor initialValue() {
+                return new HeaderCursor();
+            }
+        };
+
+    /** Returns the cursor of the calling thread. */
+    public static HeaderCursor get() {
+        return CURSOR.get();
+    }
+
+    private ByteBuffer buf;
+    private int start;
+    private int length;
+
+    private long dstMac;
+    private long srcMac;
+    private short etherType;
+    private byte priorityCode;
+    private short[] vlanIds = new short[2];
+    private int vlanCount;
+
+    private int networkOffset;
+    private int transportOffset;
+    private int payloadOffset;
+
+    private int srcIp;
+    private int dstIp;
+    private byte ipProtocol;
+    private byte tos;
+    private byte ttl;
+    private byte ipFlags;
+    private short fragmentOffset;
+
+    private short arpOpCode;
+    private long arpSha;
+    private int arpSpa;
+    private long arpTha;
+    private int arpTpa;
+
+    private int srcPort;
+    private int dstPort;
+    private short tcpFlags;
+    private byte icmpType;
+    private byte icmpCode;
+    private short icmpId;
+
+    /**
+     * Parses the frame between the position and the limit of the buffer. The
+     * buffer's position, limit and byte order are not modified.
+     */
+    public HeaderCursor parse(ByteBuffer buf) throws MalformedPacketException {
+        this.buf = buf;
+        start = buf.position();
+        length = buf.remaining();
+        vlanCount = 0;
+        priorityCode = 0;
+        networkOffset = -1;
+        transportOffset = -1;
+        payloadOffset = -1;
+        ipProtocol = 0;
+
+        if (length < Ethernet.MIN_HEADER_LEN) {
+            throw new MalformedPacketException("Invalid ethernet frame size: "
+                                               + length);
+        }
+
+        dstMac = mac(0);
+        srcMac = mac(6);
+        int offset = 12;
+        short type = u16(offset);
+        offset += 2;
+        while (type == Ethernet.VLAN_TAGGED_FRAME ||
+               type == Ethernet.PROVIDER_BRIDGING_TAG) {
+            if (length - offset < Ethernet.HEADER_TPID_LEN) {
+                throw new MalformedPacketException("Not enough buffer for "
+                    + "TPID fields: " + (length - offset));
+            }
+            short tci = u16(offset);
+            priorityCode = (byte) ((tci >> 13) & 0x07);
+            if (vlanCount == vlanIds.length) {
+                vlanIds = Arrays.copyOf(vlanIds, vlanCount * 2);
+            }
+            vlanIds[vlanCount++] = (short) (tci & 0x0fff);
+            type = u16(offset + 2);
+            offset += Ethernet.HEADER_TPID_LEN;
+        }
+        etherType = type;
+        payloadOffset = offset;
+
+        if (etherType == IPv4.ETHERTYPE) {
+            parseIPv4(offset);
+        } else if (etherType == ARP.ETHERTYPE) {
+            parseArp(offset);
+        }
+        return this;
+    }
+
+    private void parseIPv4(int offset) {
+        int remaining = length - offset;
+        if (remaining < IPv4.MIN_HEADER_LEN ||
+            remaining > IPv4.MAX_PACKET_LEN) {
+            return;
+        }
+        int headerLength = (buf.get(start + offset) & 0xf) * 4;
+        int totalLength = u16(offset + 2) & 0xffff;
+        if (headerLength < IPv4.MIN_HEADER_LEN ||
+            totalLength < headerLength || remaining < headerLength) {
+            return;
+        }
+        tos = buf.get(start + offset + 1);
+        short flagsAndOffset = u16(offset + 6);
+        ipFlags = (byte) ((flagsAndOffset >> 13) & 0x7);
+        fragmentOffset = (short) (flagsAndOffset & 0x1fff);
+        ttl = buf.get(start + offset + 8);
+        ipProtocol = buf.get(start + offset + 9);
+        srcIp = i32(offset + 12);
+        dstIp = i32(offset + 16);
+        networkOffset = offset;
+        payloadOffset = offset + headerLength;
+
+        switch (ipProtocol) {
+            case TCP.PROTOCOL_NUMBER:
+                parseTcp(payloadOffset);
+                break;
+            case UDP.PROTOCOL_NUMBER:
+                parseUdp(payloadOffset);
+                break;
+            case ICMP.PROTOCOL_NUMBER:
+                parseIcmp(payloadOffset);
+                break;
+        }
+    }
+
+    private void parseArp(int offset) {
+        if (length - offset < ARP.PACKET_SIZE ||
+            buf.get(start + offset + 4) != 6 ||
+            buf.get(start + offset + 5) != 4) {
+            return;
+        }
+        arpOpCode = u16(offset + 6);
+        arpSha = mac(offset + 8);
+        arpSpa = i32(offset + 14);
+        arpTha = mac(offset + 18);
+        arpTpa = i32(offset + 24);
+        networkOffset = offset;
+        payloadOffset = offset + ARP.PACKET_SIZE;
+    }
+
+    private void parseTcp(int offset) {
+        if (length - offset < TCP.MIN_HEADER_LEN) {
+            return;
+        }
+        short flags = u16(offset + 12);
+        int dataOffset = ((flags >> 12) & 0xf) * 4;
+        if (dataOffset < TCP.MIN_HEADER_LEN || length - offset < dataOffset) {
+            return;
+        }
+        srcPort = u16(offset) & 0xffff;
+        dstPort = u16(offset + 2) & 0xffff;
+        tcpFlags = flags;
+        transportOffset = offset;
+        payloadOffset = offset + dataOffset;
+    }
+
+    private void parseUdp(int offset) {
+        int remaining = length - offset;
+        if (remaining < UDP.HEADER_LEN || remaining > UDP.MAX_PACKET_LEN) {
+            return;
+        }
+        srcPort = u16(offset) & 0xffff;
+        dstPort = u16(offset + 2) & 0xffff;
+        transportOffset = offset;
+        payloadOffset = offset + UDP.HEADER_LEN;
+    }
+
+    private void parseIcmp(int offset) {
+        if (length - offset < ICMP.HEADER_LEN) {
+            return;
+        }
+        icmpType = buf.get(start + offset);
+        icmpCode = buf.get(start + offset + 1);
+        icmpId = u16(offset + 4);
+        transportOffset = offset;
+        payloadOffset = offset + ICMP.HEADER_LEN;
+    }
+
+    private short u16(int offset) {
+        int i = start + offset;
+        return (short) (((buf.get(i) & 0xff) << 8) | (buf.get(i + 1) & 0xff));
+    }
+
+    private int i32(int offset) {
+        return ((u16(offset) & 0xffff) << 16) | (u16(offset + 2) & 0xffff);
+    }
+
+    private long mac(int offset) {
+        return ((long) (u16(offset) & 0xffff) << 32) |
+               (i32(offset + 2) & 0xffffffffL);
+    }
+
+    /** Length of the frame, from its first byte to the limit of the buffer */
+    public int getLength() {
+        return length;
+    }
+
+    public long getDestinationMAC() {
+        return dstMac;
+    }
+
+    public long getSourceMAC() {
+        return srcMac;
+    }
+
+    /** The ether type of the frame, after the VLAN tags if any */
+    public short getEtherType() {
+        return etherType;
+    }
+
+    public byte getPriorityCode() {
+        return priorityCode;
+    }
+
+    public int getVlanCount() {
+        return vlanCount;
+    }
+
+    /** Returns the id of the VLAN tag at the given index, outermost first */
+    public short getVlanId(int index) {
+        if (index >= vlanCount)
+            throw new IndexOutOfBoundsException("VLAN tag " + index);
+        return vlanIds[index];
+    }
+
+    /**
+     * The offset of the first byte not consumed by the parsed headers: the
+     * payload of the innermost header that could be parsed.
+     */
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    public boolean isIPv4() {
+        return networkOffset >= 0 && etherType == IPv4.ETHERTYPE;
+    }
+
+    public boolean isArp() {
+        return networkOffset >= 0 && etherType == ARP.ETHERTYPE;
+    }
+
+    public boolean isTcp() {
+        return transportOffset >= 0 && ipProtocol == TCP.PROTOCOL_NUMBER;
+    }
+
+    public boolean isUdp() {
+        return transportOffset >= 0 && ipProtocol == UDP.PROTOCOL_NUMBER;
+    }
+
+    public boolean isIcmp() {
+        return transportOffset >= 0 && ipProtocol == ICMP.PROTOCOL_NUMBER;
+    }
+
+    public int getNetworkOffset() {
+        return networkOffset;
+    }
+
+    public int getTransportOffset() {
+        return transportOffset;
+    }
+
+    public int getNetworkSource() {
+        return srcIp;
+    }
+
+    public int getNetworkDestination() {
+        return dstIp;
+    }
+
+    public byte getNetworkProtocol() {
+        return ipProtocol;
+    }
+
+    public byte getNetworkTOS() {
+        return tos;
+    }
+
+    public byte getNetworkTTL() {
+        return ttl;
+    }
+
+    public byte getIpFlags() {
+        return ipFlags;
+    }
+
+    public short getFragmentOffset() {
+        return fragmentOffset;
+    }
+
+    public short getArpOpCode() {
+        return arpOpCode;
+    }
+
+    public long getArpSenderHardwareAddress() {
+        return arpSha;
+    }
+
+    public int getArpSenderProtocolAddress() {
+        return arpSpa;
+    }
+
+    public long getArpTargetHardwareAddress() {
+        return arpTha;
+    }
+
+    public int getArpTargetProtocolAddress() {
+        return arpTpa;
+    }
+
+    public int getSourcePort() {
+        return srcPort;
+    }
+
+    public int getDestinationPort() {
+        return dstPort;
+    }
+
+    public short getTcpFlags() {
+        return tcpFlags;
+    }
+
+    public byte getIcmpType() {
+        return icmpType;
+    }
+
+    public byte getIcmpCode() {
+        return icmpCode;
+    }
+
+    public short getIcmpIdentifier() {
+        return icmpId;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.util.{List => JList}
+
+object TimerWheel {
+
+    /**
+     * A timer that can be scheduled in a TimerWheel. Entries are allocated
+     * by their users, typically once per pooled object, so that scheduling
+     * and cancelling a timer doesn't allocate. An entry can be scheduled in
+     * at most one wheel at a time.
+     */
+    final class Entry[T >: Null](val value: T) {
+        private[collection] var wheel: TimerWheel[T] = null
+        private[collection] var deadline = 0L
+        private[collection] var level = 0
+        private[collection] var slot = 0
+        private[collection] var prev: Entry[T] = null
+        private[collection] var next: Entry[T] = null
+
+        def isScheduled: Boolean = wheel ne null
+    }
+}
+
+/**
+ * A hierarchical timing wheel, as described by Varghese and Lauck. Time is
+ * divided in ticks of tickMillis, and timers are kept in `levels` wheels of
+ * 2^bitsPerLevel slots, each level covering 2^bitsPerLevel times the span of
+ * the level below. Scheduling and cancelling a timer is O(1): timers live in
+ * intrusive doubly linked lists. Timers in the upper levels are cascaded to
+ * the lower ones as the latter wrap around, until they reach the first level
+ * and expire.
+ *
+ * Deadlines are rounded down to the tick, so a timer expires as soon as the
+ * wheel is advanced past the start of the tick containing its deadline.
+ * Timers further away than the span of the wheel are parked in the last
+ * level until they come within reach.
+ *
+ * This class is not thread-safe.
+ */
+final class TimerWheel[T >: Null](val tickMillis: Long, startMillis: Long,
+                                  bitsPerLevel: Int, levels: Int) {
+    import TimerWheel._
+
+    require(bitsPerLevel * levels < 63, "The wheel span doesn't fit in a long")
+
+    private val slotsPerLevel = 1 << bitsPerLevel
+    private val mask = slotsPerLevel - 1
+    private val maxTicks = 1L << (bitsPerLevel * levels)
+    private val slots = Array.ofDim[Entry[T]](levels, slotsPerLevel)
+
+    /* The next tick to be processed */
+    private var currentTick = startMillis / tickMillis
+    private var count = 0
+
+    def size: Int = count
+
+    def isEmpty: Boolean = count == 0
+
+    /**
+     * Schedules the specified timer to expire at deadlineMillis, removing it
+     * first from the wheel it was scheduled in, if any.
+     */
+    def schedule(entry: Entry[T], deadlineMillis: Long): Unit = {
+        if (entry.wheel ne null)
+            entry.wheel.cancel(entry)
+        entry.deadline = deadlineMillis / tickMillis
+        entry.wheel = this
+        place(entry)
+        count += 1
+    }
+
+    /**
+     * Cancels the specified timer.
+     *
+     * @return true if the timer was scheduled in this wheel.
+     */
+    def cancel(entry: Entry[T]): Boolean =
+        if (entry.wheel eq this) {
+            unlink(entry)
+            entry.wheel = null
+            count -= 1
+            true
+        } else {
+            false
+        }
+
+    /**
+     * Advances the wheel up to nowMillis, adding to `expired` the values of
+     * the timers whose deadline has been reached. The expired timers are no
+     * longer scheduled when this method returns.
+     *
+     * @return the number of expired timers.
+     */
+    def advance(nowMillis: Long, expired: JList[T]): Int = {
+        val nowTick = nowMillis / tickMillis
+        var expiredCount = 0
+        while (currentTick <= nowTick && count > 0) {
+            val idx = (currentTick & mask).toInt
+            if (idx == 0)
+                cascade()
+            var entry = slots(0)(idx)
+            slots(0)(idx) = null
+            while (entry ne null) {
+                val next = entry.next
+                entry.prev = null
+                entry.next = null
+                if (entry.deadline <= currentTick) {
+                    entry.wheel = null
+                    count -= 1
+                    expired.add(entry.value)
+                    expiredCount += 1
+                } else {
+                    // Parked beyond the span of the wheel
+                    place(entry)
+                }
+                entry = next
+            }
+            currentTick += 1
+        }
+        if (currentTick <= nowTick)
+            currentTick = nowTick + 1
+        expiredCount
+    }
+
+    /**
+     * Removes and returns the value of the timer that is closest to expire.
+     * Timers within the same slot of an upper level are not ordered, so this
+     * is only exact for timers that expire within 2^bitsPerLevel ticks.
+     *
+     * @return the value of the removed timer, or null if the wheel is empty.
+     */
+    def pollFirst(): T = {
+        if (count == 0)
+            return null
+        var level = 0
+        while (level < levels) {
+            val current = ((currentTick >> (bitsPerLevel * level)) & mask).toInt
+            // The current slot of an upper level holds timers due a whole
+            // rotation later, so it is visited last.
+            var i = if (level == 0) 0 else 1
+            val last = if (level == 0) mask else slotsPerLevel
+            while (i <= last) {
+                val entry = slots(level)((current + i) & mask)
+                if (entry ne null) {
+                    cancel(entry)
+                    return entry.value
+                }
+                i += 1
+            }
+            level += 1
+        }
+        null
+    }
+
+    /**
+     * Cancels all the scheduled timers.
+     */
+    def clear(): Unit = {
+        var level = 0
+        while (level < levels) {
+            var i = 0
+            while (i < slotsPerLevel) {
+                var entry = slots(level)(i)
+                while (entry ne null) {
+                    val next = entry.next
+                    entry.prev = null
+                    entry.next = null
+                    entry.wheel = null
+                    entry = next
+                }
+                slots(level)(i) = null
+                i += 1
+            }
+            level += 1
+        }
+        count = 0
+    }
+
+    private def place(entry: Entry[T]): Unit = {
+        var delta = entry.deadline - currentTick
+        var tick = entry.deadline
+        if (delta < 0) {
+            delta = 0
+            tick = currentTick
+        } else if (delta >= maxTicks) {
+            delta = maxTicks - 1
+            tick = currentTick + delta
+        }
+
+        var level = 0
+        var span = slotsPerLevel.toLong
+        while (delta >= span) {
+            level += 1
+            span <<= bitsPerLevel
+        }
+
+        val slot = ((tick >> (bitsPerLevel * level)) & mask).toInt
+        val head = slots(level)(slot)
+        entry.level = level
+        entry.slot = slot
+        entry.prev = null
+        entry.next = head
+        if (head ne null)
+            head.prev = entry
+        slots(level)(slot) = entry
+    }
+
+    private def unlink(entry: Entry[T]): Unit = {
+        if (entry.prev ne null)
+            entry.prev.next = entry.next
+        else
+            slots(entry.level)(entry.slot) = entry.next
+        if (entry.next ne null)
+            entry.next.prev = entry.prev
+        entry.prev = null
+        entry.next = null
+    }
+
+    /* Moves down the timers of the upper levels' current slots, for as
+     * long as the levels below have wrapped around. */
+    private def cascade(): Unit = {
+        var level = 1
+        var wrapped = true
+        while (wrapped && level < levels) {
+            val idx = ((currentTick >> (bitsPerLevel * level)) & mask).toInt
+            var entry = slots(level)(idx)
+            slots(level)(idx) = null
+            while (entry ne null) {
+                val next = entry.next
+                place(entry)
+                entry = next
+            }
+            wrapped = idx == 0
+            level += 1
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.packets
+
+import java.nio.{ByteBuffer, ByteOrder}
+
+import scala.collection.JavaConversions._
+
+import org.junit.runner.RunWith
+import org.scalatest.{FeatureSpec, Matchers}
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.packets.util.PacketBuilder._
+
+@RunWith(classOf[JUnitRunner])
+class HeaderCursorTest extends FeatureSpec with Matchers {
+
+    private val srcMac = MAC.fromString("02:02:02:01:01:01")
+    private val dstMac = MAC.fromString("02:02:02:02:02:02")
+    private val srcIp = IPv4Addr("10.0.0.1")
+    private val dstIp = IPv4Addr("10.0.0.2")
+
+    private def tcpFrame: Ethernet =
+        { eth addr srcMac -> dstMac } << { ip4 addr srcIp --> dstIp } <<
+        { tcp ports 80 ---> 1001 }
+
+    private def parse(frame: Ethernet): HeaderCursor =
+        HeaderCursor.get().parse(ByteBuffer.wrap(frame.serialize()))
+
+    /* Checks that the cursor reads the same fields as the object tree */
+    private def checkAgainstTree(frame: Ethernet): HeaderCursor = {
+        val bytes = frame.serialize()
+        val cursor = HeaderCursor.get().parse(ByteBuffer.wrap(bytes))
+        val tree = Ethernet.deserialize(bytes)
+
+        cursor.getLength shouldBe bytes.length
+        cursor.getDestinationMAC shouldBe tree.getDestinationMACAddress.asLong
+        cursor.getSourceMAC shouldBe tree.getSourceMACAddress.asLong
+        cursor.getEtherType shouldBe tree.getEtherType
+        cursor.getPriorityCode shouldBe tree.getPriorityCode
+        cursor.getVlanCount shouldBe tree.getVlanIDs.size
+        for ((vlan, i) <- tree.getVlanIDs.zipWithIndex) {
+            cursor.getVlanId(i) shouldBe vlan
+        }
+
+        tree.getPayload match {
+            case ip: IPv4 =>
+                cursor.isIPv4 shouldBe true
+                cursor.getNetworkSource shouldBe ip.getSourceAddress
+                cursor.getNetworkDestination shouldBe ip.getDestinationAddress
+                cursor.getNetworkProtocol shouldBe ip.getProtocol
+                cursor.getNetworkTOS shouldBe ip.getDiffServ
+                cursor.getNetworkTTL shouldBe ip.getTtl
+                cursor.getIpFlags shouldBe ip.getFlags
+                cursor.getFragmentOffset shouldBe ip.getFragmentOffset
+                ip.getPayload match {
+                    case tcp: TCP =>
+                        cursor.isTcp shouldBe true
+                        cursor.getSourcePort shouldBe tcp.getSourcePort
+                        cursor.getDestinationPort shouldBe
+                            tcp.getDestinationPort
+                        cursor.getTcpFlags shouldBe tcp.getFlags
+                    case udp: UDP =>
+                        cursor.isUdp shouldBe true
+                        cursor.getSourcePort shouldBe udp.getSourcePort
+                        cursor.getDestinationPort shouldBe
+                            udp.getDestinationPort
+                    case icmp: ICMP =>
+                        cursor.isIcmp shouldBe true
+                        cursor.getIcmpType shouldBe icmp.getType
+                        cursor.getIcmpCode shouldBe icmp.getCode
+                        cursor.getIcmpIdentifier shouldBe icmp.getIdentifier
+                    case _ =>
+                        cursor.getTransportOffset shouldBe -1
+                }
+            case arp: ARP =>
+                cursor.isArp shouldBe true
+                cursor.getArpOpCode shouldBe arp.getOpCode
+                cursor.getArpSenderHardwareAddress shouldBe
+                    arp.getSenderHardwareAddress.asLong
+                cursor.getArpSenderProtocolAddress shouldBe
+                    IPv4Addr.bytesToInt(arp.getSenderProtocolAddress)
+                cursor.getArpTargetHardwareAddress shouldBe
+                    arp.getTargetHardwareAddress.asLong
+                cursor.getArpTargetProtocolAddress shouldBe
+                    IPv4Addr.bytesToInt(arp.getTargetProtocolAddress)
+            case _ =>
+                cursor.getNetworkOffset shouldBe -1
+        }
+        cursor
+    }
+
+    feature("The cursor reads the headers of a frame") {
+        scenario("A TCP segment") {
+            val cursor = checkAgainstTree(
+                { eth addr srcMac -> dstMac } <<
+                { ip4 addr srcIp --> dstIp ttl 7 } <<
+                { tcp ports 80 ---> 1001 flags 0x5012 } << payload("data"))
+            cursor.getNetworkOffset shouldBe Ethernet.MIN_HEADER_LEN
+            cursor.getTransportOffset shouldBe Ethernet.MIN_HEADER_LEN +
+                                               IPv4.MIN_HEADER_LEN
+            cursor.getPayloadOffset shouldBe cursor.getTransportOffset +
+                                             TCP.MIN_HEADER_LEN
+        }
+
+        scenario("A UDP datagram") {
+            val cursor = checkAgainstTree(
+                { eth addr srcMac -> dstMac } <<
+                { ip4 addr srcIp --> dstIp } <<
+                { udp ports 5353 ---> 53 } << payload("data"))
+            cursor.getPayloadOffset shouldBe cursor.getTransportOffset +
+                                             UDP.HEADER_LEN
+        }
+
+        scenario("An ICMP echo request") {
+            checkAgainstTree(
+                { eth addr srcMac -> dstMac } <<
+                { ip4 addr srcIp --> dstIp } <<
+                { icmp.echo.request id 17.toShort seq 3.toShort })
+        }
+
+        scenario("An ARP request") {
+            val cursor = checkAgainstTree(
+                { eth addr srcMac -> dstMac } <<
+                { arp.req mac srcMac -> dstMac ip srcIp --> dstIp })
+            cursor.getTransportOffset shouldBe -1
+        }
+
+        scenario("An IP fragment is parsed as the object tree does") {
+            checkAgainstTree(
+                { eth addr srcMac -> dstMac } <<
+                { ip4 addr srcIp --> dstIp flags 1 frag_offset 185 } <<
+                { udp ports 5353 ---> 53 } << payload("data"))
+        }
+    }
+
+    feature("The cursor reads VLAN tags") {
+        scenario("A frame with a single VLAN tag") {
+            val cursor = checkAgainstTree(
+                { eth addr srcMac -> dstMac priority 3 vlan 0x200 } <<
+                { ip4 addr srcIp --> dstIp } << { tcp ports 80 ---> 1001 })
+            cursor.getVlanCount shouldBe 1
+            cursor.getNetworkOffset shouldBe Ethernet.MIN_HEADER_LEN +
+                                             Ethernet.HEADER_TPID_LEN
+        }
+
+        scenario("A frame with stacked VLAN tags") {
+            val vlanIds = List[java.lang.Short](0x100.toShort, 0x200.toShort,
+                                                0x300.toShort)
+            val cursor = checkAgainstTree(
+                { eth addr srcMac -> dstMac vlans vlanIds } <<
+                { ip4 addr srcIp --> dstIp } << { udp ports 5353 ---> 53 })
+            cursor.getVlanCount shouldBe 3
+            cursor.getVlanId(2) shouldBe 0x300.toShort
+        }
+    }
+
+    feature("The cursor does not modify the buffer") {
+        scenario("A frame in the middle of a little endian buffer") {
+            val bytes = ({ eth addr srcMac -> dstMac } <<
+                         { ip4 addr srcIp --> dstIp } <<
+                         { udp ports 5353 ---> 53 }).serialize()
+            val buf = ByteBuffer.allocate(bytes.length + 16)
+                                .order(ByteOrder.LITTLE_ENDIAN)
+            buf.position(8)
+            buf.put(bytes)
+            buf.position(8).limit(8 + bytes.length)
+
+            val cursor = HeaderCursor.get().parse(buf)
+
+            buf.position shouldBe 8
+            buf.limit shouldBe 8 + bytes.length
+            buf.order shouldBe ByteOrder.LITTLE_ENDIAN
+            cursor.getLength shouldBe bytes.length
+            cursor.getNetworkSource shouldBe srcIp.toInt
+            cursor.getSourcePort shouldBe 5353
+            cursor.getDestinationPort shouldBe 53
+        }
+
+        scenario("The cursor is reset between frames") {
+            parse(tcpFrame).isTcp shouldBe true
+            val cursor = parse(
+                { eth addr srcMac -> dstMac vlan 10 } <<
+                { arp.req mac srcMac -> dstMac ip srcIp --> dstIp })
+            cursor.isTcp shouldBe false
+            cursor.isIPv4 shouldBe false
+            cursor.isArp shouldBe true
+            cursor.getVlanCount shouldBe 1
+        }
+    }
+
+    feature("The cursor rejects frames as the object tree does") {
+        scenario("A truncated Ethernet header") {
+            intercept[MalformedPacketException] {
+                HeaderCursor.get().parse(ByteBuffer.wrap(new Array[Byte](13)))
+            }
+        }
+
+        scenario("A truncated VLAN tag") {
+            val bytes = ({ eth addr srcMac -> dstMac vlan 10 } <<
+                         payload("")).serialize()
+            intercept[MalformedPacketException] {
+                HeaderCursor.get().parse(ByteBuffer.wrap(bytes, 0, 16))
+            }
+        }
+
+        scenario("A truncated IPv4 header is kept as payload") {
+            val bytes = tcpFrame.serialize()
+            val cursor = HeaderCursor.get().parse(ByteBuffer.wrap(bytes, 0, 30))
+            cursor.getEtherType shouldBe IPv4.ETHERTYPE
+            cursor.isIPv4 shouldBe false
+            cursor.getPayloadOffset shouldBe Ethernet.MIN_HEADER_LEN
+        }
+
+        scenario("A truncated TCP header is kept as payload") {
+            val bytes = tcpFrame.serialize()
+            val cursor = HeaderCursor.get().parse(ByteBuffer.wrap(bytes, 0, 40))
+            cursor.isIPv4 shouldBe true
+            cursor.isTcp shouldBe false
+            cursor.getPayloadOffset shouldBe Ethernet.MIN_HEADER_LEN +
+                                             IPv4.MIN_HEADER_LEN
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.collection
+
+import java.util.ArrayList
+
+import scala.collection.JavaConversions._
+import scala.util.Random
+
+import org.junit.runner.RunWith
+
+import org.scalatest.{GivenWhenThen, Matchers, FeatureSpec}
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class TimerWheelTest extends FeatureSpec with GivenWhenThen with Matchers {
+
+    val tick = 10L
+
+    def newWheel(start: Long = 0L) =
+        new TimerWheel[String](tick, start, 4, 3)
+
+    feature("Timers expire when the wheel is advanced past their deadline") {
+        scenario("Timers in the first level") {
+            Given("A wheel with a few timers")
+            val wheel = newWheel()
+            val a = new TimerWheel.Entry("a")
+            val b = new TimerWheel.Entry("b")
+            wheel.schedule(a, 50)
+            wheel.schedule(b, 100)
+            wheel.size should be (2)
+
+            When("The wheel is advanced before any deadline")
+            val expired = new ArrayList[String]()
+            wheel.advance(40, expired) should be (0)
+
+            Then("No timer expires")
+            expired should be ('empty)
+
+            When("The wheel is advanced to the first deadline")
+            wheel.advance(50, expired) should be (1)
+
+            Then("Only the first timer expires")
+            expired.toList should be (List("a"))
+            a.isScheduled should be (false)
+            b.isScheduled should be (true)
+
+            When("The wheel is advanced past the second deadline")
+            expired.clear()
+            wheel.advance(1000, expired) should be (1)
+
+            Then("The second timer expires")
+            expired.toList should be (List("b"))
+            wheel.isEmpty should be (true)
+        }
+
+        scenario("Timers cascading from the upper levels") {
+            Given("A wheel with timers spread over all levels")
+            val start = 12345L
+            val wheel = newWheel(start)
+            val deadlines = (0 until 1000) map { _ =>
+                start + Random.nextInt(4096 * tick.toInt) }
+            deadlines.zipWithIndex foreach { case (d, i) =>
+                wheel.schedule(new TimerWheel.Entry(i.toString), d)
+            }
+
+            When("The wheel is advanced tick by tick")
+            val expired = new ArrayList[String]()
+            var now = start
+            while (!wheel.isEmpty) {
+                now += tick
+                expired.clear()
+                wheel.advance(now, expired)
+
+                Then("The expired timers are those whose tick was reached")
+                expired foreach { i =>
+                    val deadline = deadlines(i.toInt)
+                    deadline / tick should be <= (now / tick)
+                    deadline / tick should be > ((now - tick) / tick)
+                }
+            }
+        }
+
+        scenario("Timers beyond the span of the wheel") {
+            Given("A wheel with a timer further than its span")
+            val wheel = newWheel()
+            val entry = new TimerWheel.Entry("far")
+            val deadline = 4096 * tick * 3
+            wheel.schedule(entry, deadline)
+
+            When("The wheel is advanced to just before the deadline")
+            val expired = new ArrayList[String]()
+            wheel.advance(deadline - tick, expired)
+
+            Then("The timer doesn't expire")
+            expired should be ('empty)
+
+            When("The wheel is advanced to the deadline")
+            wheel.advance(deadline, expired)
+
+            Then("The timer expires")
+            expired.toList should be (List("far"))
+        }
+    }
+
+    feature("Timers can be cancelled and rescheduled") {
+        scenario("Cancelling a timer") {
+            Given("A wheel with two timers")
+            val wheel = newWheel()
+            val a = new TimerWheel.Entry("a")
+            val b = new TimerWheel.Entry("b")
+            wheel.schedule(a, 500)
+            wheel.schedule(b, 500)
+
+            When("A timer is cancelled")
+            wheel.cancel(a) should be (true)
+
+            Then("It is no longer scheduled")
+            a.isScheduled should be (false)
+            wheel.cancel(a) should be (false)
+            wheel.size should be (1)
+
+            And("It doesn't expire")
+            val expired = new ArrayList[String]()
+            wheel.advance(1000, expired)
+            expired.toList should be (List("b"))
+        }
+
+        scenario("Rescheduling a timer in another wheel") {
+            Given("Two wheels and a timer")
+            val wheel1 = newWheel()
+            val wheel2 = newWheel()
+            val a = new TimerWheel.Entry("a")
+            wheel1.schedule(a, 500)
+
+            When("The timer is scheduled in the other wheel")
+            wheel2.schedule(a, 500)
+
+            Then("It is removed from the first one")
+            wheel1.isEmpty should be (true)
+            wheel2.size should be (1)
+        }
+    }
+
+    feature("The wheel polls the timers closest to expire") {
+        scenario("Polling timers") {
+            Given("A wheel with timers in different levels")
+            val wheel = newWheel()
+            wheel.schedule(new TimerWheel.Entry("c"), 3000)
+            wheel.schedule(new TimerWheel.Entry("a"), 20)
+            wheel.schedule(new TimerWheel.Entry("b"), 400)
+
+            Then("The timers are polled in order")
+            wheel.pollFirst() should be ("a")
+            wheel.pollFirst() should be ("b")
+            wheel.pollFirst() should be ("c")
+            wheel.pollFirst() should be (null)
+        }
+
+        scenario("Clearing the wheel") {
+            Given("A wheel with timers")
+            val wheel = newWheel()
+            val entries = (0 until 100) map { i => new TimerWheel.Entry(s"$i") }
+            entries.zipWithIndex foreach { case (e, i) => wheel.schedule(e, i * 100) }
+
+            When("The wheel is cleared")
+            wheel.clear()
+
+            Then("No timer is scheduled")
+            wheel.isEmpty should be (true)
+            entries foreach { _.isScheduled should be (false) }
+        }
+    }
+}
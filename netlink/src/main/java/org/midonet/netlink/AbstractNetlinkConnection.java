@@ -222,6 +222,15 @@ public abstract class AbstractNetlinkConnection {
                                                 payload, timeoutMillis));
     }
 
+    protected <T> void sendStreamingNetlinkMessage(ByteBuffer payload,
+                                                   Callback<Integer> callback,
+                                                   Reader<T> reader,
+                                                   BatchCollector<T> collector,
+                                                   long timeoutMillis) {
+        enqueueRequest(NetlinkRequest.makeStreaming(callback, reader, collector,
+                                                    payload, timeoutMillis));
+    }
+
     private void enqueueRequest(NetlinkRequest req) {
         if (bypassSendQueue) {
             // If this stops being used only for testing, beware
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.midonet.netlink.exceptions.NetlinkException;
+import org.midonet.util.BatchCollector;
 
 /** Class used by AbstractNetlinkRequest to manage reply handlers and user given
  *  callbacks. */
@@ -169,6 +170,26 @@ public abstract class NetlinkRequest implements Runnable {
         return new MultiAnswerNetlinkRequest(cb, func, data, timeoutMillis);
     }
 
+    /** Factory method to create a NetlinkRequest which will be answered by a
+     *  sequence of replies, like makeMulti, but which hands every deserialised
+     *  object to the given collector as soon as it is read, in the thread
+     *  reading the replies, instead of collecting them in a set. The collector
+     *  batch ends when the sequence is complete, after which the callback
+     *  function takes as an input the number of objects read. */
+    public static <T> NetlinkRequest makeStreaming(Callback<Integer> callback,
+                                                   Reader<T> reader,
+                                                   BatchCollector<T> collector,
+                                                   ByteBuffer data,
+                                                   long timeoutMillis) {
+        @SuppressWarnings("unchecked")
+        Callback<Object> cb = (Callback<Object>) (Callback<?>) callback;
+        @SuppressWarnings("unchecked")
+        Reader<Object> func = (Reader<Object>) reader;
+        @SuppressWarnings("unchecked")
+        BatchCollector<Object> col = (BatchCollector<Object>) collector;
+        return new StreamingNetlinkRequest(cb, func, col, data, timeoutMillis);
+    }
+
     static class SingleAnswerNetlinkRequest extends NetlinkRequest {
         public SingleAnswerNetlinkRequest(Callback<Object> callback,
                                           Reader<Object> reader,
@@ -210,6 +231,34 @@ public abstract class NetlinkRequest implements Runnable {
         }
     }
 
+    static class StreamingNetlinkRequest extends NetlinkRequest {
+        private final BatchCollector<Object> collector;
+        private int count = 0;
+
+        public StreamingNetlinkRequest(Callback<Object> callback,
+                                       Reader<Object> reader,
+                                       BatchCollector<Object> collector,
+                                       ByteBuffer data,
+                                       long timeoutMillis) {
+            super(callback, reader, data, timeoutMillis);
+            this.collector = collector;
+        }
+        @Override
+        public void addAnswerFragment(ByteBuffer buf) {
+            Object item = reader.deserializeFrom(buf);
+            if (item != null) {
+                collector.submit(item);
+                count++;
+            }
+        }
+        @Override
+        public Runnable successful() {
+            collector.endBatch();
+            changeState(State.Success, count);
+            return this;
+        }
+    }
+
     // A null value is interpreted by the comparator as a netlinkrequest with
     // infinite timeout, and is therefore "larger" than any non-null request.
     public static final Comparator<NetlinkRequest> comparator =
@@ -212,9 +212,13 @@ class NetlinkRequestBroker(reader: NetlinkReader,
             orElse
         }
 
+    /**
+     * Sequence numbers are always positive, so that the owner of the channel
+     * can use negative ones for the messages it writes outside the broker.
+     */
     private def nextSequenceNumber(): Int = {
         var seq = sequenceNumber + 1
-        if (seq == UPCALL) {
+        if (seq <= UPCALL) {
             seq = UPCALL + 1
         }
         sequenceNumber = seq
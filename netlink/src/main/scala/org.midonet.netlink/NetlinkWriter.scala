@@ -70,3 +70,107 @@ class NetlinkBlockingWriter(channel: NetlinkChannel) extends NetlinkWriter(chann
         nbytes
     }
 }
+
+/**
+ * Writes batches of Netlink messages into a channel with a single gathering
+ * write, so that the kernel receives a whole batch in one datagram. The
+ * kernel processes each message of the datagram independently and, for the
+ * requests that don't ask for an ACK, only replies to the ones that fail,
+ * tagging the error with the sequence number of the message: callers should
+ * give a distinct sequence number to each message of a batch.
+ *
+ * Each source buffer must hold one Netlink message. Buffers are referenced,
+ * not copied, so they must not be modified until the batch is flushed, at
+ * which point their position and limit are restored. A batch is flushed
+ * automatically when it reaches the maximum number of messages or bytes.
+ */
+class NetlinkBatchWriter(val channel: NetlinkChannel,
+                         maxMessages: Int = 64,
+                         maxBytes: Int = 64 * 1024) {
+
+    private val timeout = (100 millis).toMillis
+    private val selector = channel.selector()
+
+    private val buffers = new Array[ByteBuffer](maxMessages)
+    private val positions = new Array[Int](maxMessages)
+    private val limits = new Array[Int](maxMessages)
+    // The gathering write takes an array with exactly the buffers to write,
+    // so we keep one for each batch size as they are needed.
+    private val batches = new Array[Array[ByteBuffer]](maxMessages + 1)
+    private var size = 0
+    private var bytes = 0
+
+    /**
+     * The number of messages waiting to be flushed.
+     */
+    def pending: Int = size
+
+    /**
+     * Adds the message in the source buffer to the current batch, flushing
+     * the batch first if the message doesn't fit in it.
+     */
+    @throws(classOf[IOException])
+    def add(src: ByteBuffer): Unit = {
+        if (size == maxMessages ||
+            (size > 0 && bytes + src.remaining() > maxBytes)) {
+            flush()
+        }
+
+        positions(size) = src.position()
+        limits(size) = src.limit()
+        // Messages are 4B aligned within a datagram. The padding is not
+        // part of the message length, so its contents are irrelevant.
+        val aligned = src.position() + NetlinkMessage.align(src.remaining())
+        val padded = aligned <= src.capacity()
+        if (padded) {
+            src.limit(aligned)
+        }
+        buffers(size) = src
+        size += 1
+        bytes += src.remaining()
+
+        if (!padded) {
+            // Only the last message of a datagram may be unaligned.
+            flush()
+        }
+    }
+
+    /**
+     * Writes the current batch into the underlying channel, blocking
+     * regardless of the channel mode while the write doesn't succeed.
+     * Returns the number of bytes written.
+     */
+    @throws(classOf[IOException])
+    def flush(): Int = {
+        if (size == 0)
+            return 0
+
+        var batch = batches(size)
+        if (batch eq null) {
+            batch = new Array[ByteBuffer](size)
+            batches(size) = batch
+        }
+        System.arraycopy(buffers, 0, batch, 0, size)
+
+        try {
+            var nbytes = 0L
+            while ({ nbytes = channel.write(batch); nbytes } == 0) {
+                if (!channel.isOpen)
+                    return 0
+
+                selector.select(timeout)
+            }
+            nbytes.toInt
+        } finally {
+            var i = 0
+            while (i < size) {
+                buffers(i).limit(limits(i)).position(positions(i))
+                buffers(i) = null
+                batch(i) = null
+                i += 1
+            }
+            size = 0
+            bytes = 0
+        }
+    }
+}
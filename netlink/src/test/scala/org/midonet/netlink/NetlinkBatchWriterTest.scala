@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.netlink
+
+import java.nio.ByteBuffer
+
+import scala.collection.mutable
+
+import org.junit.runner.RunWith
+import org.scalatest._
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.netlink.Netlink.Address
+
+@RunWith(classOf[JUnitRunner])
+class NetlinkBatchWriterTest extends FeatureSpec
+                             with ShouldMatchers
+                             with OneInstancePerTest {
+
+    /* Records the size of each buffer of each gathering write. */
+    val writes = mutable.ArrayBuffer[Seq[Int]]()
+    val channel = new MockNetlinkChannel(Netlink.selectorProvider,
+                                         NetlinkProtocol.NETLINK_GENERIC) {
+        override def write(srcs: Array[ByteBuffer]): Long = {
+            writes += srcs.map(_.remaining()).toSeq
+            super.write(srcs)
+        }
+    }
+
+    {
+        channel.connect(new Address(0))
+    }
+
+    def message(size: Int, seq: Int, capacity: Int = 512): ByteBuffer = {
+        val buf = ByteBuffer.allocate(capacity)
+        NetlinkMessage.writeHeader(buf, size, 1, 2, seq, 4, 5, 6)
+        buf.position(0)
+        buf.limit(size)
+        buf
+    }
+
+    feature ("NetlinkBatchWriter writes batches of messages") {
+        scenario ("Messages are written together when the batch is flushed") {
+            val writer = new NetlinkBatchWriter(channel)
+            val bufs = (1 to 3) map { seq => message(64, seq) }
+
+            bufs foreach writer.add
+            writer.pending should be (3)
+            writes should be ('empty)
+
+            writer.flush() should be (3 * 64)
+            writer.pending should be (0)
+            writes should be (Seq(Seq(64, 64, 64)))
+            channel.packetsWritten.get() should be (3)
+
+            bufs.zipWithIndex foreach { case (buf, i) =>
+                buf.position() should be (0)
+                buf.limit() should be (64)
+                buf.getInt(NetlinkMessage.NLMSG_SEQ_OFFSET) should be (i + 1)
+            }
+        }
+
+        scenario ("Flushing an empty batch doesn't write") {
+            val writer = new NetlinkBatchWriter(channel)
+            writer.flush() should be (0)
+            writes should be ('empty)
+        }
+
+        scenario ("A full batch is flushed before adding more messages") {
+            val writer = new NetlinkBatchWriter(channel, maxMessages = 2)
+            (1 to 5) foreach { seq => writer.add(message(64, seq)) }
+            writes should be (Seq(Seq(64, 64), Seq(64, 64)))
+            writer.pending should be (1)
+
+            writer.flush()
+            writes.last should be (Seq(64))
+        }
+
+        scenario ("A batch is bounded in bytes") {
+            val writer = new NetlinkBatchWriter(channel, maxBytes = 200)
+            (1 to 4) foreach { seq => writer.add(message(64, seq)) }
+            writes should be (Seq(Seq(64, 64, 64)))
+            writer.pending should be (1)
+
+            val big = message(300, 5)
+            writer.add(big)
+            writes.last should be (Seq(64))
+            writer.flush()
+            writes.last should be (Seq(300))
+        }
+
+        scenario ("Messages are aligned within a batch") {
+            val writer = new NetlinkBatchWriter(channel)
+            val unaligned = message(61, 1)
+            writer.add(unaligned)
+            writer.add(message(64, 2))
+            writer.flush()
+
+            writes should be (Seq(Seq(64, 64)))
+            unaligned.limit() should be (61)
+        }
+
+        scenario ("A message that can't be aligned ends its batch") {
+            val writer = new NetlinkBatchWriter(channel)
+            writer.add(message(64, 1))
+            writer.add(message(61, 2, capacity = 61))
+            writes should be (Seq(Seq(64, 61)))
+            writer.pending should be (0)
+        }
+    }
+}
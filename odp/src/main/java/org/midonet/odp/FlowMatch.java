@@ -15,10 +15,10 @@
  */
 package org.midonet.odp;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -85,24 +85,24 @@ public class FlowMatch {
         },
         EthSrc {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.ethSrc;
+                return toString() + "=" + MAC.longToString(wcmatch.ethSrc);
             }
             public int hashCode(FlowMatch wcmatch) {
-                return Objects.hash(wcmatch.ethSrc);
+                return Longs.hashCode(wcmatch.ethSrc);
             }
             public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.ethSrc, wcmatch2.ethSrc);
+                return wcmatch1.ethSrc == wcmatch2.ethSrc;
             }
         },
         EthDst {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.ethDst;
+                return toString() + "=" + MAC.longToString(wcmatch.ethDst);
             }
             public int hashCode(FlowMatch wcmatch) {
-                return Objects.hashCode(wcmatch.ethDst);
+                return Longs.hashCode(wcmatch.ethDst);
             }
             public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.ethDst, wcmatch2.ethDst);
+                return wcmatch1.ethDst == wcmatch2.ethDst;
             }
         },
         EtherType {
@@ -118,35 +118,43 @@ public class FlowMatch {
         },
         VlanId { // MM-custom field
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.vlanIds;
+                return toString() + "=" + wcmatch.vlanList();
             }
             public int hashCode(FlowMatch wcmatch) {
-                return Objects.hashCode(wcmatch.vlanIds);
+                return wcmatch.vlanHashCode();
             }
             public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.vlanIds, wcmatch2.vlanIds);
+                return wcmatch1.vlansEqual(wcmatch2);
             }
         },
         NetworkSrc {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.networkSrc;
+                return toString() + "=" + wcmatch.networkSrcView();
             }
             public int hashCode(FlowMatch wcmatch) {
-                return Objects.hashCode(wcmatch.networkSrc);
+                return ipHashCode(wcmatch.networkSrcVersion,
+                                  wcmatch.networkSrcUpper,
+                                  wcmatch.networkSrcLower);
             }
             public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.networkSrc, wcmatch2.networkSrc);
+                return wcmatch1.networkSrcVersion == wcmatch2.networkSrcVersion
+                    && wcmatch1.networkSrcUpper == wcmatch2.networkSrcUpper
+                    && wcmatch1.networkSrcLower == wcmatch2.networkSrcLower;
             }
         },
         NetworkDst {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.networkDst;
+                return toString() + "=" + wcmatch.networkDstView();
             }
             public int hashCode(FlowMatch wcmatch) {
-                return Objects.hashCode(wcmatch.networkDst);
+                return ipHashCode(wcmatch.networkDstVersion,
+                                  wcmatch.networkDstUpper,
+                                  wcmatch.networkDstLower);
             }
             public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.networkDst, wcmatch2.networkDst);
+                return wcmatch1.networkDstVersion == wcmatch2.networkDstVersion
+                    && wcmatch1.networkDstUpper == wcmatch2.networkDstUpper
+                    && wcmatch1.networkDstLower == wcmatch2.networkDstLower;
             }
         },
         NetworkProto {
@@ -298,15 +306,33 @@ public class FlowMatch {
     public static final long icmpFieldsMask = (1L << Field.IcmpData.ordinal()) |
                                               (1L << Field.IcmpId.ordinal());
 
+    private static final byte IP_NONE = 0;
+    private static final byte IP_V4 = 4;
+    private static final byte IP_V6 = 6;
+
+    private static final int INITIAL_VLANS = 2;
+
+    /*
+     * The fields are stored as primitives so that building, hashing and
+     * comparing a match doesn't allocate nor chase references: MAC addresses
+     * are kept in the lower 48 bits of a long, and network addresses in two
+     * longs, with IPv4 addresses in the lower word. The MAC and IPAddr
+     * instances returned by the getters are created on first use and cached
+     * until the field is set again.
+     */
     private int inputPortNumber = 0;
     private long tunnelKey = 0L;
     private int tunnelSrc = 0;
     private int tunnelDst = 0;
-    private MAC ethSrc;
-    private MAC ethDst;
+    private long ethSrc = 0L;
+    private long ethDst = 0L;
     private short etherType = (short) FlowKeyEtherType.Type.ETH_P_NONE.value;
-    private IPAddr networkSrc;
-    private IPAddr networkDst;
+    private byte networkSrcVersion = IP_NONE;
+    private long networkSrcUpper = 0L;
+    private long networkSrcLower = 0L;
+    private byte networkDstVersion = IP_NONE;
+    private long networkDstUpper = 0L;
+    private long networkDstLower = 0L;
     private byte networkProto = 0;
     private byte networkTTL = 0;
     private byte networkTOS = 0;
@@ -317,14 +343,23 @@ public class FlowMatch {
     // Extended fields only supported inside MM
     private short icmpId = 0;
     private byte[] icmpData;
-    private List<Short> vlanIds = new ArrayList<>();
+    private short[] vlanIds = new short[INITIAL_VLANS];
+    private int vlanCount = 0;
+
+    private MAC ethSrcView;
+    private MAC ethDstView;
+    private IPAddr networkSrcView;
+    private IPAddr networkDstView;
+    private List<Short> vlanList;
 
     private long trackSeenFields = 1L;
 
     protected long usedFields = 0;
     protected long seenFields = 0;
 
-    private final ArrayList<FlowKey> keys = new ArrayList<>();
+    // The keys are only needed to talk to the datapath, so the list is not
+    // allocated for the matches built field by field by the simulation.
+    private ArrayList<FlowKey> keys;
     private int hashCode = 0;
     private int connectionHash = 0;
     private long sequence = -1;
@@ -336,7 +371,7 @@ public class FlowMatch {
     }
 
     public FlowMatch addKey(FlowKey key) {
-        keys.add(FlowKeys.intern(key));
+        getKeys().add(FlowKeys.intern(key));
         processMatchKey(key);
         invalidateHashCode();
         return this;
@@ -344,6 +379,9 @@ public class FlowMatch {
 
     @Nonnull
     public ArrayList<FlowKey> getKeys() {
+        if (keys == null) {
+            keys = new ArrayList<>();
+        }
         return keys;
     }
 
@@ -459,9 +497,17 @@ public class FlowMatch {
         tunnelDst = that.tunnelDst;
         ethSrc = that.ethSrc;
         ethDst = that.ethDst;
+        ethSrcView = that.ethSrcView;
+        ethDstView = that.ethDstView;
         etherType = that.etherType;
-        networkSrc = that.networkSrc;
-        networkDst = that.networkDst;
+        networkSrcVersion = that.networkSrcVersion;
+        networkSrcUpper = that.networkSrcUpper;
+        networkSrcLower = that.networkSrcLower;
+        networkSrcView = that.networkSrcView;
+        networkDstVersion = that.networkDstVersion;
+        networkDstUpper = that.networkDstUpper;
+        networkDstLower = that.networkDstLower;
+        networkDstView = that.networkDstView;
         networkProto = that.networkProto;
         networkTTL = that.networkTTL;
         networkTOS = that.networkTOS;
@@ -469,15 +515,19 @@ public class FlowMatch {
         srcPort = that.srcPort;
         dstPort = that.dstPort;
         icmpId = that.icmpId;
-        vlanIds.clear();
-        vlanIds.addAll(that.vlanIds);
+        if (vlanIds.length < that.vlanCount)
+            vlanIds = new short[that.vlanIds.length];
+        System.arraycopy(that.vlanIds, 0, vlanIds, 0, that.vlanCount);
+        vlanCount = that.vlanCount;
         setIcmpData(that.icmpData);
         usedFields = that.usedFields;
         trackSeenFields = that.trackSeenFields;
         seenFields = that.seenFields;
         sequence = that.sequence;
-        keys.clear();
-        keys.addAll(that.keys);
+        if (keys != null)
+            keys.clear();
+        if (that.keys != null && !that.keys.isEmpty())
+            getKeys().addAll(that.keys);
         invalidateHashCode();
     }
 
@@ -487,17 +537,26 @@ public class FlowMatch {
      */
     public void clear() {
         this.icmpData = null;
-        this.networkSrc = null;
-        this.networkDst = null;
-        this.ethSrc = null;
-        this.ethDst = null;
-        vlanIds.clear();
+        this.networkSrcVersion = IP_NONE;
+        this.networkSrcUpper = 0L;
+        this.networkSrcLower = 0L;
+        this.networkSrcView = null;
+        this.networkDstVersion = IP_NONE;
+        this.networkDstUpper = 0L;
+        this.networkDstLower = 0L;
+        this.networkDstView = null;
+        this.ethSrc = 0L;
+        this.ethDst = 0L;
+        this.ethSrcView = null;
+        this.ethDstView = null;
+        this.vlanCount = 0;
         this.etherType = (short) FlowKeyEtherType.Type.ETH_P_NONE.value;
         this.usedFields = 0;
         this.trackSeenFields = 1;
         this.seenFields = 0;
         this.sequence = -1;
-        keys.clear();
+        if (keys != null)
+            keys.clear();
         invalidateHashCode();
     }
 
@@ -560,13 +619,28 @@ public class FlowMatch {
 
     @Nonnull
     public FlowMatch setEthSrc(@Nonnull MAC addr) {
+        setEthSrc(addr.asLong());
+        this.ethSrcView = addr;
+        return this;
+    }
+
+    @Nonnull
+    public FlowMatch setEthSrc(long addr) {
         fieldUsed(Field.EthSrc);
         this.ethSrc = addr;
+        this.ethSrcView = null;
         return this;
     }
 
     @Nullable
     public MAC getEthSrc() {
+        fieldSeen(Field.EthSrc);
+        if (ethSrcView == null && isUsed(Field.EthSrc))
+            ethSrcView = new MAC(ethSrc);
+        return ethSrcView;
+    }
+
+    public long getEthSrcAsLong() {
         fieldSeen(Field.EthSrc);
         return ethSrc;
     }
@@ -578,13 +652,28 @@ public class FlowMatch {
 
     @Nonnull
     public FlowMatch setEthDst(@Nonnull MAC addr) {
+        setEthDst(addr.asLong());
+        this.ethDstView = addr;
+        return this;
+    }
+
+    @Nonnull
+    public FlowMatch setEthDst(long addr) {
         fieldUsed(Field.EthDst);
         this.ethDst = addr;
+        this.ethDstView = null;
         return this;
     }
 
     @Nullable
     public MAC getEthDst() {
+        fieldSeen(Field.EthDst);
+        if (ethDstView == null && isUsed(Field.EthDst))
+            ethDstView = new MAC(ethDst);
+        return ethDstView;
+    }
+
+    public long getEthDstAsLong() {
         fieldSeen(Field.EthDst);
         return ethDst;
     }
@@ -603,15 +692,57 @@ public class FlowMatch {
 
     @Nonnull
     public FlowMatch setNetworkSrc(@Nonnull IPAddr addr) {
+        if (addr instanceof IPv4Addr) {
+            setNetworkSrcIPv4(((IPv4Addr) addr).toInt());
+        } else {
+            IPv6Addr ip6 = (IPv6Addr) addr;
+            setNetworkSrcIPv6(ip6.upperWord(), ip6.lowerWord());
+        }
+        this.networkSrcView = addr;
+        return this;
+    }
+
+    @Nonnull
+    public FlowMatch setNetworkSrcIPv4(int addr) {
+        fieldUsed(Field.NetworkSrc);
+        this.networkSrcVersion = IP_V4;
+        this.networkSrcUpper = 0L;
+        this.networkSrcLower = addr & 0xFFFFFFFFL;
+        this.networkSrcView = null;
+        return this;
+    }
+
+    @Nonnull
+    public FlowMatch setNetworkSrcIPv6(long upperWord, long lowerWord) {
         fieldUsed(Field.NetworkSrc);
-        this.networkSrc = addr;
+        this.networkSrcVersion = IP_V6;
+        this.networkSrcUpper = upperWord;
+        this.networkSrcLower = lowerWord;
+        this.networkSrcView = null;
         return this;
     }
 
     @Nullable
     public IPAddr getNetworkSrcIP() {
         fieldSeen(Field.NetworkSrc);
-        return networkSrc;
+        return networkSrcView();
+    }
+
+    /**
+     * @return the source address as an int, only meaningful when the source
+     *         address is an IPv4 address.
+     */
+    public int getNetworkSrcIPv4() {
+        fieldSeen(Field.NetworkSrc);
+        return (int) networkSrcLower;
+    }
+
+    private IPAddr networkSrcView() {
+        if (networkSrcView == null) {
+            networkSrcView = ipView(networkSrcVersion, networkSrcUpper,
+                                    networkSrcLower);
+        }
+        return networkSrcView;
     }
 
     /**
@@ -620,15 +751,73 @@ public class FlowMatch {
      */
     @Nonnull
     public FlowMatch setNetworkDst(@Nonnull IPAddr addr) {
+        if (addr instanceof IPv4Addr) {
+            setNetworkDstIPv4(((IPv4Addr) addr).toInt());
+        } else {
+            IPv6Addr ip6 = (IPv6Addr) addr;
+            setNetworkDstIPv6(ip6.upperWord(), ip6.lowerWord());
+        }
+        this.networkDstView = addr;
+        return this;
+    }
+
+    @Nonnull
+    public FlowMatch setNetworkDstIPv4(int addr) {
         fieldUsed(Field.NetworkDst);
-        this.networkDst = addr;
+        this.networkDstVersion = IP_V4;
+        this.networkDstUpper = 0L;
+        this.networkDstLower = addr & 0xFFFFFFFFL;
+        this.networkDstView = null;
+        return this;
+    }
+
+    @Nonnull
+    public FlowMatch setNetworkDstIPv6(long upperWord, long lowerWord) {
+        fieldUsed(Field.NetworkDst);
+        this.networkDstVersion = IP_V6;
+        this.networkDstUpper = upperWord;
+        this.networkDstLower = lowerWord;
+        this.networkDstView = null;
         return this;
     }
 
     @Nullable
     public IPAddr getNetworkDstIP() {
         fieldSeen(Field.NetworkDst);
-        return networkDst;
+        return networkDstView();
+    }
+
+    /**
+     * @return the destination address as an int, only meaningful when the
+     *         destination address is an IPv4 address.
+     */
+    public int getNetworkDstIPv4() {
+        fieldSeen(Field.NetworkDst);
+        return (int) networkDstLower;
+    }
+
+    private IPAddr networkDstView() {
+        if (networkDstView == null) {
+            networkDstView = ipView(networkDstVersion, networkDstUpper,
+                                    networkDstLower);
+        }
+        return networkDstView;
+    }
+
+    private static IPAddr ipView(byte version, long upper, long lower) {
+        switch (version) {
+            case IP_V4: return IPv4Addr.fromInt((int) lower);
+            case IP_V6: return new IPv6Addr(upper, lower);
+            default: return null;
+        }
+    }
+
+    private static int ipHashCode(byte version, long upper, long lower) {
+        switch (version) {
+            case IP_V4: return (int) lower;
+            case IP_V6: return Longs.hashCode(upper ^ lower);
+            default: return 0;
+        }
     }
 
     @Nonnull
@@ -722,7 +911,7 @@ public class FlowMatch {
         if (icmpData != null)
             this.icmpData = Arrays.copyOf(icmpData, icmpData.length);
         else
-            icmpData = null;
+            this.icmpData = null;
         return this;
     }
 
@@ -736,30 +925,91 @@ public class FlowMatch {
     @Nonnull
     public FlowMatch addVlanId(short vlanId) {
         fieldUsed(Field.VlanId);
-        this.vlanIds.add(vlanId);
+        if (vlanCount == vlanIds.length)
+            vlanIds = Arrays.copyOf(vlanIds, vlanIds.length * 2);
+        vlanIds[vlanCount++] = vlanId;
         return this;
     }
 
     @Nonnull
     public FlowMatch addVlanIds(List<Short> vlanIds) {
         fieldUsed(Field.VlanId);
-        this.vlanIds.addAll(vlanIds);
+        for (Short vlanId : vlanIds)
+            addVlanId(vlanId);
         return this;
     }
 
     @Nonnull
     public FlowMatch removeVlanId(short vlanId) {
-        int index = vlanIds.indexOf(vlanId);
-        if (index != -1)
-            vlanIds.remove(index);
-        if (vlanIds.isEmpty())
+        for (int i = 0; i < vlanCount; ++i) {
+            if (vlanIds[i] == vlanId) {
+                System.arraycopy(vlanIds, i + 1, vlanIds, i, vlanCount - i - 1);
+                vlanCount--;
+                invalidateHashCode();
+                break;
+            }
+        }
+        if (vlanCount == 0)
             fieldUnused(Field.VlanId);
         return this;
     }
 
+    /**
+     * @return a read-only view of the vlan ids of this match, which reflects
+     *         the changes made through addVlanId and removeVlanId.
+     */
     public List<Short> getVlanIds() {
         fieldSeen(Field.VlanId);
-        return vlanIds;
+        return vlanList();
+    }
+
+    public int getVlanCount() {
+        fieldSeen(Field.VlanId);
+        return vlanCount;
+    }
+
+    public short getVlanId(int index) {
+        fieldSeen(Field.VlanId);
+        if (index >= vlanCount)
+            throw new IndexOutOfBoundsException("Vlan index: " + index);
+        return vlanIds[index];
+    }
+
+    private List<Short> vlanList() {
+        if (vlanList == null) {
+            vlanList = new AbstractList<Short>() {
+                @Override
+                public Short get(int index) {
+                    if (index >= vlanCount)
+                        throw new IndexOutOfBoundsException(
+                            "Vlan index: " + index);
+                    return vlanIds[index];
+                }
+
+                @Override
+                public int size() {
+                    return vlanCount;
+                }
+            };
+        }
+        return vlanList;
+    }
+
+    private int vlanHashCode() {
+        int result = 1;
+        for (int i = 0; i < vlanCount; ++i)
+            result = 31 * result + vlanIds[i];
+        return result;
+    }
+
+    private boolean vlansEqual(FlowMatch that) {
+        if (vlanCount != that.vlanCount)
+            return false;
+        for (int i = 0; i < vlanCount; ++i) {
+            if (vlanIds[i] != that.vlanIds[i])
+                return false;
+        }
+        return true;
     }
 
     public long getSequence() {
@@ -777,26 +1027,93 @@ public class FlowMatch {
         if (o == null || !(o instanceof FlowMatch)) return false;
 
         FlowMatch that = (FlowMatch) o;
-        for (Field f : fields) {
-            if (isUsed(f) && (!that.isUsed(f) || !f.equals(this, that)))
-                return false;
-        }
-        return true;
+        long used = usedFields;
+        if ((used & ~that.usedFields) != 0)
+            return false;
+        return (!isUsed(used, Field.InputPortNumber)
+                    || inputPortNumber == that.inputPortNumber)
+            && (!isUsed(used, Field.TunnelKey) || tunnelKey == that.tunnelKey)
+            && (!isUsed(used, Field.TunnelSrc) || tunnelSrc == that.tunnelSrc)
+            && (!isUsed(used, Field.TunnelDst) || tunnelDst == that.tunnelDst)
+            && (!isUsed(used, Field.EthSrc) || ethSrc == that.ethSrc)
+            && (!isUsed(used, Field.EthDst) || ethDst == that.ethDst)
+            && (!isUsed(used, Field.EtherType) || etherType == that.etherType)
+            && (!isUsed(used, Field.VlanId) || vlansEqual(that))
+            && (!isUsed(used, Field.NetworkSrc)
+                    || (networkSrcLower == that.networkSrcLower
+                        && networkSrcUpper == that.networkSrcUpper
+                        && networkSrcVersion == that.networkSrcVersion))
+            && (!isUsed(used, Field.NetworkDst)
+                    || (networkDstLower == that.networkDstLower
+                        && networkDstUpper == that.networkDstUpper
+                        && networkDstVersion == that.networkDstVersion))
+            && (!isUsed(used, Field.NetworkProto)
+                    || networkProto == that.networkProto)
+            && (!isUsed(used, Field.NetworkTTL) || networkTTL == that.networkTTL)
+            && (!isUsed(used, Field.NetworkTOS) || networkTOS == that.networkTOS)
+            && (!isUsed(used, Field.FragmentType)
+                    || ipFragmentType == that.ipFragmentType)
+            && (!isUsed(used, Field.SrcPort) || srcPort == that.srcPort)
+            && (!isUsed(used, Field.DstPort) || dstPort == that.dstPort)
+            && (!isUsed(used, Field.IcmpId) || icmpId == that.icmpId)
+            && (!isUsed(used, Field.IcmpData)
+                    || Arrays.equals(icmpData, that.icmpData));
     }
 
     @Override
     public int hashCode() {
         if (hashCode == 0) {
-            int result = Longs.hashCode(usedFields);
-            for (Field f : fields) {
-                if (isUsed(f))
-                    result = 31 * result + f.hashCode(this);
-            }
+            long used = usedFields;
+            int result = Longs.hashCode(used);
+            if (isUsed(used, Field.InputPortNumber))
+                result = 31 * result + inputPortNumber;
+            if (isUsed(used, Field.TunnelKey))
+                result = 31 * result + Longs.hashCode(tunnelKey);
+            if (isUsed(used, Field.TunnelSrc))
+                result = 31 * result + tunnelSrc;
+            if (isUsed(used, Field.TunnelDst))
+                result = 31 * result + tunnelDst;
+            if (isUsed(used, Field.EthSrc))
+                result = 31 * result + Longs.hashCode(ethSrc);
+            if (isUsed(used, Field.EthDst))
+                result = 31 * result + Longs.hashCode(ethDst);
+            if (isUsed(used, Field.EtherType))
+                result = 31 * result + etherType;
+            if (isUsed(used, Field.VlanId))
+                result = 31 * result + vlanHashCode();
+            if (isUsed(used, Field.NetworkSrc))
+                result = 31 * result + ipHashCode(networkSrcVersion,
+                                                  networkSrcUpper,
+                                                  networkSrcLower);
+            if (isUsed(used, Field.NetworkDst))
+                result = 31 * result + ipHashCode(networkDstVersion,
+                                                  networkDstUpper,
+                                                  networkDstLower);
+            if (isUsed(used, Field.NetworkProto))
+                result = 31 * result + networkProto;
+            if (isUsed(used, Field.NetworkTTL))
+                result = 31 * result + networkTTL;
+            if (isUsed(used, Field.NetworkTOS))
+                result = 31 * result + networkTOS;
+            if (isUsed(used, Field.FragmentType))
+                result = 31 * result + ipFragmentType.ordinal();
+            if (isUsed(used, Field.SrcPort))
+                result = 31 * result + srcPort;
+            if (isUsed(used, Field.DstPort))
+                result = 31 * result + dstPort;
+            if (isUsed(used, Field.IcmpId))
+                result = 31 * result + icmpId;
+            if (isUsed(used, Field.IcmpData))
+                result = 31 * result + Arrays.hashCode(icmpData);
             hashCode = result;
         }
         return hashCode;
     }
 
+    private static boolean isUsed(long usedFields, Field field) {
+        return (usedFields & (1L << field.ordinal())) != 0;
+    }
+
     /** Returns a hash code which only uses for its calculation fields that are
      *  part of a stateful L4 connection. This allows for  a consistent result
      *  across multiple matches that belong to the same connection.
@@ -805,12 +1122,16 @@ public class FlowMatch {
         if (connectionHash == 0) {
             int connHash = 0;
             if (highestLayer(usedFields) >= 4) {
-                connHash = 31 * connHash + Field.NetworkSrc.hashCode(this);
-                connHash = 31 * connHash + Field.NetworkDst.hashCode(this);
-                connHash = 31 * connHash + Field.NetworkProto.hashCode(this);
-                connHash = 31 * connHash + Field.SrcPort.hashCode(this);
-                connHash = 31 * connHash + Field.DstPort.hashCode(this);
-                connHash = 31 * connHash + Field.IcmpId.hashCode(this);
+                connHash = 31 * connHash + ipHashCode(networkSrcVersion,
+                                                      networkSrcUpper,
+                                                      networkSrcLower);
+                connHash = 31 * connHash + ipHashCode(networkDstVersion,
+                                                      networkDstUpper,
+                                                      networkDstLower);
+                connHash = 31 * connHash + networkProto;
+                connHash = 31 * connHash + srcPort;
+                connHash = 31 * connHash + dstPort;
+                connHash = 31 * connHash + icmpId;
             } else {
                 connHash = hashCode();
             }
@@ -872,8 +1193,8 @@ public class FlowMatch {
             case OpenVSwitch.FlowKey.Attr.Ethernet:
                 FlowKeyEthernet ethernet = as(flowKey,
                                               FlowKeyEthernet.class);
-                setEthSrc(MAC.fromAddress(ethernet.eth_src));
-                setEthDst(MAC.fromAddress(ethernet.eth_dst));
+                setEthSrc(MAC.bytesToLong(ethernet.eth_src));
+                setEthDst(MAC.bytesToLong(ethernet.eth_dst));
                 break;
 
             case OpenVSwitch.FlowKey.Attr.VLan:
@@ -889,10 +1210,8 @@ public class FlowMatch {
 
             case OpenVSwitch.FlowKey.Attr.IPv4:
                 FlowKeyIPv4 ipv4 = as(flowKey, FlowKeyIPv4.class);
-                setNetworkSrc(
-                    IPv4Addr.fromInt(ipv4.ipv4_src));
-                setNetworkDst(
-                    IPv4Addr.fromInt(ipv4.ipv4_dst));
+                setNetworkSrcIPv4(ipv4.ipv4_src);
+                setNetworkDstIPv4(ipv4.ipv4_dst);
                 setNetworkProto(ipv4.ipv4_proto);
                 setIpFragmentType(IPFragmentType.fromByte(ipv4.ipv4_frag));
                 setNetworkTTL(ipv4.ipv4_ttl);
@@ -903,12 +1222,12 @@ public class FlowMatch {
                 FlowKeyIPv6 ipv6 = as(flowKey, FlowKeyIPv6.class);
                 int[] intSrc = ipv6.ipv6_src;
                 int[] intDst = ipv6.ipv6_dst;
-                setNetworkSrc(new IPv6Addr(
+                setNetworkSrcIPv6(
                     (((long) intSrc[0]) << 32) | (intSrc[1] & 0xFFFFFFFFL),
-                    (((long) intSrc[2]) << 32) | (intSrc[3] & 0xFFFFFFFFL)));
-                setNetworkDst(new IPv6Addr(
+                    (((long) intSrc[2]) << 32) | (intSrc[3] & 0xFFFFFFFFL));
+                setNetworkDstIPv6(
                     (((long) intDst[0]) << 32) | (intDst[1] & 0xFFFFFFFFL),
-                    (((long) intDst[2]) << 32) | (intDst[3] & 0xFFFFFFFFL)));
+                    (((long) intDst[2]) << 32) | (intDst[3] & 0xFFFFFFFFL));
                 setNetworkProto(ipv6.ipv6_proto);
                 setIpFragmentType(IPFragmentType.fromByte(ipv6.ipv6_frag));
                 setNetworkTTL(ipv6.ipv6_hlimit);
@@ -947,8 +1266,8 @@ public class FlowMatch {
 
             case OpenVSwitch.FlowKey.Attr.ARP:
                 FlowKeyARP arp = as(flowKey, FlowKeyARP.class);
-                setNetworkSrc(IPv4Addr.fromInt(arp.arp_sip));
-                setNetworkDst(IPv4Addr.fromInt(arp.arp_tip));
+                setNetworkSrcIPv4(arp.arp_sip);
+                setNetworkDstIPv4(arp.arp_tip);
                 setEtherType(ARP.ETHERTYPE);
                 setNetworkProto((byte) arp.arp_op);
                 break;
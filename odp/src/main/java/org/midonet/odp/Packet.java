@@ -17,6 +17,7 @@ package org.midonet.odp;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Objects;
 
 import org.slf4j.Logger;
@@ -30,12 +31,28 @@ import org.midonet.odp.flows.FlowActions;
 import org.midonet.odp.flows.FlowKey;
 import org.midonet.odp.flows.FlowKeys;
 import org.midonet.packets.Ethernet;
+import org.midonet.packets.MalformedPacketException;
 
 /**
  * An abstraction over the Ovs kernel datapath Packet entity. Contains an
  * {@link FlowMatch} object and a <code>byte[] data</code> member when triggered
  * via a kernel notification.
  *
+ * A packet received from the datapath keeps the bytes of the upcall, which
+ * are sent back as they are when the packet is executed, instead of
+ * serializing the Ethernet frame again. Header changes are applied by the
+ * datapath through set actions, so the frame only needs to be serialized
+ * when it was built by the agent or modified in place, in which case the
+ * modifier must call {@link #markModified()}.
+ *
+ * Since the match of an upcalled packet comes from the flow keys computed by
+ * the kernel, its Ethernet frame is only deserialized from the bytes the
+ * first time it is requested. A packet is published to other threads, such as
+ * the subscribers of PacketIn events, so the frame is deserialized once under
+ * the packet's lock and both fields are volatile: the frame is always set
+ * before the bytes are cleared by {@link #markModified()}. The equals(),
+ * hashCode() and toString() methods don't deserialize the frame.
+ *
  * @see FlowMatch
  */
 public class Packet {
@@ -50,23 +67,80 @@ public class Packet {
     private FlowMatch match;
     private Long userData;
     private Reason reason;
-    private Ethernet eth;
+    private volatile Ethernet eth;
+    private volatile byte[] data;
 
     // user field used by midolman packet pipeline to track time statistics,
     // ignored in equals() and hashCode()
     public long startTimeNanos = 0;
 
     public Packet(Ethernet eth, FlowMatch match) {
+        this(eth, match, null);
+    }
+
+    /**
+     * Creates a packet whose Ethernet frame was deserialized from the given
+     * bytes. The bytes must not be modified afterwards.
+     */
+    public Packet(Ethernet eth, FlowMatch match, byte[] data) {
         this.eth = eth;
         this.match = match;
+        this.data = data;
+    }
+
+    /**
+     * Creates a packet received from the datapath, whose Ethernet frame is
+     * deserialized from the given bytes when first requested. The bytes must
+     * hold a frame that {@link Ethernet#deserialize(byte[])} accepts, and must
+     * not be modified afterwards.
+     */
+    public Packet(FlowMatch match, byte[] data) {
+        this(null, match, data);
     }
 
     public Ethernet getEthernet() {
+        Ethernet e = eth;
+        return (e != null) ? e : deserialize();
+    }
+
+    private synchronized Ethernet deserialize() {
+        if (eth == null && data != null) {
+            try {
+                eth = Ethernet.deserialize(data);
+            } catch (MalformedPacketException e) {
+                throw new IllegalStateException(
+                    "Malformed packet received from the datapath", e);
+            }
+        }
         return eth;
     }
 
+    /**
+     * Returns the bytes of the packet: the bytes received from the datapath,
+     * if the Ethernet frame has not been modified, or its serialization.
+     */
     public byte[] getData() {
-        return eth.serialize();
+        byte[] d = data;
+        return (d != null) ? d : getEthernet().serialize();
+    }
+
+    /* The bytes of the frame, without deserializing it, or null if the
+     * packet has no frame. */
+    private byte[] frameBytes() {
+        byte[] d = data;
+        if (d != null)
+            return d;
+        Ethernet e = eth;
+        return (e != null) ? e.serialize() : null;
+    }
+
+    /**
+     * Signals that the Ethernet frame of this packet was modified in place,
+     * so that its bytes are obtained by serializing it.
+     */
+    public void markModified() {
+        getEthernet();
+        data = null;
     }
 
     public FlowMatch getMatch() {
@@ -98,7 +172,7 @@ public class Packet {
         @SuppressWarnings("unchecked")
         Packet that = (Packet) o;
 
-        return Objects.equals(this.eth, that.eth)
+        return Arrays.equals(this.frameBytes(), that.frameBytes())
             && Objects.equals(this.match, that.match)
             && Objects.equals(this.userData, that.userData)
             && (this.reason == that.reason);
@@ -106,7 +180,7 @@ public class Packet {
 
     @Override
     public int hashCode() {
-        int result = Objects.hashCode(eth);
+        int result = Arrays.hashCode(frameBytes());
         result = 31 * result + Objects.hashCode(match);
         result = 31 * result + Objects.hashCode(userData);
         result = 31 * result + Objects.hashCode(reason);
@@ -115,8 +189,10 @@ public class Packet {
 
     @Override
     public String toString() {
+        Ethernet e = eth;
+        byte[] d = data;
         return "Packet{" +
-            "data=" + eth +
+            "data=" + ((e != null || d == null) ? e : d.length + " bytes") +
             ", match=" + match +
             ", userData=" + userData +
             ", reason=" + reason +
@@ -17,6 +17,7 @@ package org.midonet.odp.flows;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
@@ -27,6 +28,7 @@ import org.midonet.netlink.Writer;
 import org.midonet.odp.OpenVSwitch.FlowKey.Attr;
 import org.midonet.packets.ARP;
 import org.midonet.packets.Ethernet;
+import org.midonet.packets.HeaderCursor;
 import org.midonet.packets.ICMP;
 import org.midonet.packets.IPacket;
 import org.midonet.packets.IPv4;
@@ -335,6 +337,26 @@ public class FlowKeys {
         }
     }
 
+    /**
+     * Same as {@link #addUserspaceKeys(Ethernet, ArrayList)}, but reading the
+     * ICMP header from a cursor over the bytes of the frame, so that the
+     * Ethernet object tree needs not be built.
+     */
+    public static void addUserspaceKeys(HeaderCursor cursor, byte[] data,
+                                        ArrayList<FlowKey> keys) {
+        for (int i = 0; i < keys.size(); ++i) {
+            if (keys.get(i) instanceof FlowKeyICMP) {
+                if (!cursor.isIcmp())
+                    return;
+                FlowKey icmpUserSpace = makeIcmpFlowKey(cursor, data);
+                if (icmpUserSpace != null) {
+                    keys.set(i, icmpUserSpace);
+                }
+                return;
+            }
+        }
+    }
+
     public static void buildFrom(ByteBuffer buf, final ArrayList<FlowKey> flowKeys) {
         NetlinkMessage.scanAttributes(buf, new AttributeHandler() {
             @Override
@@ -444,4 +466,28 @@ public class FlowKeys {
                 return null;
         }
     }
+
+    private static FlowKey makeIcmpFlowKey(HeaderCursor cursor, byte[] data) {
+        switch (cursor.getIcmpType()) {
+            case ICMP.TYPE_ECHO_REPLY:
+            case ICMP.TYPE_ECHO_REQUEST:
+                return icmpEcho(cursor.getIcmpType(),
+                                cursor.getIcmpCode(),
+                                cursor.getIcmpIdentifier());
+            case ICMP.TYPE_PARAMETER_PROBLEM:
+            case ICMP.TYPE_REDIRECT:
+            case ICMP.TYPE_SOURCE_QUENCH:
+            case ICMP.TYPE_TIME_EXCEEDED:
+            case ICMP.TYPE_UNREACH:
+                int from = cursor.getPayloadOffset();
+                return icmpError(cursor.getIcmpType(),
+                                 cursor.getIcmpCode(),
+                                 from < data.length
+                                     ? Arrays.copyOfRange(data, from,
+                                                          data.length)
+                                     : null);
+            default:
+                return null;
+        }
+    }
 }
@@ -280,6 +280,20 @@ public class MockOvsDatapathConnection extends OvsDatapathConnection {
         callback.onSuccess(flows);
     }
 
+    @Override
+    protected void _doFlowsDump(Datapath datapath,
+                                @Nonnull BatchCollector<Flow> collector,
+                                @Nonnull Callback<Integer> callback,
+                                long timeoutMillis) {
+        int count = 0;
+        for (Flow flow : flowsTable.values()) {
+            collector.submit(flow);
+            count++;
+        }
+        collector.endBatch();
+        callback.onSuccess(count);
+    }
+
     @Override
     protected void _doFlowsCreate(@Nonnull Datapath datapath, @Nonnull Flow flow, Callback<Flow> callback, long timeout) {
         flow.setLastUsedTime(System.currentTimeMillis());
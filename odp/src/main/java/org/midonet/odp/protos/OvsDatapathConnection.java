@@ -486,6 +486,30 @@ public abstract class OvsDatapathConnection extends AbstractNetlinkConnection {
                                               @Nonnull final Callback<Set<Flow>> callback,
                                               long timeoutMillis);
 
+    /**
+     * Callback based api for dumping flows. Unlike flowsEnumerate, the flows
+     * are not collected in a set: each one is handed to the collector as soon
+     * as it is read, in the thread reading the replies, and the collector
+     * batch ends when the dump is complete.
+     *
+     * @param datapath      the datapath whose flows are dumped.
+     * @param collector     the collector that receives the dumped flows.
+     * @param callback      the callback that will receive the number of
+     *                      dumped flows, after the collector batch ends.
+     * @param timeoutMillis the timeout we are willing to wait for response.
+     */
+    public void flowsDump(@Nonnull final Datapath datapath,
+                          @Nonnull final BatchCollector<Flow> collector,
+                          @Nonnull final Callback<Integer> callback,
+                          long timeoutMillis) {
+        _doFlowsDump(datapath, collector, callback, timeoutMillis);
+    }
+
+    protected abstract void _doFlowsDump(Datapath datapath,
+                                         @Nonnull BatchCollector<Flow> collector,
+                                         @Nonnull Callback<Integer> callback,
+                                         long timeoutMillis);
+
     /**
      * Callback based api for for flushing all the flows belonging to a datapath.
      *
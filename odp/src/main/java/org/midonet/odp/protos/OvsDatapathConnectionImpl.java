@@ -16,7 +16,6 @@
 package org.midonet.odp.protos;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -44,7 +43,7 @@ import org.midonet.odp.family.PacketFamily;
 import org.midonet.odp.flows.FlowAction;
 import org.midonet.odp.flows.FlowKey;
 import org.midonet.odp.flows.FlowKeys;
-import org.midonet.packets.Ethernet;
+import org.midonet.packets.HeaderCursor;
 import org.midonet.util.BatchCollector;
 
 /**
@@ -71,20 +70,20 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
 
     static class PacketBuilder implements AttributeHandler {
         private ArrayList<FlowKey> keys = new ArrayList<>(16);
-        private Ethernet eth;
+        private byte[] data;
         private Long userData;
 
         public Packet buildFrom(ByteBuffer buf) {
             int datapathIndex = buf.getInt(); // ignored
             NetlinkMessage.scanAttributes(buf, this);
-            if (eth == null) {
+            if (data == null) {
                 keys.clear();
                 return null;
             }
-            FlowKeys.addUserspaceKeys(eth, keys);
-            Packet p = new Packet(eth, new FlowMatch(keys));
+            FlowKeys.addUserspaceKeys(HeaderCursor.get(), data, keys);
+            Packet p = new Packet(new FlowMatch(keys), data);
             p.setUserData(userData);
-            eth = null;
+            data = null;
             keys.clear();
             userData = null;
             return p;
@@ -94,15 +93,17 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
         public void use(ByteBuffer buffer, short id) {
             switch(NetlinkMessage.unnest(id)) {
                 case OpenVSwitch.Packet.Attr.Packet:
-                    ByteOrder originalOrder = buffer.order();
                     try {
-                        eth = new Ethernet();
-                        eth.deserialize(buffer);
+                        // Keep the bytes of the packet, which are sent back
+                        // as they are when executing it. The headers are
+                        // read in place, and the Ethernet frame is only
+                        // deserialized from the bytes if requested.
+                        HeaderCursor.get().parse(buffer);
+                        data = new byte[buffer.remaining()];
+                        buffer.get(data);
                     } catch (Exception e) {
                         log.warn("Dropping malformed packet", e);
-                        this.eth = null;
-                    } finally {
-                        buffer.order(originalOrder);
+                        this.data = null;
                     }
                     break;
 
@@ -333,6 +334,26 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
                                       timeoutMillis);
     }
 
+    @Override
+    protected void _doFlowsDump(@Nonnull Datapath datapath,
+                                @Nonnull BatchCollector<Flow> collector,
+                                @Nonnull Callback<Integer> callback,
+                                long timeoutMillis) {
+        int datapathId = datapath.getIndex();
+
+        if (datapathId == 0) {
+            callback.onError(
+                new OvsDatapathInvalidParametersException(
+                    "The datapath to dump flows for needs a valid datapath id"));
+            return;
+        }
+
+        ByteBuffer buf = getBuffer();
+        protocol.prepareFlowEnum(datapathId, buf);
+        sendStreamingNetlinkMessage(buf, callback, Flow.deserializer, collector,
+                                    timeoutMillis);
+    }
+
     @Override
     protected void _doFlowsCreate(@Nonnull final Datapath datapath,
                                   @Nonnull final Flow flow,
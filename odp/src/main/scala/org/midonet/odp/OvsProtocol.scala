@@ -187,7 +187,14 @@ sealed class OvsProtocol(pid: Int,
     }
 
     def preparePacketExecute(datapathId: Int, packet: Packet, actions: JList[FlowAction],
-                             buf: ByteBuffer): Unit = {
+                             buf: ByteBuffer): Unit =
+        preparePacketExecute(datapathId, packet, packet.getData, actions, buf)
+
+    /** Prepares the execution of a packet with the given bytes, as returned
+      * by packet.getData, which avoids serializing the packet when it comes
+      * from the datapath and has not been modified. */
+    def preparePacketExecute(datapathId: Int, packet: Packet, data: Array[Byte],
+                             actions: JList[FlowAction], buf: ByteBuffer): Unit = {
         import org.midonet.odp.OpenVSwitch.Packet.Attr
 
         val message = messageFor(buf, datapathId, packetFamily.contextExec)
@@ -199,7 +206,7 @@ sealed class OvsProtocol(pid: Int,
         // only the expected difference.
         NetlinkMessage.writeAttrSeq(buf, Attr.Key, packet.getMatch.getKeys, FlowKeys.writer)
         NetlinkMessage.writeAttrSeq(buf, Attr.Actions, actions, FlowActions.writer)
-        NetlinkMessage.writeRawAttribute(buf, Attr.Packet, packet.getEthernet.serialize())
+        NetlinkMessage.writeRawAttribute(buf, Attr.Packet, data)
 
         message.finalize(pid)
     }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp
+
+import java.util.{ArrayList, LinkedHashMap}
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations._
+
+import org.midonet.odp.flows.FlowKey
+import org.midonet.packets.Ethernet
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{IPv4Addr, MAC}
+
+/**
+ * Measures the creation of flow matches from the keys of an upcall and from
+ * an ethernet frame, their hashing, and lookups in a table keyed by flow
+ * matches like the FlowManager's dpFlowTable.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class FlowMatchBenchmark {
+
+    @Param(Array("10000", "100000"))
+    var flows: Int = _
+
+    val samples = 1024
+
+    var keys: Array[ArrayList[FlowKey]] = _
+    var frames: Array[Ethernet] = _
+    var matches: Array[FlowMatch] = _
+    val dpFlowTable = new LinkedHashMap[FlowMatch, AnyRef]()
+    var index = 0
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        val random = new Random(1234)
+        frames = Array.fill(samples) {
+            ({ eth src MAC.random() dst MAC.random() } <<
+             { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+             { tcp src random.nextInt(65536) dst 80 }).packet
+        }
+        keys = frames map { frame =>
+            FlowMatches.fromEthernetPacket(frame).getKeys
+        }
+        matches = keys map { k =>
+            val m = new FlowMatch(k)
+            m.setInputPortNumber(random.nextInt(16))
+            m
+        }
+        for (i <- 0 until flows) {
+            val m = if (i < samples) matches(i).clone()
+                    else FlowMatches.generateFlowMatch(random.self)
+            dpFlowTable.put(m, m)
+        }
+    }
+
+    private def next(): Int = {
+        index = (index + 1) & (samples - 1)
+        index
+    }
+
+    @Benchmark
+    def createFromKeys(): FlowMatch = new FlowMatch(keys(next()))
+
+    @Benchmark
+    def createFromEthernet(): FlowMatch =
+        FlowMatches.fromEthernetPacket(frames(next()))
+
+    @Benchmark
+    def hash(): Int = {
+        val m = matches(next())
+        m.setInputPortNumber(m.getInputPortNumber) // invalidates the cache
+        m.hashCode()
+    }
+
+    @Benchmark
+    def dpFlowTableLookup(): AnyRef = {
+        val m = matches(next())
+        m.setInputPortNumber(m.getInputPortNumber)
+        dpFlowTable.get(m)
+    }
+}
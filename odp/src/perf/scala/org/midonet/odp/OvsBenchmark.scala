@@ -16,6 +16,7 @@
 
 package org.midonet.odp
 
+import java.nio.ByteBuffer
 import java.util.concurrent.{ThreadLocalRandom, TimeUnit}
 
 import scala.collection.JavaConversions._
@@ -24,9 +25,10 @@ import scala.concurrent.{Await, ExecutionContext}
 
 import org.openjdk.jmh.annotations._
 
-import org.midonet.netlink.{NetlinkChannel, NetlinkWriter, NetlinkChannelFactory, BytesUtil}
+import org.midonet.netlink.{BytesUtil, NetlinkBatchWriter, NetlinkChannel,
+                            NetlinkChannelFactory, NetlinkWriter}
 import org.midonet.odp.flows._
-import org.midonet.odp.OvsBenchmark.{FlowHolder, ChannelHolder}
+import org.midonet.odp.OvsBenchmark._
 import org.midonet.odp.ports.NetDevPort
 import org.midonet.odp.util.TapWrapper
 import org.midonet.packets.util.PacketBuilder._
@@ -82,6 +84,72 @@ object OvsBenchmark {
             protocol.prepareFlowCreate(0, false, flow, flowBuf)
         }
     }
+
+    /**
+     * Writes the messages prepared in its buffers in batches of the given
+     * size, with a single write per batch. A batch size of 1 corresponds to
+     * writing each message separately.
+     */
+    @State(Scope.Thread)
+    class BatchHolder {
+        @Param(Array("1", "16", "64"))
+        var batchSize: Int = _
+
+        var channel: NetlinkChannel = _
+        var protocol: OvsProtocol = _
+        var writer: NetlinkBatchWriter = _
+        var bufs: Array[ByteBuffer] = _
+        var index = 0
+
+        @Setup
+        def createBatchWriter(): Unit = {
+            channel = new NetlinkChannelFactory().create(blocking = true)
+            protocol = new OvsProtocol(channel.getLocalAddress.getPid,
+                                       OvsBenchmark.families)
+            writer = new NetlinkBatchWriter(channel, maxMessages = batchSize,
+                                            maxBytes = Int.MaxValue)
+            bufs = Array.fill(batchSize)(BytesUtil.instance.allocateDirect(4 * 1024))
+        }
+
+        @TearDown
+        def destroyCon(): Unit =
+            channel.close()
+
+        def next: ByteBuffer = bufs(index)
+
+        def write(): Int = {
+            writer.add(bufs(index))
+            index += 1
+            if (index == batchSize) {
+                index = 0
+                writer.flush()
+            } else {
+                0
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    class FlowBatchHolder extends BatchHolder {
+        val rand = ThreadLocalRandom.current()
+        val ethKey = new FlowKeyEthernet(new Array[Byte](6), new Array[Byte](6))
+        val flow = new Flow(
+            new FlowMatch(List(
+                new FlowKeyInPort(0),
+                ethKey,
+                new FlowKeyIPv4(rand.nextInt(), rand.nextInt(), TCP.PROTOCOL_NUMBER,
+                                0, -1, 0),
+                new FlowKeyTCP(rand.nextInt() & 0xffff, rand.nextInt() & 0xffff))),
+            List(FlowActions.output(1)))
+
+        @Setup(Level.Invocation)
+        def setup(): Unit = {
+            rand.nextBytes(ethKey.eth_src)
+            rand.nextBytes(ethKey.eth_dst)
+            next.clear()
+            protocol.prepareFlowCreate(0, false, flow, next)
+        }
+    }
 }
 
 @BenchmarkMode(Array(Mode.AverageTime))
@@ -149,3 +217,49 @@ class ConcurrentFlowCreate4 extends FlowCreate
 
 @Threads(8)
 class ConcurrentFlowCreate8 extends FlowCreate
+
+/**
+ * Measures the packets executed and the flows created per second when their
+ * messages are written in batches, as the datapath output threads do.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class BatchedPacketExecute extends OvsBenchmark {
+
+    @Param(Array("1", "16", "64"))
+    var batchSize: Int = _
+
+    val batch = new BatchHolder
+
+    @Setup
+    def createPackets(): Unit = {
+        batch.batchSize = batchSize
+        batch.createBatchWriter()
+        val payload = ({ eth src MAC.random dst MAC.random } <<
+                       { ip4 src IPv4Addr.random dst IPv4Addr.random} <<
+                       { tcp src 80 dst 1001 }).packet
+        val wcmatch = FlowMatches.fromEthernetPacket(payload)
+        val pkt = new Packet(payload, wcmatch)
+        val actions = List[FlowAction](FlowActions.output(port.getPortNo))
+        batch.bufs foreach { buf =>
+            batch.protocol.preparePacketExecute(datapath.getIndex, pkt, actions, buf)
+        }
+    }
+
+    @TearDown
+    def destroyBatch(): Unit =
+        batch.destroyCon()
+
+    @Benchmark
+    def packetExecute(): Int =
+        batch.write()
+}
+
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+class BatchedFlowCreate extends OvsBenchmark {
+
+    @Benchmark
+    def createFlow(holder: FlowBatchHolder): Int =
+        holder.write()
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp
+
+import java.nio.ByteBuffer
+import java.util.{ArrayList, List => JList}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+import org.midonet.netlink.BytesUtil
+import org.midonet.odp.family.{DatapathFamily, FlowFamily, PacketFamily, PortFamily}
+import org.midonet.odp.flows.{FlowAction, FlowActions}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
+
+/**
+ * Measures the preparation of the netlink message that executes a packet,
+ * as done by the DatapathChannel for every packet sent back to the datapath,
+ * for packets that keep the bytes of the upcall and for packets that must be
+ * serialized, at different frame sizes.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class PacketExecuteBenchmark {
+
+    @Param(Array("64", "1500", "9000"))
+    var frameSize: Int = _
+
+    val protocol = new OvsProtocol(0, new OvsNetlinkFamilies(
+        new DatapathFamily(0), new PortFamily(0), new FlowFamily(0),
+        new PacketFamily(0), 0, 0))
+
+    var fromUpcall: Packet = _
+    var generated: Packet = _
+    val actions: JList[FlowAction] = new ArrayList[FlowAction]()
+    var buf: ByteBuffer = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        // Ethernet, IPv4 and TCP headers take 54 bytes.
+        val frame: Ethernet = { eth src MAC.random() dst MAC.random() } <<
+                              { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+                              { tcp src 80 dst 1001 } <<
+                              payload(new Array[Byte](frameSize - 54))
+        val fmatch = FlowMatches.fromEthernetPacket(frame)
+        fromUpcall = new Packet(frame, fmatch, frame.serialize())
+        generated = new Packet(frame, fmatch)
+        actions.add(FlowActions.output(1))
+        buf = BytesUtil.instance.allocateDirect(frameSize + 4 * 1024)
+    }
+
+    private def execute(packet: Packet): ByteBuffer = {
+        buf.clear()
+        protocol.preparePacketExecute(0, packet, packet.getData, actions, buf)
+        buf
+    }
+
+    @Benchmark
+    def executeFromUpcall(): ByteBuffer = execute(fromUpcall)
+
+    @Benchmark
+    def executeSerialized(): ByteBuffer = execute(generated)
+}
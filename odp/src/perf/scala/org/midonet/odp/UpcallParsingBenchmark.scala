@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp
+
+import java.nio.ByteBuffer
+import java.util.ArrayList
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+
+import org.midonet.netlink.BytesUtil
+import org.midonet.odp.flows.{FlowKey, FlowKeys}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, HeaderCursor, IPv4Addr, MAC}
+
+/**
+ * Compares the parsing of an upcalled frame into the Ethernet object tree,
+ * as done before building the packet, with reading its headers through a
+ * HeaderCursor, for TCP, UDP, ARP and VLAN tagged frames.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class UpcallParsingBenchmark {
+
+    @Param(Array("tcp", "udp", "arp", "vlan"))
+    var frameType: String = _
+
+    var data: Array[Byte] = _
+    var keys: ArrayList[FlowKey] = _
+    var buf: ByteBuffer = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        val macs = MacPair(MAC.random(), MAC.random())
+        val ips = Ip4Pair(IPv4Addr.random, IPv4Addr.random)
+        val frame: Ethernet = frameType match {
+            case "tcp" =>
+                { eth addr macs } << { ip4 addr ips } <<
+                { tcp src 80 dst 1001 } << payload(new Array[Byte](64))
+            case "udp" =>
+                { eth addr macs } << { ip4 addr ips } <<
+                { udp src 5353 dst 53 } << payload(new Array[Byte](64))
+            case "arp" =>
+                { eth addr macs } << { arp.req mac macs ip ips }
+            case "vlan" =>
+                { eth addr macs vlan 10 } << { ip4 addr ips } <<
+                { tcp src 80 dst 1001 } << payload(new Array[Byte](64))
+        }
+        data = frame.serialize()
+        keys = FlowKeys.fromEthernetPacket(frame)
+        buf = BytesUtil.instance.allocateDirect(data.length)
+        buf.put(data).flip()
+    }
+
+    @Benchmark
+    def objectTree(): Ethernet = {
+        buf.rewind()
+        val eth = new Ethernet()
+        eth.deserialize(buf)
+        FlowKeys.addUserspaceKeys(eth, keys)
+        eth
+    }
+
+    @Benchmark
+    def headerCursor(): HeaderCursor = {
+        buf.rewind()
+        val cursor = HeaderCursor.get().parse(buf)
+        FlowKeys.addUserspaceKeys(cursor, data, keys)
+        cursor
+    }
+}
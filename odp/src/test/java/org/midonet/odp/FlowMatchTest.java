@@ -29,7 +29,9 @@ import org.midonet.packets.Ethernet;
 import org.midonet.packets.ICMP;
 import org.midonet.packets.IPv4;
 import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv6Addr;
 import org.midonet.packets.MAC;
+import org.midonet.packets.TCP;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -414,4 +416,110 @@ public class FlowMatchTest {
         m.getNetworkTTL();
         assertEquals(m.highestLayerSeen(), 4);
     }
+    @Test
+    public void testMatchFromKeysEqualsMatchFromFields() {
+        FlowMatch fromKeys = FlowMatches.tcpFlow(
+            "02:aa:dd:dd:aa:01", "02:bb:ee:ee:ff:01",
+            "192.168.100.2", "192.168.100.3",
+            40000, 50000, 0);
+        FlowMatch fromFields = new FlowMatch()
+            .setEthSrc("02:aa:dd:dd:aa:01")
+            .setEthDst(MAC.fromString("02:bb:ee:ee:ff:01").asLong())
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString("192.168.100.2"))
+            .setNetworkDstIPv4(IPv4Addr.fromString("192.168.100.3").toInt())
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setNetworkTOS((byte) 0)
+            .setNetworkTTL((byte) 0)
+            .setIpFragmentType(IPFragmentType.None)
+            .setSrcPort(40000)
+            .setDstPort(50000);
+
+        assertEquals(fromKeys.getUsedFields(), fromFields.getUsedFields());
+        assertEquals(fromKeys, fromFields);
+        assertEquals(fromFields, fromKeys);
+        assertEquals(fromKeys.hashCode(), fromFields.hashCode());
+        assertEquals(fromKeys.connectionHash(), fromFields.connectionHash());
+        assertEquals(5, fromKeys.getKeys().size());
+        assertTrue(fromFields.getKeys().isEmpty());
+
+        fromFields.setDstPort(50001);
+        assertFalse(fromKeys.equals(fromFields));
+        fromFields.setDstPort(50000);
+        fromFields.setNetworkSrc(IPv4Addr.fromString("192.168.100.4"));
+        assertFalse(fromKeys.equals(fromFields));
+    }
+
+    @Test
+    public void testAddressViews() {
+        FlowMatch m = new FlowMatch();
+        MAC mac = MAC.fromString("02:aa:dd:dd:aa:01");
+        m.setEthSrc(mac.asLong());
+        assertEquals(mac, m.getEthSrc());
+        assertTrue(m.getEthSrc() == m.getEthSrc());
+        assertEquals(mac.asLong(), m.getEthSrcAsLong());
+        m.setEthSrc(MAC.fromString("02:aa:dd:dd:aa:02"));
+        assertEquals(MAC.fromString("02:aa:dd:dd:aa:02"), m.getEthSrc());
+        assertEquals(null, m.getEthDst());
+
+        IPv4Addr ip4 = IPv4Addr.fromString("10.0.0.1");
+        m.setNetworkSrcIPv4(ip4.toInt());
+        assertEquals(ip4, m.getNetworkSrcIP());
+        assertEquals(ip4.toInt(), m.getNetworkSrcIPv4());
+
+        IPv6Addr ip6 = IPv6Addr.fromString("fe80::1:2:3:4");
+        m.setNetworkSrc(ip6);
+        assertEquals(ip6, m.getNetworkSrcIP());
+        FlowMatch other = new FlowMatch()
+            .setEthSrc(MAC.fromString("02:aa:dd:dd:aa:02"))
+            .setNetworkSrcIPv6(ip6.upperWord(), ip6.lowerWord());
+        assertEquals(m, other);
+        assertEquals(m.hashCode(), other.hashCode());
+        other.setNetworkSrcIPv4((int) ip6.lowerWord());
+        assertFalse(m.equals(other));
+    }
+
+    @Test
+    public void testVlanIds() {
+        FlowMatch m = new FlowMatch();
+        m.addVlanId((short) 10).addVlanId((short) 20).addVlanId((short) 30);
+        assertEquals(3, m.getVlanCount());
+        assertEquals(java.util.Arrays.asList((short) 10, (short) 20, (short) 30),
+                     m.getVlanIds());
+        assertEquals(20, m.getVlanId(1));
+
+        FlowMatch copy = m.clone();
+        assertEquals(m, copy);
+        assertEquals(m.hashCode(), copy.hashCode());
+
+        m.removeVlanId((short) 20);
+        assertEquals(java.util.Arrays.asList((short) 10, (short) 30),
+                     m.getVlanIds());
+        assertFalse(m.equals(copy));
+        m.removeVlanId((short) 10);
+        m.removeVlanId((short) 30);
+        assertTrue(m.getVlanIds().isEmpty());
+        assertFalse(m.isUsed(FlowMatch.Field.VlanId));
+        assertEquals(3, copy.getVlanCount());
+    }
+
+    @Test
+    public void testResetAndClear() {
+        FlowMatch m = FlowMatches.tcpFlow(
+            "02:aa:dd:dd:aa:01", "02:bb:ee:ee:ff:01",
+            "192.168.100.2", "192.168.100.3",
+            40000, 50000, 0);
+        FlowMatch copy = new FlowMatch();
+        copy.reset(m);
+        assertEquals(m, copy);
+        assertEquals(m.getKeys(), copy.getKeys());
+        assertEquals(m.getNetworkDstIP(), copy.getNetworkDstIP());
+
+        copy.clear();
+        assertEquals(0L, copy.getUsedFields());
+        assertEquals(null, copy.getEthSrc());
+        assertEquals(null, copy.getNetworkSrcIP());
+        assertTrue(copy.getKeys().isEmpty());
+        assertEquals(5, m.getKeys().size());
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.odp
+
+import java.nio.ByteBuffer
+import java.util.ArrayList
+
+import org.junit.runner.RunWith
+import org.scalatest.{FeatureSpec, Matchers}
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.odp.flows.{FlowKey, FlowKeys}
+import org.midonet.packets._
+import org.midonet.packets.util.PacketBuilder._
+
+@RunWith(classOf[JUnitRunner])
+class UpcallPacketTest extends FeatureSpec with Matchers {
+
+    private val srcMac = MAC.random()
+    private val dstMac = MAC.random()
+    private val culpritPacket: IPv4 =
+        { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+        { udp ports 5353 ---> 53 } << payload("culprit")
+
+    /* Replaces the ICMP key computed by the kernel with the userspace key
+     * read by a cursor over the bytes of the frame. */
+    private def userspaceKey(frame: Ethernet): FlowKey = {
+        val data = frame.serialize()
+        val keys = new ArrayList[FlowKey]()
+        keys.add(FlowKeys.icmp(0, 0))
+        FlowKeys.addUserspaceKeys(
+            HeaderCursor.get().parse(ByteBuffer.wrap(data)), data, keys)
+        keys.get(0)
+    }
+
+    private def checkUserspaceKey(icmpPacket: ICMP): Unit = {
+        val frame: Ethernet =
+            { eth addr srcMac -> dstMac } <<
+            { ip4 src IPv4Addr.random dst IPv4Addr.random } << icmpPacket
+        userspaceKey(frame) shouldBe FlowKeys.makeIcmpFlowKey(icmpPacket)
+    }
+
+    feature("The userspace keys are read from the bytes of the frame") {
+        scenario("An ICMP echo request") {
+            checkUserspaceKey({ icmp.echo.request id 42.toShort })
+        }
+
+        scenario("An ICMP unreachable error") {
+            checkUserspaceKey({ icmp.unreach.host culprit culpritPacket })
+        }
+
+        scenario("An ICMP error without data") {
+            val error = new ICMP()
+            error.setType(ICMP.TYPE_UNREACH,
+                          ICMP.UNREACH_CODE.UNREACH_HOST.toByte, null)
+            checkUserspaceKey(error)
+        }
+    }
+
+    feature("The frame of an upcalled packet is deserialized when requested") {
+        scenario("The frame is deserialized from the bytes") {
+            val frame: Ethernet = { eth addr srcMac -> dstMac } <<
+                                  { ip4 src IPv4Addr.random } <<
+                                  { tcp ports 80 ---> 1001 }
+            val data = frame.serialize()
+            val packet = new Packet(FlowMatches.fromEthernetPacket(frame), data)
+
+            packet.getData should be theSameInstanceAs data
+            packet.getEthernet shouldBe frame
+            packet.getEthernet should be theSameInstanceAs packet.getEthernet
+            packet shouldBe new Packet(frame, packet.getMatch, data)
+        }
+
+        scenario("The bytes are serialized after a modification") {
+            val frame: Ethernet = { eth addr srcMac -> dstMac } <<
+                                  { ip4 src IPv4Addr.random } <<
+                                  { udp ports 5353 ---> 53 }
+            val packet = new Packet(FlowMatches.fromEthernetPacket(frame),
+                                    frame.serialize())
+
+            packet.getEthernet.setSourceMACAddress(MAC.random())
+            packet.markModified()
+
+            packet.getData shouldBe packet.getEthernet.serialize()
+        }
+
+        scenario("A packet equals the same frame built by the agent") {
+            val frame: Ethernet = { eth addr srcMac -> dstMac } <<
+                                  { ip4 src IPv4Addr.random } <<
+                                  { udp ports 5353 ---> 53 }
+            val fmatch = FlowMatches.fromEthernetPacket(frame)
+            val upcalled = new Packet(fmatch, frame.serialize())
+            val built = new Packet(frame, fmatch)
+
+            upcalled shouldBe built
+            upcalled.hashCode shouldBe built.hashCode
+            upcalled.toString should include ("bytes")
+        }
+
+        scenario("The frame is deserialized once across threads") {
+            val frame: Ethernet = { eth addr srcMac -> dstMac } <<
+                                  { ip4 src IPv4Addr.random } <<
+                                  { tcp ports 80 ---> 1001 }
+            val packet = new Packet(FlowMatches.fromEthernetPacket(frame),
+                                    frame.serialize())
+            val frames = new Array[Ethernet](8)
+            val threads = Array.tabulate(frames.length) { i =>
+                new Thread() {
+                    override def run(): Unit = frames(i) = packet.getEthernet
+                }
+            }
+            threads foreach (_.start())
+            packet.markModified()
+            threads foreach (_.join())
+
+            frames foreach { _ should be theSameInstanceAs packet.getEthernet }
+        }
+    }
+}